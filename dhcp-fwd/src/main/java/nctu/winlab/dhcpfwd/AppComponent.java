@@ -15,6 +15,7 @@
  */
 package nctu.winlab.dhcpfwd;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -22,27 +23,86 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.UDP;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.edge.EdgePortListener;
+import org.onosproject.net.edge.EdgePortService;
 import org.onosproject.net.config.ConfigFactory;
 import org.onosproject.net.config.NetworkConfigEvent;
 import org.onosproject.net.config.NetworkConfigListener;
 import org.onosproject.net.config.NetworkConfigRegistry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.PacketPriority;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
+import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.config.basics.SubjectFactories.APP_SUBJECT_FACTORY;
 
 /**
  * Skeletal ONOS application component.
  */
 @Component(immediate = true)
-public class AppComponent {
+@Service
+public class AppComponent implements DhcpRelayService {
+
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 1000;
+    private static final long BINDING_EXPIRY_INTERVAL_MILLIS = 1000;
+    private static final long RATE_LIMIT_SWEEP_MILLIS = 1000;
+
+    private static final int PORT_RATE = 100;
+    private static final int PORT_BURST = 200;
+    private static final int CLIENT_RATE = 10;
+    private static final int CLIENT_BURST = 20;
+    private static final int BLOCK_SECONDS = 60;
+    private static final int BLOCK_PRIORITY = PacketPriority.CONTROL.priorityValue() + 1;
+    private static final int PATH_PRIORITY = PacketPriority.CONTROL.priorityValue();
+
+    /** DHCP messages from clients, intercepted on every device. */
+    static final TrafficSelector CLIENT_SELECTOR = DefaultTrafficSelector.builder()
+            .matchEthType(Ethernet.TYPE_IPV4)
+            .matchIPProtocol(IPv4.PROTOCOL_UDP)
+            .matchUdpSrc(TpPort.tpPort(UDP.DHCP_CLIENT_PORT))
+            .matchUdpDst(TpPort.tpPort(UDP.DHCP_SERVER_PORT))
+            .build();
+
+    /** DHCP messages from servers, intercepted on server devices only. */
+    static final TrafficSelector SERVER_SELECTOR = DefaultTrafficSelector.builder()
+            .matchEthType(Ethernet.TYPE_IPV4)
+            .matchIPProtocol(IPv4.PROTOCOL_UDP)
+            .matchUdpSrc(TpPort.tpPort(UDP.DHCP_SERVER_PORT))
+            .matchUdpDst(TpPort.tpPort(UDP.DHCP_CLIENT_PORT))
+            .build();
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -52,8 +112,25 @@ public class AppComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected NetworkConfigRegistry configService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected PacketService packetService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected TopologyService topologyService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected EdgePortService edgePortService;
+
     private final InternalNetworkConfigListener configListener
             = new InternalNetworkConfigListener();
+    private final TopologyListener topologyListener = event -> schedulePaths();
+    private final EdgePortListener edgePortListener = event -> schedulePaths();
 
     private final Set<ConfigFactory> factories = ImmutableSet.of(
             new ConfigFactory<ApplicationId, DhcpConfig>(APP_SUBJECT_FACTORY,
@@ -68,43 +145,244 @@ public class AppComponent {
 
     private ApplicationId appId;
 
-    private DeviceId dhcpDeviceId;
+    private volatile DhcpSnapshot snapshot = DhcpSnapshot.empty();
+
+    private DhcpServerPool serverPool;
+    private DhcpBindingTable bindings;
+    private DhcpRateLimiter rateLimiter;
+    private DhcpRelay relay;
+    private DhcpPathCompiler pathCompiler;
+
+    private ScheduledExecutorService timerExecutor;
+
+    private Set<DeviceId> serverDevices = ImmutableSet.of();
+    private boolean clientsIntercepted;
+
+    // Installed path rules, touched by the timer thread only
+    private final Map<FlowRule, FlowRule> pathRules = new HashMap<>();
+    private final AtomicBoolean pathsPending = new AtomicBoolean();
 
     @Activate
     protected void activate() {
         appId = coreService.registerApplication("nctu.winlab.dhcpfwd");
-        
+
+        serverPool = new DhcpServerPool(System.nanoTime());
+        bindings = new DhcpBindingTable(System.currentTimeMillis());
+        rateLimiter = new DhcpRateLimiter(PORT_RATE, PORT_BURST, CLIENT_RATE, CLIENT_BURST, BLOCK_SECONDS);
+        relay = new DhcpRelay(packetService, serverPool, bindings, rateLimiter);
+        timerExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("onos/dhcp-fwd", "timer", log));
+        timerExecutor.scheduleWithFixedDelay(() -> serverPool.sweep(System.nanoTime()),
+                                             HEALTH_CHECK_INTERVAL_MILLIS, HEALTH_CHECK_INTERVAL_MILLIS,
+                                             TimeUnit.MILLISECONDS);
+        timerExecutor.scheduleWithFixedDelay(() -> bindings.expire(System.currentTimeMillis()),
+                                             BINDING_EXPIRY_INTERVAL_MILLIS, BINDING_EXPIRY_INTERVAL_MILLIS,
+                                             TimeUnit.MILLISECONDS);
+        timerExecutor.scheduleWithFixedDelay(() -> rateLimiter.sweep(System.nanoTime()).forEach(this::blockPort),
+                                             RATE_LIMIT_SWEEP_MILLIS, RATE_LIMIT_SWEEP_MILLIS,
+                                             TimeUnit.MILLISECONDS);
+        pathCompiler = new DhcpPathCompiler(topologyService, deviceService, edgePortService);
+        packetService.addProcessor(relay, PacketProcessor.director(1));
+
+        topologyService.addListener(topologyListener);
+        edgePortService.addListener(edgePortListener);
         configService.addListener(configListener);
         factories.forEach(configService::registerConfigFactory);
 
+        getDeviceConfiguration(configService.getConfig(appId, DhcpConfig.class));
+
         log.info("Started");
     }
 
     @Deactivate
     protected void deactivate() {
         configService.removeListener(configListener);
+        edgePortService.removeListener(edgePortListener);
+        topologyService.removeListener(topologyListener);
         factories.forEach(configService::unregisterConfigFactory);
 
+        packetService.removeProcessor(relay);
+        timerExecutor.shutdownNow();
+        withdrawClientIntercepts();
+        withdrawServerIntercepts();
+        flowRuleService.removeFlowRulesById(appId);
+        pathRules.clear();
+
         log.info("Stopped");
     }
 
     private void getDeviceConfiguration(DhcpConfig dhcpConfig) {
         if (dhcpConfig == null) {
             log.info("No DHCP config available");
+            applyConfig(DhcpSnapshot.empty());
             return;
         }
 
-        Optional<DhcpConfig.DhcpServerConfig> dhcpServer = 
-            dhcpConfig.dhcpServers().stream().findAny();
+        // Parsed and validated on activation and on every config change; an
+        // invalid version leaves the previous servers in place
+        try {
+            applyConfig(dhcpConfig.snapshot());
+        }
+        catch (IllegalArgumentException e) {
+            log.error("Ignoring invalid DHCP config: {}", e.getMessage());
+        }
+    }
+
+    private void applyConfig(DhcpSnapshot config) {
+        snapshot = config;
+
+        List<ConnectPoint> servers = config.connectPoints();
+        relay.setServers(servers);
+        schedulePaths();
 
-        if(!dhcpServer.isPresent()){
+        if (config.mode() == DhcpSnapshot.Mode.PROACTIVE) {
+            // DHCP stays in the data plane; nothing is sent to the controller
+            withdrawClientIntercepts();
+            withdrawServerIntercepts();
+        }
+        else {
+            requestClientIntercepts();
+        }
+
+        if (servers.isEmpty()) {
+            withdrawServerIntercepts();
             log.error("DHCP server configuration is not found");
             return;
         }
 
-        dhcpDeviceId = dhcpServer.get().connectPoint().deviceId();
+        if (config.mode() == DhcpSnapshot.Mode.RELAY) {
+            requestServerIntercepts(servers.stream().map(ConnectPoint::deviceId).collect(Collectors.toSet()));
+        }
+
+        log.info("DHCP servers ({} mode): {}", config.mode(), servers);
+    }
+
+    /**
+     * Recomputes the path rules on the timer thread, coalescing the events
+     * that arrive while a recomputation is queued.
+     */
+    private void schedulePaths() {
+        if (pathsPending.compareAndSet(false, true)) {
+            timerExecutor.execute(() -> {
+                pathsPending.set(false);
+                try {
+                    programPaths(snapshot);
+                }
+                catch (RuntimeException e) {
+                    log.error("Failed to program DHCP paths", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Installs the path rules of a configuration and removes the ones no
+     * longer needed. Relay mode needs none.
+     */
+    private void programPaths(DhcpSnapshot config) {
+        List<FlowRule> rules = config.mode() == DhcpSnapshot.Mode.PROACTIVE
+                ? pathCompiler.compile(config, appId, PATH_PRIORITY) : ImmutableList.of();
+
+        // Rules compare equal regardless of their treatment
+        Map<FlowRule, FlowRule> stale = new HashMap<>(pathRules);
+        List<FlowRule> toApply = new ArrayList<>();
+        for (FlowRule rule : rules) {
+            FlowRule installed = stale.remove(rule);
+            if (installed == null || !installed.treatment().equals(rule.treatment())) {
+                toApply.add(rule);
+            }
+            pathRules.put(rule, rule);
+        }
+        stale.keySet().forEach(pathRules::remove);
+
+        if (!stale.isEmpty()) {
+            flowRuleService.removeFlowRules(stale.values().toArray(new FlowRule[0]));
+        }
+        if (!toApply.isEmpty()) {
+            flowRuleService.applyFlowRules(toApply.toArray(new FlowRule[0]));
+        }
+        if (!stale.isEmpty() || !toApply.isEmpty()) {
+            log.info("DHCP paths: {} rules installed, {} removed", toApply.size(), stale.size());
+        }
+    }
+
+    @Override
+    public DhcpSnapshot config() {
+        return snapshot;
+    }
+
+    @Override
+    public Map<ConnectPoint, DhcpServerStats> serverStats() {
+        return serverPool.stats(System.nanoTime());
+    }
+
+    @Override
+    public DhcpTransactionStats transactionStats() {
+        return serverPool.transactionStats();
+    }
+
+    @Override
+    public DhcpBinding binding(MacAddress mac) {
+        return bindings.get(mac);
+    }
+
+    @Override
+    public DhcpBindingStats bindingStats() {
+        return bindings.stats();
+    }
+
+    @Override
+    public Map<ConnectPoint, DhcpPortStats> portStats() {
+        return rateLimiter.stats(System.nanoTime());
+    }
+
+    /**
+     * Drops the DHCP client messages of a port on its switch. The rule
+     * goes away once the port stays quiet for the block time.
+     */
+    private void blockPort(ConnectPoint port) {
+        log.warn("Blocking DHCP on {} for exceeding its rate limit", port);
+
+        FlowRule rule = DefaultFlowRule.builder()
+                .forDevice(port.deviceId())
+                .withSelector(DefaultTrafficSelector.builder(CLIENT_SELECTOR).matchInPort(port.port()).build())
+                .withTreatment(DefaultTrafficTreatment.builder().drop().build())
+                .withPriority(BLOCK_PRIORITY)
+                .fromApp(appId)
+                .makeTemporary(BLOCK_SECONDS)
+                .build();
+        flowRuleService.applyFlowRules(rule);
+    }
+
+    private void requestClientIntercepts() {
+        if (!clientsIntercepted) {
+            packetService.requestPackets(CLIENT_SELECTOR, PacketPriority.CONTROL, appId);
+            clientsIntercepted = true;
+        }
+    }
+
+    private void withdrawClientIntercepts() {
+        if (clientsIntercepted) {
+            packetService.cancelPackets(CLIENT_SELECTOR, PacketPriority.CONTROL, appId);
+            clientsIntercepted = false;
+        }
+    }
+
+    /**
+     * Intercepts server replies only on the devices the servers are attached
+     * to, so that replies switched elsewhere in the fabric stay off the
+     * controller.
+     */
+    private void requestServerIntercepts(Set<DeviceId> devices) {
+        withdrawServerIntercepts();
+        devices.forEach(deviceId -> packetService.requestPackets(SERVER_SELECTOR, PacketPriority.CONTROL,
+                                                                 appId, Optional.of(deviceId)));
+        serverDevices = ImmutableSet.copyOf(devices);
+    }
 
-        log.info("connectPoint deviceId: {}", dhcpDeviceId.toString());
+    private void withdrawServerIntercepts() {
+        serverDevices.forEach(deviceId -> packetService.cancelPackets(SERVER_SELECTOR, PacketPriority.CONTROL,
+                                                                      appId, Optional.of(deviceId)));
+        serverDevices = ImmutableSet.of();
     }
 
     private class InternalNetworkConfigListener implements NetworkConfigListener {
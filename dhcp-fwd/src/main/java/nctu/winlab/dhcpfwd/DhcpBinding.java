@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+/**
+ * Lease of a DHCP client as snooped from the server acknowledgement.
+ */
+public final class DhcpBinding {
+
+    private final MacAddress mac;
+    private final Ip4Address ip;
+    private final long expiry;
+    private final ConnectPoint location;
+
+    public DhcpBinding(MacAddress mac, Ip4Address ip, long expiry, ConnectPoint location) {
+        this.mac = mac;
+        this.ip = ip;
+        this.expiry = expiry;
+        this.location = location;
+    }
+
+    public MacAddress mac() {
+        return mac;
+    }
+
+    public Ip4Address ip() {
+        return ip;
+    }
+
+    /**
+     * Returns the lease expiry.
+     *
+     * @return expiry in milliseconds since the epoch
+     */
+    public long expiry() {
+        return expiry;
+    }
+
+    public ConnectPoint location() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return "DhcpBinding{mac=" + mac + ", ip=" + ip + ", expiry=" + expiry + ", location=" + location + "}";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+/**
+ * Size and counters of the DHCP binding table.
+ */
+public final class DhcpBindingStats {
+
+    private final int entries;
+    private final long memoryBytes;
+    private final long inserts;
+    private final long renewals;
+    private final long releases;
+    private final long expirations;
+
+    public DhcpBindingStats(int entries, long memoryBytes, long inserts, long renewals,
+                            long releases, long expirations) {
+        this.entries = entries;
+        this.memoryBytes = memoryBytes;
+        this.inserts = inserts;
+        this.renewals = renewals;
+        this.releases = releases;
+        this.expirations = expirations;
+    }
+
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * Returns an estimate of the memory held by the table and its timer
+     * wheel.
+     *
+     * @return memory in bytes
+     */
+    public long memoryBytes() {
+        return memoryBytes;
+    }
+
+    public long inserts() {
+        return inserts;
+    }
+
+    public long renewals() {
+        return renewals;
+    }
+
+    public long releases() {
+        return releases;
+    }
+
+    public long expirations() {
+        return expirations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries=%d, memory=%.1fMB, inserts=%d, renewals=%d, releases=%d, expirations=%d",
+                             entries, memoryBytes / 1e6, inserts, renewals, releases, expirations);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DHCP snooping table of the leases acknowledged by the servers.
+ * <p>
+ * Bindings live in open-addressing tables of primitive arrays keyed by the
+ * client MAC as a long, split into independently locked segments. Leases
+ * are expired by a timer wheel; a renewal simply schedules the new expiry
+ * and the stale wheel entry is ignored when it fires. Each packet-in
+ * carries its own connect point, so locations are interned and the clients
+ * of a port share one instance.
+ * </p>
+ */
+public class DhcpBindingTable {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+    private static final long OCCUPIED = 1L << 48;
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 4096;
+    // Connect point with its device ID and port number, and its map node
+    private static final int LOCATION_BYTES = 192;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final TimerWheel wheel;
+    private final ConcurrentMap<ConnectPoint, ConnectPoint> locations = new ConcurrentHashMap<>();
+
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates an empty binding table.
+     *
+     * @param now current time in milliseconds
+     */
+    public DhcpBindingTable(long now) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        wheel = new TimerWheel(TICK_MILLIS, WHEEL_SLOTS, now);
+    }
+
+    /**
+     * Records or renews the lease of a client.
+     *
+     * @param mac      client MAC address
+     * @param ip       leased address
+     * @param expiry   lease expiry in milliseconds
+     * @param location connect point the client is attached to
+     */
+    public void update(MacAddress mac, Ip4Address ip, long expiry, ConnectPoint location) {
+        update(mac.toLong(), ip.toInt(), expiry, location);
+    }
+
+    void update(long mac, int ip, long expiry, ConnectPoint location) {
+        long key = mac | OCCUPIED;
+        ConnectPoint shared = intern(location);
+        boolean inserted;
+        Segment segment = segment(key);
+        synchronized (segment) {
+            inserted = segment.put(key, ip, expiry, shared);
+        }
+        (inserted ? inserts : renewals).increment();
+        wheel.schedule(mac, expiry);
+    }
+
+    /**
+     * Removes the lease of a client, as on release or decline.
+     *
+     * @param mac client MAC address
+     */
+    public void remove(MacAddress mac) {
+        long key = mac.toLong() | OCCUPIED;
+        boolean removed;
+        Segment segment = segment(key);
+        synchronized (segment) {
+            removed = segment.remove(key, Long.MAX_VALUE);
+        }
+        if (removed) {
+            releases.increment();
+        }
+    }
+
+    /**
+     * Returns the lease of a client.
+     *
+     * @param mac client MAC address
+     * @return binding, or null if the client has no lease
+     */
+    public DhcpBinding get(MacAddress mac) {
+        long key = mac.toLong() | OCCUPIED;
+        Segment segment = segment(key);
+        synchronized (segment) {
+            int index = segment.find(key);
+            if (index < 0) {
+                return null;
+            }
+            return new DhcpBinding(mac, Ip4Address.valueOf(segment.ips[index]),
+                                   segment.expiries[index], segment.locations[index]);
+        }
+    }
+
+    /**
+     * Returns the connect point of a client without allocating a binding.
+     *
+     * @param mac client MAC address
+     * @return connect point, or null if the client has no lease
+     */
+    public ConnectPoint location(long mac) {
+        long key = mac | OCCUPIED;
+        Segment segment = segment(key);
+        synchronized (segment) {
+            int index = segment.find(key);
+            return index < 0 ? null : segment.locations[index];
+        }
+    }
+
+    /**
+     * Removes the leases that expired. Called periodically by a single
+     * timer thread.
+     *
+     * @param now current time in milliseconds
+     */
+    public void expire(long now) {
+        wheel.advance(now, mac -> {
+            long key = mac | OCCUPIED;
+            boolean removed;
+            Segment segment = segment(key);
+            synchronized (segment) {
+                removed = segment.remove(key, now);
+            }
+            if (removed) {
+                expirations.increment();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of leases.
+     *
+     * @return lease count
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the counters and footprint of the table.
+     *
+     * @return binding table statistics
+     */
+    public DhcpBindingStats stats() {
+        long memory = wheel.memoryBytes() + (long) locations.size() * LOCATION_BYTES;
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+                memory += segment.memoryBytes();
+            }
+        }
+        return new DhcpBindingStats(size, memory, inserts.sum(), renewals.sum(), releases.sum(),
+                                    expirations.sum());
+    }
+
+    private ConnectPoint intern(ConnectPoint location) {
+        ConnectPoint shared = locations.get(location);
+        if (shared == null) {
+            shared = locations.putIfAbsent(location, location);
+            if (shared == null) {
+                shared = location;
+            }
+        }
+        return shared;
+    }
+
+    private Segment segment(long key) {
+        return segments[(int) (mix(key) >>> 58)];
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Linear-probing table of bindings. Keys carry an occupancy bit above
+     * the 48 MAC bits so that 0 marks a free slot.
+     */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] ips = new int[INITIAL_SEGMENT_CAPACITY];
+        private long[] expiries = new long[INITIAL_SEGMENT_CAPACITY];
+        private ConnectPoint[] locations = new ConnectPoint[INITIAL_SEGMENT_CAPACITY];
+        private int size;
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                if (keys[i] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        private boolean put(long key, int ip, long expiry, ConnectPoint location) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+
+            boolean inserted = keys[i] == 0;
+            keys[i] = key;
+            ips[i] = ip;
+            expiries[i] = expiry;
+            locations[i] = location;
+            if (inserted) {
+                size++;
+            }
+            return inserted;
+        }
+
+        /**
+         * Removes a binding expiring no later than the given time, shifting
+         * back the entries of its probe sequence instead of leaving a
+         * tombstone.
+         */
+        private boolean remove(long key, long expiredBy) {
+            int index = find(key);
+            if (index < 0 || expiries[index] > expiredBy) {
+                return false;
+            }
+
+            int mask = keys.length - 1;
+            int hole = index;
+            for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = (int) mix(keys[i]) & mask;
+                // Move the entry into the hole unless its home lies
+                // cyclically between the hole and its slot
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    ips[hole] = ips[i];
+                    expiries[hole] = expiries[i];
+                    locations[hole] = locations[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+            locations[hole] = null;
+            size--;
+            return true;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldIps = ips;
+            long[] oldExpiries = expiries;
+            ConnectPoint[] oldLocations = locations;
+
+            keys = new long[capacity];
+            ips = new int[capacity];
+            expiries = new long[capacity];
+            locations = new ConnectPoint[capacity];
+            size = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldIps[i], oldExpiries[i], oldLocations[i]);
+                }
+            }
+        }
+
+        private long memoryBytes() {
+            // Location slots hold references to the interned connect points
+            return (long) keys.length * (Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES);
+        }
+    }
+}
@@ -16,11 +16,14 @@
 package nctu.winlab.dhcpfwd;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.Sets;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.config.Config;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -35,9 +38,77 @@ public class DhcpConfig extends Config<ApplicationId> {
     public static final String SERVERS = "dhcpServers";
     public static final String CONNECT_POINT = "connectPoint";
     public static final String NAME = "name";
+    public static final String MODE = "mode";
+
+    private volatile DhcpSnapshot snapshot;
+
+    @Override
+    public boolean isValid() {
+        if (!hasOnlyFields(SERVERS, MODE)) {
+            return false;
+        }
+
+        JsonNode serversNode = object.get(SERVERS);
+        if (serversNode != null) {
+            for (JsonNode jsonNode : serversNode) {
+                if (!jsonNode.isObject()
+                        || !hasOnlyFields((ObjectNode) jsonNode, NAME, CONNECT_POINT)
+                        || !hasFields((ObjectNode) jsonNode, CONNECT_POINT)) {
+                    return false;
+                }
+            }
+        }
+
+        try {
+            snapshot();
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the servers and relay mode, parsed and checked on first use.
+     *
+     * @return configuration snapshot
+     * @throws IllegalArgumentException if the configuration is inconsistent
+     */
+    public DhcpSnapshot snapshot() {
+        DhcpSnapshot current = snapshot;
+        if (current == null) {
+            current = new DhcpSnapshot(parseServers(), parseMode());
+            snapshot = current;
+        }
+        return current;
+    }
 
     public Set<DhcpServerConfig> dhcpServers() {
-        Set<DhcpServerConfig> servers = Sets.newHashSet();
+        return ImmutableSet.copyOf(snapshot().servers());
+    }
+
+    public DhcpServerConfig getServerWithName(String name) {
+        return snapshot().byName(name);
+    }
+
+    private DhcpSnapshot.Mode parseMode() {
+        JsonNode modeNode = object.get(MODE);
+        if (modeNode == null) {
+            return DhcpSnapshot.Mode.RELAY;
+        }
+
+        String mode = modeNode.asText();
+        for (DhcpSnapshot.Mode value : DhcpSnapshot.Mode.values()) {
+            if (value.name().equalsIgnoreCase(mode)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown DHCP forwarding mode: " + mode);
+    }
+
+    private List<DhcpServerConfig> parseServers() {
+        List<DhcpServerConfig> servers = Lists.newArrayList();
 
         JsonNode serversNode = object.get(SERVERS);
 
@@ -61,16 +132,6 @@ public class DhcpConfig extends Config<ApplicationId> {
         return servers;
     }
 
-    public DhcpServerConfig getServerWithName(String name) {
-        for(DhcpConfig.DhcpServerConfig server : dhcpServers()) {
-            if(server.name().filter(name::equals).isPresent()) {
-                return server;
-            }
-        }
-
-        return null;
-    }
-
     public static class DhcpServerConfig {
         private Optional<String> name;
         private ConnectPoint connectPoint;
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiles the forwarding rules that carry DHCP between the edge ports and
+ * the servers without involving the controller.
+ * <p>
+ * Every device forwards client messages along its shortest path to the
+ * nearest server. Since each hop brings a message closer to some server,
+ * these next hops form a loop-free forest rooted at the server devices.
+ * Server replies travel the same forest downwards: a device accepts them
+ * only from its parent and copies them to its children and edge ports, so
+ * a reply reaches every edge port served by the same server, as a
+ * broadcast would, and the client picks its own by hardware address and
+ * transaction ID.
+ * </p>
+ */
+public class DhcpPathCompiler {
+
+    private final TopologyService topologyService;
+    private final DeviceService deviceService;
+    private final EdgePortService edgePortService;
+
+    public DhcpPathCompiler(TopologyService topologyService, DeviceService deviceService,
+                            EdgePortService edgePortService) {
+        this.topologyService = checkNotNull(topologyService);
+        this.deviceService = checkNotNull(deviceService);
+        this.edgePortService = checkNotNull(edgePortService);
+    }
+
+    /**
+     * Returns the forwarding rules of a configuration on the current
+     * topology. Devices without a path to a server get no rules.
+     *
+     * @param config   DHCP configuration
+     * @param appId    application installing the rules
+     * @param priority rule priority
+     * @return forwarding rules
+     */
+    public List<FlowRule> compile(DhcpSnapshot config, ApplicationId appId, int priority) {
+        // The first configured server of a device serves its subtree
+        Map<DeviceId, ConnectPoint> roots = new LinkedHashMap<>();
+        config.connectPoints().forEach(cp -> roots.putIfAbsent(cp.deviceId(), cp));
+        if (roots.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        Topology topology = topologyService.currentTopology();
+        Map<DeviceId, Link> parents = new HashMap<>();
+        Map<DeviceId, List<PortNumber>> children = new HashMap<>();
+        for (Device device : deviceService.getAvailableDevices()) {
+            DeviceId deviceId = device.id();
+            if (roots.containsKey(deviceId)) {
+                continue;
+            }
+
+            Link uplink = uplink(topology, deviceId, roots.keySet());
+            if (uplink != null) {
+                parents.put(deviceId, uplink);
+                children.computeIfAbsent(uplink.dst().deviceId(), k -> new ArrayList<>()).add(uplink.dst().port());
+            }
+        }
+
+        Set<ConnectPoint> servers = ImmutableSet.copyOf(config.connectPoints());
+        List<FlowRule> rules = new ArrayList<>();
+        roots.forEach((deviceId, server) -> rules.addAll(
+                rules(deviceId, server.port(), children, servers, appId, priority)));
+        parents.forEach((deviceId, uplink) -> rules.addAll(
+                rules(deviceId, uplink.src().port(), children, servers, appId, priority)));
+        return rules;
+    }
+
+    /**
+     * Returns the first link of the shortest path from a device to any of
+     * the server devices. Ties go to the lowest egress port, then to the
+     * server configured first, so that recompiling an unchanged topology
+     * gives the same rules.
+     */
+    private Link uplink(Topology topology, DeviceId deviceId, Set<DeviceId> serverDevices) {
+        Link best = null;
+        int bestHops = Integer.MAX_VALUE;
+        for (DeviceId serverDevice : serverDevices) {
+            for (Path path : topologyService.getPaths(topology, deviceId, serverDevice)) {
+                int hops = path.links().size();
+                Link first = path.links().get(0);
+                if (hops < bestHops
+                        || hops == bestHops && first.src().port().toLong() < best.src().port().toLong()) {
+                    best = first;
+                    bestHops = hops;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the rule sending client messages out of the port towards the
+     * server, and the rule copying server replies coming in from that port
+     * to the children and edge ports of a device.
+     */
+    private List<FlowRule> rules(DeviceId deviceId, PortNumber upstream,
+                                 Map<DeviceId, List<PortNumber>> children, Set<ConnectPoint> servers,
+                                 ApplicationId appId, int priority) {
+        TrafficTreatment toServer = DefaultTrafficTreatment.builder()
+                .setOutput(upstream)
+                .build();
+
+        List<PortNumber> outputs = new ArrayList<>(children.getOrDefault(deviceId, ImmutableList.of()));
+        edgePortService.getEdgePoints(deviceId).forEach(cp -> {
+            if (!servers.contains(cp) && !cp.port().equals(upstream)) {
+                outputs.add(cp.port());
+            }
+        });
+        outputs.sort((a, b) -> Long.compare(a.toLong(), b.toLong()));
+
+        // Without outputs the replies are dropped rather than punted
+        TrafficTreatment.Builder toClients = DefaultTrafficTreatment.builder();
+        outputs.forEach(toClients::setOutput);
+
+        TrafficSelector fromServer = DefaultTrafficSelector.builder(AppComponent.SERVER_SELECTOR)
+                .matchInPort(upstream)
+                .build();
+
+        return ImmutableList.of(rule(deviceId, AppComponent.CLIENT_SELECTOR, toServer, appId, priority),
+                                rule(deviceId, fromServer, toClients.build(), appId, priority));
+    }
+
+    private static FlowRule rule(DeviceId deviceId, TrafficSelector selector,
+                                 TrafficTreatment treatment, ApplicationId appId, int priority) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(selector)
+                .withTreatment(treatment)
+                .withPriority(priority)
+                .fromApp(appId)
+                .makePermanent()
+                .build();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onosproject.net.ConnectPoint;
+
+/**
+ * Rate-limiting counters of a port DHCP messages are received on.
+ */
+public final class DhcpPortStats {
+
+    private final ConnectPoint connectPoint;
+    private final long dropped;
+    private final long blocks;
+    private final boolean blocked;
+
+    public DhcpPortStats(ConnectPoint connectPoint, long dropped, long blocks, boolean blocked) {
+        this.connectPoint = connectPoint;
+        this.dropped = dropped;
+        this.blocks = blocks;
+        this.blocked = blocked;
+    }
+
+    public ConnectPoint connectPoint() {
+        return connectPoint;
+    }
+
+    /**
+     * Returns the number of messages dropped for exceeding the port or
+     * client budget.
+     *
+     * @return dropped message count
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of times the port was blocked on the switch.
+     *
+     * @return block count
+     */
+    public long blocks() {
+        return blocks;
+    }
+
+    public boolean blocked() {
+        return blocked;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s dropped=%d, blocks=%d%s", connectPoint, dropped, blocks, blocked ? " (blocked)" : "");
+    }
+}
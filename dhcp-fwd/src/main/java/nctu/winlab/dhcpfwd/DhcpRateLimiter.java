@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token-bucket limits on the DHCP messages accepted from each ingress port
+ * and each client MAC.
+ * <p>
+ * Buckets are kept as theoretical arrival times updated by compare-and-set,
+ * so admission neither locks nor allocates. Times are only compared with
+ * the caller's clock, whose origin is arbitrary, so a bucket never used
+ * starts at the lowest time and is full at any clock value. Client buckets
+ * are a fixed array indexed by a hash of the source MAC: a flood of spoofed
+ * MACs cannot grow it, at the price of the rare clients sharing a bucket.
+ * A port that keeps exceeding its budget for several consecutive sweeps is
+ * reported to be blocked on the switch for a while.
+ * </p>
+ */
+public class DhcpRateLimiter {
+
+    private static final int CLIENT_BUCKETS = 1 << 16;
+    private static final int ESCALATION_SWEEPS = 5;
+
+    private final long portInterval;
+    private final long portTolerance;
+    private final long clientInterval;
+    private final long clientTolerance;
+    private final long blockNanos;
+
+    private final ConcurrentMap<ConnectPoint, Port> ports = new ConcurrentHashMap<>();
+    private final AtomicLongArray clients = new AtomicLongArray(CLIENT_BUCKETS);
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param portRate     messages per second accepted from a port
+     * @param portBurst    messages accepted from a port at once
+     * @param clientRate   messages per second accepted from a client
+     * @param clientBurst  messages accepted from a client at once
+     * @param blockSeconds how long a port exceeding its budget stays blocked
+     */
+    public DhcpRateLimiter(int portRate, int portBurst, int clientRate, int clientBurst, int blockSeconds) {
+        checkArgument(portRate > 0 && portBurst > 0, "Port rate and burst must be positive");
+        checkArgument(clientRate > 0 && clientBurst > 0, "Client rate and burst must be positive");
+
+        this.portInterval = TimeUnit.SECONDS.toNanos(1) / portRate;
+        this.portTolerance = portInterval * (portBurst - 1);
+        this.clientInterval = TimeUnit.SECONDS.toNanos(1) / clientRate;
+        this.clientTolerance = clientInterval * (clientBurst - 1);
+        this.blockNanos = TimeUnit.SECONDS.toNanos(blockSeconds);
+
+        for (int i = 0; i < CLIENT_BUCKETS; i++) {
+            clients.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Takes a token from the buckets of a port and a client.
+     *
+     * @param ingress ingress connect point
+     * @param mac     source MAC address of the frame
+     * @param now     current time in nanoseconds
+     * @return true if the message is within both budgets
+     */
+    public boolean admit(ConnectPoint ingress, long mac, long now) {
+        Port port = ports.get(ingress);
+        if (port == null) {
+            port = ports.computeIfAbsent(ingress, cp -> new Port(now));
+        }
+
+        // The client bucket goes first so that a single flooding client
+        // does not spend the budget of its port
+        int index = (int) (mix(mac) & (CLIENT_BUCKETS - 1));
+        for (;;) {
+            long tat = clients.get(index);
+            long start = Math.max(tat, now);
+            if (start - now > clientTolerance) {
+                port.dropped.increment();
+                return false;
+            }
+            if (clients.compareAndSet(index, tat, start + clientInterval)) {
+                break;
+            }
+        }
+
+        if (!port.take(now, portInterval, portTolerance)) {
+            port.dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ports that dropped messages in each of the last sweeps
+     * and are not blocked yet, and marks them blocked. Called periodically
+     * by a single timer thread.
+     *
+     * @param now current time in nanoseconds
+     * @return ports to block
+     */
+    public List<ConnectPoint> sweep(long now) {
+        ImmutableList.Builder<ConnectPoint> escalated = ImmutableList.builder();
+        ports.forEach((cp, port) -> {
+            long dropped = port.dropped.sum();
+            port.strikes = dropped > port.droppedAtSweep ? port.strikes + 1 : 0;
+            port.droppedAtSweep = dropped;
+
+            if (port.strikes >= ESCALATION_SWEEPS && port.blockedUntil <= now) {
+                port.strikes = 0;
+                port.blockedUntil = now + blockNanos;
+                port.blocks.increment();
+                escalated.add(cp);
+            }
+        });
+        return escalated.build();
+    }
+
+    /**
+     * Returns the drop counters of every port that sent DHCP messages.
+     *
+     * @param now current time in nanoseconds
+     * @return statistics keyed by ingress connect point
+     */
+    public Map<ConnectPoint, DhcpPortStats> stats(long now) {
+        ImmutableMap.Builder<ConnectPoint, DhcpPortStats> stats = ImmutableMap.builder();
+        ports.forEach((cp, port) -> stats.put(cp, new DhcpPortStats(cp, port.dropped.sum(), port.blocks.sum(),
+                                                                    port.blockedUntil > now)));
+        return stats.build();
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Bucket and counters of an ingress port.
+     */
+    private static final class Port {
+        private final AtomicLong tat;
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder blocks = new LongAdder();
+
+        // Touched by the sweeping thread only
+        private long droppedAtSweep;
+        private int strikes;
+        private volatile long blockedUntil = Long.MIN_VALUE;
+
+        private Port(long now) {
+            this.tat = new AtomicLong(now);
+        }
+
+        private boolean take(long now, long interval, long tolerance) {
+            for (;;) {
+                long current = tat.get();
+                long start = Math.max(current, now);
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, start + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
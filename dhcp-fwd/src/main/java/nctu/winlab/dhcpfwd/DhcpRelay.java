@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableMap;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onlab.packet.dhcp.DhcpOption;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.packet.DefaultOutboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Relays DHCP messages between clients and the configured DHCP servers by
+ * direct packet-out, instead of letting them be flooded.
+ * <p>
+ * Client messages are sent to the server chosen by the server pool, which
+ * tracks each transaction with the ingress connect point of the client, so
+ * that server replies can be sent straight back to it. The processor runs
+ * on the packet-in threads and neither blocks nor reserializes packets.
+ * </p>
+ * <p>
+ * Messages from client ports are admitted by the rate limiter on their
+ * ingress port and source MAC before the DHCP payload is looked at, so that
+ * a storm costs no more than the UDP header checks.
+ * </p>
+ */
+public class DhcpRelay implements PacketProcessor {
+
+    private static final long DEFAULT_LEASE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final PacketService packetService;
+    private final DhcpServerPool serverPool;
+    private final DhcpBindingTable bindings;
+    private final DhcpRateLimiter rateLimiter;
+
+    private volatile Map<ConnectPoint, TrafficTreatment> serverTreatments = ImmutableMap.of();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder relayedToServer = new LongAdder();
+    private final LongAdder relayedToClient = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    public DhcpRelay(PacketService packetService, DhcpServerPool serverPool, DhcpBindingTable bindings,
+                     DhcpRateLimiter rateLimiter) {
+        this.packetService = checkNotNull(packetService);
+        this.serverPool = checkNotNull(serverPool);
+        this.bindings = checkNotNull(bindings);
+        this.rateLimiter = checkNotNull(rateLimiter);
+    }
+
+    /**
+     * Sets the connect points of the DHCP servers.
+     *
+     * @param servers server connect points
+     */
+    public void setServers(Collection<ConnectPoint> servers) {
+        ImmutableMap.Builder<ConnectPoint, TrafficTreatment> treatments = ImmutableMap.builder();
+        servers.forEach(server -> treatments.put(server, output(server)));
+
+        this.serverTreatments = treatments.build();
+        serverPool.setServers(servers);
+    }
+
+    /**
+     * Returns the number of DHCP packet-ins handled, including the ones
+     * dropped.
+     *
+     * @return packet-in count
+     */
+    public long received() {
+        return received.sum();
+    }
+
+    public long relayedToServer() {
+        return relayedToServer.sum();
+    }
+
+    public long relayedToClient() {
+        return relayedToClient.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public void process(PacketContext context) {
+        if (context.isHandled()) {
+            return;
+        }
+
+        InboundPacket pkt = context.inPacket();
+        Ethernet eth = pkt.parsed();
+        UDP udp = dhcpDatagram(eth);
+        if (udp == null) {
+            return;
+        }
+        received.increment();
+
+        ConnectPoint ingress = pkt.receivedFrom();
+        if (!serverTreatments.containsKey(ingress)
+                && !rateLimiter.admit(ingress, eth.getSourceMAC().toLong(), System.nanoTime())) {
+            rateLimited.increment();
+            context.block();
+            return;
+        }
+
+        if (!(udp.getPayload() instanceof DHCP)) {
+            dropped.increment();
+            context.block();
+            return;
+        }
+
+        DHCP dhcp = (DHCP) udp.getPayload();
+
+        DHCP.MsgType type = messageType(dhcp);
+        if (type == null) {
+            dropped.increment();
+            context.block();
+            return;
+        }
+
+        switch (type) {
+            case DHCPDISCOVER:
+            case DHCPREQUEST:
+            case DHCPDECLINE:
+            case DHCPRELEASE:
+            case DHCPINFORM:
+                relayToServer(pkt, dhcp, type);
+                break;
+            case DHCPOFFER:
+            case DHCPACK:
+            case DHCPNAK:
+                relayToClient(pkt, dhcp, type);
+                break;
+            default:
+                dropped.increment();
+                break;
+        }
+
+        context.block();
+    }
+
+    private void relayToServer(InboundPacket pkt, DHCP dhcp, DHCP.MsgType type) {
+        ConnectPoint ingress = pkt.receivedFrom();
+        if (serverTreatments.containsKey(ingress)) {
+            // Client messages never come from a server port
+            dropped.increment();
+            return;
+        }
+
+        MacAddress client = MacAddress.valueOf(dhcp.getClientHardwareAddress());
+        boolean unanswered = type == DHCP.MsgType.DHCPRELEASE || type == DHCP.MsgType.DHCPDECLINE;
+        ConnectPoint server = unanswered ? serverPool.route(client, System.nanoTime())
+                : serverPool.select(client, dhcp.getTransactionId(), ingress, System.nanoTime());
+        TrafficTreatment treatment = server == null ? null : serverTreatments.get(server);
+        if (treatment == null) {
+            dropped.increment();
+            return;
+        }
+
+        if (unanswered) {
+            bindings.remove(client);
+        }
+
+        emit(server, treatment, pkt.unparsed());
+        relayedToServer.increment();
+    }
+
+    private void relayToClient(InboundPacket pkt, DHCP dhcp, DHCP.MsgType type) {
+        if (!serverTreatments.containsKey(pkt.receivedFrom())) {
+            // Replies of rogue servers are not relayed
+            dropped.increment();
+            return;
+        }
+
+        MacAddress client = MacAddress.valueOf(dhcp.getClientHardwareAddress());
+        ConnectPoint ingress = serverPool.replied(pkt.receivedFrom(), client, dhcp.getTransactionId(),
+                                                  type != DHCP.MsgType.DHCPOFFER, System.nanoTime());
+        if (ingress == null) {
+            log.debug("No transaction {} of DHCP client {}", dhcp.getTransactionId(), client);
+            dropped.increment();
+            return;
+        }
+
+        if (type == DHCP.MsgType.DHCPACK && dhcp.getYourIPAddress() != 0) {
+            bindings.update(client.toLong(), dhcp.getYourIPAddress(),
+                            System.currentTimeMillis() + leaseMillis(dhcp), ingress);
+        }
+
+        emit(ingress, output(ingress), pkt.unparsed());
+        relayedToClient.increment();
+    }
+
+    private void emit(ConnectPoint connectPoint, TrafficTreatment treatment, ByteBuffer data) {
+        packetService.emit(new DefaultOutboundPacket(connectPoint.deviceId(), treatment, data));
+    }
+
+    private static TrafficTreatment output(ConnectPoint connectPoint) {
+        return DefaultTrafficTreatment.builder()
+                .setOutput(connectPoint.port())
+                .build();
+    }
+
+    /**
+     * Returns the UDP datagram of a packet between DHCP client and server
+     * ports, without looking at its payload.
+     *
+     * @param eth parsed packet
+     * @return UDP datagram, or null if the packet is not DHCP
+     */
+    static UDP dhcpDatagram(Ethernet eth) {
+        if (eth == null || eth.getEtherType() != Ethernet.TYPE_IPV4 || !(eth.getPayload() instanceof IPv4)) {
+            return null;
+        }
+
+        IPv4 ipv4 = (IPv4) eth.getPayload();
+        if (ipv4.getProtocol() != IPv4.PROTOCOL_UDP || !(ipv4.getPayload() instanceof UDP)) {
+            return null;
+        }
+
+        UDP udp = (UDP) ipv4.getPayload();
+        int src = udp.getSourcePort();
+        int dst = udp.getDestinationPort();
+        boolean toServer = src == UDP.DHCP_CLIENT_PORT && dst == UDP.DHCP_SERVER_PORT;
+        boolean toClient = src == UDP.DHCP_SERVER_PORT && dst == UDP.DHCP_CLIENT_PORT;
+        return toServer || toClient ? udp : null;
+    }
+
+    /**
+     * Returns the lease time carried in option 51.
+     *
+     * @param dhcp DHCP packet
+     * @return lease time in milliseconds, or the default lease time if missing
+     */
+    static long leaseMillis(DHCP dhcp) {
+        DhcpOption option = dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_LeaseTime);
+        if (option == null || option.getData() == null || option.getData().length != Integer.BYTES) {
+            return DEFAULT_LEASE_MILLIS;
+        }
+        // Unsigned seconds; an infinite lease is kept for the maximum
+        return TimeUnit.SECONDS.toMillis(ByteBuffer.wrap(option.getData()).getInt() & 0xffffffffL);
+    }
+
+    /**
+     * Returns the message type carried in option 53.
+     *
+     * @param dhcp DHCP packet
+     * @return message type, or null if missing or unknown
+     */
+    static DHCP.MsgType messageType(DHCP dhcp) {
+        DhcpOption option = dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType);
+        if (option == null || option.getData() == null || option.getData().length != 1) {
+            return null;
+        }
+        return DHCP.MsgType.getType(option.getData()[0]);
+    }
+}
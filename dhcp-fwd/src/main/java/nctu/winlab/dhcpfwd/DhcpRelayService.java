@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.Map;
+
+/**
+ * Service exposing the state of the DHCP relay.
+ */
+public interface DhcpRelayService {
+
+    /**
+     * Returns the DHCP configuration currently applied.
+     *
+     * @return configuration snapshot
+     */
+    DhcpSnapshot config();
+
+    /**
+     * Returns the load and latency of every configured DHCP server.
+     *
+     * @return statistics keyed by server connect point
+     */
+    Map<ConnectPoint, DhcpServerStats> serverStats();
+
+    /**
+     * Returns the number of transactions in progress, timed out and
+     * completed, and the time from the first client message of a
+     * transaction to its acknowledgement.
+     *
+     * @return transaction statistics
+     */
+    DhcpTransactionStats transactionStats();
+
+    /**
+     * Returns the lease of a client snooped from the server acknowledgements.
+     *
+     * @param mac client MAC address
+     * @return binding, or null if the client has no lease
+     */
+    DhcpBinding binding(MacAddress mac);
+
+    /**
+     * Returns the size and counters of the binding table.
+     *
+     * @return binding table statistics
+     */
+    DhcpBindingStats bindingStats();
+
+    /**
+     * Returns the rate-limiting counters of the ports DHCP clients send on.
+     *
+     * @return statistics keyed by ingress connect point
+     */
+    Map<ConnectPoint, DhcpPortStats> portStats();
+}
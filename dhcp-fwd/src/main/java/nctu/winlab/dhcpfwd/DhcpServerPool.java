@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableMap;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads DHCP transactions over the configured servers.
+ * <p>
+ * New transactions are assigned by consistent hashing of the client MAC on
+ * a ring of virtual nodes, so adding or removing a server only moves the
+ * clients of that server. Every transaction is tracked by transaction ID and
+ * client MAC until the server answers; the answer time feeds a moving
+ * average of the server latency. Servers that stop answering are skipped for
+ * a while and servers much slower than the fastest one are skipped while a
+ * faster one is available. Clients of a skipped server move to the next
+ * server on the ring.
+ * </p>
+ * <p>
+ * Transactions are tracked in a bounded {@link DhcpTransactionTable} that
+ * also remembers the connect point of the client, so that answers can be
+ * sent back to the port the transaction came from.
+ * </p>
+ */
+public class DhcpServerPool {
+
+    private static final int VIRTUAL_NODES = 64;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 3;
+    private static final long DOWN_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double SLOW_FACTOR = 4.0;
+    private static final long SLOW_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private static final int MAX_TRANSACTIONS = 1 << 18;
+
+    private volatile Ring ring = new Ring(new HashMap<>());
+
+    private final DhcpTransactionTable<Server> transactions;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param now current time in nanoseconds
+     */
+    public DhcpServerPool(long now) {
+        transactions = new DhcpTransactionTable<>(MAX_TRANSACTIONS, TIMEOUT_NANOS, IDLE_NANOS, now);
+    }
+
+    /**
+     * Sets the servers of the pool. Statistics of servers that stay in the
+     * pool are kept.
+     *
+     * @param servers server connect points
+     */
+    public void setServers(Collection<ConnectPoint> servers) {
+        Map<ConnectPoint, Server> current = ring.servers;
+        Map<ConnectPoint, Server> updated = new HashMap<>();
+        servers.forEach(cp -> updated.put(cp, current.getOrDefault(cp, new Server(cp))));
+        ring = new Ring(updated);
+    }
+
+    /**
+     * Returns the server of a client message and tracks the transaction.
+     * Messages of a transaction in progress go to the server already
+     * handling it.
+     *
+     * @param client  client hardware address
+     * @param xid     transaction ID
+     * @param ingress connect point the client sent from
+     * @param now     current time in nanoseconds
+     * @return server connect point, or null without servers or when too
+     *         many transactions are in progress
+     */
+    public ConnectPoint select(MacAddress client, int xid, ConnectPoint ingress, long now) {
+        Ring current = ring;
+        long mac = client.toLong();
+
+        Server previous = transactions.sent(mac, xid, now);
+        if (previous != null && current.servers.get(previous.connectPoint) == previous) {
+            previous.requests.increment();
+            return previous.connectPoint;
+        }
+
+        Server server = current.select(mix(mac), now);
+        if (server == null) {
+            return null;
+        }
+        // A transaction whose server left the pool moves to the new server
+        if (previous != null && transactions.reassign(mac, xid, previous, server, now)) {
+            previous.outstanding.decrementAndGet();
+        }
+        else if (!transactions.start(mac, xid, server, ingress, now)) {
+            return null;
+        }
+        server.outstanding.incrementAndGet();
+        server.requests.increment();
+        return server.connectPoint;
+    }
+
+    /**
+     * Returns the server of a client message that gets no answer, such as
+     * a release, without tracking it.
+     *
+     * @param client client hardware address
+     * @param now    current time in nanoseconds
+     * @return server connect point, or null without servers
+     */
+    public ConnectPoint route(MacAddress client, long now) {
+        Server server = ring.select(mix(client.toLong()), now);
+        return server == null ? null : server.connectPoint;
+    }
+
+    /**
+     * Records the answer of a server to a client message.
+     *
+     * @param server server connect point
+     * @param client client hardware address
+     * @param xid    transaction ID
+     * @param last   whether the answer ends the transaction
+     * @param now    current time in nanoseconds
+     * @return connect point the client sent from, or null if the answer
+     *         matches no transaction handled by the server
+     */
+    public ConnectPoint replied(ConnectPoint server, MacAddress client, int xid, boolean last, long now) {
+        Server answering = ring.servers.get(server);
+        if (answering == null) {
+            return null;
+        }
+
+        ConnectPoint ingress = transactions.answered(client.toLong(), xid, answering, last, now,
+                                                     answering::answered);
+        if (ingress != null && last) {
+            answering.outstanding.decrementAndGet();
+        }
+        return ingress;
+    }
+
+    /**
+     * Expires unanswered transactions and reevaluates server health. Called
+     * periodically.
+     *
+     * @param now current time in nanoseconds
+     */
+    public void sweep(long now) {
+        transactions.expire(now, (server, timedOut) -> {
+            server.outstanding.decrementAndGet();
+            if (timedOut) {
+                server.timedOut();
+            }
+        });
+
+        Collection<Server> servers = ring.servers.values();
+        long fastest = servers.stream()
+                .filter(server -> server.downUntil <= now && server.latency() > 0)
+                .mapToLong(Server::latency)
+                .min()
+                .orElse(0);
+
+        for (Server server : servers) {
+            if (server.consecutiveTimeouts.get() >= MAX_CONSECUTIVE_TIMEOUTS) {
+                server.consecutiveTimeouts.set(0);
+                server.downUntil = now + DOWN_NANOS;
+            }
+
+            // A slow server gets no new samples while it is skipped, so it
+            // is measured afresh once the back-off expires
+            if (server.slowUntil != 0 && server.slowUntil <= now) {
+                server.slowUntil = 0;
+                server.latency.set(0);
+            }
+            if (server.slowUntil == 0 && fastest > 0
+                    && server.latency() > Math.max(SLOW_FLOOR_NANOS, SLOW_FACTOR * fastest)) {
+                server.slowUntil = now + DOWN_NANOS;
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of every server.
+     *
+     * @param now current time in nanoseconds
+     * @return statistics keyed by server connect point
+     */
+    public Map<ConnectPoint, DhcpServerStats> stats(long now) {
+        ImmutableMap.Builder<ConnectPoint, DhcpServerStats> stats = ImmutableMap.builder();
+        ring.servers.forEach((cp, server) -> stats.put(cp, server.stats(now)));
+        return stats.build();
+    }
+
+    /**
+     * Returns the number of transactions waiting for or in between server
+     * answers.
+     *
+     * @return transaction count
+     */
+    public int outstanding() {
+        return transactions.size();
+    }
+
+    /**
+     * Returns the transaction counters and latency.
+     *
+     * @return transaction statistics
+     */
+    public DhcpTransactionStats transactionStats() {
+        return transactions.stats();
+    }
+
+    private static int mix(long value) {
+        // Finalizer of MurmurHash3, spreading MAC prefixes over the ring
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    /**
+     * Immutable ring of virtual nodes.
+     */
+    private static final class Ring {
+        private final Map<ConnectPoint, Server> servers;
+        private final int[] points;
+        private final Server[] owners;
+
+        private Ring(Map<ConnectPoint, Server> servers) {
+            this.servers = ImmutableMap.copyOf(servers);
+
+            long[] nodes = new long[servers.size() * VIRTUAL_NODES];
+            Server[] byIndex = servers.values().toArray(new Server[0]);
+            int n = 0;
+            for (int s = 0; s < byIndex.length; s++) {
+                long seed = (long) byIndex[s].connectPoint.toString().hashCode() << 32;
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    // Point in the upper half, owner index in the lower half
+                    nodes[n++] = ((long) mix(seed | i) << 32) | s;
+                }
+            }
+            Arrays.sort(nodes);
+
+            this.points = new int[nodes.length];
+            this.owners = new Server[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                points[i] = (int) (nodes[i] >> 32);
+                owners[i] = byIndex[(int) nodes[i]];
+            }
+        }
+
+        /**
+         * Returns the first healthy server clockwise from a point, or the
+         * owner of the point when no server is healthy.
+         */
+        private Server select(int point, long now) {
+            if (points.length == 0) {
+                return null;
+            }
+
+            int index = Arrays.binarySearch(points, point);
+            if (index < 0) {
+                index = -index - 1;
+            }
+
+            Server first = owners[index % points.length];
+            Server fallback = null;
+            for (int i = 0; i < points.length; i++) {
+                Server server = owners[(index + i) % points.length];
+                if (server.downUntil > now) {
+                    continue;
+                }
+                if (server.slowUntil <= now) {
+                    return server;
+                }
+                if (fallback == null) {
+                    fallback = server;
+                }
+            }
+            return fallback != null ? fallback : first;
+        }
+    }
+
+    /**
+     * Mutable state of a server, updated concurrently by packet threads.
+     */
+    private static final class Server {
+        private final ConnectPoint connectPoint;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder answers = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
+        private final AtomicLong latency = new AtomicLong();
+        private volatile long downUntil;
+        private volatile long slowUntil;
+
+        private Server(ConnectPoint connectPoint) {
+            this.connectPoint = connectPoint;
+        }
+
+        private long latency() {
+            return latency.get();
+        }
+
+        private void answered(long nanos) {
+            answers.increment();
+            consecutiveTimeouts.set(0);
+            latency.accumulateAndGet(nanos, (average, sample) ->
+                    average == 0 ? sample : (long) (average + LATENCY_WEIGHT * (sample - average)));
+        }
+
+        private void timedOut() {
+            timeouts.increment();
+            consecutiveTimeouts.incrementAndGet();
+        }
+
+        private DhcpServerStats stats(long now) {
+            DhcpServerStats.State state = downUntil > now ? DhcpServerStats.State.DOWN
+                    : slowUntil > now ? DhcpServerStats.State.SLOW : DhcpServerStats.State.UP;
+            return new DhcpServerStats(connectPoint, state, requests.sum(), answers.sum(), timeouts.sum(),
+                                       outstanding.get(), latency.get());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onosproject.net.ConnectPoint;
+
+/**
+ * Load and latency of a DHCP server at one point in time.
+ */
+public final class DhcpServerStats {
+
+    /**
+     * Health of a server as seen by the relay.
+     */
+    public enum State {
+        /** Answering; receives its share of new transactions. */
+        UP,
+        /** Answering much slower than the fastest server; skipped while another is up. */
+        SLOW,
+        /** Not answering; skipped until the back-off expires. */
+        DOWN
+    }
+
+    private final ConnectPoint connectPoint;
+    private final State state;
+    private final long requests;
+    private final long answers;
+    private final long timeouts;
+    private final int outstanding;
+    private final long latencyNanos;
+
+    public DhcpServerStats(ConnectPoint connectPoint, State state, long requests, long answers,
+                           long timeouts, int outstanding, long latencyNanos) {
+        this.connectPoint = connectPoint;
+        this.state = state;
+        this.requests = requests;
+        this.answers = answers;
+        this.timeouts = timeouts;
+        this.outstanding = outstanding;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public ConnectPoint connectPoint() {
+        return connectPoint;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Returns the number of client messages relayed to the server.
+     *
+     * @return request count
+     */
+    public long requests() {
+        return requests;
+    }
+
+    public long answers() {
+        return answers;
+    }
+
+    public long timeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the number of transactions currently assigned to the server.
+     *
+     * @return outstanding transactions
+     */
+    public int outstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Returns the moving average of the server answer time.
+     *
+     * @return latency in nanoseconds, 0 before the first answer
+     */
+    public long latencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("server=%s, state=%s, requests=%d, answers=%d, timeouts=%d, outstanding=%d, "
+                                     + "latency=%.2fms",
+                             connectPoint, state, requests, answers, timeouts, outstanding, latencyNanos / 1e6);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable, validated view of one version of the DHCP configuration,
+ * indexed by server name and connect point.
+ */
+public final class DhcpSnapshot {
+
+    /**
+     * How DHCP messages reach the servers.
+     */
+    public enum Mode {
+        /** Every message is sent to the controller and relayed by packet-out. */
+        RELAY,
+        /** Messages follow forwarding rules installed along the paths to the servers. */
+        PROACTIVE
+    }
+
+    private static final DhcpSnapshot EMPTY = new DhcpSnapshot(ImmutableList.of());
+
+    private final Mode mode;
+
+    private final List<DhcpConfig.DhcpServerConfig> servers;
+    private final List<ConnectPoint> connectPoints;
+    private final Map<String, DhcpConfig.DhcpServerConfig> byName;
+    private final Map<ConnectPoint, DhcpConfig.DhcpServerConfig> byConnectPoint;
+
+    /**
+     * Builds a snapshot in relay mode, rejecting duplicate server names and
+     * connect points.
+     *
+     * @param servers DHCP servers
+     * @throws IllegalArgumentException if the servers are inconsistent
+     */
+    public DhcpSnapshot(Collection<DhcpConfig.DhcpServerConfig> servers) {
+        this(servers, Mode.RELAY);
+    }
+
+    /**
+     * Builds a snapshot, rejecting duplicate server names and connect points.
+     *
+     * @param servers DHCP servers
+     * @param mode    forwarding mode
+     * @throws IllegalArgumentException if the servers are inconsistent
+     */
+    public DhcpSnapshot(Collection<DhcpConfig.DhcpServerConfig> servers, Mode mode) {
+        this.mode = checkNotNull(mode);
+
+        ImmutableMap.Builder<String, DhcpConfig.DhcpServerConfig> names = ImmutableMap.builder();
+        ImmutableMap.Builder<ConnectPoint, DhcpConfig.DhcpServerConfig> connectPoints = ImmutableMap.builder();
+
+        for (DhcpConfig.DhcpServerConfig server : servers) {
+            server.name().ifPresent(name -> names.put(name, server));
+            connectPoints.put(server.connectPoint(), server);
+        }
+
+        try {
+            this.byName = names.build();
+            this.byConnectPoint = connectPoints.build();
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Duplicate server name or connect point: " + e.getMessage(), e);
+        }
+
+        this.servers = ImmutableList.copyOf(servers);
+        this.connectPoints = ImmutableList.copyOf(byConnectPoint.keySet());
+    }
+
+    public static DhcpSnapshot empty() {
+        return EMPTY;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the servers, in configuration order.
+     *
+     * @return DHCP servers
+     */
+    public List<DhcpConfig.DhcpServerConfig> servers() {
+        return servers;
+    }
+
+    /**
+     * Returns the connect points of the servers, in configuration order.
+     *
+     * @return server connect points
+     */
+    public List<ConnectPoint> connectPoints() {
+        return connectPoints;
+    }
+
+    public DhcpConfig.DhcpServerConfig byName(String name) {
+        return byName.get(name);
+    }
+
+    public DhcpConfig.DhcpServerConfig byConnectPoint(ConnectPoint connectPoint) {
+        return byConnectPoint.get(connectPoint);
+    }
+
+    public boolean isEmpty() {
+        return servers.isEmpty();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+/**
+ * Counters of the DHCP transactions relayed, and the time from the first
+ * client message of a transaction to the server answer ending it.
+ */
+public final class DhcpTransactionStats {
+
+    private final int outstanding;
+    private final long started;
+    private final long completed;
+    private final long timeouts;
+    private final long overflows;
+    private final long latencyMeanNanos;
+    private final long latencyP50Nanos;
+    private final long latencyP99Nanos;
+
+    public DhcpTransactionStats(int outstanding, long started, long completed, long timeouts, long overflows,
+                                long latencyMeanNanos, long latencyP50Nanos, long latencyP99Nanos) {
+        this.outstanding = outstanding;
+        this.started = started;
+        this.completed = completed;
+        this.timeouts = timeouts;
+        this.overflows = overflows;
+        this.latencyMeanNanos = latencyMeanNanos;
+        this.latencyP50Nanos = latencyP50Nanos;
+        this.latencyP99Nanos = latencyP99Nanos;
+    }
+
+    public int outstanding() {
+        return outstanding;
+    }
+
+    public long started() {
+        return started;
+    }
+
+    /**
+     * Returns the number of transactions ended by an ACK or NAK.
+     *
+     * @return completed transaction count
+     */
+    public long completed() {
+        return completed;
+    }
+
+    public long timeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the number of transactions refused because the table was
+     * full.
+     *
+     * @return refused transaction count
+     */
+    public long overflows() {
+        return overflows;
+    }
+
+    public long latencyMeanNanos() {
+        return latencyMeanNanos;
+    }
+
+    public long latencyP50Nanos() {
+        return latencyP50Nanos;
+    }
+
+    public long latencyP99Nanos() {
+        return latencyP99Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("outstanding=%d, started=%d, completed=%d, timeouts=%d, overflows=%d, "
+                                     + "latency mean=%.2fms p50=%.2fms p99=%.2fms",
+                             outstanding, started, completed, timeouts, overflows, latencyMeanNanos / 1e6,
+                             latencyP50Nanos / 1e6, latencyP99Nanos / 1e6);
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded table of the DHCP transactions in progress, keyed by transaction
+ * ID and client MAC.
+ * <p>
+ * Each transaction remembers the server handling it, the connect point the
+ * client sent from and its timestamps. Transactions live in independently
+ * locked open-addressing segments of primitive arrays, so packet threads
+ * only contend on the segment of a transaction. A full segment rejects new
+ * transactions rather than evicting ones in progress. Deadlines are kept on
+ * a timer wheel; a transaction moving its deadline schedules it again and
+ * stale wheel entries are ignored when they fire.
+ * </p>
+ *
+ * @param <S> type of the server handling a transaction
+ */
+public class DhcpTransactionTable<S> {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final long OCCUPIED = 1L << 48;
+    // Send time of a transaction whose last message was answered; any other
+    // value, including 0, is a valid reading of the caller's clock
+    private static final long ANSWERED = Long.MIN_VALUE;
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SLOTS = 1024;
+
+    private final Segment<S>[] segments;
+    private final int maxSegmentSize;
+    private final long timeoutNanos;
+    private final long idleNanos;
+    private final TimerWheel wheel;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Consumer of the transactions removed from the table.
+     *
+     * @param <S> type of the server handling a transaction
+     */
+    @FunctionalInterface
+    public interface RemovalListener<S> {
+        void removed(S server, boolean timedOut);
+    }
+
+    /**
+     * Creates a transaction table.
+     *
+     * @param maxSize      maximum number of transactions
+     * @param timeoutNanos time a server has to answer a client message
+     * @param idleNanos    time a transaction is kept after the last answer
+     * @param now          current time in nanoseconds
+     */
+    @SuppressWarnings("unchecked")
+    public DhcpTransactionTable(int maxSize, long timeoutNanos, long idleNanos, long now) {
+        checkArgument(maxSize >= SEGMENTS, "Table must hold at least %s transactions", SEGMENTS);
+
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.maxSegmentSize = maxSize / SEGMENTS;
+        this.timeoutNanos = timeoutNanos;
+        this.idleNanos = idleNanos;
+        this.wheel = new TimerWheel(TICK_MILLIS, WHEEL_SLOTS, millis(now));
+    }
+
+    /**
+     * Returns the server of a transaction in progress, and restarts the
+     * answer clock of a message the server already answered. Retransmissions
+     * of an unanswered message keep the original clock.
+     *
+     * @param mac client MAC address
+     * @param xid transaction ID
+     * @param now current time in nanoseconds
+     * @return server, or null if the transaction is unknown
+     */
+    public S sent(long mac, int xid, long now) {
+        long key = mac | OCCUPIED;
+        Segment<S> segment = segment(key, xid);
+        S server;
+        synchronized (segment) {
+            int index = segment.find(key, xid);
+            if (index < 0) {
+                return null;
+            }
+            server = segment.servers[index];
+            if (segment.sent[index] != ANSWERED) {
+                return server;
+            }
+            segment.sent[index] = now;
+        }
+        wheel.schedule(mac, xid, millis(now + timeoutNanos));
+        return server;
+    }
+
+    /**
+     * Starts a transaction.
+     *
+     * @param mac     client MAC address
+     * @param xid     transaction ID
+     * @param server  server handling the transaction
+     * @param ingress connect point the client sent from
+     * @param now     current time in nanoseconds
+     * @return false if the table is full
+     */
+    public boolean start(long mac, int xid, S server, ConnectPoint ingress, long now) {
+        long key = mac | OCCUPIED;
+        Segment<S> segment = segment(key, xid);
+        synchronized (segment) {
+            if (segment.find(key, xid) < 0 && segment.size >= maxSegmentSize) {
+                overflows.increment();
+                return false;
+            }
+            segment.put(key, xid, server, ingress, now);
+        }
+        started.increment();
+        wheel.schedule(mac, xid, millis(now + timeoutNanos));
+        return true;
+    }
+
+    /**
+     * Hands a transaction in progress over to another server. The message
+     * being sent is timed from now; the transaction keeps its start time.
+     *
+     * @param mac  client MAC address
+     * @param xid  transaction ID
+     * @param from server handling the transaction
+     * @param to   server taking over the transaction
+     * @param now  current time in nanoseconds
+     * @return false if the transaction is unknown or handled by another
+     *         server
+     */
+    public boolean reassign(long mac, int xid, S from, S to, long now) {
+        long key = mac | OCCUPIED;
+        Segment<S> segment = segment(key, xid);
+        synchronized (segment) {
+            int index = segment.find(key, xid);
+            if (index < 0 || !segment.servers[index].equals(from)) {
+                return false;
+            }
+            segment.servers[index] = to;
+            segment.sent[index] = now;
+        }
+        wheel.schedule(mac, xid, millis(now + timeoutNanos));
+        return true;
+    }
+
+    /**
+     * Records the answer of a server and returns the connect point of the
+     * client. The transaction is removed if the answer ends it.
+     *
+     * @param mac     client MAC address
+     * @param xid     transaction ID
+     * @param server  answering server
+     * @param last    whether the answer ends the transaction
+     * @param now     current time in nanoseconds
+     * @param latency consumer of the answer latency of the server, in nanoseconds
+     * @return client connect point, or null if the transaction is unknown or
+     *         handled by another server
+     */
+    public ConnectPoint answered(long mac, int xid, S server, boolean last, long now,
+                                 LongConsumer latency) {
+        long key = mac | OCCUPIED;
+        Segment<S> segment = segment(key, xid);
+        ConnectPoint ingress;
+        long sent;
+        long start;
+        synchronized (segment) {
+            int index = segment.find(key, xid);
+            if (index < 0 || !segment.servers[index].equals(server)) {
+                return null;
+            }
+            ingress = segment.ingresses[index];
+            sent = segment.sent[index];
+            start = segment.started[index];
+            if (last) {
+                segment.remove(index);
+            }
+            else {
+                segment.sent[index] = ANSWERED;
+                segment.answered[index] = now;
+            }
+        }
+
+        if (sent != ANSWERED) {
+            latency.accept(now - sent);
+        }
+        if (last) {
+            completed.increment();
+            this.latency.record(now - start);
+        }
+        else {
+            wheel.schedule(mac, xid, millis(now + idleNanos));
+        }
+        return ingress;
+    }
+
+    /**
+     * Removes the transactions that timed out or stayed idle. Called
+     * periodically by a single timer thread.
+     *
+     * @param now      current time in nanoseconds
+     * @param listener consumer of the removed transactions
+     */
+    public void expire(long now, RemovalListener<S> listener) {
+        wheel.advance(millis(now), (mac, xid) -> {
+            long key = mac | OCCUPIED;
+            Segment<S> segment = segment(key, xid);
+            S server;
+            boolean timedOut;
+            synchronized (segment) {
+                int index = segment.find(key, xid);
+                if (index < 0) {
+                    return;
+                }
+                long sent = segment.sent[index];
+                timedOut = sent != ANSWERED && now - sent >= timeoutNanos;
+                boolean idle = sent == ANSWERED && now - segment.answered[index] >= idleNanos;
+                if (!timedOut && !idle) {
+                    // The deadline moved since this entry was scheduled
+                    return;
+                }
+                server = segment.servers[index];
+                segment.remove(index);
+            }
+            if (timedOut) {
+                timeouts.increment();
+            }
+            listener.removed(server, timedOut);
+        });
+    }
+
+    /**
+     * Returns the number of transactions in progress.
+     *
+     * @return transaction count
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<S> segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the counters of the table.
+     *
+     * @return transaction statistics
+     */
+    public DhcpTransactionStats stats() {
+        return new DhcpTransactionStats(size(), started.sum(), completed.sum(), timeouts.sum(), overflows.sum(),
+                                        latency.meanNanos(), latency.percentileNanos(50),
+                                        latency.percentileNanos(99));
+    }
+
+    private Segment<S> segment(long key, int xid) {
+        return segments[(int) (hash(key, xid) >>> 58)];
+    }
+
+    private static long hash(long key, int xid) {
+        long value = key * 31 + xid;
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Linear-probing table of transactions. Keys carry an occupancy bit
+     * above the 48 MAC bits so that 0 marks a free slot.
+     */
+    private static final class Segment<S> {
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] xids = new int[INITIAL_SEGMENT_CAPACITY];
+        private long[] started = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] sent = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] answered = new long[INITIAL_SEGMENT_CAPACITY];
+        private ConnectPoint[] ingresses = new ConnectPoint[INITIAL_SEGMENT_CAPACITY];
+        private S[] servers = newArray(INITIAL_SEGMENT_CAPACITY);
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        private static <S> S[] newArray(int capacity) {
+            return (S[]) new Object[capacity];
+        }
+
+        private int find(long key, int xid) {
+            int mask = keys.length - 1;
+            for (int i = (int) hash(key, xid) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key && xids[i] == xid) {
+                    return i;
+                }
+                if (keys[i] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        private void put(long key, int xid, S server, ConnectPoint ingress, long now) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+
+            int mask = keys.length - 1;
+            int i = (int) hash(key, xid) & mask;
+            while (keys[i] != 0 && (keys[i] != key || xids[i] != xid)) {
+                i = (i + 1) & mask;
+            }
+
+            if (keys[i] == 0) {
+                size++;
+            }
+            keys[i] = key;
+            xids[i] = xid;
+            servers[i] = server;
+            ingresses[i] = ingress;
+            started[i] = now;
+            sent[i] = now;
+            answered[i] = 0;
+        }
+
+        /**
+         * Removes an entry, shifting back the entries of its probe sequence
+         * instead of leaving a tombstone.
+         */
+        private void remove(int index) {
+            int mask = keys.length - 1;
+            int hole = index;
+            for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = (int) hash(keys[i], xids[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    move(i, hole);
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+            servers[hole] = null;
+            ingresses[hole] = null;
+            size--;
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            xids[to] = xids[from];
+            servers[to] = servers[from];
+            ingresses[to] = ingresses[from];
+            started[to] = started[from];
+            sent[to] = sent[from];
+            answered[to] = answered[from];
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldXids = xids;
+            long[] oldStarted = started;
+            long[] oldSent = sent;
+            long[] oldAnswered = answered;
+            ConnectPoint[] oldIngresses = ingresses;
+            S[] oldServers = servers;
+
+            keys = new long[capacity];
+            xids = new int[capacity];
+            started = new long[capacity];
+            sent = new long[capacity];
+            answered = new long[capacity];
+            ingresses = new ConnectPoint[capacity];
+            servers = newArray(capacity);
+            size = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldXids[i], oldServers[i], oldIngresses[i], oldStarted[i]);
+                    int index = find(oldKeys[i], oldXids[i]);
+                    sent[index] = oldSent[i];
+                    answered[index] = oldAnswered[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hashed timer wheel of primitive keys, each with an optional int tag.
+ * <p>
+ * A key is hashed into the slot of its deadline tick, so scheduling costs
+ * one append and advancing the wheel only visits the slots of the elapsed
+ * ticks. Deadlines further away than one revolution stay in their slot
+ * until a later revolution reaches them. The slot of the tick in progress
+ * is drained again by every advance until the tick has elapsed, so a key
+ * fires on the first advance after its deadline. Keys are never cancelled:
+ * the owner of a key reschedules it when its deadline moves and ignores
+ * expirations that are no longer due.
+ * </p>
+ */
+public class TimerWheel {
+
+    private static final int INITIAL_SLOT_CAPACITY = 4;
+
+    private final long tickMillis;
+    private final int mask;
+    private final Slot[] slots;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile long currentTick;
+
+    private long[] due = new long[64];
+    private int[] dueTags = new int[64];
+
+    /**
+     * Consumer of expired keys and their tags.
+     */
+    @FunctionalInterface
+    public interface Expiry {
+        void expired(long key, int tag);
+    }
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tickMillis duration of a tick in milliseconds
+     * @param slotCount  number of slots, a power of two
+     * @param now        current time in milliseconds
+     */
+    public TimerWheel(long tickMillis, int slotCount, long now) {
+        checkArgument(tickMillis > 0, "Tick must be positive");
+        checkArgument(Integer.bitCount(slotCount) == 1, "Slot count must be a power of two");
+
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot();
+        }
+        // The tick in progress has not elapsed yet
+        this.currentTick = now / tickMillis - 1;
+    }
+
+    /**
+     * Schedules a key. A deadline already passed expires on the next advance.
+     *
+     * @param key      key
+     * @param deadline deadline in milliseconds
+     */
+    public void schedule(long key, long deadline) {
+        schedule(key, 0, deadline);
+    }
+
+    /**
+     * Schedules a key with a tag. A deadline already passed expires on the
+     * next tick.
+     *
+     * @param key      key
+     * @param tag      tag handed back with the key
+     * @param deadline deadline in milliseconds
+     */
+    public void schedule(long key, int tag, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+        Slot slot = slots[(int) (tick & mask)];
+        synchronized (slot) {
+            slot.add(key, tag, deadline);
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * Advances the wheel to the current time and hands every key whose
+     * deadline passed to the consumer. Called by a single timer thread.
+     *
+     * @param now     current time in milliseconds
+     * @param expired consumer of expired keys
+     */
+    public void advance(long now, LongConsumer expired) {
+        advance(now, (key, tag) -> expired.accept(key));
+    }
+
+    /**
+     * Advances the wheel to the current time and hands every key whose
+     * deadline passed to the consumer, with its tag. Called by a single
+     * timer thread.
+     *
+     * @param now     current time in milliseconds
+     * @param expired consumer of expired keys
+     */
+    public synchronized void advance(long now, Expiry expired) {
+        long target = now / tickMillis;
+        long ticks = Math.min(target - currentTick, slots.length);
+
+        for (long t = 1; t <= ticks; t++) {
+            Slot slot = slots[(int) ((currentTick + t) & mask)];
+            int count;
+            synchronized (slot) {
+                count = slot.drain(now);
+            }
+            size.addAndGet(-count);
+            // Consumers run outside the slot lock so that they may reschedule
+            for (int i = 0; i < count; i++) {
+                expired.expired(due[i], dueTags[i]);
+            }
+        }
+
+        // Only the ticks before the target have fully elapsed; the slot of
+        // the target is drained again by the next advance
+        if (target - 1 > currentTick) {
+            currentTick = target - 1;
+        }
+    }
+
+    /**
+     * Returns the number of scheduled keys, including keys whose owner has
+     * moved their deadline since.
+     *
+     * @return scheduled key count
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns an estimate of the memory held by the slots.
+     *
+     * @return memory in bytes
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                bytes += (long) slot.keys.length * (Long.BYTES + Integer.BYTES + Long.BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Keys, tags and deadlines of one slot, in parallel arrays.
+     */
+    private final class Slot {
+        private long[] keys = new long[INITIAL_SLOT_CAPACITY];
+        private int[] tags = new int[INITIAL_SLOT_CAPACITY];
+        private long[] deadlines = new long[INITIAL_SLOT_CAPACITY];
+        private int count;
+
+        private void add(long key, int tag, long deadline) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                tags = Arrays.copyOf(tags, count * 2);
+                deadlines = Arrays.copyOf(deadlines, count * 2);
+            }
+            keys[count] = key;
+            tags[count] = tag;
+            deadlines[count] = deadline;
+            count++;
+        }
+
+        /**
+         * Moves the due keys to the due buffer and compacts the rest.
+         */
+        private int drain(long now) {
+            int expired = 0;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (deadlines[i] <= now) {
+                    if (expired == due.length) {
+                        due = Arrays.copyOf(due, expired * 2);
+                        dueTags = Arrays.copyOf(dueTags, expired * 2);
+                    }
+                    dueTags[expired] = tags[i];
+                    due[expired++] = keys[i];
+                }
+                else {
+                    keys[kept] = keys[i];
+                    tags[kept] = tags[i];
+                    deadlines[kept] = deadlines[i];
+                    kept++;
+                }
+            }
+            count = kept;
+
+            // Give memory back after a burst
+            if (keys.length > INITIAL_SLOT_CAPACITY && count < keys.length / 4) {
+                int capacity = Math.max(INITIAL_SLOT_CAPACITY, keys.length / 2);
+                keys = Arrays.copyOf(keys, capacity);
+                tags = Arrays.copyOf(tags, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+            }
+            return expired;
+        }
+    }
+}
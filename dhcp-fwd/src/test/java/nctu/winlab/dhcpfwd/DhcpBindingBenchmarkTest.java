@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark of the binding table at campus scale.
+ * <p>
+ * Loads {@code dhcpfwd.bench.leases} leases, ten thousand by default, spread
+ * over a thousand ports and an hour of expiries, then measures lookups and
+ * the expiry of the whole table. Runs only with {@code -Dbench=true}.
+ * </p>
+ */
+public class DhcpBindingBenchmarkTest {
+
+    private static final int LEASES = Integer.getInteger("dhcpfwd.bench.leases", 10000);
+    private static final int PORTS = 1000;
+    private static final long NOW = TimeUnit.DAYS.toMillis(1);
+    private static final long SPREAD = TimeUnit.HOURS.toMillis(1);
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void leases() {
+        ConnectPoint[] ports = new ConnectPoint[PORTS];
+        for (int i = 0; i < PORTS; i++) {
+            ports[i] = ConnectPoint.deviceConnectPoint(String.format("of:%016x/%d", i / 48 + 1, i % 48 + 1));
+        }
+
+        // The first run warms up the JIT and is not reported
+        run(ports, false);
+        run(ports, true);
+    }
+
+    private void run(ConnectPoint[] ports, boolean report) {
+        long heapBefore = usedHeap();
+        DhcpBindingTable table = new DhcpBindingTable(NOW);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LEASES; i++) {
+            table.update(mac(i), 0x0a000000 + i, NOW + 1 + i % SPREAD, ports[i % PORTS]);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long retained = usedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < LEASES; i++) {
+            if (table.location(mac(i)) != null) {
+                found++;
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        assertEquals(LEASES, found);
+
+        DhcpBindingStats stats = table.stats();
+
+        start = System.nanoTime();
+        table.expire(NOW + SPREAD);
+        long expireNanos = System.nanoTime() - start;
+        assertEquals(0, table.size());
+
+        if (report) {
+            System.out.printf("%d leases: insert=%.0fns/op, lookup=%.0fns/op, expire=%.1fms, retained=%.1fMB, %s%n",
+                              LEASES, (double) insertNanos / LEASES, (double) lookupNanos / LEASES,
+                              expireNanos / 1e6, retained / 1e6, stats);
+        }
+    }
+
+    private static long mac(int i) {
+        // Sequential clients of a few vendors
+        return ((long) (i & 7) << 40) | i;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Set of tests of the DHCP snooping binding table.
+ */
+public class DhcpBindingTableTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(1);
+    private static final long LEASE = TimeUnit.MINUTES.toMillis(10);
+    private static final ConnectPoint PORT1 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final ConnectPoint PORT2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/2");
+
+    private DhcpBindingTable table;
+
+    @Before
+    public void setUp() {
+        table = new DhcpBindingTable(NOW);
+    }
+
+    private static MacAddress mac(long value) {
+        return MacAddress.valueOf(value);
+    }
+
+    private static Ip4Address ip(int host) {
+        return Ip4Address.valueOf(Ip4Address.valueOf("10.0.0.0").toInt() + host);
+    }
+
+    /**
+     * Tests insertion, lookup and renewal of bindings.
+     */
+    @Test
+    public void updateAndGet() {
+        table.update(mac(1), ip(1), NOW + LEASE, PORT1);
+        table.update(mac(2), ip(2), NOW + LEASE, PORT2);
+
+        DhcpBinding binding = table.get(mac(1));
+        assertNotNull(binding);
+        assertEquals(ip(1), binding.ip());
+        assertEquals(NOW + LEASE, binding.expiry());
+        assertEquals(PORT1, binding.location());
+        assertEquals(PORT2, table.location(mac(2).toLong()));
+        assertNull(table.get(mac(3)));
+
+        // The client moved and renewed
+        table.update(mac(1), ip(1), NOW + 2 * LEASE, PORT2);
+        assertEquals(PORT2, table.get(mac(1)).location());
+        assertEquals(2, table.size());
+        assertEquals(2, table.stats().inserts());
+        assertEquals(1, table.stats().renewals());
+    }
+
+    /**
+     * Tests that clients of a port share one connect point, although each
+     * packet-in brings its own.
+     */
+    @Test
+    public void sharedLocations() {
+        table.update(mac(1), ip(1), NOW + LEASE, ConnectPoint.deviceConnectPoint("of:0000000000000002/1"));
+        table.update(mac(2), ip(2), NOW + LEASE, ConnectPoint.deviceConnectPoint("of:0000000000000002/1"));
+        assertSame(table.location(mac(1).toLong()), table.location(mac(2).toLong()));
+
+        table.update(mac(2), ip(2), NOW + 2 * LEASE, PORT2);
+        assertEquals(PORT2, table.location(mac(2).toLong()));
+        assertEquals(PORT1, table.location(mac(1).toLong()));
+    }
+
+    /**
+     * Tests that leases expire at their deadline and that a renewal
+     * postpones the expiry.
+     */
+    @Test
+    public void expiry() {
+        table.update(mac(1), ip(1), NOW + LEASE, PORT1);
+        table.update(mac(2), ip(2), NOW + LEASE, PORT1);
+        table.update(mac(2), ip(2), NOW + 2 * LEASE, PORT1);
+
+        table.expire(NOW + LEASE - 1);
+        assertEquals(2, table.size());
+
+        table.expire(NOW + LEASE);
+        assertNull(table.get(mac(1)));
+        assertNotNull(table.get(mac(2)));
+
+        table.expire(NOW + 2 * LEASE);
+        assertEquals(0, table.size());
+        assertEquals(2, table.stats().expirations());
+    }
+
+    /**
+     * Tests that a lease expires on the first sweep after its deadline when
+     * the sweeps do not fall on tick boundaries.
+     */
+    @Test
+    public void unalignedSweeps() {
+        table.update(mac(1), ip(1), NOW + 5800, PORT1);
+
+        long expired = -1;
+        for (long t = NOW + 500; t < NOW + 10000 && expired < 0; t += 1000) {
+            table.expire(t);
+            if (table.size() == 0) {
+                expired = t;
+            }
+        }
+        assertEquals(NOW + 6500, expired);
+        assertEquals(1, table.stats().expirations());
+    }
+
+    /**
+     * Tests that leases longer than a revolution of the timer wheel expire
+     * on time.
+     */
+    @Test
+    public void longLease() {
+        long lease = TimeUnit.DAYS.toMillis(3);
+        table.update(mac(1), ip(1), NOW + lease, PORT1);
+
+        for (long t = NOW; t < NOW + lease; t += TimeUnit.MINUTES.toMillis(30)) {
+            table.expire(t);
+        }
+        assertEquals(1, table.size());
+
+        table.expire(NOW + lease);
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Tests removal of bindings in colliding probe sequences.
+     */
+    @Test
+    public void removeMany() {
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            table.update(mac(i), ip(i), NOW + LEASE, PORT1);
+        }
+        for (int i = 0; i < count; i += 2) {
+            table.remove(mac(i));
+        }
+
+        assertEquals(count / 2, table.size());
+        for (int i = 0; i < count; i++) {
+            DhcpBinding binding = table.get(mac(i));
+            if (i % 2 == 0) {
+                assertNull(binding);
+            }
+            else {
+                assertEquals(ip(i), binding.ip());
+            }
+        }
+        assertEquals(count / 2, table.stats().releases());
+    }
+}
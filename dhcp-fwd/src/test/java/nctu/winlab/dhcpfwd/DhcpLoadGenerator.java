@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onlab.packet.DHCP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.net.packet.PacketServiceAdapter;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM generator of DHCP DORA exchanges.
+ * <p>
+ * Every client is spread over the given edge ports and has its DISCOVER
+ * and REQUEST, and the OFFER and ACK of each server, built up front as
+ * inbound packets. Worker threads drive the exchanges of their clients
+ * through a packet processor, and a stub server behind the packet service
+ * answers each relayed message with the matching reply received on the
+ * server port the relay sent it to.
+ * </p>
+ */
+public class DhcpLoadGenerator {
+
+    private final Client[] clients;
+    private final ThreadLocal<OutboundPacket> emitted = new ThreadLocal<>();
+    private final PacketService packetService = new PacketServiceAdapter() {
+        @Override
+        public void emit(OutboundPacket packet) {
+            emitted.set(packet);
+        }
+    };
+
+    /**
+     * Builds the packets of a population of clients.
+     *
+     * @param clientCount number of clients
+     * @param ports       edge ports the clients are spread over
+     * @param servers     server connect points
+     */
+    public DhcpLoadGenerator(int clientCount, List<ConnectPoint> ports, List<ConnectPoint> servers) {
+        clients = new Client[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new Client(MacAddress.valueOf(0x020000000000L + i), i, ports.get(i % ports.size()),
+                                    servers);
+        }
+    }
+
+    /**
+     * Returns the packet service the relay under test must emit through.
+     *
+     * @return packet service answering as the DHCP servers
+     */
+    public PacketService packetService() {
+        return packetService;
+    }
+
+    /**
+     * Runs a number of rounds of DORA exchanges of every client, split over
+     * worker threads.
+     *
+     * @param processor packet processor under test
+     * @param threads   number of worker threads
+     * @param rounds    number of exchanges of every client
+     * @return result of the run
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public Result run(PacketProcessor processor, int threads, int rounds) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers.add(new Thread(() -> {
+                long allocatedBefore = allocatedBytes();
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = first; i < clients.length; i += threads) {
+                        long start = System.nanoTime();
+                        if (dora(processor, clients[i])) {
+                            latency.record(System.nanoTime() - start);
+                        }
+                        else {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+                allocated.addAndGet(allocatedBytes() - allocatedBefore);
+            }, "dhcp-load-" + t));
+        }
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        return new Result(threads, latency, failures.get(), wallNanos, allocated.get());
+    }
+
+    /**
+     * Runs one exchange of a client and returns whether the client got both
+     * replies.
+     */
+    private boolean dora(PacketProcessor processor, Client client) {
+        ConnectPoint server = exchange(processor, client.discover);
+        Map<ConnectPoint, InboundPacket> offers = client.offers;
+        if (server == null || !offers.containsKey(server)) {
+            return false;
+        }
+        if (!client.port.equals(exchange(processor, offers.get(server)))) {
+            return false;
+        }
+        if (!server.equals(exchange(processor, client.request))) {
+            return false;
+        }
+        return client.port.equals(exchange(processor, client.acks.get(server)));
+    }
+
+    /**
+     * Hands a received packet to the processor and returns where it was
+     * sent, or null if it was dropped.
+     */
+    private ConnectPoint exchange(PacketProcessor processor, InboundPacket packet) {
+        emitted.remove();
+        processor.process(DhcpPackets.context(packet));
+        OutboundPacket out = emitted.get();
+        if (out == null) {
+            return null;
+        }
+        Instructions.OutputInstruction output =
+                (Instructions.OutputInstruction) out.treatment().allInstructions().get(0);
+        return new ConnectPoint(out.sendThrough(), output.port());
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static InboundPacket inbound(ConnectPoint receivedFrom, Ethernet eth, ByteBuffer data) {
+        return new DefaultInboundPacket(receivedFrom, eth, data);
+    }
+
+    /**
+     * Prebuilt packets of a client. The replies of all servers share their
+     * frames and only differ in the port they are received on.
+     */
+    private static final class Client {
+        private final ConnectPoint port;
+        private final InboundPacket discover;
+        private final InboundPacket request;
+        private final Map<ConnectPoint, InboundPacket> offers = new HashMap<>();
+        private final Map<ConnectPoint, InboundPacket> acks = new HashMap<>();
+
+        private Client(MacAddress mac, int xid, ConnectPoint port, List<ConnectPoint> servers) {
+            this.port = port;
+            this.discover = packet(port, DhcpPackets.dhcp(mac, xid, DHCP.MsgType.DHCPDISCOVER));
+            this.request = packet(port, DhcpPackets.dhcp(mac, xid, DHCP.MsgType.DHCPREQUEST));
+
+            Ethernet offer = DhcpPackets.dhcp(mac, xid, DHCP.MsgType.DHCPOFFER);
+            Ethernet ack = DhcpPackets.dhcp(mac, xid, DHCP.MsgType.DHCPACK);
+            ByteBuffer offerData = ByteBuffer.wrap(offer.serialize());
+            ByteBuffer ackData = ByteBuffer.wrap(ack.serialize());
+            for (ConnectPoint server : servers) {
+                offers.put(server, inbound(server, offer, offerData));
+                acks.put(server, inbound(server, ack, ackData));
+            }
+        }
+
+        private static InboundPacket packet(ConnectPoint receivedFrom, Ethernet eth) {
+            return inbound(receivedFrom, eth, ByteBuffer.wrap(eth.serialize()));
+        }
+    }
+
+    /**
+     * Throughput, latency and allocation of a run.
+     */
+    public static final class Result {
+        private final int threads;
+        private final LatencyHistogram latency;
+        private final long failures;
+        private final long wallNanos;
+        private final long allocatedBytes;
+
+        private Result(int threads, LatencyHistogram latency, long failures, long wallNanos, long allocatedBytes) {
+            this.threads = threads;
+            this.latency = latency;
+            this.failures = failures;
+            this.wallNanos = wallNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long transactions() {
+            return latency.count();
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        public double transactionsPerSecond() {
+            return transactions() * 1e9 / wallNanos;
+        }
+
+        /**
+         * Returns the bytes allocated by the workers per exchange, including
+         * the packet contexts the generator creates.
+         *
+         * @return allocated bytes per exchange
+         */
+        public double bytesPerTransaction() {
+            long count = transactions() + failures;
+            return count == 0 ? 0 : (double) allocatedBytes / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threads=%d: %.0f DORA/s, latency p50=%.1fus p99=%.1fus p99.9=%.1fus, "
+                                         + "alloc=%.0fB/DORA (%.0fMB/s), failures=%d",
+                                 threads, transactionsPerSecond(), latency.percentileNanos(50) / 1e3,
+                                 latency.percentileNanos(99) / 1e3, latency.percentileNanos(99.9) / 1e3,
+                                 bytesPerTransaction(), allocatedBytes * 1e3 / wallNanos, failures);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onlab.packet.dhcp.DhcpOption;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds DHCP packets and packet contexts for tests.
+ */
+public final class DhcpPackets {
+
+    static final MacAddress SERVER_MAC = MacAddress.valueOf("00:00:00:00:0d:01");
+    static final Ip4Address CLIENT_IP = Ip4Address.valueOf("10.0.0.100");
+
+    private DhcpPackets() {
+    }
+
+    /**
+     * Returns a DHCP message between a client and a server.
+     *
+     * @param client client hardware address
+     * @param xid    transaction identifier
+     * @param type   message type
+     * @return Ethernet frame
+     */
+    public static Ethernet dhcp(MacAddress client, int xid, DHCP.MsgType type) {
+        boolean fromServer = type == DHCP.MsgType.DHCPOFFER || type == DHCP.MsgType.DHCPACK
+                || type == DHCP.MsgType.DHCPNAK;
+
+        DhcpOption messageType = new DhcpOption();
+        messageType.setCode(DHCP.DHCPOptionCode.OptionCode_MessageType.getValue());
+        messageType.setLength((byte) 1);
+        messageType.setData(new byte[]{(byte) type.getValue()});
+
+        DhcpOption end = new DhcpOption();
+        end.setCode(DHCP.DHCPOptionCode.OptionCode_END.getValue());
+
+        DHCP dhcp = new DHCP();
+        dhcp.setOpCode(fromServer ? DHCP.OPCODE_REPLY : DHCP.OPCODE_REQUEST);
+        dhcp.setHardwareType(DHCP.HWTYPE_ETHERNET);
+        dhcp.setHardwareAddressLength((byte) 6);
+        dhcp.setTransactionId(xid);
+        dhcp.setClientHardwareAddress(client.toBytes());
+        if (type == DHCP.MsgType.DHCPOFFER || type == DHCP.MsgType.DHCPACK) {
+            dhcp.setYourIPAddress(CLIENT_IP.toInt());
+        }
+        dhcp.setOptions(ImmutableList.of(messageType, end));
+
+        UDP udp = new UDP();
+        udp.setSourcePort(fromServer ? UDP.DHCP_SERVER_PORT : UDP.DHCP_CLIENT_PORT);
+        udp.setDestinationPort(fromServer ? UDP.DHCP_CLIENT_PORT : UDP.DHCP_SERVER_PORT);
+        udp.setPayload(dhcp);
+
+        IPv4 ipv4 = new IPv4();
+        ipv4.setProtocol(IPv4.PROTOCOL_UDP);
+        ipv4.setSourceAddress(fromServer ? Ip4Address.valueOf("10.0.0.1").toInt() : 0);
+        ipv4.setDestinationAddress(Ip4Address.valueOf("255.255.255.255").toInt());
+        ipv4.setPayload(udp);
+
+        Ethernet eth = new Ethernet();
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setSourceMACAddress(fromServer ? SERVER_MAC : client);
+        eth.setDestinationMACAddress(MacAddress.BROADCAST);
+        eth.setPayload(ipv4);
+        return eth;
+    }
+
+    /**
+     * Returns a packet-in context of a frame received on a connect point.
+     *
+     * @param receivedFrom ingress connect point
+     * @param eth          frame
+     * @return packet context
+     */
+    public static PacketContext context(ConnectPoint receivedFrom, Ethernet eth) {
+        return context(new DefaultInboundPacket(receivedFrom, eth, ByteBuffer.wrap(eth.serialize())));
+    }
+
+    /**
+     * Returns a packet-in context of a received packet.
+     *
+     * @param inPacket received packet
+     * @return packet context
+     */
+    public static PacketContext context(InboundPacket inPacket) {
+        return new DefaultPacketContext(System.currentTimeMillis(), inPacket, null, false) {
+            @Override
+            public void send() {
+            }
+        };
+    }
+}
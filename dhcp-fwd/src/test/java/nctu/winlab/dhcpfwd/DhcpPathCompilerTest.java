@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.PortCriterion;
+import org.onosproject.net.flow.criteria.UdpPortCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketServiceAdapter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the proactive DHCP paths, checked by walking messages
+ * through the compiled rules of a leaf-spine fabric.
+ */
+public class DhcpPathCompilerTest {
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.dhcpfwd");
+    private static final int PRIORITY = 40000;
+
+    private TestFabric fabric;
+    private List<ConnectPoint> servers;
+    private List<ConnectPoint> clients;
+    private DhcpPathCompiler compiler;
+
+    private Map<DeviceId, List<FlowRule>> table;
+    private int punts;
+
+    @Before
+    public void setUp() {
+        fabric = TestFabric.leafSpine(2, 4, 3);
+        List<DeviceId> leaves = fabric.leaves();
+        servers = ImmutableList.of(fabric.edgePorts(leaves.get(0)).get(0),
+                                   fabric.edgePorts(leaves.get(3)).get(0));
+        clients = new ArrayList<>(fabric.edgePorts());
+        clients.removeAll(servers);
+        compiler = new DhcpPathCompiler(fabric.topologyService(), fabric.deviceService(), fabric.edgePortService());
+    }
+
+    private static DhcpSnapshot config(List<ConnectPoint> servers, DhcpSnapshot.Mode mode) {
+        List<DhcpConfig.DhcpServerConfig> configs = new ArrayList<>();
+        servers.forEach(cp -> configs.add(new DhcpConfig.DhcpServerConfig(Optional.empty(), cp)));
+        return new DhcpSnapshot(configs, mode);
+    }
+
+    private void install() {
+        table = new HashMap<>();
+        punts = 0;
+        for (FlowRule rule : compiler.compile(config(servers, DhcpSnapshot.Mode.PROACTIVE), APP_ID, PRIORITY)) {
+            table.computeIfAbsent(rule.deviceId(), k -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    /**
+     * Forwards a message received on a connect point through the rules and
+     * returns the edge ports it leaves the fabric from. Messages no rule
+     * matches are counted as punted to the controller.
+     */
+    private Set<ConnectPoint> forward(ConnectPoint ingress, boolean toServer) {
+        Set<ConnectPoint> delivered = new HashSet<>();
+        Queue<ConnectPoint> queue = new ArrayDeque<>();
+        queue.add(ingress);
+        int hops = 0;
+
+        while (!queue.isEmpty()) {
+            ConnectPoint in = queue.poll();
+            assertTrue("Forwarding loop", ++hops <= 4 * fabric.deviceCount() * clients.size());
+
+            FlowRule rule = match(in, toServer);
+            if (rule == null) {
+                punts++;
+                continue;
+            }
+            for (Instruction instruction : rule.treatment().allInstructions()) {
+                ConnectPoint out = new ConnectPoint(in.deviceId(),
+                                                    ((Instructions.OutputInstruction) instruction).port());
+                Link link = fabric.linkFrom(out);
+                if (link == null) {
+                    delivered.add(out);
+                }
+                else {
+                    queue.add(link.dst());
+                }
+            }
+        }
+        return delivered;
+    }
+
+    private FlowRule match(ConnectPoint in, boolean toServer) {
+        int udpDst = toServer ? UDP.DHCP_SERVER_PORT : UDP.DHCP_CLIENT_PORT;
+        for (FlowRule rule : table.getOrDefault(in.deviceId(), ImmutableList.of())) {
+            UdpPortCriterion dst = (UdpPortCriterion) rule.selector().getCriterion(Criterion.Type.UDP_DST);
+            PortCriterion inPort = (PortCriterion) rule.selector().getCriterion(Criterion.Type.IN_PORT);
+            if (dst.udpPort().toInt() == udpDst && (inPort == null || inPort.port().equals(in.port()))) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests that every client reaches exactly one server, and that the
+     * replies of that server reach the client, without any packet-in.
+     */
+    @Test
+    public void dataPlaneDora() {
+        install();
+        Map<ConnectPoint, Set<ConnectPoint>> replies = new HashMap<>();
+        servers.forEach(server -> replies.put(server, forward(server, false)));
+
+        for (ConnectPoint client : clients) {
+            Set<ConnectPoint> reached = forward(client, true);
+            assertEquals(1, reached.size());
+            ConnectPoint server = reached.iterator().next();
+            assertTrue(servers.contains(server));
+            assertTrue(replies.get(server).contains(client));
+        }
+
+        // Every client is served by exactly one server
+        int served = replies.values().stream().mapToInt(Set::size).sum();
+        assertEquals(clients.size(), served);
+        assertEquals(0, punts);
+    }
+
+    /**
+     * Tests that recompiling after a link failure keeps every client
+     * connected.
+     */
+    @Test
+    public void linkFailure() {
+        List<DeviceId> leaves = fabric.leaves();
+        fabric.disconnect(leaves.get(1), DeviceId.deviceId("of:0000000000000001"));
+        install();
+
+        for (ConnectPoint client : clients) {
+            assertEquals(1, forward(client, true).size());
+        }
+        assertEquals(0, punts);
+    }
+
+    /**
+     * Tests that a DORA exchange costs four packet-ins per client in relay
+     * mode, where every message goes through the controller, and none in
+     * proactive mode.
+     */
+    @Test
+    public void packetInComparison() {
+        List<OutboundPacket> emitted = new ArrayList<>();
+        DhcpRelay relay = new DhcpRelay(new PacketServiceAdapter() {
+            @Override
+            public void emit(OutboundPacket packet) {
+                emitted.add(packet);
+            }
+        }, new DhcpServerPool(System.nanoTime()), new DhcpBindingTable(System.currentTimeMillis()),
+                new DhcpRateLimiter(1000, 1000, 100, 100, 60));
+        relay.setServers(servers);
+
+        long mac = 1;
+        for (ConnectPoint client : clients) {
+            MacAddress clientMac = MacAddress.valueOf(mac++);
+            relay.process(DhcpPackets.context(client, DhcpPackets.dhcp(clientMac, 1, DHCP.MsgType.DHCPDISCOVER)));
+            OutboundPacket toServer = emitted.get(emitted.size() - 1);
+            ConnectPoint server = new ConnectPoint(toServer.sendThrough(), ((Instructions.OutputInstruction)
+                    toServer.treatment().allInstructions().get(0)).port());
+            relay.process(DhcpPackets.context(server, DhcpPackets.dhcp(clientMac, 1, DHCP.MsgType.DHCPOFFER)));
+            relay.process(DhcpPackets.context(client, DhcpPackets.dhcp(clientMac, 1, DHCP.MsgType.DHCPREQUEST)));
+            relay.process(DhcpPackets.context(server, DhcpPackets.dhcp(clientMac, 1, DHCP.MsgType.DHCPACK)));
+        }
+        assertEquals(4 * clients.size(), relay.received());
+        assertEquals(4 * clients.size(), emitted.size());
+
+        install();
+        for (ConnectPoint client : clients) {
+            ConnectPoint server = forward(client, true).iterator().next();
+            forward(server, false);
+            forward(client, true);
+            forward(server, false);
+        }
+        assertEquals(0, punts);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the DHCP rate limiter.
+ */
+public class DhcpRateLimiterTest {
+
+    private static final long NOW = TimeUnit.SECONDS.toNanos(1000);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final ConnectPoint PORT1 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final ConnectPoint PORT2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/2");
+
+    private DhcpRateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        // 10/s per port with a burst of 20, 2/s per client with a burst of 4
+        limiter = new DhcpRateLimiter(10, 20, 2, 4, 60);
+    }
+
+    private int admitted(ConnectPoint port, long firstMac, int macs, int count, long now) {
+        int admitted = 0;
+        for (int i = 0; i < count; i++) {
+            if (limiter.admit(port, firstMac + i % macs, now)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Tests that a single client gets its burst and then its rate.
+     */
+    @Test
+    public void clientBudget() {
+        assertEquals(4, admitted(PORT1, 1, 1, 10, NOW));
+        assertEquals(2, admitted(PORT1, 1, 1, 10, NOW + SECOND));
+        // Other clients of the port are not affected
+        assertEquals(4, admitted(PORT1, 2, 1, 10, NOW + SECOND));
+        assertEquals(6 + 8 + 6, limiter.stats(NOW).get(PORT1).dropped());
+    }
+
+    /**
+     * Tests that budgets do not depend on the origin of the clock, which may
+     * be negative.
+     */
+    @Test
+    public void negativeClock() {
+        assertEquals(4, admitted(PORT1, 1, 1, 10, -NOW));
+        assertEquals(2, admitted(PORT1, 1, 1, 10, -NOW + SECOND));
+        assertFalse(limiter.stats(-NOW).get(PORT1).blocked());
+    }
+
+    /**
+     * Tests that many clients on one port share its budget, independently
+     * of other ports.
+     */
+    @Test
+    public void portBudget() {
+        assertEquals(20, admitted(PORT1, 1, 100, 100, NOW));
+        assertEquals(10, admitted(PORT1, 1000, 100, 100, NOW + SECOND));
+        assertEquals(20, admitted(PORT2, 2000, 100, 100, NOW + SECOND));
+        assertEquals(170, limiter.stats(NOW).get(PORT1).dropped());
+        assertEquals(80, limiter.stats(NOW).get(PORT2).dropped());
+    }
+
+    /**
+     * Tests that a port over budget for several consecutive sweeps is
+     * blocked once, and that a quiet second resets the count.
+     */
+    @Test
+    public void escalation() {
+        long now = NOW;
+        for (int i = 0; i < 4; i++) {
+            admitted(PORT1, 1, 100, 100, now);
+            assertTrue(limiter.sweep(now).isEmpty());
+            now += SECOND;
+        }
+
+        // A quiet second
+        assertTrue(limiter.sweep(now).isEmpty());
+        now += SECOND;
+
+        for (int i = 0; i < 4; i++) {
+            admitted(PORT1, 1, 100, 100, now);
+            assertTrue(limiter.sweep(now).isEmpty());
+            now += SECOND;
+        }
+        admitted(PORT1, 1, 100, 100, now);
+        assertEquals(ImmutableList.of(PORT1), limiter.sweep(now));
+        assertTrue(limiter.stats(now).get(PORT1).blocked());
+
+        // Not escalated again while blocked
+        for (int i = 0; i < 10; i++) {
+            now += SECOND;
+            admitted(PORT1, 1, 100, 100, now);
+            assertTrue(limiter.sweep(now).isEmpty());
+        }
+        assertEquals(1, limiter.stats(now).get(PORT1).blocks());
+        assertFalse(limiter.stats(now + 60 * SECOND).get(PORT1).blocked());
+    }
+}
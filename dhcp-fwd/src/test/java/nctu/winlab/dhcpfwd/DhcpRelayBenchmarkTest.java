@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput benchmark of the relay under synthetic DORA load.
+ * <p>
+ * Each run builds a fresh relay and drives the DORA exchanges of every
+ * generated client through it, split over a number of worker threads, with
+ * stub servers answering at once. Throughput, exchange latency and the
+ * bytes allocated per exchange are reported for every thread count. Sizes
+ * can be raised with the {@code dhcpfwd.bench.*} system properties, for
+ * example {@code -Ddhcpfwd.bench.clients=100000 -Ddhcpfwd.bench.threads=1,4,16}.
+ * Runs only with {@code -Dbench=true}; {@link DhcpRelayTest} checks that the
+ * exchanges are relayed.
+ * </p>
+ */
+public class DhcpRelayBenchmarkTest {
+
+    private static final int CLIENTS = Integer.getInteger("dhcpfwd.bench.clients", 10000);
+    private static final int ROUNDS = Integer.getInteger("dhcpfwd.bench.rounds", 10);
+    private static final int PORTS = Integer.getInteger("dhcpfwd.bench.ports", 100);
+    private static final String THREADS = System.getProperty("dhcpfwd.bench.threads", "1,2,4,8");
+
+    // Rates and bursts high enough to keep the rate limiter out of the way
+    private static final int RATE = 1_000_000_000;
+    private static final int BURST = 1_000_000;
+
+    private static final List<ConnectPoint> SERVERS = ImmutableList.of(
+            ConnectPoint.deviceConnectPoint("of:0000000000000001/1"),
+            ConnectPoint.deviceConnectPoint("of:0000000000000002/1"));
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void dora() throws InterruptedException {
+        List<ConnectPoint> ports = new ArrayList<>();
+        for (int i = 0; i < PORTS; i++) {
+            ports.add(ConnectPoint.deviceConnectPoint(
+                    String.format("of:%016x/%d", 0x100 + i / 48, 2 + i % 48)));
+        }
+        DhcpLoadGenerator generator = new DhcpLoadGenerator(CLIENTS, ports, SERVERS);
+
+        // The first run warms up the JIT and is not reported
+        run(generator, 1);
+
+        for (String threads : THREADS.split(",")) {
+            DhcpLoadGenerator.Result result = run(generator, Integer.parseInt(threads.trim()));
+            System.out.printf("DORA %d clients x %d rounds, %s%n", CLIENTS, ROUNDS, result);
+        }
+    }
+
+    private DhcpLoadGenerator.Result run(DhcpLoadGenerator generator, int threads) throws InterruptedException {
+        DhcpRelay relay = new DhcpRelay(generator.packetService(), new DhcpServerPool(System.nanoTime()),
+                                        new DhcpBindingTable(System.currentTimeMillis()),
+                                        new DhcpRateLimiter(RATE, BURST, RATE, BURST, 60));
+        relay.setServers(SERVERS);
+
+        return generator.run(relay, threads, ROUNDS);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.DHCP;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketServiceAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the DHCP relay data path.
+ */
+public class DhcpRelayTest {
+
+    private static final ConnectPoint SERVER = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final ConnectPoint CLIENT = ConnectPoint.deviceConnectPoint("of:0000000000000002/3");
+    private static final MacAddress CLIENT_MAC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final int CLIENT_BURST = 5;
+
+    private final List<OutboundPacket> emitted = new ArrayList<>();
+    private DhcpBindingTable bindings;
+    private DhcpRelay relay;
+
+    @Before
+    public void setUp() {
+        bindings = new DhcpBindingTable(System.currentTimeMillis());
+        relay = new DhcpRelay(new PacketServiceAdapter() {
+            @Override
+            public void emit(OutboundPacket packet) {
+                emitted.add(packet);
+            }
+        }, new DhcpServerPool(System.nanoTime()), bindings, new DhcpRateLimiter(1000, 1000, 1, CLIENT_BURST, 60));
+        relay.setServers(ImmutableList.of(SERVER));
+    }
+
+    private static PacketContext packet(ConnectPoint receivedFrom, DHCP.MsgType type) {
+        return DhcpPackets.context(receivedFrom, DhcpPackets.dhcp(CLIENT_MAC, 1, type));
+    }
+
+    private static ConnectPoint destination(OutboundPacket packet) {
+        Instructions.OutputInstruction output =
+                (Instructions.OutputInstruction) packet.treatment().allInstructions().get(0);
+        return new ConnectPoint(packet.sendThrough(), output.port());
+    }
+
+    /**
+     * Tests that a full DORA exchange is relayed between the client port and
+     * the server port.
+     */
+    @Test
+    public void dora() {
+        PacketContext discover = packet(CLIENT, DHCP.MsgType.DHCPDISCOVER);
+        relay.process(discover);
+        relay.process(packet(SERVER, DHCP.MsgType.DHCPOFFER));
+        relay.process(packet(CLIENT, DHCP.MsgType.DHCPREQUEST));
+        relay.process(packet(SERVER, DHCP.MsgType.DHCPACK));
+
+        assertEquals(4, emitted.size());
+        assertEquals(SERVER, destination(emitted.get(0)));
+        assertEquals(CLIENT, destination(emitted.get(1)));
+        assertEquals(SERVER, destination(emitted.get(2)));
+        assertEquals(CLIENT, destination(emitted.get(3)));
+        assertEquals(2, relay.relayedToServer());
+        assertEquals(2, relay.relayedToClient());
+        assertTrue(discover.isHandled());
+
+        DhcpBinding binding = bindings.get(CLIENT_MAC);
+        assertNotNull(binding);
+        assertEquals(DhcpPackets.CLIENT_IP, binding.ip());
+        assertEquals(CLIENT, binding.location());
+    }
+
+    /**
+     * Tests that the binding of a client is removed when it releases its
+     * lease.
+     */
+    @Test
+    public void release() {
+        relay.process(packet(CLIENT, DHCP.MsgType.DHCPREQUEST));
+        relay.process(packet(SERVER, DHCP.MsgType.DHCPACK));
+        assertEquals(1, bindings.size());
+
+        relay.process(packet(CLIENT, DHCP.MsgType.DHCPRELEASE));
+        assertNull(bindings.get(CLIENT_MAC));
+        assertEquals(1, bindings.stats().releases());
+    }
+
+    /**
+     * Tests that a client flooding discovers is cut off once its burst is
+     * spent, while the server side is not limited.
+     */
+    @Test
+    public void storm() {
+        int count = 4 * CLIENT_BURST;
+        PacketContext last = null;
+        for (int i = 0; i < count; i++) {
+            last = packet(CLIENT, DHCP.MsgType.DHCPDISCOVER);
+            relay.process(last);
+        }
+
+        // One token a second; the loop may straddle a refill
+        assertTrue(relay.relayedToServer() >= CLIENT_BURST && relay.relayedToServer() <= CLIENT_BURST + 1);
+        assertEquals(count - relay.relayedToServer(), relay.rateLimited());
+        assertTrue(last.isHandled());
+
+        for (int i = 0; i < count; i++) {
+            relay.process(packet(SERVER, DHCP.MsgType.DHCPOFFER));
+        }
+        assertEquals(count, relay.relayedToClient());
+    }
+
+    /**
+     * Tests that replies not coming from a configured server are dropped.
+     */
+    @Test
+    public void rogueServer() {
+        relay.process(packet(CLIENT, DHCP.MsgType.DHCPDISCOVER));
+        relay.process(packet(CLIENT, DHCP.MsgType.DHCPOFFER));
+
+        assertEquals(1, emitted.size());
+        assertEquals(1, relay.dropped());
+    }
+
+    /**
+     * Tests that concurrent DORA exchanges of many clients are all relayed
+     * both ways.
+     */
+    @Test
+    public void concurrentDora() throws InterruptedException {
+        int clients = 200;
+        int rounds = 3;
+        List<ConnectPoint> ports = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ports.add(ConnectPoint.deviceConnectPoint(String.format("of:%016x/%d", 0x100 + i / 8, 2 + i % 8)));
+        }
+        List<ConnectPoint> servers = ImmutableList.of(SERVER, ConnectPoint.deviceConnectPoint("of:0000000000000003/1"));
+        DhcpLoadGenerator generator = new DhcpLoadGenerator(clients, ports, servers);
+
+        DhcpRelay loaded = new DhcpRelay(generator.packetService(), new DhcpServerPool(System.nanoTime()),
+                                         new DhcpBindingTable(System.currentTimeMillis()),
+                                         new DhcpRateLimiter(1_000_000, 1_000_000, 1_000_000, 1_000_000, 60));
+        loaded.setServers(servers);
+
+        DhcpLoadGenerator.Result result = generator.run(loaded, 4, rounds);
+
+        assertEquals(0, result.failures());
+        assertEquals((long) clients * rounds, result.transactions());
+        assertEquals(2L * clients * rounds, loaded.relayedToClient());
+    }
+}
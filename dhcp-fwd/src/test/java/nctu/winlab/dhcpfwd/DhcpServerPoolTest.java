@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the DHCP server pool.
+ */
+public class DhcpServerPoolTest {
+
+    private static final ConnectPoint SERVER1 = ConnectPoint.deviceConnectPoint("of:0000000000000001/1");
+    private static final ConnectPoint SERVER2 = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+    private static final ConnectPoint SERVER3 = ConnectPoint.deviceConnectPoint("of:0000000000000003/1");
+    private static final ConnectPoint CLIENT = ConnectPoint.deviceConnectPoint("of:0000000000000004/1");
+
+    private static final int CLIENTS = 3000;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECONDS = TimeUnit.SECONDS.toNanos(1);
+
+    private DhcpServerPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new DhcpServerPool(0);
+        pool.setServers(ImmutableList.of(SERVER1, SERVER2, SERVER3));
+    }
+
+    private static MacAddress client(int i) {
+        return MacAddress.valueOf(0x020000000000L + i);
+    }
+
+    private Map<MacAddress, ConnectPoint> assign(long now) {
+        Map<MacAddress, ConnectPoint> assignment = new HashMap<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            ConnectPoint server = pool.select(client(i), i, CLIENT, now);
+            assignment.put(client(i), server);
+            pool.replied(server, client(i), i, true, now + MILLIS);
+        }
+        return assignment;
+    }
+
+    /**
+     * Tests that answers are matched to the transaction and client port,
+     * and that the latency from the first client message to the
+     * acknowledgement is recorded.
+     */
+    @Test
+    public void transactionTracking() {
+        MacAddress mac = client(1);
+        ConnectPoint server = pool.select(mac, 7, CLIENT, SECONDS);
+        assertEquals(CLIENT, pool.replied(server, mac, 7, false, SECONDS + MILLIS));
+        assertNull(pool.replied(server, mac, 8, false, SECONDS + MILLIS));
+        assertNull(pool.replied(server.equals(SERVER1) ? SERVER2 : SERVER1, mac, 7, false, SECONDS + MILLIS));
+
+        // The request of the same transaction goes to the same server
+        assertEquals(server, pool.select(mac, 7, CLIENT, SECONDS + 2 * MILLIS));
+        assertEquals(CLIENT, pool.replied(server, mac, 7, true, SECONDS + 4 * MILLIS));
+        assertEquals(0, pool.outstanding());
+
+        DhcpTransactionStats stats = pool.transactionStats();
+        assertEquals(1, stats.completed());
+        assertTrue(stats.latencyP50Nanos() >= 4 * MILLIS && stats.latencyP50Nanos() < 5 * MILLIS);
+    }
+
+    /**
+     * Tests that clients are spread evenly and that removing a server only
+     * moves the clients of that server.
+     */
+    @Test
+    public void consistentHashing() {
+        Map<MacAddress, ConnectPoint> before = assign(SECONDS);
+        for (ConnectPoint server : ImmutableList.of(SERVER1, SERVER2, SERVER3)) {
+            long share = before.values().stream().filter(server::equals).count();
+            assertTrue("Uneven share " + share, share > CLIENTS / 5 && share < CLIENTS / 2);
+        }
+
+        pool.setServers(ImmutableList.of(SERVER1, SERVER2));
+        Map<MacAddress, ConnectPoint> after = assign(SECONDS);
+        before.forEach((client, server) -> {
+            if (!server.equals(SERVER3)) {
+                assertEquals(server, after.get(client));
+            }
+        });
+    }
+
+    /**
+     * Tests that a transaction whose server leaves the pool moves to another
+     * server without being counted twice.
+     */
+    @Test
+    public void serverRemoved() {
+        MacAddress mac = client(1);
+        ConnectPoint first = pool.select(mac, 7, CLIENT, SECONDS);
+        pool.setServers(ImmutableList.of(SERVER1, SERVER2, SERVER3).stream()
+                                .filter(server -> !server.equals(first))
+                                .collect(Collectors.toList()));
+
+        ConnectPoint second = pool.select(mac, 7, CLIENT, SECONDS + MILLIS);
+        assertNotEquals(first, second);
+        assertEquals(1, pool.stats(SECONDS).get(second).outstanding());
+        assertEquals(1, pool.outstanding());
+        assertEquals(1, pool.transactionStats().started());
+
+        assertNull(pool.replied(first, mac, 7, true, SECONDS + 2 * MILLIS));
+        assertEquals(CLIENT, pool.replied(second, mac, 7, true, SECONDS + 2 * MILLIS));
+        assertEquals(0, pool.stats(SECONDS).get(second).outstanding());
+        assertEquals(0, pool.outstanding());
+    }
+
+    /**
+     * Tests that the latency of each server is tracked and that new
+     * transactions avoid a much slower server.
+     */
+    @Test
+    public void slowServer() {
+        long now = SECONDS;
+        for (int i = 0; i < CLIENTS; i++) {
+            ConnectPoint server = pool.select(client(i), i, CLIENT, now);
+            pool.replied(server, client(i), i, true, now + (server.equals(SERVER3) ? 500 : 1) * MILLIS);
+        }
+        pool.sweep(now + 600 * MILLIS);
+
+        assertEquals(DhcpServerStats.State.SLOW, pool.stats(now + 600 * MILLIS).get(SERVER3).state());
+        assertTrue(pool.stats(now).get(SERVER3).latencyNanos() > 100 * MILLIS);
+
+        for (int i = 0; i < CLIENTS; i++) {
+            assertNotEquals(SERVER3, pool.select(client(i), CLIENTS + i, CLIENT, now + 700 * MILLIS));
+        }
+    }
+
+    /**
+     * Tests that a server which stops answering is skipped and its
+     * transactions time out.
+     */
+    @Test
+    public void unresponsiveServer() {
+        Map<MacAddress, ConnectPoint> first = new HashMap<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            ConnectPoint server = pool.select(client(i), i, CLIENT, SECONDS);
+            first.put(client(i), server);
+            if (!server.equals(SERVER2)) {
+                pool.replied(server, client(i), i, true, SECONDS + MILLIS);
+            }
+        }
+        pool.sweep(4 * SECONDS);
+
+        DhcpServerStats stats = pool.stats(4 * SECONDS).get(SERVER2);
+        assertEquals(DhcpServerStats.State.DOWN, stats.state());
+        assertEquals(0, stats.outstanding());
+        assertTrue(stats.timeouts() > 0);
+        assertEquals(0, pool.outstanding());
+        assertEquals(stats.timeouts(), pool.transactionStats().timeouts());
+
+        for (int i = 0; i < CLIENTS; i++) {
+            assertNotEquals(SERVER2, pool.select(client(i), CLIENTS + i, CLIENT, 5 * SECONDS));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the DHCP transaction table.
+ */
+public class DhcpTransactionTableTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECONDS = TimeUnit.SECONDS.toNanos(1);
+    private static final long TIMEOUT = 2 * SECONDS;
+    private static final long IDLE = 60 * SECONDS;
+    private static final ConnectPoint PORT = ConnectPoint.deviceConnectPoint("of:0000000000000002/1");
+
+    private DhcpTransactionTable<String> table;
+    private final List<String> timedOut = new ArrayList<>();
+    private final AtomicInteger removed = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        table = new DhcpTransactionTable<>(1024, TIMEOUT, IDLE, 0);
+    }
+
+    private void expire(long now) {
+        table.expire(now, (server, timeout) -> {
+            removed.incrementAndGet();
+            if (timeout) {
+                timedOut.add(server);
+            }
+        });
+    }
+
+    /**
+     * Tests that unanswered transactions time out, answered ones stay until
+     * idle, and retransmissions do not restart the clock.
+     */
+    @Test
+    public void expiry() {
+        table.start(1, 1, "a", PORT, SECONDS);
+        table.start(2, 1, "b", PORT, SECONDS);
+        table.answered(2, 1, "b", false, SECONDS + MILLIS, latency -> { });
+
+        // A retransmission of the unanswered discover
+        assertEquals("a", table.sent(1, 1, SECONDS + SECONDS / 2));
+        expire(SECONDS + TIMEOUT);
+        assertEquals(1, timedOut.size());
+        assertEquals("a", timedOut.get(0));
+        assertEquals(1, table.size());
+
+        expire(SECONDS + MILLIS + IDLE);
+        assertEquals(0, table.size());
+        assertEquals(2, removed.get());
+        assertEquals(1, table.stats().timeouts());
+    }
+
+    /**
+     * Tests that a timeout fires within a tick of its deadline when the
+     * table is swept at times that do not fall on tick boundaries.
+     */
+    @Test
+    public void unalignedSweeps() {
+        table.start(1, 1, "a", PORT, SECONDS + 30 * MILLIS);
+
+        long firedAt = -1;
+        for (long t = SECONDS + 10 * MILLIS; t < 10 * SECONDS && firedAt < 0; t += 100 * MILLIS) {
+            expire(t);
+            if (!timedOut.isEmpty()) {
+                firedAt = t;
+            }
+        }
+        long deadline = SECONDS + 30 * MILLIS + TIMEOUT;
+        assertTrue("fired at " + firedAt, firedAt >= deadline && firedAt < deadline + 100 * MILLIS);
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Tests that a message sent when the clock reads zero is still waiting
+     * for an answer and times out.
+     */
+    @Test
+    public void clockOrigin() {
+        table.start(1, 1, "a", PORT, 0);
+        assertEquals("a", table.sent(1, 1, 0));
+        expire(TIMEOUT);
+        assertEquals(1, timedOut.size());
+        assertEquals("a", timedOut.get(0));
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Tests that the answer to each message is timed from that message, and
+     * the transaction from its first message.
+     */
+    @Test
+    public void answerClock() {
+        table.start(1, 1, "a", PORT, SECONDS);
+        List<Long> latencies = new ArrayList<>();
+        assertEquals(PORT, table.answered(1, 1, "a", false, SECONDS + 10 * MILLIS, latencies::add));
+        assertEquals("a", table.sent(1, 1, 5 * SECONDS));
+        expire(6 * SECONDS);
+        assertEquals(PORT, table.answered(1, 1, "a", true, 6 * SECONDS + 20 * MILLIS, latencies::add));
+
+        assertEquals(10 * MILLIS, (long) latencies.get(0));
+        assertEquals(SECONDS + 20 * MILLIS, (long) latencies.get(1));
+        assertTrue(timedOut.isEmpty());
+        assertEquals(1, table.stats().completed());
+        assertTrue(table.stats().latencyP99Nanos() >= 5 * SECONDS + 20 * MILLIS);
+    }
+
+    /**
+     * Tests that answers only match the transaction, client and server.
+     */
+    @Test
+    public void matching() {
+        table.start(1, 1, "a", PORT, SECONDS);
+        assertNull(table.answered(1, 2, "a", true, SECONDS, latency -> { }));
+        assertNull(table.answered(2, 1, "a", true, SECONDS, latency -> { }));
+        assertNull(table.answered(1, 1, "b", true, SECONDS, latency -> { }));
+        assertEquals(1, table.size());
+    }
+
+    /**
+     * Tests that a full table refuses new transactions but keeps serving the
+     * ones in progress.
+     */
+    @Test
+    public void bounded() {
+        int accepted = 0;
+        for (int i = 0; i < 4096; i++) {
+            if (table.start(i, i, "a", PORT, SECONDS)) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted <= 1024);
+        assertEquals(accepted, table.size());
+        assertEquals(4096 - accepted, table.stats().overflows());
+
+        int retransmitted = 0;
+        for (int i = 0; i < 4096; i++) {
+            if (table.sent(i, i, SECONDS) != null) {
+                retransmitted++;
+                assertTrue(table.start(i, i, "a", PORT, SECONDS));
+            }
+        }
+        assertEquals(accepted, retransmitted);
+    }
+
+    /**
+     * Tests concurrent transactions from several packet threads.
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        DhcpTransactionTable<String> shared = new DhcpTransactionTable<>(1 << 16, TIMEOUT, IDLE, 0);
+        int threads = 4;
+        int perThread = 10000;
+        AtomicInteger matched = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long base = (long) t * perThread;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    shared.start(base + i, i, "a", PORT, SECONDS);
+                    shared.answered(base + i, i, "a", false, SECONDS, latency -> { });
+                    if (shared.answered(base + i, i, "a", true, SECONDS, latency -> { }) != null) {
+                        matched.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread, matched.get());
+        assertEquals(0, shared.size());
+    }
+}
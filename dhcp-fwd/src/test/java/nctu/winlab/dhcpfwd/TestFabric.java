@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.dhcpfwd;
+
+import org.onlab.graph.ScalarWeight;
+import org.onlab.packet.ChassisId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.edge.EdgePortService;
+import org.onosproject.net.edge.EdgePortServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * In-memory leaf-spine fabric backing fake device, topology and edge port
+ * services.
+ */
+public class TestFabric {
+
+    static final ProviderId PID = new ProviderId("of", "nctu.winlab.dhcpfwd.test");
+
+    private final Map<DeviceId, Device> devices = new LinkedHashMap<>();
+    private final Map<DeviceId, List<Link>> egress = new HashMap<>();
+    private final Map<ConnectPoint, Link> linksFrom = new HashMap<>();
+    private final Map<DeviceId, List<ConnectPoint>> edgePorts = new HashMap<>();
+    private final Map<DeviceId, Long> nextPort = new HashMap<>();
+    private final Map<DeviceId, Map<DeviceId, Integer>> distances = new HashMap<>();
+    private final List<DeviceId> leaves = new ArrayList<>();
+
+    /**
+     * Builds a leaf-spine fabric where every leaf connects to every spine
+     * and has the given number of edge ports.
+     *
+     * @param spines       number of spine switches
+     * @param leafCount    number of leaf switches
+     * @param portsPerLeaf number of edge ports of each leaf
+     * @return fabric
+     */
+    public static TestFabric leafSpine(int spines, int leafCount, int portsPerLeaf) {
+        TestFabric fabric = new TestFabric();
+        List<DeviceId> spineIds = new ArrayList<>();
+        for (int i = 0; i < spines; i++) {
+            spineIds.add(fabric.addDevice());
+        }
+        for (int i = 0; i < leafCount; i++) {
+            DeviceId leaf = fabric.addDevice();
+            fabric.leaves.add(leaf);
+            spineIds.forEach(spine -> fabric.connect(leaf, spine));
+            for (int p = 0; p < portsPerLeaf; p++) {
+                fabric.edgePorts.get(leaf).add(new ConnectPoint(leaf, fabric.allocatePort(leaf)));
+            }
+        }
+        return fabric;
+    }
+
+    private DeviceId addDevice() {
+        long dpid = devices.size() + 1;
+        DeviceId deviceId = DeviceId.deviceId(String.format("of:%016x", dpid));
+        devices.put(deviceId, new DefaultDevice(PID, deviceId, Device.Type.SWITCH,
+                                                "nctu", "1.0", "1.0", "1", new ChassisId(dpid)));
+        egress.put(deviceId, new ArrayList<>());
+        edgePorts.put(deviceId, new ArrayList<>());
+        nextPort.put(deviceId, 1L);
+        return deviceId;
+    }
+
+    /**
+     * Connects two devices with a bidirectional link on fresh ports.
+     *
+     * @param a first device
+     * @param b second device
+     */
+    public void connect(DeviceId a, DeviceId b) {
+        ConnectPoint cpA = new ConnectPoint(a, allocatePort(a));
+        ConnectPoint cpB = new ConnectPoint(b, allocatePort(b));
+        addLink(link(cpA, cpB));
+        addLink(link(cpB, cpA));
+        distances.clear();
+    }
+
+    /**
+     * Removes both directions of every link between two devices.
+     *
+     * @param a first device
+     * @param b second device
+     */
+    public void disconnect(DeviceId a, DeviceId b) {
+        egress.get(a).removeIf(link -> link.dst().deviceId().equals(b));
+        egress.get(b).removeIf(link -> link.dst().deviceId().equals(a));
+        linksFrom.values().removeIf(link -> link.src().deviceId().equals(a) && link.dst().deviceId().equals(b)
+                || link.src().deviceId().equals(b) && link.dst().deviceId().equals(a));
+        distances.clear();
+    }
+
+    private void addLink(Link link) {
+        egress.get(link.src().deviceId()).add(link);
+        linksFrom.put(link.src(), link);
+    }
+
+    public List<DeviceId> leaves() {
+        return Collections.unmodifiableList(leaves);
+    }
+
+    public List<ConnectPoint> edgePorts(DeviceId deviceId) {
+        return Collections.unmodifiableList(edgePorts.get(deviceId));
+    }
+
+    public List<ConnectPoint> edgePorts() {
+        List<ConnectPoint> all = new ArrayList<>();
+        leaves.forEach(leaf -> all.addAll(edgePorts.get(leaf)));
+        return all;
+    }
+
+    /**
+     * Returns the link leaving a connect point.
+     *
+     * @param src link source
+     * @return link, or null for an edge port
+     */
+    public Link linkFrom(ConnectPoint src) {
+        return linksFrom.get(src);
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public DeviceService deviceService() {
+        return new DeviceServiceAdapter() {
+            @Override
+            public Iterable<Device> getAvailableDevices() {
+                return Collections.unmodifiableCollection(devices.values());
+            }
+        };
+    }
+
+    public EdgePortService edgePortService() {
+        return new EdgePortServiceAdapter() {
+            @Override
+            public Iterable<ConnectPoint> getEdgePoints(DeviceId deviceId) {
+                return edgePorts.getOrDefault(deviceId, Collections.emptyList());
+            }
+        };
+    }
+
+    public TopologyService topologyService() {
+        return new TopologyServiceAdapter() {
+            @Override
+            public Set<Path> getPaths(Topology topology, DeviceId src, DeviceId dst) {
+                return paths(src, dst);
+            }
+        };
+    }
+
+    /**
+     * Returns one shortest path through each neighbor lying on a shortest
+     * path.
+     */
+    private Set<Path> paths(DeviceId src, DeviceId dst) {
+        Map<DeviceId, Integer> distance = distances.computeIfAbsent(dst, this::distancesTo);
+        Integer hops = distance.get(src);
+        if (src.equals(dst) || hops == null) {
+            return Collections.emptySet();
+        }
+
+        Set<Path> paths = new HashSet<>();
+        for (Link first : egress.get(src)) {
+            Integer next = distance.get(first.dst().deviceId());
+            if (next == null || next != hops - 1) {
+                continue;
+            }
+
+            List<Link> links = new ArrayList<>();
+            links.add(first);
+            DeviceId current = first.dst().deviceId();
+            while (!current.equals(dst)) {
+                int remaining = distance.get(current);
+                for (Link link : egress.get(current)) {
+                    Integer d = distance.get(link.dst().deviceId());
+                    if (d != null && d == remaining - 1) {
+                        links.add(link);
+                        current = link.dst().deviceId();
+                        break;
+                    }
+                }
+            }
+            paths.add(new DefaultPath(PID, links, ScalarWeight.toWeight(links.size())));
+        }
+        return paths;
+    }
+
+    private Map<DeviceId, Integer> distancesTo(DeviceId dst) {
+        Map<DeviceId, Integer> distance = new HashMap<>();
+        Queue<DeviceId> queue = new ArrayDeque<>();
+        distance.put(dst, 0);
+        queue.add(dst);
+
+        while (!queue.isEmpty()) {
+            DeviceId current = queue.poll();
+            for (Link link : egress.get(current)) {
+                // Links are bidirectional, so the reverse of an egress link
+                // leads into the current device
+                DeviceId previous = link.dst().deviceId();
+                if (!distance.containsKey(previous)) {
+                    distance.put(previous, distance.get(current) + 1);
+                    queue.add(previous);
+                }
+            }
+        }
+        return distance;
+    }
+
+    private PortNumber allocatePort(DeviceId deviceId) {
+        long port = nextPort.get(deviceId);
+        nextPort.put(deviceId, port + 1);
+        return PortNumber.portNumber(port);
+    }
+
+    private static Link link(ConnectPoint src, ConnectPoint dst) {
+        return DefaultLink.builder()
+                .providerId(PID)
+                .src(src)
+                .dst(dst)
+                .type(Link.Type.DIRECT)
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+/**
+ * Budget, demand and counters of the adaptive port poller.
+ */
+public final class AdaptivePollStats {
+
+    private final double budget;
+    private final double demand;
+    private final int ports;
+    private final long polls;
+    private final long stale;
+    private final long failures;
+    private final long throttled;
+    private final long lagMillis;
+
+    public AdaptivePollStats(double budget, double demand, int ports, long polls, long stale, long failures,
+                             long throttled, long lagMillis) {
+        this.budget = budget;
+        this.demand = demand;
+        this.ports = ports;
+        this.polls = polls;
+        this.stale = stale;
+        this.failures = failures;
+        this.throttled = throttled;
+        this.lagMillis = lagMillis;
+    }
+
+    /**
+     * Returns the maximum number of reads per second.
+     *
+     * @return budget
+     */
+    public double budget() {
+        return budget;
+    }
+
+    /**
+     * Returns the number of reads per second the target intervals of the
+     * ports add up to. Above the budget, ports are read late.
+     *
+     * @return reads per second
+     */
+    public double demand() {
+        return demand;
+    }
+
+    /**
+     * Returns the number of ports polled.
+     *
+     * @return port count
+     */
+    public int ports() {
+        return ports;
+    }
+
+    /**
+     * Returns the number of reads.
+     *
+     * @return read count
+     */
+    public long polls() {
+        return polls;
+    }
+
+    /**
+     * Returns the number of reads that returned the counters already seen.
+     *
+     * @return stale read count
+     */
+    public long stale() {
+        return stale;
+    }
+
+    /**
+     * Returns the number of reads that failed.
+     *
+     * @return failure count
+     */
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of ticks that left due reads waiting for budget.
+     *
+     * @return throttled tick count
+     */
+    public long throttled() {
+        return throttled;
+    }
+
+    /**
+     * Returns how late the most overdue read was after the last tick.
+     *
+     * @return lag in milliseconds
+     */
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("budget=%.0f/s, demand=%.1f/s, ports=%d, polls=%d, stale=%d, failures=%d, "
+                                     + "throttled=%d, lag=%dms",
+                             budget, demand, ports, polls, stale, failures, throttled, lagMillis);
+    }
+}
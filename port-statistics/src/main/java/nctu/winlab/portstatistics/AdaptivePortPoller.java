@@ -0,0 +1,395 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Polls every port at its own interval within a global request budget.
+ * <p>
+ * Ports wait in a priority queue keyed by the time their next read is
+ * due. Each tick hands the due ports to the poll executor as long as a
+ * token bucket refilled at the budget rate has tokens left; ports that
+ * find no token wait for the next tick, so the effective interval of
+ * every port stretches when the budget is exceeded. A port is read with
+ * one request and its delta counters are derived from the previous read.
+ * </p>
+ * <p>
+ * After each read the interval of the port adapts to its traffic: it
+ * doubles while the port is idle, halves when the throughput changed by
+ * more than half since the previous read, and otherwise returns towards
+ * the base interval. A read that returns the counters already seen, as
+ * the device subsystem refreshes them at its own pace, is not a sample
+ * and doubles the interval, so ports are not read faster than their
+ * counters change.
+ * </p>
+ */
+public class AdaptivePortPoller {
+
+    static final long MIN_INTERVAL_MILLIS = 1000;
+    static final long BASE_INTERVAL_MILLIS = 5000;
+    static final long MAX_INTERVAL_MILLIS = 60000;
+    private static final long REFRESH_MILLIS = 30000;
+    private static final double IDLE_BPS = 1000;
+    private static final double FAST_CHANGE = 0.5;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DeviceService deviceService;
+    private final Executor pollExecutor;
+    private final PortStatsHandler handler;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry.due));
+    private final Map<ConnectPoint, Entry> entries = new HashMap<>();
+    private double budget;
+    private double tokens;
+    private long lastRefill;
+    private long lastRefresh;
+    private long lagMillis;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Creates a poller without ports.
+     *
+     * @param deviceService device service
+     * @param pollExecutor  executor running the reads
+     * @param handler       consumer of the samples
+     * @param budget        maximum number of reads per second
+     */
+    public AdaptivePortPoller(DeviceService deviceService, Executor pollExecutor, PortStatsHandler handler,
+                              double budget) {
+        this(deviceService, pollExecutor, handler, budget, System::currentTimeMillis);
+    }
+
+    AdaptivePortPoller(DeviceService deviceService, Executor pollExecutor, PortStatsHandler handler,
+                       double budget, LongSupplier clock) {
+        this.deviceService = deviceService;
+        this.pollExecutor = pollExecutor;
+        this.handler = handler;
+        this.clock = clock;
+        setBudget(budget);
+    }
+
+    /**
+     * Sets the request budget.
+     *
+     * @param budget maximum number of reads per second
+     */
+    public synchronized void setBudget(double budget) {
+        checkArgument(budget > 0, "Budget must be positive");
+        this.budget = budget;
+        this.tokens = Math.min(tokens, budget);
+    }
+
+    /**
+     * Refreshes the ports when due and dispatches the due reads. Called
+     * periodically by a single thread.
+     *
+     * @param now current time in milliseconds
+     */
+    public void tick(long now) {
+        if (now - lastRefresh >= REFRESH_MILLIS) {
+            refresh(now);
+        }
+        dispatch(now);
+    }
+
+    /**
+     * Reconciles the polled ports with the ports of the device subsystem.
+     * New ports are spread over the base interval.
+     *
+     * @param now current time in milliseconds
+     */
+    void refresh(long now) {
+        Map<ConnectPoint, Long> speeds = new HashMap<>();
+        for (Device device : deviceService.getDevices()) {
+            for (Port port : deviceService.getPorts(device.id())) {
+                speeds.put(new ConnectPoint(device.id(), port.number()), port.portSpeed());
+            }
+        }
+
+        synchronized (this) {
+            lastRefresh = now;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (!speeds.containsKey(entry.cp)) {
+                    entry.removed = true;
+                    iterator.remove();
+                }
+            }
+            speeds.forEach((cp, speed) -> {
+                Entry entry = entries.get(cp);
+                if (entry == null) {
+                    entry = new Entry(cp);
+                    entry.due = now + ThreadLocalRandom.current().nextLong(BASE_INTERVAL_MILLIS);
+                    entries.put(cp, entry);
+                    queue.add(entry);
+                }
+                entry.speed = speed;
+            });
+        }
+    }
+
+    /**
+     * Hands the due reads allowed by the budget to the poll executor.
+     *
+     * @param now current time in milliseconds
+     */
+    synchronized void dispatch(long now) {
+        // Up to one second of budget is saved while no read is due
+        tokens = Math.min(budget, tokens + (now - lastRefill) * budget / 1000);
+        lastRefill = now;
+
+        Entry next;
+        while ((next = queue.peek()) != null && next.due <= now) {
+            if (next.removed) {
+                queue.poll();
+                continue;
+            }
+            if (tokens < 1) {
+                throttled.increment();
+                break;
+            }
+            tokens--;
+            Entry entry = queue.poll();
+            pollExecutor.execute(() -> poll(entry));
+        }
+        lagMillis = next == null || next.due > now ? 0 : now - next.due;
+    }
+
+    private void poll(Entry entry) {
+        PortStatistics stats = null;
+        try {
+            stats = deviceService.getStatisticsForPort(entry.cp.deviceId(), entry.cp.port());
+        }
+        catch (RuntimeException e) {
+            failures.increment();
+            log.warn("Unable to read port statistics of {}: {}", entry.cp, e.getMessage());
+        }
+        long now = clock.getAsLong();
+        polls.increment();
+        try {
+            if (stats != null) {
+                sampled(entry, stats, now);
+            }
+        }
+        catch (RuntimeException e) {
+            failures.increment();
+            log.warn("Unable to handle port statistics of {}: {}", entry.cp, e.getMessage());
+        }
+        finally {
+            reschedule(entry, now);
+        }
+    }
+
+    /**
+     * Hands a read to the handler and adapts the interval of the port. Runs
+     * on one thread at a time for a port, as a port is not queued while it
+     * is read.
+     */
+    private void sampled(Entry entry, PortStatistics stats, long now) {
+        PortStatistics previous = entry.last;
+        if (previous != null && unchanged(previous, stats)) {
+            stale.increment();
+            entry.interval = Math.min(MAX_INTERVAL_MILLIS, entry.interval * 2);
+            return;
+        }
+        long previousTime = entry.lastTime;
+        entry.last = stats;
+        entry.lastTime = now;
+
+        PortStatistics delta = previous == null ? null
+                : delta(entry.cp.deviceId(), previous, stats, now - previousTime);
+        handler.sampled(entry.cp.deviceId(), entry.cp.port(), entry.speed, now, stats, delta);
+        if (delta == null) {
+            return;
+        }
+
+        double seconds = delta.durationSec() + delta.durationNano() / 1e9;
+        double bps = (delta.bytesReceived() + delta.bytesSent()) * 8 / seconds;
+        if (bps < IDLE_BPS) {
+            entry.interval = Math.min(MAX_INTERVAL_MILLIS, entry.interval * 2);
+        }
+        else if (entry.bps >= 0 && Math.abs(bps - entry.bps) > FAST_CHANGE * Math.max(bps, entry.bps)) {
+            entry.interval = Math.max(MIN_INTERVAL_MILLIS, entry.interval / 2);
+        }
+        else if (entry.interval > BASE_INTERVAL_MILLIS) {
+            entry.interval = Math.max(BASE_INTERVAL_MILLIS, entry.interval / 2);
+        }
+        else {
+            entry.interval = Math.min(BASE_INTERVAL_MILLIS, entry.interval * 2);
+        }
+        entry.bps = bps;
+    }
+
+    private synchronized void reschedule(Entry entry, long now) {
+        entry.effective = entry.polled == 0 ? entry.interval : now - entry.polled;
+        entry.polled = now;
+        if (!entry.removed) {
+            entry.due = now + entry.interval;
+            queue.add(entry);
+        }
+    }
+
+    /**
+     * Stops polling the ports of a device until the next refresh finds them.
+     *
+     * @param deviceId device identifier
+     */
+    public synchronized void remove(DeviceId deviceId) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.cp.deviceId().equals(deviceId)) {
+                entry.removed = true;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the effective polling interval of every port: the time
+     * between its last two reads, or its target interval before its second
+     * read.
+     *
+     * @return intervals in milliseconds, keyed by port
+     */
+    public synchronized Map<ConnectPoint, Long> intervals() {
+        ImmutableMap.Builder<ConnectPoint, Long> intervals = ImmutableMap.builder();
+        entries.forEach((cp, entry) -> intervals.put(cp, entry.effective == 0 ? entry.interval : entry.effective));
+        return intervals.build();
+    }
+
+    /**
+     * Returns the budget, demand and counters of the poller.
+     *
+     * @return poller statistics
+     */
+    public synchronized AdaptivePollStats stats() {
+        double demand = 0;
+        for (Entry entry : entries.values()) {
+            demand += 1000.0 / entry.interval;
+        }
+        return new AdaptivePollStats(budget, demand, entries.size(), polls.sum(), stale.sum(), failures.sum(),
+                                     throttled.sum(), lagMillis);
+    }
+
+    /**
+     * Returns whether a read carries the counters of the previous one. The
+     * duration of a port changes whenever its counters are refreshed;
+     * devices that do not report it are compared by counters.
+     */
+    private static boolean unchanged(PortStatistics previous, PortStatistics stats) {
+        if (previous.durationSec() != stats.durationSec() || previous.durationNano() != stats.durationNano()) {
+            return false;
+        }
+        return previous.durationSec() != 0 || previous.durationNano() != 0
+                || (previous.bytesReceived() == stats.bytesReceived() && previous.bytesSent() == stats.bytesSent()
+                && previous.packetsReceived() == stats.packetsReceived()
+                && previous.packetsSent() == stats.packetsSent());
+    }
+
+    /**
+     * Derives the delta counters between two reads.
+     *
+     * @return delta counters, or null if a counter went backwards
+     */
+    private static PortStatistics delta(DeviceId deviceId, PortStatistics previous, PortStatistics stats,
+                                        long wallMillis) {
+        long bytesReceived = stats.bytesReceived() - previous.bytesReceived();
+        long bytesSent = stats.bytesSent() - previous.bytesSent();
+        long packetsReceived = stats.packetsReceived() - previous.packetsReceived();
+        long packetsSent = stats.packetsSent() - previous.packetsSent();
+        long rxDropped = stats.packetsRxDropped() - previous.packetsRxDropped();
+        long txDropped = stats.packetsTxDropped() - previous.packetsTxDropped();
+        long rxErrors = stats.packetsRxErrors() - previous.packetsRxErrors();
+        long txErrors = stats.packetsTxErrors() - previous.packetsTxErrors();
+        if ((bytesReceived | bytesSent | packetsReceived | packetsSent | rxDropped | txDropped | rxErrors
+                | txErrors) < 0) {
+            return null;
+        }
+
+        // The interval measured by the device, or by the wall clock if the
+        // device does not report durations
+        long nanos = (stats.durationSec() - previous.durationSec()) * 1_000_000_000L
+                + stats.durationNano() - previous.durationNano();
+        if (nanos <= 0) {
+            nanos = Math.max(1, wallMillis) * 1_000_000L;
+        }
+        return DefaultPortStatistics.builder()
+                .setDeviceId(deviceId)
+                .setPort(stats.portNumber())
+                .setBytesReceived(bytesReceived)
+                .setBytesSent(bytesSent)
+                .setPacketsReceived(packetsReceived)
+                .setPacketsSent(packetsSent)
+                .setPacketsRxDropped(rxDropped)
+                .setPacketsTxDropped(txDropped)
+                .setPacketsRxErrors(rxErrors)
+                .setPacketsTxErrors(txErrors)
+                .setDurationSec(nanos / 1_000_000_000L)
+                .setDurationNano(nanos % 1_000_000_000L)
+                .build();
+    }
+
+    /**
+     * Polling state of a port.
+     */
+    private static final class Entry {
+        private final ConnectPoint cp;
+        private long speed;
+        private long due;
+        private long interval = BASE_INTERVAL_MILLIS;
+        private long polled;
+        private long effective;
+        private boolean removed;
+        private PortStatistics last;
+        private long lastTime;
+        private double bps = -1;
+
+        private Entry(ConnectPoint cp) {
+            this.cp = cp;
+        }
+    }
+}
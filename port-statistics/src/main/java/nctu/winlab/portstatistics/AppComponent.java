@@ -15,52 +15,529 @@
  */
 package nctu.winlab.portstatistics;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
-import org.onosproject.net.Device;
-import org.onosproject.net.Port;
+import org.apache.felix.scr.annotations.Service;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.event.ListenerRegistry;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.config.ConfigFactory;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigRegistry;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onosproject.net.config.basics.SubjectFactories.APP_SUBJECT_FACTORY;
 
 /**
  * Skeletal ONOS application component.
  */
 @Component(immediate = true)
-public class AppComponent {
+@Service
+public class AppComponent implements PortStatisticsService {
+
+    private static final long POLL_INTERVAL_MILLIS = 5000;
+    private static final int POLL_THREADS = 8;
+    private static final long ADAPTIVE_TICK_MILLIS = 100;
+    // Ten minutes of samples at the polling interval; longer ranges are
+    // answered from the rollups
+    private static final int HISTORY_SAMPLES = 120;
+    private static final int RANKED_PORTS = 32;
+    private static final int RANKED_FLOWS = 32;
+    private static final long ARCHIVE_SEGMENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int ARCHIVE_SEGMENT_BYTES = 64 << 20;
+    private static final long ARCHIVE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // Longest wait for polls in flight on deactivation
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected CoreService coreService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected NetworkConfigRegistry configService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected DeviceService deviceService;
 
-    private Timer timer = new Timer();
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected FlowRuleService flowRuleService;
+
+    private final InternalNetworkConfigListener configListener = new InternalNetworkConfigListener();
+    private final InternalDeviceListener deviceListener = new InternalDeviceListener();
+    private final InternalFlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    private final Set<ConfigFactory> factories = ImmutableSet.of(
+            new ConfigFactory<ApplicationId, PortStatsConfig>(APP_SUBJECT_FACTORY,
+                                                              PortStatsConfig.class,
+                                                              "port-statistics") {
+                @Override
+                public PortStatsConfig createConfig() {
+                    return new PortStatsConfig();
+                }
+            }
+    );
+
+    private ApplicationId appId;
+
+    private volatile PortStatsSnapshot snapshot = PortStatsSnapshot.empty();
+
+    private ScheduledExecutorService sweepExecutor;
+    private ExecutorService pollExecutor;
+    private ScheduledFuture<?> sweepFuture;
+    private ScheduledFuture<?> adaptiveFuture;
+    private PortStatsCollector collector;
+    private AdaptivePortPoller poller;
+    private final PortStatsStore store = new PortStatsStore(HISTORY_SAMPLES);
+    private final PortRateTracker rates = new PortRateTracker(RANKED_PORTS);
+    private final PortStatsRollups rollups = new PortStatsRollups();
+    private final FlowStatsTracker flows = new FlowStatsTracker(RANKED_FLOWS, this::application);
+    private PortStatsExporter exporter;
+    private MetricsServer metricsServer;
+    private final ListenerRegistry<PortAlertEvent, PortAlertListener> listenerRegistry = new ListenerRegistry<>();
+    private ExecutorService alertExecutor;
+    private PortAlertEngine alerts;
+    private volatile PortStatsArchive archive;
+    private ScheduledFuture<?> archiveFuture;
 
     @Activate
     protected void activate() {
-        log.info("Started");
+        appId = coreService.registerApplication("nctu.winlab.portstatistics");
 
         getPortStats();
+
+        deviceService.addListener(deviceListener);
+        flowRuleService.addListener(flowRuleListener);
+        configService.addListener(configListener);
+        factories.forEach(configService::registerConfigFactory);
+
+        getConfiguration(configService.getConfig(appId, PortStatsConfig.class));
+
+        log.info("Started");
     }
 
     @Deactivate
     protected void deactivate() {
+        configService.removeListener(configListener);
+        factories.forEach(configService::unregisterConfigFactory);
+        flowRuleService.removeListener(flowRuleListener);
+        deviceService.removeListener(deviceListener);
+
+        sweepExecutor.shutdownNow();
+        alertExecutor.shutdownNow();
+        // Interrupting a poll inside an archive append would close the file
+        // channels of the archive under it, so polls in flight are let finish
+        // and the archive is closed once they have
+        PortStatsArchive detached = detachArchive();
+        pollExecutor.shutdown();
+        awaitTermination(sweepExecutor);
+        awaitTermination(pollExecutor);
+        stopMetricsServer();
+        closeArchive(detached);
+
         log.info("Stopped");
-        timer.cancel();
     }
 
     protected void getPortStats() {
-        PortStatsTask task = new PortStatsTask();
-        task.setLog(log);
-        task.setDeviceService(deviceService);
-        timer.schedule(task, 0, 5000);
+        sweepExecutor = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/port-statistics", "sweep", log));
+        pollExecutor = Executors.newFixedThreadPool(POLL_THREADS,
+                                                    groupedThreads("onos/port-statistics", "poll-%d", log));
+        alertExecutor = Executors.newSingleThreadExecutor(groupedThreads("onos/port-statistics", "alerts", log));
+        alerts = new PortAlertEngine(this::post);
+        PortStatsHandler handler = store.andThen(rates).andThen(rollups).andThen(alerts).andThen(this::archive);
+        collector = new PortStatsCollector(deviceService, pollExecutor, handler);
+        poller = new AdaptivePortPoller(deviceService, pollExecutor, handler, PortStatsSnapshot.DEFAULT_POLL_BUDGET);
+        exporter = new PortStatsExporter(store, rates, collector::stats, poller);
+    }
+
+    private void getConfiguration(PortStatsConfig config) {
+        if (config == null) {
+            applyConfig(PortStatsSnapshot.empty());
+            return;
+        }
+
+        // Parsed and validated on activation and on every config change; an
+        // invalid version leaves the previous configuration in place
+        try {
+            applyConfig(config.snapshot());
+        }
+        catch (IllegalArgumentException e) {
+            log.error("Ignoring invalid port statistics config: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void applyConfig(PortStatsSnapshot config) {
+        PortStatsSnapshot previous = snapshot;
+        snapshot = config;
+
+        if (config.mode() != PortStatsSnapshot.Mode.POLL && sweepFuture != null) {
+            sweepFuture.cancel(false);
+            sweepFuture = null;
+        }
+        if (config.mode() != PortStatsSnapshot.Mode.ADAPTIVE && adaptiveFuture != null) {
+            adaptiveFuture.cancel(false);
+            adaptiveFuture = null;
+        }
+
+        if (config.mode() == PortStatsSnapshot.Mode.POLL && sweepFuture == null) {
+            // Sweeps only trigger the polls, so a fixed rate keeps the period
+            // while a sweep that overruns it makes the next one skip
+            sweepFuture = sweepExecutor.scheduleAtFixedRate(this::sweep, 0, POLL_INTERVAL_MILLIS,
+                                                            TimeUnit.MILLISECONDS);
+        }
+        else if (config.mode() == PortStatsSnapshot.Mode.ADAPTIVE && adaptiveFuture == null) {
+            adaptiveFuture = sweepExecutor.scheduleWithFixedDelay(this::tick, 0, ADAPTIVE_TICK_MILLIS,
+                                                                  TimeUnit.MILLISECONDS);
+        }
+        poller.setBudget(config.pollBudget());
+
+        if (metricsServer == null || config.metricsPort() != previous.metricsPort()
+                || !config.metricsAddress().equals(previous.metricsAddress())) {
+            startMetricsServer(config.metricsAddress(), config.metricsPort());
+        }
+
+        alerts.setRules(config.rules());
+
+        if (config.rollupHours() != previous.rollupHours()) {
+            rollups.setRetention(config.rollupHours());
+        }
+
+        if (config.archiveDays() == 0) {
+            closeArchive(detachArchive());
+        }
+        else if (archive == null) {
+            openArchive();
+        }
+
+        log.info("Port statistics collection mode: {}", config.mode());
+    }
+
+    private void openArchive() {
+        Path directory = Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")),
+                                   "port-statistics");
+        try {
+            archive = new PortStatsArchive(directory, ARCHIVE_SEGMENT_MILLIS, ARCHIVE_SEGMENT_BYTES);
+            archiveFuture = sweepExecutor.scheduleWithFixedDelay(this::expireArchive, 0, ARCHIVE_EXPIRY_MILLIS,
+                                                                 TimeUnit.MILLISECONDS);
+            log.info("Archiving port statistics to {}", directory);
+        }
+        catch (IOException e) {
+            log.error("Unable to open port statistics archive {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops handing samples to the archive and returns it, or null if none
+     * is open.
+     */
+    private synchronized PortStatsArchive detachArchive() {
+        PortStatsArchive current = archive;
+        if (current == null) {
+            return null;
+        }
+
+        archiveFuture.cancel(false);
+        archiveFuture = null;
+        archive = null;
+        return current;
+    }
+
+    private void closeArchive(PortStatsArchive detached) {
+        if (detached == null) {
+            return;
+        }
+
+        try {
+            detached.close();
+        }
+        catch (IOException e) {
+            log.warn("Unable to close port statistics archive: {}", e.getMessage());
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("Port statistics tasks still running after {}ms", SHUTDOWN_TIMEOUT_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void archive(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                         PortStatistics delta) {
+        PortStatsArchive current = archive;
+        if (current != null) {
+            current.sampled(deviceId, port, speed, time, stats, delta);
+        }
+    }
+
+    private void post(PortAlertEvent event) {
+        // Listeners run on their own thread instead of the sampling threads
+        alertExecutor.execute(() -> {
+            log.info("Port alert {}: {}", event.type(), event.subject());
+            listenerRegistry.process(event);
+        });
+    }
+
+    private void expireArchive() {
+        PortStatsArchive current = archive;
+        if (current != null) {
+            current.expire(System.currentTimeMillis(), TimeUnit.DAYS.toMillis(snapshot.archiveDays()));
+        }
+    }
+
+    private void startMetricsServer(InetAddress address, int port) {
+        stopMetricsServer();
+        if (port == 0) {
+            return;
+        }
+
+        try {
+            metricsServer = new MetricsServer(address, port, exporter);
+            metricsServer.start();
+            log.info("Serving port statistics metrics on {}:{}", address.getHostAddress(), port);
+        }
+        catch (IOException e) {
+            log.error("Unable to serve port statistics metrics on {}:{}: {}", address.getHostAddress(), port,
+                      e.getMessage());
+        }
+    }
+
+    private void stopMetricsServer() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+    }
+
+    private void sweep() {
+        try {
+            collector.sweep();
+        }
+        catch (RuntimeException e) {
+            // An exception would cancel every later sweep
+            log.warn("Port statistics sweep failed", e);
+        }
+    }
+
+    @Override
+    public void addListener(PortAlertListener listener) {
+        listenerRegistry.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(PortAlertListener listener) {
+        listenerRegistry.removeListener(listener);
+    }
+
+    @Override
+    public List<PortAlert> alerts() {
+        return alerts.alerts();
+    }
+
+    private void tick() {
+        try {
+            poller.tick(System.currentTimeMillis());
+        }
+        catch (RuntimeException e) {
+            // An exception would cancel every later tick
+            log.warn("Adaptive port polling failed", e);
+        }
+    }
+
+    @Override
+    public SweepStats sweepStats() {
+        return collector.stats();
+    }
+
+    @Override
+    public AdaptivePollStats pollStats() {
+        return poller.stats();
+    }
+
+    @Override
+    public Map<ConnectPoint, Long> pollIntervals() {
+        return poller.intervals();
+    }
+
+    @Override
+    public List<PortSample> history(ConnectPoint connectPoint, int count) {
+        return store.last(connectPoint, count);
+    }
+
+    @Override
+    public List<PortSample> history(ConnectPoint connectPoint, long from, long to) {
+        return store.range(connectPoint, from, to);
+    }
+
+    @Override
+    public List<PortSample> archivedHistory(ConnectPoint connectPoint, long from, long to) {
+        PortStatsArchive current = archive;
+        if (current == null) {
+            return ImmutableList.of();
+        }
+
+        try {
+            return current.range(connectPoint, from, to);
+        }
+        catch (IOException e) {
+            log.warn("Unable to read port statistics archive: {}", e.getMessage());
+            return ImmutableList.of();
+        }
+    }
+
+    @Override
+    public List<PortRollup> rollups(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to) {
+        return rollups.rollups(connectPoint, metric, from, to);
     }
 
+    @Override
+    public PortRollup summary(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to) {
+        return rollups.summary(connectPoint, metric, from, to);
+    }
+
+    @Override
+    public PortRate rate(ConnectPoint connectPoint) {
+        return rates.rate(connectPoint);
+    }
+
+    @Override
+    public Map<ConnectPoint, PortRate> rates() {
+        return rates.rates();
+    }
+
+    @Override
+    public List<PortRate> busiestPorts(int count) {
+        return rates.busiest(count);
+    }
+
+    @Override
+    public List<PortRate> droppingPorts(int count) {
+        return rates.dropping(count);
+    }
+
+    @Override
+    public Map<ApplicationId, FlowAggregate> appFlowStats() {
+        return flows.apps();
+    }
+
+    @Override
+    public Map<ApplicationId, FlowAggregate> appFlowStats(DeviceId deviceId) {
+        return flows.apps(deviceId);
+    }
+
+    @Override
+    public Map<DeviceId, FlowAggregate> deviceFlowStats() {
+        return flows.devices();
+    }
+
+    @Override
+    public List<FlowRate> busiestFlows(int count) {
+        return flows.busiest(count);
+    }
+
+    private ApplicationId application(int id) {
+        ApplicationId application = coreService.getAppId((short) id);
+        // Flows may outlive the registration of their application
+        return application != null ? application : new DefaultApplicationId(id, "unknown-" + id);
+    }
+
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            switch (event.type()) {
+                case PORT_STATS_UPDATED:
+                    if (snapshot.mode() == PortStatsSnapshot.Mode.EVENT) {
+                        collector.update(event.subject().id());
+                    }
+                    break;
+                case DEVICE_REMOVED:
+                    store.remove(event.subject().id());
+                    rates.remove(event.subject().id());
+                    rollups.remove(event.subject().id());
+                    poller.remove(event.subject().id());
+                    alerts.remove(event.subject().id(), event.time());
+                    flows.remove(event.subject().id());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            // Requested rules carry no counters
+            if (!(event.subject() instanceof FlowEntry)) {
+                return;
+            }
+            FlowEntry entry = (FlowEntry) event.subject();
+            switch (event.type()) {
+                case RULE_ADDED:
+                case RULE_UPDATED:
+                    flows.updated(entry, event.time());
+                    break;
+                case RULE_REMOVED:
+                    flows.removed(entry);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class InternalNetworkConfigListener implements NetworkConfigListener {
+        @Override
+        public void event(NetworkConfigEvent event) {
+            switch (event.type()) {
+                case CONFIG_ADDED:
+                case CONFIG_UPDATED:
+                case CONFIG_REMOVED:
+                    if (event.configClass() == PortStatsConfig.class) {
+                        getConfiguration(configService.getConfig(appId, PortStatsConfig.class));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Lists the flow traffic of every application and the busiest flows.
+ */
+@Command(scope = "onos", name = "app-flows",
+        description = "Lists the flow traffic of every application and the flows with the highest throughput")
+public class AppFlowsCommand extends AbstractShellCommand {
+
+    private static final String FORMAT = "%-32s%8d%16d%14d%14.0f%12.0f";
+
+    @Option(name = "-n", aliases = "--count", description = "Number of flows listed",
+            required = false, multiValued = false)
+    private int count = 10;
+
+    @Option(name = "-d", aliases = "--device", description = "Only count the flows of a device",
+            required = false, multiValued = false)
+    private String device = null;
+
+    @Override
+    protected void execute() {
+        PortStatisticsService service = get(PortStatisticsService.class);
+        Map<ApplicationId, FlowAggregate> apps = device == null ? service.appFlowStats()
+                : service.appFlowStats(DeviceId.deviceId(device));
+
+        print("%-32s%8s%16s%14s%14s%12s", "app", "flows", "bytes", "packets", "bps", "pps");
+        apps.values().stream()
+                .sorted(Comparator.comparingDouble(FlowAggregate::bps).reversed())
+                .forEach(app -> print(FORMAT, app.appId().name(), app.flows(), app.bytes(), app.packets(),
+                                      app.bps(), app.pps()));
+
+        print("");
+        print("%-28s%-20s%-24s%14s%12s  %s", "device", "flow", "app", "bps", "pps", "selector");
+        for (FlowRate flow : service.busiestFlows(count)) {
+            print("%-28s%-20s%-24s%14.0f%12.0f  %s", flow.rule().deviceId(), flow.rule().id(), flow.appId().name(),
+                  flow.bps(), flow.pps(), flow.rule().selector().criteria());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Bounded min-heap of the elements with the highest score. Each element
+ * records its position so that an element already in the heap is moved in
+ * place when its score changes, and a ranking is read in O(K) without
+ * scanning all elements. An element leaves the heap when another one
+ * overtakes it or its score drops to 0.
+ *
+ * @param <T> ranked element type
+ */
+public final class BoundedRanking<T> {
+
+    /**
+     * Position of an element in a ranking, kept by the element itself.
+     *
+     * @param <T> ranked element type
+     */
+    public interface Positions<T> {
+        /**
+         * Returns the position of the element.
+         *
+         * @param element ranked element
+         * @return position in the heap, or -1 if the element is not ranked
+         */
+        int get(T element);
+
+        /**
+         * Records the position of the element.
+         *
+         * @param element  ranked element
+         * @param position position in the heap, or -1 when it leaves it
+         */
+        void set(T element, int position);
+    }
+
+    private final T[] heap;
+    private final ToDoubleFunction<T> score;
+    private final Positions<T> positions;
+    private int size;
+
+    /**
+     * Creates an empty ranking.
+     *
+     * @param capacity  number of elements kept
+     * @param score     score of an element, elements scoring 0 or less are
+     *                  not ranked
+     * @param positions accessor of the position recorded by each element
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedRanking(int capacity, ToDoubleFunction<T> score, Positions<T> positions) {
+        this.heap = (T[]) new Object[capacity];
+        this.score = score;
+        this.positions = positions;
+    }
+
+    /**
+     * Ranks an element after its score changed.
+     *
+     * @param element ranked element
+     */
+    public void update(T element) {
+        double value = score.applyAsDouble(element);
+        if (value <= 0) {
+            remove(element);
+            return;
+        }
+
+        int position = positions.get(element);
+        if (position >= 0) {
+            siftDown(siftUp(position));
+            return;
+        }
+        if (size < heap.length) {
+            place(element, size++);
+            siftUp(size - 1);
+        }
+        else if (value > score.applyAsDouble(heap[0])) {
+            positions.set(heap[0], -1);
+            place(element, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Removes an element from the ranking, if ranked.
+     *
+     * @param element ranked element
+     */
+    public void remove(T element) {
+        int position = positions.get(element);
+        if (position < 0) {
+            return;
+        }
+        positions.set(element, -1);
+        T last = heap[--size];
+        heap[size] = null;
+        if (position < size) {
+            place(last, position);
+            siftDown(siftUp(position));
+        }
+    }
+
+    /**
+     * Returns a view of the elements with the highest score.
+     *
+     * @param count maximum number of elements, capped by the capacity
+     * @param view  view of an element
+     * @param <R>   view type
+     * @return views, highest score first
+     */
+    public <R> List<R> top(int count, Function<T, R> view) {
+        T[] ranked = Arrays.copyOf(heap, size);
+        Arrays.sort(ranked, Comparator.comparingDouble(score).reversed());
+        ImmutableList.Builder<R> top = ImmutableList.builder();
+        for (int i = 0; i < Math.min(count, ranked.length); i++) {
+            top.add(view.apply(ranked[i]));
+        }
+        return top.build();
+    }
+
+    private int siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!less(heap[position], heap[parent])) {
+                break;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+        return position;
+    }
+
+    private void siftDown(int position) {
+        for (;;) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && less(heap[left], heap[smallest])) {
+                smallest = left;
+            }
+            if (right < size && less(heap[right], heap[smallest])) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private boolean less(T a, T b) {
+        return score.applyAsDouble(a) < score.applyAsDouble(b);
+    }
+
+    private void swap(int i, int j) {
+        T element = heap[i];
+        place(heap[j], i);
+        place(element, j);
+    }
+
+    private void place(T element, int position) {
+        heap[position] = element;
+        positions.set(element, position);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+
+/**
+ * Flow entry counters and smoothed rates summed over the flows of an
+ * application, a device, or an application on a device.
+ */
+public final class FlowAggregate {
+
+    private final ApplicationId appId;
+    private final DeviceId deviceId;
+    private final int flows;
+    private final long bytes;
+    private final long packets;
+    private final double bps;
+    private final double pps;
+
+    public FlowAggregate(ApplicationId appId, DeviceId deviceId, int flows, long bytes, long packets,
+                         double bps, double pps) {
+        this.appId = appId;
+        this.deviceId = deviceId;
+        this.flows = flows;
+        this.bytes = bytes;
+        this.packets = packets;
+        this.bps = bps;
+        this.pps = pps;
+    }
+
+    /**
+     * Returns the application owning the flows.
+     *
+     * @return application identifier, or null for the flows of every
+     *         application
+     */
+    public ApplicationId appId() {
+        return appId;
+    }
+
+    /**
+     * Returns the device holding the flows.
+     *
+     * @return device identifier, or null for the flows of every device
+     */
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the number of flow entries currently installed.
+     *
+     * @return flow count
+     */
+    public int flows() {
+        return flows;
+    }
+
+    /**
+     * Returns the bytes matched since the flows were first seen, including
+     * flows removed since.
+     *
+     * @return byte count
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the packets matched since the flows were first seen, including
+     * flows removed since.
+     *
+     * @return packet count
+     */
+    public long packets() {
+        return packets;
+    }
+
+    public double bps() {
+        return bps;
+    }
+
+    public double pps() {
+        return pps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s flows=%d, bytes=%d, packets=%d, %.0fbps/%.0fpps",
+                             appId == null ? "*" : appId.name(), deviceId == null ? "" : "@" + deviceId,
+                             flows, bytes, packets, bps, pps);
+    }
+}
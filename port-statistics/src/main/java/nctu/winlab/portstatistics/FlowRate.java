@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.flow.FlowRule;
+
+/**
+ * Smoothed traffic rates of a flow entry.
+ */
+public final class FlowRate {
+
+    private final ApplicationId appId;
+    private final FlowRule rule;
+    private final long time;
+    private final long bytes;
+    private final long packets;
+    private final double bps;
+    private final double pps;
+
+    public FlowRate(ApplicationId appId, FlowRule rule, long time, long bytes, long packets, double bps,
+                    double pps) {
+        this.appId = appId;
+        this.rule = rule;
+        this.time = time;
+        this.bytes = bytes;
+        this.packets = packets;
+        this.bps = bps;
+        this.pps = pps;
+    }
+
+    public ApplicationId appId() {
+        return appId;
+    }
+
+    /**
+     * Returns the flow rule, as last reported with its counters.
+     *
+     * @return flow rule
+     */
+    public FlowRule rule() {
+        return rule;
+    }
+
+    /**
+     * Returns the time of the last counters folded into the rates.
+     *
+     * @return time in milliseconds
+     */
+    public long time() {
+        return time;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long packets() {
+        return packets;
+    }
+
+    public double bps() {
+        return bps;
+    }
+
+    public double pps() {
+        return pps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s app=%s %.0fbps/%.0fpps, selector=%s", rule.deviceId(), rule.id(),
+                             appId.name(), bps, pps, rule.selector());
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Flow entry counters and rates per application, per device and per
+ * application on a device, and a ranking of the busiest flows.
+ * <p>
+ * Each flow entry reported by the flow subsystem, on installation and on
+ * every statistics update, is compared with its previous counters; the
+ * difference is added to the aggregates the flow belongs to, and the rates
+ * of the flow, smoothed as the port rates are, are kept summed in them, so
+ * the aggregates are never recomputed from the flow tables. Each flow holds
+ * its aggregates, so an update does not look them up. Counters of removed
+ * flows stay in the totals while their rates leave the sums. The flows with
+ * the highest bit rate are kept in a {@link BoundedRanking} like the port
+ * rankings.
+ * </p>
+ */
+public class FlowStatsTracker {
+
+    private static final double TAU_SECONDS = 15;
+
+    // Aggregates a flow is counted in
+    private static final int APP = 0;
+    private static final int DEVICE = 1;
+    private static final int DEVICE_APP = 2;
+
+    private final IntFunction<ApplicationId> applications;
+    private final Map<DeviceId, Map<FlowId, Flow>> flows = new HashMap<>();
+    private final Map<Short, Aggregate> apps = new HashMap<>();
+    private final Map<DeviceId, DeviceAggregates> devices = new HashMap<>();
+    private final BoundedRanking<Flow> busiest;
+
+    /**
+     * Creates a tracker without flows.
+     *
+     * @param capacity     number of flows kept in the ranking
+     * @param applications resolver of the application identifiers carried
+     *                     by flow rules
+     */
+    public FlowStatsTracker(int capacity, IntFunction<ApplicationId> applications) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.busiest = new BoundedRanking<>(capacity, flow -> flow.bps, new BoundedRanking.Positions<Flow>() {
+            @Override
+            public int get(Flow flow) {
+                return flow.position;
+            }
+
+            @Override
+            public void set(Flow flow, int position) {
+                flow.position = position;
+            }
+        });
+        this.applications = checkNotNull(applications);
+    }
+
+    /**
+     * Folds the counters of an installed or updated flow entry.
+     *
+     * @param entry flow entry with its current counters
+     * @param time  time the counters were reported in milliseconds
+     */
+    public synchronized void updated(FlowEntry entry, long time) {
+        Map<FlowId, Flow> deviceFlows = flows.computeIfAbsent(entry.deviceId(), k -> new HashMap<>());
+        Flow flow = deviceFlows.get(entry.id());
+        if (flow == null) {
+            flow = new Flow(entry, aggregates(entry));
+            deviceFlows.put(entry.id(), flow);
+            // Traffic matched before the flow was first seen has no interval
+            apply(flow, 1, entry.bytes(), entry.packets(), 0, 0);
+            flow.bytes = entry.bytes();
+            flow.packets = entry.packets();
+            flow.time = time;
+            return;
+        }
+
+        // Counters restart from zero when the rule is reinstalled
+        long bytes = entry.bytes() >= flow.bytes ? entry.bytes() - flow.bytes : entry.bytes();
+        long packets = entry.packets() >= flow.packets ? entry.packets() - flow.packets : entry.packets();
+        double seconds = (time - flow.time) / 1e3;
+        double bps = flow.bps;
+        double pps = flow.pps;
+        if (seconds > 0) {
+            // The first interval is taken as is
+            double weight = flow.rated ? 1 - Math.exp(-seconds / TAU_SECONDS) : 1;
+            bps += weight * (bytes * 8 / seconds - bps);
+            pps += weight * (packets / seconds - pps);
+            flow.rated = true;
+            flow.time = time;
+        }
+
+        apply(flow, 0, bytes, packets, bps - flow.bps, pps - flow.pps);
+        flow.entry = entry;
+        flow.bytes = entry.bytes();
+        flow.packets = entry.packets();
+        flow.bps = bps;
+        flow.pps = pps;
+        busiest.update(flow);
+    }
+
+    /**
+     * Folds the final counters of a removed flow entry and drops its rates.
+     *
+     * @param entry flow entry with its final counters
+     */
+    public synchronized void removed(FlowEntry entry) {
+        Map<FlowId, Flow> deviceFlows = flows.get(entry.deviceId());
+        Flow flow = deviceFlows == null ? null : deviceFlows.remove(entry.id());
+        if (flow == null) {
+            return;
+        }
+        // Entries removed by their application may carry stale counters
+        apply(flow, -1, Math.max(0, entry.bytes() - flow.bytes), Math.max(0, entry.packets() - flow.packets),
+              -flow.bps, -flow.pps);
+        busiest.remove(flow);
+    }
+
+    /**
+     * Drops the flows and aggregates of a device. The totals of the
+     * applications keep the counters of its flows.
+     *
+     * @param deviceId device identifier
+     */
+    public synchronized void remove(DeviceId deviceId) {
+        Map<FlowId, Flow> deviceFlows = flows.remove(deviceId);
+        if (deviceFlows != null) {
+            deviceFlows.values().forEach(flow -> {
+                apply(flow, -1, 0, 0, -flow.bps, -flow.pps);
+                busiest.remove(flow);
+            });
+        }
+        devices.remove(deviceId);
+    }
+
+    /**
+     * Returns the aggregates of every application over every device.
+     *
+     * @return aggregates keyed by application
+     */
+    public synchronized Map<ApplicationId, FlowAggregate> apps() {
+        return apps(apps, null);
+    }
+
+    /**
+     * Returns the aggregates of every application on a device.
+     *
+     * @param deviceId device identifier
+     * @return aggregates keyed by application
+     */
+    public synchronized Map<ApplicationId, FlowAggregate> apps(DeviceId deviceId) {
+        DeviceAggregates aggregates = devices.get(deviceId);
+        return aggregates == null ? ImmutableMap.of() : apps(aggregates.apps, deviceId);
+    }
+
+    /**
+     * Returns the aggregates of every device over every application.
+     *
+     * @return aggregates keyed by device
+     */
+    public synchronized Map<DeviceId, FlowAggregate> devices() {
+        ImmutableMap.Builder<DeviceId, FlowAggregate> aggregates = ImmutableMap.builder();
+        devices.forEach((deviceId, device) -> aggregates.put(deviceId, device.total.stats(null, deviceId)));
+        return aggregates.build();
+    }
+
+    /**
+     * Returns the flows with the highest bit rate.
+     *
+     * @param count maximum number of flows, capped by the ranking capacity
+     * @return rates, highest first
+     */
+    public synchronized List<FlowRate> busiest(int count) {
+        return busiest.top(count, Flow::rate);
+    }
+
+    /**
+     * Returns the number of flows tracked.
+     *
+     * @return flow count
+     */
+    public synchronized int flows() {
+        return flows.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Map<ApplicationId, FlowAggregate> apps(Map<Short, Aggregate> aggregates, DeviceId deviceId) {
+        ImmutableMap.Builder<ApplicationId, FlowAggregate> stats = ImmutableMap.builder();
+        aggregates.forEach((id, aggregate) -> {
+            ApplicationId appId = applications.apply(id);
+            stats.put(appId, aggregate.stats(appId, deviceId));
+        });
+        return stats.build();
+    }
+
+    private Aggregate[] aggregates(FlowEntry entry) {
+        DeviceAggregates device = devices.computeIfAbsent(entry.deviceId(), k -> new DeviceAggregates());
+        Aggregate[] aggregates = new Aggregate[3];
+        aggregates[APP] = apps.computeIfAbsent(entry.appId(), k -> new Aggregate());
+        aggregates[DEVICE] = device.total;
+        aggregates[DEVICE_APP] = device.apps.computeIfAbsent(entry.appId(), k -> new Aggregate());
+        return aggregates;
+    }
+
+    private static void apply(Flow flow, int flows, long bytes, long packets, double bps, double pps) {
+        for (Aggregate aggregate : flow.aggregates) {
+            aggregate.flows += flows;
+            aggregate.bytes += bytes;
+            aggregate.packets += packets;
+            if (aggregate.flows == 0) {
+                // Clears the rounding left by the rates of removed flows
+                aggregate.bps = 0;
+                aggregate.pps = 0;
+            }
+            else {
+                aggregate.bps += bps;
+                aggregate.pps += pps;
+            }
+        }
+    }
+
+    /**
+     * Counters and smoothed rates of a flow and its position in the ranking.
+     */
+    private final class Flow {
+        private final Aggregate[] aggregates;
+        private FlowEntry entry;
+        private long time;
+        private long bytes;
+        private long packets;
+        private double bps;
+        private double pps;
+        private boolean rated;
+        private int position = -1;
+
+        private Flow(FlowEntry entry, Aggregate[] aggregates) {
+            this.entry = entry;
+            this.aggregates = aggregates;
+        }
+
+        private FlowRate rate() {
+            return new FlowRate(applications.apply(entry.appId()), entry, time, bytes, packets, bps, pps);
+        }
+    }
+
+    /**
+     * Sums of the counters and rates of a set of flows.
+     */
+    private static final class Aggregate {
+        private int flows;
+        private long bytes;
+        private long packets;
+        private double bps;
+        private double pps;
+
+        private FlowAggregate stats(ApplicationId appId, DeviceId deviceId) {
+            return new FlowAggregate(appId, deviceId, flows, bytes, packets, Math.max(0, bps), Math.max(0, pps));
+        }
+    }
+
+    /**
+     * Aggregates of a device, over all its flows and per application.
+     */
+    private static final class DeviceAggregates {
+        private final Aggregate total = new Aggregate();
+        private final Map<Short, Aggregate> apps = new HashMap<>();
+    }
+}
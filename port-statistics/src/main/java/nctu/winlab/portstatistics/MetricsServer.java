@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Plain HTTP endpoint serving the rendered metrics at {@code /metrics} for
+ * Prometheus to scrape. Requests are served one at a time on the server
+ * thread, which suits a scrape every few seconds. The endpoint has no
+ * authentication, so it is bound to the loopback address unless configured
+ * otherwise.
+ */
+public class MetricsServer {
+
+    private static final String PATH = "/metrics";
+
+    private final PortStatsExporter exporter;
+    private final HttpServer server;
+
+    /**
+     * Binds the endpoint without serving requests yet.
+     *
+     * @param address  local address to bind
+     * @param port     TCP port
+     * @param exporter metrics renderer
+     * @throws IOException if the address cannot be bound
+     */
+    public MetricsServer(InetAddress address, int port, PortStatsExporter exporter) throws IOException {
+        this.exporter = exporter;
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext(PATH, this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Returns the bound port.
+     *
+     * @return TCP port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", PortStatsExporter.CONTENT_TYPE);
+            exporter.render((buffer, length) -> {
+                exchange.sendResponseHeaders(200, length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(buffer, 0, length);
+                }
+            });
+        }
+        finally {
+            exchange.close();
+        }
+    }
+}
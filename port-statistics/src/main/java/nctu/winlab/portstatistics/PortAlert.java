@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.ConnectPoint;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Alert raised by a rule on a port.
+ */
+public final class PortAlert {
+
+    private final String rule;
+    private final ConnectPoint connectPoint;
+    private final PortAlertRule.Metric metric;
+    private final double value;
+    private final double threshold;
+    private final long since;
+
+    public PortAlert(String rule, ConnectPoint connectPoint, PortAlertRule.Metric metric, double value,
+                     double threshold, long since) {
+        this.rule = rule;
+        this.connectPoint = connectPoint;
+        this.metric = metric;
+        this.value = value;
+        this.threshold = threshold;
+        this.since = since;
+    }
+
+    /**
+     * Returns the name of the rule that raised the alert.
+     *
+     * @return rule name
+     */
+    public String rule() {
+        return rule;
+    }
+
+    public ConnectPoint connectPoint() {
+        return connectPoint;
+    }
+
+    public PortAlertRule.Metric metric() {
+        return metric;
+    }
+
+    /**
+     * Returns the metric value of the sample that raised the alert.
+     *
+     * @return metric value
+     */
+    public double value() {
+        return value;
+    }
+
+    /**
+     * Returns the level the metric exceeded: the threshold of the rule, or
+     * the spike level when it is higher.
+     *
+     * @return threshold
+     */
+    public double threshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the time since which the rule has matched.
+     *
+     * @return time in milliseconds
+     */
+    public long since() {
+        return since;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("rule", rule)
+                .add("connectPoint", connectPoint)
+                .add("metric", metric.key())
+                .add("value", value)
+                .add("threshold", threshold)
+                .add("since", since)
+                .toString();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Evaluates the alerting rules on every sample.
+ * <p>
+ * Rules are compiled once per configuration version and every port keeps
+ * parallel arrays of per-rule state: the time since which the rule has
+ * matched, the slow moving average used by spike rules and the raised
+ * alert. A sample walks the rules and updates that state in place, so
+ * evaluation does not allocate unless an alert is raised or cleared. The
+ * state of a port is reset on its first sample after the rules change,
+ * clearing its alerts.
+ * </p>
+ * <p>
+ * Ports of a device are locked together, as a device is sampled by one
+ * thread at a time. Events are handed to the sink on the sampling thread.
+ * </p>
+ */
+public class PortAlertEngine implements PortStatsHandler {
+
+    private static final double BASELINE_TAU_SECONDS = 300;
+    private static final long NOT_MATCHING = Long.MIN_VALUE;
+
+    private final Consumer<PortAlertEvent> sink;
+    private final Map<DeviceId, Map<PortNumber, State>> devices = new ConcurrentHashMap<>();
+
+    private volatile Rules rules = new Rules(ImmutableList.of(), 0);
+
+    /**
+     * Creates an engine without rules.
+     *
+     * @param sink consumer of the alert events
+     */
+    public PortAlertEngine(Consumer<PortAlertEvent> sink) {
+        this.sink = checkNotNull(sink);
+    }
+
+    /**
+     * Replaces the rules. Alerts of the previous rules are cleared on the
+     * next sample of their port.
+     *
+     * @param rules compiled rules
+     */
+    public synchronized void setRules(List<PortAlertRule> rules) {
+        Rules current = this.rules;
+        if (!current.list.equals(rules)) {
+            this.rules = new Rules(ImmutableList.copyOf(rules), current.version + 1);
+        }
+    }
+
+    /**
+     * Returns the rules.
+     *
+     * @return compiled rules
+     */
+    public List<PortAlertRule> rules() {
+        return rules.list;
+    }
+
+    @Override
+    public void sampled(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                        PortStatistics delta) {
+        Rules current = rules;
+        // Once rules have been set, ports are still visited after they are
+        // removed so that their alerts get cleared
+        if (delta == null || current.version == 0) {
+            return;
+        }
+        double seconds = delta.durationSec() + delta.durationNano() / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+
+        Map<PortNumber, State> ports = devices.computeIfAbsent(deviceId, k -> new HashMap<>());
+        synchronized (ports) {
+            State state = ports.get(port);
+            if (state == null) {
+                state = new State(new ConnectPoint(deviceId, port));
+                ports.put(port, state);
+            }
+            if (state.version != current.version) {
+                state.reset(current, time);
+            }
+            evaluate(state, current.rules, speed, time, seconds, delta);
+        }
+    }
+
+    private void evaluate(State state, PortAlertRule[] rules, long speed, long time, double seconds,
+                          PortStatistics delta) {
+        double weight = 1 - Math.exp(-seconds / BASELINE_TAU_SECONDS);
+        for (int i = 0; i < rules.length; i++) {
+            PortAlertRule rule = rules[i];
+            double value = rule.metric().value(delta, seconds, speed);
+            double baseline = state.baselines[i];
+
+            // Spike rules need a moving average, seeded by the first interval
+            boolean evaluated = rule.spike() == 0 || state.samples > 0;
+            if (evaluated && rule.matches(value, baseline)) {
+                if (state.since[i] == NOT_MATCHING) {
+                    // The rule has matched since the start of the interval
+                    state.since[i] = time - (long) (seconds * 1000);
+                }
+                if (state.raised[i] == null && time - state.since[i] >= rule.holdMillis()) {
+                    state.raised[i] = new PortAlert(rule.name(), state.cp, rule.metric(), value,
+                                                    Math.max(rule.above(), rule.spike() * baseline),
+                                                    state.since[i]);
+                    sink.accept(new PortAlertEvent(PortAlertEvent.Type.ALERT_RAISED, state.raised[i], time));
+                }
+            }
+            else {
+                state.since[i] = NOT_MATCHING;
+                clear(state, i, time);
+            }
+
+            state.baselines[i] = state.samples == 0 ? value : baseline + weight * (value - baseline);
+        }
+        state.samples++;
+    }
+
+    /**
+     * Returns the raised alerts.
+     *
+     * @return alerts
+     */
+    public List<PortAlert> alerts() {
+        ImmutableList.Builder<PortAlert> alerts = ImmutableList.builder();
+        for (Map<PortNumber, State> ports : devices.values()) {
+            synchronized (ports) {
+                for (State state : ports.values()) {
+                    for (PortAlert alert : state.raised) {
+                        if (alert != null) {
+                            alerts.add(alert);
+                        }
+                    }
+                }
+            }
+        }
+        return alerts.build();
+    }
+
+    /**
+     * Drops the state of a device, clearing its alerts.
+     *
+     * @param deviceId device identifier
+     * @param time     current time in milliseconds
+     */
+    public void remove(DeviceId deviceId, long time) {
+        Map<PortNumber, State> ports = devices.remove(deviceId);
+        if (ports == null) {
+            return;
+        }
+        synchronized (ports) {
+            for (State state : ports.values()) {
+                for (int i = 0; i < state.raised.length; i++) {
+                    clear(state, i, time);
+                }
+            }
+        }
+    }
+
+    private void clear(State state, int rule, long time) {
+        PortAlert alert = state.raised[rule];
+        if (alert != null) {
+            state.raised[rule] = null;
+            sink.accept(new PortAlertEvent(PortAlertEvent.Type.ALERT_CLEARED, alert, time));
+        }
+    }
+
+    /**
+     * Rules of one configuration version.
+     */
+    private static final class Rules {
+        private final List<PortAlertRule> list;
+        private final PortAlertRule[] rules;
+        private final int version;
+
+        private Rules(List<PortAlertRule> list, int version) {
+            this.list = list;
+            this.rules = list.toArray(new PortAlertRule[0]);
+            this.version = version;
+        }
+    }
+
+    /**
+     * Per-rule state of a port, in parallel arrays indexed like the rules.
+     */
+    private final class State {
+        private final ConnectPoint cp;
+        private int version = -1;
+        private long samples;
+        private long[] since = new long[0];
+        private double[] baselines = new double[0];
+        private PortAlert[] raised = new PortAlert[0];
+
+        private State(ConnectPoint cp) {
+            this.cp = cp;
+        }
+
+        private void reset(Rules rules, long time) {
+            for (int i = 0; i < raised.length; i++) {
+                clear(this, i, time);
+            }
+            int count = rules.rules.length;
+            version = rules.version;
+            samples = 0;
+            since = new long[count];
+            Arrays.fill(since, NOT_MATCHING);
+            baselines = new double[count];
+            raised = new PortAlert[count];
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.event.AbstractEvent;
+
+/**
+ * Raising or clearing of a port alert.
+ */
+public class PortAlertEvent extends AbstractEvent<PortAlertEvent.Type, PortAlert> {
+
+    /**
+     * Type of port alert event.
+     */
+    public enum Type {
+        /** A rule has matched a port for its hold time. */
+        ALERT_RAISED,
+        /** A raised rule no longer matches, or its port or rule is gone. */
+        ALERT_CLEARED
+    }
+
+    /**
+     * Creates an event.
+     *
+     * @param type  event type
+     * @param alert alert
+     * @param time  time of the sample that raised or cleared the alert
+     */
+    public PortAlertEvent(Type type, PortAlert alert, long time) {
+        super(type, alert, time);
+    }
+}
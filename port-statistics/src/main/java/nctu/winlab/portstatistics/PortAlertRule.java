@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiled alerting rule on the traffic of a port.
+ * <p>
+ * A rule matches a sample when the metric over the interval of the sample
+ * exceeds the threshold and, for a spike rule, is more than the spike
+ * factor times the slow moving average of the metric on the port. An alert
+ * is raised once the rule has matched every sample for the hold time and
+ * cleared by the first sample it does not match.
+ * </p>
+ */
+public final class PortAlertRule {
+
+    /**
+     * Per-interval metric of a port.
+     */
+    public enum Metric {
+        /** Busier direction bits per second over the port speed, from 0 to 1. */
+        UTILIZATION("utilization") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                if (speed <= 0) {
+                    return 0;
+                }
+                return Math.max(delta.bytesReceived(), delta.bytesSent()) * 8 / seconds / (speed * 1e6);
+            }
+        },
+        RX_BPS("rxBps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return delta.bytesReceived() * 8 / seconds;
+            }
+        },
+        TX_BPS("txBps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return delta.bytesSent() * 8 / seconds;
+            }
+        },
+        RX_PPS("rxPps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return delta.packetsReceived() / seconds;
+            }
+        },
+        TX_PPS("txPps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return delta.packetsSent() / seconds;
+            }
+        },
+        /** Received and sent packets dropped per second. */
+        DROP_PPS("dropPps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return (delta.packetsRxDropped() + delta.packetsTxDropped()) / seconds;
+            }
+        },
+        /** Received and sent packet errors per second. */
+        ERROR_PPS("errorPps") {
+            @Override
+            double value(PortStatistics delta, double seconds, long speed) {
+                return (delta.packetsRxErrors() + delta.packetsTxErrors()) / seconds;
+            }
+        };
+
+        private final String key;
+
+        Metric(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the name of the metric in the configuration.
+         *
+         * @return metric key
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * Returns the metric of a key.
+         *
+         * @param key metric key
+         * @return metric
+         * @throws IllegalArgumentException if the key is unknown
+         */
+        public static Metric fromKey(String key) {
+            for (Metric metric : values()) {
+                if (metric.key.equals(key)) {
+                    return metric;
+                }
+            }
+            throw new IllegalArgumentException("Unknown alert metric: " + key);
+        }
+
+        /**
+         * Computes the metric over the interval of a sample.
+         *
+         * @param delta   counters of the interval
+         * @param seconds interval length, positive
+         * @param speed   port speed in Mbps, or 0 if unknown
+         * @return metric value
+         */
+        abstract double value(PortStatistics delta, double seconds, long speed);
+    }
+
+    private final String name;
+    private final Metric metric;
+    private final double above;
+    private final double spike;
+    private final long holdMillis;
+
+    /**
+     * Creates a rule.
+     *
+     * @param name       rule name, carried by its alerts
+     * @param metric     metric evaluated
+     * @param above      threshold the metric must exceed
+     * @param spike      factor of the moving average the metric must exceed,
+     *                   or 0 for a plain threshold rule
+     * @param holdMillis time the rule must match before an alert is raised
+     * @throws IllegalArgumentException if the spike factor or hold time is
+     *                                  negative
+     */
+    public PortAlertRule(String name, Metric metric, double above, double spike, long holdMillis) {
+        checkArgument(spike >= 0, "Invalid spike factor of rule %s: %s", name, spike);
+        checkArgument(holdMillis >= 0, "Invalid hold time of rule %s: %s", name, holdMillis);
+        this.name = checkNotNull(name);
+        this.metric = checkNotNull(metric);
+        this.above = above;
+        this.spike = spike;
+        this.holdMillis = holdMillis;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Metric metric() {
+        return metric;
+    }
+
+    public double above() {
+        return above;
+    }
+
+    /**
+     * Returns the spike factor.
+     *
+     * @return factor of the moving average, or 0 for a plain threshold rule
+     */
+    public double spike() {
+        return spike;
+    }
+
+    /**
+     * Returns the time the rule must match before an alert is raised.
+     *
+     * @return hold time in milliseconds
+     */
+    public long holdMillis() {
+        return holdMillis;
+    }
+
+    /**
+     * Returns whether a metric value matches the rule.
+     *
+     * @param value    metric value
+     * @param baseline moving average of the metric
+     * @return true if the value exceeds the threshold and spike level
+     */
+    boolean matches(double value, double baseline) {
+        return value > above && (spike == 0 || value > spike * baseline);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PortAlertRule)) {
+            return false;
+        }
+        PortAlertRule that = (PortAlertRule) obj;
+        return name.equals(that.name) && metric == that.metric
+                && Double.compare(above, that.above) == 0 && Double.compare(spike, that.spike) == 0
+                && holdMillis == that.holdMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, metric, above, spike, holdMillis);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("name", name)
+                .add("metric", metric.key())
+                .add("above", above)
+                .add("spike", spike)
+                .add("holdMillis", holdMillis)
+                .toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.ConnectPoint;
+
+/**
+ * Smoothed traffic rates of a port.
+ */
+public final class PortRate {
+
+    private final ConnectPoint connectPoint;
+    private final long time;
+    private final long speed;
+    private final double rxBps;
+    private final double txBps;
+    private final double rxPps;
+    private final double txPps;
+    private final double dropPps;
+    private final double errorPps;
+
+    public PortRate(ConnectPoint connectPoint, long time, long speed, double rxBps, double txBps,
+                    double rxPps, double txPps, double dropPps, double errorPps) {
+        this.connectPoint = connectPoint;
+        this.time = time;
+        this.speed = speed;
+        this.rxBps = rxBps;
+        this.txBps = txBps;
+        this.rxPps = rxPps;
+        this.txPps = txPps;
+        this.dropPps = dropPps;
+        this.errorPps = errorPps;
+    }
+
+    public ConnectPoint connectPoint() {
+        return connectPoint;
+    }
+
+    /**
+     * Returns the time of the last sample folded into the rates.
+     *
+     * @return time in milliseconds
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * Returns the port speed.
+     *
+     * @return speed in Mbps, or 0 if unknown
+     */
+    public long speed() {
+        return speed;
+    }
+
+    public double rxBps() {
+        return rxBps;
+    }
+
+    public double txBps() {
+        return txBps;
+    }
+
+    public double rxPps() {
+        return rxPps;
+    }
+
+    public double txPps() {
+        return txPps;
+    }
+
+    /**
+     * Returns the received and sent packets dropped per second.
+     *
+     * @return drop rate
+     */
+    public double dropPps() {
+        return dropPps;
+    }
+
+    /**
+     * Returns the received and sent packet errors per second.
+     *
+     * @return error rate
+     */
+    public double errorPps() {
+        return errorPps;
+    }
+
+    /**
+     * Returns the utilization of the busier direction of the port.
+     *
+     * @return fraction of the port speed, or 0 if the speed is unknown
+     */
+    public double utilization() {
+        return speed > 0 ? Math.max(rxBps, txBps) / (speed * 1e6) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s rx=%.0fbps/%.0fpps, tx=%.0fbps/%.0fpps, drops=%.1fpps, errors=%.1fpps, "
+                                     + "utilization=%.1f%%", connectPoint, rxBps, rxPps, txBps, txPps,
+                             dropPps, errorPps, utilization() * 100);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableMap;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Smoothed rates of every port and rankings of the busiest ports.
+ * <p>
+ * Rates are derived from the delta statistics of each sample and smoothed
+ * with an exponentially weighted moving average whose weight follows the
+ * time since the previous sample, so that irregular sampling does not skew
+ * them. The ports with the highest throughput and the highest drop rate
+ * are kept in bounded indexed heaps that are fixed up as each port is
+ * updated, so a ranking is read in O(K) and never by scanning all ports.
+ * A port leaves a ranking when another port overtakes it or its rate
+ * decays to zero.
+ * </p>
+ */
+public class PortRateTracker implements PortStatsHandler {
+
+    private static final double TAU_SECONDS = 15;
+
+    private static final int BUSIEST = 0;
+    private static final int DROPPING = 1;
+
+    private final Map<DeviceId, Map<PortNumber, State>> devices = new HashMap<>();
+    private final BoundedRanking<State> busiest;
+    private final BoundedRanking<State> dropping;
+
+    /**
+     * Creates a tracker without rates.
+     *
+     * @param capacity number of ports kept in each ranking
+     */
+    public PortRateTracker(int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.busiest = new BoundedRanking<>(capacity, state -> Math.max(state.rxBps, state.txBps),
+                                            new RankingPositions(BUSIEST));
+        this.dropping = new BoundedRanking<>(capacity, state -> state.dropPps, new RankingPositions(DROPPING));
+    }
+
+    @Override
+    public synchronized void sampled(DeviceId deviceId, PortNumber port, long speed, long time,
+                                     PortStatistics stats, PortStatistics delta) {
+        if (delta == null) {
+            return;
+        }
+        double seconds = delta.durationSec() + delta.durationNano() / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+
+        Map<PortNumber, State> ports = devices.computeIfAbsent(deviceId, k -> new HashMap<>());
+        State state = ports.get(port);
+        if (state == null) {
+            state = new State(new ConnectPoint(deviceId, port));
+            ports.put(port, state);
+        }
+
+        // The first interval is taken as is
+        double weight = state.time == 0 ? 1 : 1 - Math.exp(-seconds / TAU_SECONDS);
+        state.rxBps += weight * (delta.bytesReceived() * 8 / seconds - state.rxBps);
+        state.txBps += weight * (delta.bytesSent() * 8 / seconds - state.txBps);
+        state.rxPps += weight * (delta.packetsReceived() / seconds - state.rxPps);
+        state.txPps += weight * (delta.packetsSent() / seconds - state.txPps);
+        state.dropPps += weight * ((delta.packetsRxDropped() + delta.packetsTxDropped()) / seconds
+                - state.dropPps);
+        state.errorPps += weight * ((delta.packetsRxErrors() + delta.packetsTxErrors()) / seconds
+                - state.errorPps);
+        state.speed = speed;
+        state.time = time;
+
+        busiest.update(state);
+        dropping.update(state);
+    }
+
+    /**
+     * Returns the rates of a port.
+     *
+     * @param connectPoint port
+     * @return rates, or null before the first delta statistics of the port
+     */
+    public synchronized PortRate rate(ConnectPoint connectPoint) {
+        Map<PortNumber, State> ports = devices.get(connectPoint.deviceId());
+        State state = ports == null ? null : ports.get(connectPoint.port());
+        return state == null ? null : state.rate();
+    }
+
+    /**
+     * Returns the rates of every port.
+     *
+     * @return rates keyed by port
+     */
+    public synchronized Map<ConnectPoint, PortRate> rates() {
+        ImmutableMap.Builder<ConnectPoint, PortRate> rates = ImmutableMap.builder();
+        devices.values().forEach(ports -> ports.values().forEach(state -> rates.put(state.cp, state.rate())));
+        return rates.build();
+    }
+
+    /**
+     * Returns the ports with the highest throughput in either direction.
+     *
+     * @param count maximum number of ports, capped by the ranking capacity
+     * @return rates, highest first
+     */
+    public synchronized List<PortRate> busiest(int count) {
+        return busiest.top(count, State::rate);
+    }
+
+    /**
+     * Returns the ports with the highest drop rate.
+     *
+     * @param count maximum number of ports, capped by the ranking capacity
+     * @return rates, highest first
+     */
+    public synchronized List<PortRate> dropping(int count) {
+        return dropping.top(count, State::rate);
+    }
+
+    /**
+     * Drops the rates of a device.
+     *
+     * @param deviceId device identifier
+     */
+    public synchronized void remove(DeviceId deviceId) {
+        Map<PortNumber, State> ports = devices.remove(deviceId);
+        if (ports != null) {
+            ports.values().forEach(state -> {
+                busiest.remove(state);
+                dropping.remove(state);
+            });
+        }
+    }
+
+    /**
+     * Smoothed rates of a port and its position in each ranking.
+     */
+    private static final class State {
+        private final ConnectPoint cp;
+        private final int[] positions = {-1, -1};
+        private long speed;
+        private long time;
+        private double rxBps;
+        private double txBps;
+        private double rxPps;
+        private double txPps;
+        private double dropPps;
+        private double errorPps;
+
+        private State(ConnectPoint cp) {
+            this.cp = cp;
+        }
+
+        private PortRate rate() {
+            return new PortRate(cp, time, speed, rxBps, txBps, rxPps, txPps, dropPps, errorPps);
+        }
+    }
+
+    /**
+     * Position of a port in one of the rankings.
+     */
+    private static final class RankingPositions implements BoundedRanking.Positions<State> {
+        private final int id;
+
+        private RankingPositions(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int get(State state) {
+            return state.positions[id];
+        }
+
+        @Override
+        public void set(State state, int position) {
+            state.positions[id] = position;
+        }
+    }
+}
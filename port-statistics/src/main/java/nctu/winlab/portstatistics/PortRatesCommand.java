@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.List;
+
+/**
+ * Lists the busiest ports by smoothed rate.
+ */
+@Command(scope = "onos", name = "port-rates",
+        description = "Lists the ports with the highest throughput or drop rate")
+public class PortRatesCommand extends AbstractShellCommand {
+
+    private static final String FORMAT = "%-28s%14.0f%14.0f%12.0f%12.0f%10.1f%8.1f%%";
+
+    @Option(name = "-n", aliases = "--count", description = "Number of ports listed",
+            required = false, multiValued = false)
+    private int count = 10;
+
+    @Option(name = "-d", aliases = "--drops", description = "Rank ports by drop rate",
+            required = false, multiValued = false)
+    private boolean drops = false;
+
+    @Override
+    protected void execute() {
+        PortStatisticsService service = get(PortStatisticsService.class);
+        List<PortRate> ports = drops ? service.droppingPorts(count) : service.busiestPorts(count);
+
+        print("%-28s%14s%14s%12s%12s%10s%9s", "port", "rxBps", "txBps", "rxPps", "txPps", "dropPps", "util");
+        for (PortRate rate : ports) {
+            print(FORMAT, rate.connectPoint(), rate.rxBps(), rate.txBps(), rate.rxPps(), rate.txPps(),
+                  rate.dropPps(), rate.utilization() * 100);
+        }
+    }
+}
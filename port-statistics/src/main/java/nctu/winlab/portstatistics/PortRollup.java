@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.ConnectPoint;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Summary of one metric of a port over a time interval.
+ */
+public final class PortRollup {
+
+    private final ConnectPoint connectPoint;
+    private final PortAlertRule.Metric metric;
+    private final long start;
+    private final long duration;
+    private final double min;
+    private final double max;
+    private final double avg;
+    private final double last;
+    private final int samples;
+
+    public PortRollup(ConnectPoint connectPoint, PortAlertRule.Metric metric, long start, long duration,
+                      double min, double max, double avg, double last, int samples) {
+        this.connectPoint = connectPoint;
+        this.metric = metric;
+        this.start = start;
+        this.duration = duration;
+        this.min = min;
+        this.max = max;
+        this.avg = avg;
+        this.last = last;
+        this.samples = samples;
+    }
+
+    public ConnectPoint connectPoint() {
+        return connectPoint;
+    }
+
+    public PortAlertRule.Metric metric() {
+        return metric;
+    }
+
+    /**
+     * Returns the start of the interval.
+     *
+     * @return time in milliseconds
+     */
+    public long start() {
+        return start;
+    }
+
+    /**
+     * Returns the length of the interval.
+     *
+     * @return duration in milliseconds
+     */
+    public long duration() {
+        return duration;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Returns the average of the samples in the interval, each sample
+     * weighing the same.
+     *
+     * @return average value
+     */
+    public double avg() {
+        return avg;
+    }
+
+    /**
+     * Returns the value of the latest sample in the interval.
+     *
+     * @return last value
+     */
+    public double last() {
+        return last;
+    }
+
+    /**
+     * Returns the number of samples summarized.
+     *
+     * @return sample count
+     */
+    public int samples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("connectPoint", connectPoint)
+                .add("metric", metric.key())
+                .add("start", start)
+                .add("duration", duration)
+                .add("min", min)
+                .add("max", max)
+                .add("avg", avg)
+                .add("last", last)
+                .add("samples", samples)
+                .toString();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+/**
+ * Counters of a port at one point in time.
+ */
+public final class PortSample {
+
+    private final long time;
+    private final long bytesReceived;
+    private final long bytesSent;
+    private final long packetsReceived;
+    private final long packetsSent;
+    private final long packetsRxDropped;
+    private final long packetsTxDropped;
+    private final long packetsRxErrors;
+    private final long packetsTxErrors;
+
+    public PortSample(long time, long bytesReceived, long bytesSent, long packetsReceived, long packetsSent,
+                      long packetsRxDropped, long packetsTxDropped, long packetsRxErrors, long packetsTxErrors) {
+        this.time = time;
+        this.bytesReceived = bytesReceived;
+        this.bytesSent = bytesSent;
+        this.packetsReceived = packetsReceived;
+        this.packetsSent = packetsSent;
+        this.packetsRxDropped = packetsRxDropped;
+        this.packetsTxDropped = packetsTxDropped;
+        this.packetsRxErrors = packetsRxErrors;
+        this.packetsTxErrors = packetsTxErrors;
+    }
+
+    /**
+     * Returns the time the counters were read.
+     *
+     * @return time in milliseconds
+     */
+    public long time() {
+        return time;
+    }
+
+    public long bytesReceived() {
+        return bytesReceived;
+    }
+
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+    public long packetsReceived() {
+        return packetsReceived;
+    }
+
+    public long packetsSent() {
+        return packetsSent;
+    }
+
+    public long packetsRxDropped() {
+        return packetsRxDropped;
+    }
+
+    public long packetsTxDropped() {
+        return packetsTxDropped;
+    }
+
+    public long packetsRxErrors() {
+        return packetsRxErrors;
+    }
+
+    public long packetsTxErrors() {
+        return packetsTxErrors;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("time=%d, rx=%dB/%dp, tx=%dB/%dp, dropped=%d/%d, errors=%d/%d", time,
+                             bytesReceived, packetsReceived, bytesSent, packetsSent,
+                             packetsRxDropped, packetsTxDropped, packetsRxErrors, packetsTxErrors);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.event.ListenerService;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service exposing the port statistics collected from the devices, and
+ * the alerts raised on them to its listeners.
+ */
+public interface PortStatisticsService extends ListenerService<PortAlertEvent, PortAlertListener> {
+
+    /**
+     * Returns the number, failures and duration of the polling sweeps.
+     *
+     * @return sweep statistics
+     */
+    SweepStats sweepStats();
+
+    /**
+     * Returns the request budget and demand of the adaptive poller.
+     *
+     * @return adaptive polling statistics
+     */
+    AdaptivePollStats pollStats();
+
+    /**
+     * Returns the effective interval at which the adaptive poller reads
+     * every port.
+     *
+     * @return intervals in milliseconds, keyed by port
+     */
+    Map<ConnectPoint, Long> pollIntervals();
+
+    /**
+     * Returns the most recent samples of a port.
+     *
+     * @param connectPoint port
+     * @param count        maximum number of samples
+     * @return samples, oldest first
+     */
+    List<PortSample> history(ConnectPoint connectPoint, int count);
+
+    /**
+     * Returns the samples of a port taken in a time range.
+     *
+     * @param connectPoint port
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return samples, oldest first
+     */
+    List<PortSample> history(ConnectPoint connectPoint, long from, long to);
+
+    /**
+     * Returns the samples of a port taken in a time range from the on-disk
+     * archive, which reaches further back than the in-memory history.
+     *
+     * @param connectPoint port
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return samples, oldest first; empty if the archive is disabled
+     */
+    List<PortSample> archivedHistory(ConnectPoint connectPoint, long from, long to);
+
+    /**
+     * Returns the minimum, maximum, average and last value of a metric of a
+     * port per rollup bucket over a time range, at the finest of the
+     * 1-minute, 5-minute and 1-hour resolutions that still covers the range.
+     *
+     * @param connectPoint port
+     * @param metric       metric
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return rollups, oldest first
+     */
+    List<PortRollup> rollups(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to);
+
+    /**
+     * Returns the minimum, maximum, average and last value of a metric of a
+     * port over a time range, merged from the rollups.
+     *
+     * @param connectPoint port
+     * @param metric       metric
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return rollup, or null if the port has no sample in the range
+     */
+    PortRollup summary(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to);
+
+    /**
+     * Returns the smoothed rates of a port.
+     *
+     * @param connectPoint port
+     * @return rates, or null if the port has no delta statistics yet
+     */
+    PortRate rate(ConnectPoint connectPoint);
+
+    /**
+     * Returns the smoothed rates of every port.
+     *
+     * @return rates keyed by port
+     */
+    Map<ConnectPoint, PortRate> rates();
+
+    /**
+     * Returns the ports with the highest throughput in either direction.
+     *
+     * @param count maximum number of ports
+     * @return rates, highest first
+     */
+    List<PortRate> busiestPorts(int count);
+
+    /**
+     * Returns the ports with the highest drop rate.
+     *
+     * @param count maximum number of ports
+     * @return rates, highest first
+     */
+    List<PortRate> droppingPorts(int count);
+
+    /**
+     * Returns the flow entry counters and rates of every application,
+     * summed over every device.
+     *
+     * @return aggregates keyed by application
+     */
+    Map<ApplicationId, FlowAggregate> appFlowStats();
+
+    /**
+     * Returns the flow entry counters and rates of every application on a
+     * device.
+     *
+     * @param deviceId device identifier
+     * @return aggregates keyed by application
+     */
+    Map<ApplicationId, FlowAggregate> appFlowStats(DeviceId deviceId);
+
+    /**
+     * Returns the flow entry counters and rates of every device, summed over
+     * every application.
+     *
+     * @return aggregates keyed by device
+     */
+    Map<DeviceId, FlowAggregate> deviceFlowStats();
+
+    /**
+     * Returns the flow entries with the highest bit rate.
+     *
+     * @param count maximum number of flows
+     * @return rates, highest first
+     */
+    List<FlowRate> busiestFlows(int count);
+
+    /**
+     * Returns the alerts currently raised.
+     *
+     * @return alerts
+     */
+    List<PortAlert> alerts();
+}
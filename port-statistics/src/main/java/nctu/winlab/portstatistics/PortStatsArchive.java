@@ -0,0 +1,625 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Append-only on-disk history of the counters of every port.
+ * <p>
+ * Samples are appended to segment files written through memory-mapped
+ * buffers. A record holds the port identifier, the distance back to the
+ * previous record of the port in the segment, and the read time and eight
+ * counters of the sample as zigzag varints of their difference from that
+ * previous record, so a steady counter takes one or two bytes. A segment
+ * covers a time window and is closed early when its file is full; segment
+ * files are named after their start time and form the time index of the
+ * archive. Ports are numbered in an append-only dictionary file.
+ * </p>
+ * <p>
+ * A closed segment ends with a table of the offset and values of the last
+ * record of every port. A range query looks up the port in the segments
+ * overlapping the range, newest first, and walks its records backwards
+ * through the mapped file, subtracting the deltas, so that it reads only
+ * the records of that port and never copies a file into the heap. Segments
+ * without a table, left by a crash or holding too many ports, are scanned
+ * forward instead.
+ * </p>
+ */
+public class PortStatsArchive implements PortStatsHandler, Closeable {
+
+    private static final int MAGIC = 0x50535432;
+    private static final int LENGTH_OFFSET = 12;
+    private static final int FOOTER_OFFSET = 16;
+    private static final int FOOTER_PORTS_OFFSET = 20;
+    private static final int HEADER_BYTES = 24;
+    private static final int FIELDS = 9;
+    // Port identifier, back distance and nine zigzag varints of at most ten bytes
+    private static final int MAX_RECORD_BYTES = 5 + 5 + FIELDS * 10;
+    // Offset of the last record of a port and its values
+    private static final int FOOTER_ENTRY_BYTES = Integer.BYTES + FIELDS * Long.BYTES;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String PORTS_FILE = "ports";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+    private final long segmentMillis;
+    private final int segmentBytes;
+
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<ConnectPoint, Integer> ids = new ConcurrentHashMap<>();
+
+    // Writer state, guarded by this
+    private final Map<DeviceId, Map<PortNumber, PortState>> states = new HashMap<>();
+    private final List<PortState> byId = new ArrayList<>();
+    private final BufferedWriter portsWriter;
+    private Segment active;
+    private int generation;
+    private boolean closed;
+
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Opens an archive, creating its directory if needed. Existing segments
+     * are kept for queries and new samples go to a new segment.
+     *
+     * @param directory     archive directory
+     * @param segmentMillis time window of a segment in milliseconds
+     * @param segmentBytes  size of a segment file
+     * @throws IOException if the archive cannot be read or created
+     */
+    public PortStatsArchive(Path directory, long segmentMillis, int segmentBytes) throws IOException {
+        checkArgument(segmentMillis > 0, "Segment window must be positive");
+        checkArgument(segmentBytes >= HEADER_BYTES + MAX_RECORD_BYTES, "Segment size too small");
+        this.directory = directory;
+        this.segmentMillis = segmentMillis;
+        this.segmentBytes = segmentBytes;
+
+        Files.createDirectories(directory);
+        loadPorts();
+        loadSegments();
+        portsWriter = Files.newBufferedWriter(directory.resolve(PORTS_FILE), StandardCharsets.US_ASCII,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void sampled(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                        PortStatistics delta) {
+        if (stats == null) {
+            return;
+        }
+        try {
+            append(deviceId, port, time, stats);
+        }
+        catch (IOException e) {
+            failures.increment();
+            log.warn("Unable to archive port statistics of {}/{}: {}", deviceId, port, e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the counters of a port.
+     *
+     * @param deviceId device identifier
+     * @param port     port number
+     * @param time     time the counters were read in milliseconds
+     * @param stats    cumulative counters
+     * @throws IOException if the archive is closed or a segment or the port
+     *                     dictionary cannot be written
+     */
+    public synchronized void append(DeviceId deviceId, PortNumber port, long time, PortStatistics stats)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Archive closed");
+        }
+        PortState state = state(deviceId, port);
+        if (active == null || time >= active.start + segmentMillis
+                || active.buffer.remaining() < MAX_RECORD_BYTES + footerBytes()) {
+            roll(time);
+        }
+        if (state.generation != generation) {
+            // First sample of the port in this segment
+            Arrays.fill(state.last, 0);
+            state.offset = 0;
+            state.generation = generation;
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int offset = buffer.position();
+        putVarint(buffer, state.id + 1);
+        putVarint(buffer, state.offset == 0 ? 0 : offset - state.offset);
+        putField(buffer, state, PortStatsStore.TIME, time);
+        putField(buffer, state, PortStatsStore.BYTES_RECEIVED, stats.bytesReceived());
+        putField(buffer, state, PortStatsStore.BYTES_SENT, stats.bytesSent());
+        putField(buffer, state, PortStatsStore.PACKETS_RECEIVED, stats.packetsReceived());
+        putField(buffer, state, PortStatsStore.PACKETS_SENT, stats.packetsSent());
+        putField(buffer, state, PortStatsStore.RX_DROPPED, stats.packetsRxDropped());
+        putField(buffer, state, PortStatsStore.TX_DROPPED, stats.packetsTxDropped());
+        putField(buffer, state, PortStatsStore.RX_ERRORS, stats.packetsRxErrors());
+        putField(buffer, state, PortStatsStore.TX_ERRORS, stats.packetsTxErrors());
+        state.offset = offset;
+        active.commit(buffer.position());
+        samples.increment();
+    }
+
+    /**
+     * Returns the archived samples of a port taken in a time range.
+     *
+     * @param connectPoint port
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return samples, oldest first
+     * @throws IOException if a segment cannot be read
+     */
+    public List<PortSample> range(ConnectPoint connectPoint, long from, long to) throws IOException {
+        Integer id = ids.get(connectPoint);
+        if (id == null || from > to) {
+            return ImmutableList.of();
+        }
+
+        // The segment holding the start of the range starts at or before it
+        Long first = segments.floorKey(from);
+        NavigableMap<Long, Segment> overlapping = first == null
+                ? segments.headMap(to, true) : segments.subMap(first, true, to, true);
+
+        // Samples are collected newest first
+        List<PortSample> result = new ArrayList<>();
+        long[] values = new long[FIELDS];
+        for (Segment segment : overlapping.descendingMap().values()) {
+            ByteBuffer buffer = segment.read();
+            int offset = last(segment, buffer, id, values);
+            boolean done;
+            if (offset > 0) {
+                done = walk(buffer, offset, values, from, to, result);
+            }
+            else if (offset < 0) {
+                done = scan(buffer, segment.length, id, from, to, values, result);
+            }
+            else {
+                done = false;
+            }
+            if (done) {
+                break;
+            }
+        }
+        Collections.reverse(result);
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Deletes the segments that only hold samples older than the retention
+     * period.
+     *
+     * @param now       current time in milliseconds
+     * @param retention retention period in milliseconds
+     * @return number of segments deleted
+     */
+    public int expire(long now, long retention) {
+        int deleted = 0;
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Long next = segments.higherKey(entry.getKey());
+            // A segment ends where the next one starts; the last one is open
+            if (next == null || next > now - retention) {
+                break;
+            }
+            synchronized (this) {
+                if (entry.getValue() == active) {
+                    break;
+                }
+                segments.remove(entry.getKey());
+            }
+            try {
+                Files.deleteIfExists(entry.getValue().path);
+                deleted++;
+            }
+            catch (IOException e) {
+                log.warn("Unable to delete segment {}: {}", entry.getValue().path, e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return segment count
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of bytes used in all segments, including their
+     * headers and port tables.
+     *
+     * @return size in bytes
+     */
+    public long bytes() {
+        return segments.values().stream().mapToLong(Segment::used).sum();
+    }
+
+    /**
+     * Returns the number of samples appended since the archive was opened.
+     *
+     * @return sample count
+     */
+    public long samples() {
+        return samples.sum();
+    }
+
+    /**
+     * Returns the number of samples that could not be appended.
+     *
+     * @return failure count
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (active != null) {
+            seal();
+            active = null;
+        }
+        portsWriter.close();
+    }
+
+    private PortState state(DeviceId deviceId, PortNumber port) throws IOException {
+        Map<PortNumber, PortState> ports = states.computeIfAbsent(deviceId, k -> new HashMap<>());
+        PortState state = ports.get(port);
+        if (state == null) {
+            int id = byId.size();
+            portsWriter.write(id + " " + deviceId + " " + port.toLong());
+            portsWriter.newLine();
+            portsWriter.flush();
+            state = new PortState(id);
+            ports.put(port, state);
+            byId.add(state);
+            ids.put(new ConnectPoint(deviceId, port), id);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the space reserved for the port table of the active segment,
+     * or 0 if the table would take more than a quarter of a segment.
+     */
+    private int footerBytes() {
+        long bytes = (long) byId.size() * FOOTER_ENTRY_BYTES;
+        return bytes <= segmentBytes / 4 ? (int) bytes : 0;
+    }
+
+    private void roll(long time) throws IOException {
+        if (active != null) {
+            seal();
+        }
+
+        // Segments start after the previous one, even if the clock did not
+        long start = segments.isEmpty() ? time : Math.max(time, segments.lastKey() + 1);
+        Path path = directory.resolve(start + SEGMENT_SUFFIX);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.putInt(MAGIC).putLong(start).putInt(HEADER_BYTES).putInt(0).putInt(0);
+
+        active = new Segment(path, start, buffer, HEADER_BYTES, 0, 0);
+        segments.put(start, active);
+        generation++;
+    }
+
+    /**
+     * Writes the port table of the active segment and releases its mapping.
+     */
+    private void seal() {
+        MappedByteBuffer buffer = active.buffer;
+        int footer = buffer.position();
+        int ports = byId.size();
+        if (footerBytes() > 0 && buffer.remaining() >= ports * FOOTER_ENTRY_BYTES) {
+            for (PortState state : byId) {
+                boolean present = state.generation == generation;
+                buffer.putInt(present ? state.offset : 0);
+                for (int i = 0; i < FIELDS; i++) {
+                    buffer.putLong(present ? state.last[i] : 0);
+                }
+            }
+            buffer.putInt(FOOTER_PORTS_OFFSET, ports);
+            buffer.putInt(FOOTER_OFFSET, footer);
+            active.footer = footer;
+            active.footerPorts = ports;
+        }
+        buffer.force();
+        active.buffer = null;
+    }
+
+    /**
+     * Looks up the last record of a port in a segment.
+     *
+     * @return offset of the record, with its values filled in, 0 if the
+     *         port has no record in the segment, or -1 if the segment has no
+     *         port table
+     */
+    private int last(Segment segment, ByteBuffer buffer, int id, long[] values) {
+        synchronized (this) {
+            if (segment == active) {
+                PortState state = byId.get(id);
+                if (state.generation != generation || state.offset == 0) {
+                    return 0;
+                }
+                System.arraycopy(state.last, 0, values, 0, FIELDS);
+                return state.offset;
+            }
+        }
+
+        if (segment.footer == 0) {
+            return -1;
+        }
+        if (id >= segment.footerPorts) {
+            return 0;
+        }
+        int entry = segment.footer + id * FOOTER_ENTRY_BYTES;
+        int offset = buffer.getInt(entry);
+        for (int i = 0; i < FIELDS; i++) {
+            values[i] = buffer.getLong(entry + Integer.BYTES + i * Long.BYTES);
+        }
+        return offset;
+    }
+
+    private void loadPorts() throws IOException {
+        Path path = directory.resolve(PORTS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII)) {
+            String[] fields = line.split(" ");
+            if (fields.length != 3 || Integer.parseInt(fields[0]) != byId.size()) {
+                continue;
+            }
+            DeviceId deviceId = DeviceId.deviceId(fields[1]);
+            PortNumber port = PortNumber.portNumber(Long.parseLong(fields[2]));
+            PortState state = new PortState(byId.size());
+            states.computeIfAbsent(deviceId, k -> new HashMap<>()).put(port, state);
+            byId.add(state);
+            ids.put(new ConnectPoint(deviceId, port), state.id);
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : files) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    while (header.hasRemaining() && channel.read(header) >= 0) {
+                        continue;
+                    }
+                }
+                header.flip();
+                if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                    log.warn("Skipping invalid segment {}", path);
+                    continue;
+                }
+                long start = header.getLong();
+                segments.put(start, new Segment(path, start, null, header.getInt(), header.getInt(),
+                                                header.getInt()));
+            }
+        }
+    }
+
+    /**
+     * Walks the records of a port backwards from its last record in a
+     * segment, adding the samples in the range newest first.
+     *
+     * @return true if a sample before the start of the range was found
+     */
+    private static boolean walk(ByteBuffer buffer, int offset, long[] values, long from, long to,
+                                List<PortSample> result) {
+        while (true) {
+            if (values[PortStatsStore.TIME] < from) {
+                return true;
+            }
+            if (values[PortStatsStore.TIME] <= to) {
+                result.add(sample(values));
+            }
+
+            buffer.position(offset);
+            skipVarint(buffer);
+            int back = (int) getVarint(buffer);
+            if (back == 0) {
+                return false;
+            }
+            for (int i = 0; i < FIELDS; i++) {
+                long delta = getVarint(buffer);
+                values[i] -= (delta >>> 1) ^ -(delta & 1);
+            }
+            offset -= back;
+        }
+    }
+
+    /**
+     * Decodes the records of a segment without port table from the start,
+     * adding the samples of a port in the range newest first.
+     *
+     * @return true if a sample before the start of the range was found
+     */
+    private static boolean scan(ByteBuffer buffer, int end, int id, long from, long to, long[] last,
+                                List<PortSample> result) {
+        Arrays.fill(last, 0);
+        boolean before = false;
+        int newest = result.size();
+        buffer.position(HEADER_BYTES);
+        while (buffer.position() < end) {
+            int portId = (int) getVarint(buffer) - 1;
+            skipVarint(buffer);
+            if (portId != id) {
+                for (int i = 0; i < FIELDS; i++) {
+                    skipVarint(buffer);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < FIELDS; i++) {
+                long delta = getVarint(buffer);
+                last[i] += (delta >>> 1) ^ -(delta & 1);
+            }
+            if (last[PortStatsStore.TIME] > to) {
+                break;
+            }
+            if (last[PortStatsStore.TIME] < from) {
+                before = true;
+            }
+            else {
+                result.add(newest, sample(last));
+            }
+        }
+        return before;
+    }
+
+    private static PortSample sample(long[] values) {
+        return new PortSample(values[PortStatsStore.TIME],
+                              values[PortStatsStore.BYTES_RECEIVED], values[PortStatsStore.BYTES_SENT],
+                              values[PortStatsStore.PACKETS_RECEIVED], values[PortStatsStore.PACKETS_SENT],
+                              values[PortStatsStore.RX_DROPPED], values[PortStatsStore.TX_DROPPED],
+                              values[PortStatsStore.RX_ERRORS], values[PortStatsStore.TX_ERRORS]);
+    }
+
+    private static void putField(ByteBuffer buffer, PortState state, int field, long value) {
+        long delta = value - state.last[field];
+        state.last[field] = value;
+        putVarint(buffer, (delta << 1) ^ (delta >> 63));
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void skipVarint(ByteBuffer buffer) {
+        while (buffer.get() < 0) {
+            continue;
+        }
+    }
+
+    /**
+     * Identifier of a port and its last record in the active segment.
+     */
+    private static final class PortState {
+        private final int id;
+        private final long[] last = new long[FIELDS];
+        private int offset;
+        private int generation;
+
+        private PortState(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Segment file. The active segment is read through its writable
+     * mapping, up to the last complete record; closed ones are mapped
+     * read-only on each query.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long start;
+        private volatile MappedByteBuffer buffer;
+        private volatile int length;
+        private volatile int footer;
+        private volatile int footerPorts;
+
+        private Segment(Path path, long start, MappedByteBuffer buffer, int length, int footer, int footerPorts) {
+            this.path = path;
+            this.start = start;
+            this.buffer = buffer;
+            this.length = length;
+            this.footer = footer;
+            this.footerPorts = footerPorts;
+        }
+
+        private void commit(int position) {
+            buffer.putInt(LENGTH_OFFSET, position);
+            length = position;
+        }
+
+        private long used() {
+            return footer == 0 ? length : footer + (long) footerPorts * FOOTER_ENTRY_BYTES;
+        }
+
+        /**
+         * Returns a view of the records and port table of the segment.
+         */
+        private ByteBuffer read() throws IOException {
+            MappedByteBuffer writable = buffer;
+            if (writable != null) {
+                return writable.duplicate();
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(used(), channel.size()));
+            }
+        }
+    }
+}
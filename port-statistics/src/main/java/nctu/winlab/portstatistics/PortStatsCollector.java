@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Polls the port statistics of all devices in parallel.
+ * <p>
+ * A sweep hands one {@link PortStatsTask} per device to a bounded executor
+ * and returns at once; the last task to finish completes the sweep and
+ * records its duration. A sweep triggered while the previous one is still
+ * running is skipped rather than queued, so a slow network never builds up
+ * a backlog of polls. A device that fails to be polled is counted and does
+ * not affect the others.
+ * </p>
+ * <p>
+ * In event-driven mode single devices are read as they report new
+ * statistics. Reads of one device never overlap, so its samples are handled
+ * in order: reports that arrive while its read is still queued are folded
+ * into that read, and reports that arrive while it runs into one more read
+ * after it.
+ * </p>
+ */
+public class PortStatsCollector {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DeviceService deviceService;
+    private final Executor pollExecutor;
+    private final PortStatsHandler handler;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ConcurrentMap<DeviceId, ReadState> reads = new ConcurrentHashMap<>();
+
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private volatile int devices;
+    private volatile long lastDurationNanos;
+    private volatile long maxDurationNanos;
+
+    /**
+     * Creates a collector.
+     *
+     * @param deviceService device service
+     * @param pollExecutor  executor running the device polls
+     * @param handler       consumer of the polled statistics
+     */
+    public PortStatsCollector(DeviceService deviceService, Executor pollExecutor, PortStatsHandler handler) {
+        this.deviceService = deviceService;
+        this.pollExecutor = pollExecutor;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts a sweep over all devices unless the previous one is still
+     * running. Called periodically by a single scheduler thread.
+     *
+     * @return true if a sweep was started
+     */
+    public boolean sweep() {
+        if (!running.compareAndSet(false, true)) {
+            skipped.increment();
+            log.debug("Previous sweep still running, skipping");
+            return false;
+        }
+
+        long start = System.nanoTime();
+        List<Device> targets;
+        try {
+            targets = ImmutableList.copyOf(deviceService.getDevices());
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to list devices: {}", e.getMessage());
+            failures.increment();
+            running.set(false);
+            return false;
+        }
+
+        if (targets.isEmpty()) {
+            finish(start, 0);
+            return true;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(targets.size());
+        for (Device device : targets) {
+            Runnable task = new PortStatsTask(deviceService, device.id(), handler);
+            try {
+                pollExecutor.execute(() -> {
+                    try {
+                        task.run();
+                    }
+                    catch (RuntimeException e) {
+                        failed(device.id(), e);
+                    }
+                    finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            finish(start, targets.size());
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The executor is shutting down
+                failed(device.id(), e);
+                if (remaining.decrementAndGet() == 0) {
+                    finish(start, targets.size());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the statistics of one device, unless a read of the device is
+     * already queued. While a read of the device runs, one more read is
+     * queued once it is over.
+     *
+     * @param deviceId device identifier
+     * @return true if a read was queued
+     */
+    public boolean update(DeviceId deviceId) {
+        while (true) {
+            ReadState previous = reads.putIfAbsent(deviceId, ReadState.QUEUED);
+            if (previous == null) {
+                return queueRead(deviceId);
+            }
+            if (previous != ReadState.RUNNING) {
+                // The queued read or the one following the running read
+                // covers this report
+                coalesced.increment();
+                return false;
+            }
+            if (reads.replace(deviceId, ReadState.RUNNING, ReadState.DIRTY)) {
+                return true;
+            }
+            // The running read finished in the meantime
+        }
+    }
+
+    private boolean queueRead(DeviceId deviceId) {
+        Runnable task = new PortStatsTask(deviceService, deviceId, handler);
+        try {
+            pollExecutor.execute(() -> {
+                reads.replace(deviceId, ReadState.QUEUED, ReadState.RUNNING);
+                try {
+                    task.run();
+                    updates.increment();
+                }
+                catch (RuntimeException e) {
+                    failed(deviceId, e);
+                }
+                finally {
+                    if (!reads.remove(deviceId, ReadState.RUNNING)) {
+                        // Reports arrived during the read
+                        reads.replace(deviceId, ReadState.DIRTY, ReadState.QUEUED);
+                        queueRead(deviceId);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            reads.remove(deviceId);
+            failed(deviceId, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the counters and duration of the sweeps.
+     *
+     * @return sweep statistics
+     */
+    public SweepStats stats() {
+        return new SweepStats(sweeps.sum(), skipped.sum(), failures.sum(), devices, lastDurationNanos,
+                              maxDurationNanos, updates.sum(), coalesced.sum());
+    }
+
+    private void failed(DeviceId deviceId, RuntimeException e) {
+        log.warn("Unable to poll port statistics of {}: {}", deviceId, e.getMessage());
+        failures.increment();
+    }
+
+    private void finish(long start, int polled) {
+        long duration = System.nanoTime() - start;
+        lastDurationNanos = duration;
+        if (duration > maxDurationNanos) {
+            maxDurationNanos = duration;
+        }
+        devices = polled;
+        sweeps.increment();
+        log.debug("Polled {} devices in {}ms", polled, duration / 1_000_000);
+        running.set(false);
+    }
+
+    /**
+     * Progress of the event-driven read of a device.
+     */
+    private enum ReadState {
+        QUEUED,
+        RUNNING,
+        // Running, with reports to read once it is over
+        DIRTY
+    }
+}
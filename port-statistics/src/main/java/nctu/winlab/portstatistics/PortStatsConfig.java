@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.config.Config;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Configuration object for the collection of port statistics.
+ */
+public class PortStatsConfig extends Config<ApplicationId> {
+
+    public static final String MODE = "mode";
+    public static final String POLL_BUDGET = "pollBudget";
+    public static final String METRICS_ADDRESS = "metricsAddress";
+    public static final String METRICS_PORT = "metricsPort";
+    public static final String ARCHIVE_DAYS = "archiveDays";
+    public static final String ROLLUP_HOURS = "rollupHours";
+    public static final String RULES = "rules";
+    public static final String NAME = "name";
+    public static final String METRIC = "metric";
+    public static final String ABOVE = "above";
+    public static final String SPIKE = "spike";
+    public static final String FOR_SECONDS = "forSeconds";
+
+    private volatile PortStatsSnapshot snapshot;
+
+    @Override
+    public boolean isValid() {
+        if (!hasOnlyFields(MODE, POLL_BUDGET, METRICS_ADDRESS, METRICS_PORT, ARCHIVE_DAYS, ROLLUP_HOURS,
+                           RULES)) {
+            return false;
+        }
+
+        JsonNode rulesNode = object.get(RULES);
+        if (rulesNode != null) {
+            for (JsonNode jsonNode : rulesNode) {
+                if (!jsonNode.isObject()
+                        || !hasOnlyFields((ObjectNode) jsonNode, NAME, METRIC, ABOVE, SPIKE, FOR_SECONDS)
+                        || !hasFields((ObjectNode) jsonNode, NAME, METRIC)) {
+                    return false;
+                }
+            }
+        }
+
+        try {
+            snapshot();
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the parsed configuration, built once for both
+     * {@link #isValid()} and the component.
+     *
+     * @return configuration snapshot
+     * @throws IllegalArgumentException if the configuration is inconsistent
+     */
+    public PortStatsSnapshot snapshot() {
+        PortStatsSnapshot current = snapshot;
+        if (current == null) {
+            current = new PortStatsSnapshot(parseMode(), parsePollBudget(), parseMetricsAddress(), parseMetricsPort(),
+                                            parseArchiveDays(), parseRollupHours(), parseRules());
+            snapshot = current;
+        }
+        return current;
+    }
+
+    private double parsePollBudget() {
+        JsonNode budgetNode = object.get(POLL_BUDGET);
+        if (budgetNode == null) {
+            return PortStatsSnapshot.DEFAULT_POLL_BUDGET;
+        }
+        if (!budgetNode.isNumber()) {
+            throw new IllegalArgumentException("Invalid poll budget: " + budgetNode);
+        }
+        return budgetNode.asDouble();
+    }
+
+    private InetAddress parseMetricsAddress() {
+        JsonNode addressNode = object.get(METRICS_ADDRESS);
+        if (addressNode == null) {
+            return InetAddress.getLoopbackAddress();
+        }
+        // Only IP literals are accepted, so parsing never resolves a name
+        if (!addressNode.isTextual() || !InetAddresses.isInetAddress(addressNode.asText())) {
+            throw new IllegalArgumentException("Invalid metrics address: " + addressNode);
+        }
+        return InetAddresses.forString(addressNode.asText());
+    }
+
+    private int parseMetricsPort() {
+        JsonNode portNode = object.get(METRICS_PORT);
+        if (portNode == null) {
+            return 0;
+        }
+        if (!portNode.isInt()) {
+            throw new IllegalArgumentException("Invalid metrics port: " + portNode);
+        }
+        return portNode.asInt();
+    }
+
+    private int parseArchiveDays() {
+        JsonNode daysNode = object.get(ARCHIVE_DAYS);
+        if (daysNode == null) {
+            return 0;
+        }
+        if (!daysNode.isInt()) {
+            throw new IllegalArgumentException("Invalid archive days: " + daysNode);
+        }
+        return daysNode.asInt();
+    }
+
+    private int parseRollupHours() {
+        JsonNode hoursNode = object.get(ROLLUP_HOURS);
+        if (hoursNode == null) {
+            return PortStatsRollups.DEFAULT_RETENTION_HOURS;
+        }
+        if (!hoursNode.isInt()) {
+            throw new IllegalArgumentException("Invalid rollup hours: " + hoursNode);
+        }
+        return hoursNode.asInt();
+    }
+
+    private List<PortAlertRule> parseRules() {
+        JsonNode rulesNode = object.get(RULES);
+        if (rulesNode == null) {
+            return ImmutableList.of();
+        }
+        checkArgument(rulesNode.isArray(), "Invalid %s: %s", RULES, rulesNode);
+
+        List<PortAlertRule> rules = new ArrayList<>();
+        for (JsonNode jsonNode : rulesNode) {
+            checkArgument(jsonNode.path(NAME).isTextual(), "Missing %s of alert rule", NAME);
+            String name = jsonNode.path(NAME).asText();
+            checkArgument(jsonNode.path(METRIC).isTextual(), "Missing %s of alert rule %s", METRIC, name);
+            rules.add(new PortAlertRule(name, PortAlertRule.Metric.fromKey(jsonNode.path(METRIC).asText()),
+                                        number(jsonNode, ABOVE, name), number(jsonNode, SPIKE, name),
+                                        TimeUnit.SECONDS.toMillis((long) number(jsonNode, FOR_SECONDS, name))));
+        }
+        return rules;
+    }
+
+    private static double number(JsonNode ruleNode, String field, String rule) {
+        JsonNode node = ruleNode.get(field);
+        if (node == null) {
+            return 0;
+        }
+        checkArgument(node.isNumber(), "Invalid %s of alert rule %s: %s", field, rule, node);
+        return node.asDouble();
+    }
+
+    private PortStatsSnapshot.Mode parseMode() {
+        JsonNode modeNode = object.get(MODE);
+        if (modeNode == null) {
+            return PortStatsSnapshot.Mode.POLL;
+        }
+
+        String mode = modeNode.asText();
+        for (PortStatsSnapshot.Mode value : PortStatsSnapshot.Mode.values()) {
+            if (value.name().equalsIgnoreCase(mode)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown collection mode: " + mode);
+    }
+}
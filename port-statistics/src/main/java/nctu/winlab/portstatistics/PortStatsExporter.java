@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static nctu.winlab.portstatistics.PortStatsStore.BYTES_RECEIVED;
+import static nctu.winlab.portstatistics.PortStatsStore.BYTES_SENT;
+import static nctu.winlab.portstatistics.PortStatsStore.PACKETS_RECEIVED;
+import static nctu.winlab.portstatistics.PortStatsStore.PACKETS_SENT;
+import static nctu.winlab.portstatistics.PortStatsStore.RX_DROPPED;
+import static nctu.winlab.portstatistics.PortStatsStore.RX_ERRORS;
+import static nctu.winlab.portstatistics.PortStatsStore.TX_DROPPED;
+import static nctu.winlab.portstatistics.PortStatsStore.TX_ERRORS;
+
+/**
+ * Renders the collected port statistics in the Prometheus text exposition
+ * format.
+ * <p>
+ * The latest counters are read straight from the history buffers and the
+ * rates from the rate tracker, so rendering never queries the device
+ * subsystem. The text of each metric family and the encoded output are
+ * built in buffers kept across renderings.
+ * </p>
+ */
+public class PortStatsExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[][] COUNTERS = {
+            {"onos_port_receive_bytes_total", "Bytes received on the port."},
+            {"onos_port_transmit_bytes_total", "Bytes sent on the port."},
+            {"onos_port_receive_packets_total", "Packets received on the port."},
+            {"onos_port_transmit_packets_total", "Packets sent on the port."},
+            {"onos_port_receive_dropped_total", "Received packets dropped by the port."},
+            {"onos_port_transmit_dropped_total", "Packets to send dropped by the port."},
+            {"onos_port_receive_errors_total", "Receive errors of the port."},
+            {"onos_port_transmit_errors_total", "Transmit errors of the port."},
+    };
+    private static final int[] COUNTER_FIELDS = {
+            BYTES_RECEIVED, BYTES_SENT, PACKETS_RECEIVED, PACKETS_SENT,
+            RX_DROPPED, TX_DROPPED, RX_ERRORS, TX_ERRORS,
+    };
+
+    private static final String[][] RATES = {
+            {"onos_port_receive_bits_per_second", "Smoothed receive rate of the port in bits per second."},
+            {"onos_port_transmit_bits_per_second", "Smoothed transmit rate of the port in bits per second."},
+            {"onos_port_receive_packets_per_second", "Smoothed receive rate of the port in packets per second."},
+            {"onos_port_transmit_packets_per_second", "Smoothed transmit rate of the port in packets per second."},
+            {"onos_port_dropped_packets_per_second", "Smoothed rate of packets dropped by the port."},
+            {"onos_port_error_packets_per_second", "Smoothed rate of packet errors of the port."},
+            {"onos_port_utilization_ratio", "Utilization of the busier direction of the port."},
+    };
+
+    private final PortStatsStore store;
+    private final PortRateTracker rates;
+    private final Supplier<SweepStats> sweeps;
+    private final AdaptivePortPoller poller;
+
+    private final StringBuilder[] counterFamilies = new StringBuilder[COUNTERS.length];
+    private final StringBuilder[] rateFamilies = new StringBuilder[RATES.length];
+    private final double[] rateValues = new double[RATES.length];
+    private final StringBuilder text = new StringBuilder();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer bytes = ByteBuffer.allocate(0);
+    private final PortStatsStore.LatestVisitor counterVisitor = this::appendCounters;
+
+    /**
+     * Consumer of a rendering. The buffer is reused by the next rendering.
+     */
+    @FunctionalInterface
+    public interface Writer {
+        void write(byte[] buffer, int length) throws IOException;
+    }
+
+    /**
+     * Creates an exporter.
+     *
+     * @param store  port statistics history
+     * @param rates  port rates
+     * @param sweeps supplier of the sweep statistics
+     */
+    public PortStatsExporter(PortStatsStore store, PortRateTracker rates, Supplier<SweepStats> sweeps) {
+        this(store, rates, sweeps, null);
+    }
+
+    /**
+     * Creates an exporter that also renders the adaptive polling budget and
+     * per-port intervals.
+     *
+     * @param store  port statistics history
+     * @param rates  port rates
+     * @param sweeps supplier of the sweep statistics
+     * @param poller adaptive port poller, or null
+     */
+    public PortStatsExporter(PortStatsStore store, PortRateTracker rates, Supplier<SweepStats> sweeps,
+                             AdaptivePortPoller poller) {
+        this.store = store;
+        this.rates = rates;
+        this.sweeps = sweeps;
+        this.poller = poller;
+        for (int i = 0; i < counterFamilies.length; i++) {
+            counterFamilies[i] = new StringBuilder();
+        }
+        for (int i = 0; i < rateFamilies.length; i++) {
+            rateFamilies[i] = new StringBuilder();
+        }
+    }
+
+    /**
+     * Renders the metrics and hands the encoded text to a writer.
+     *
+     * @param writer consumer of the rendering
+     * @throws IOException if the writer fails
+     */
+    public synchronized void render(Writer writer) throws IOException {
+        int length = encode();
+        writer.write(bytes.array(), length);
+    }
+
+    /**
+     * Renders the metrics as text.
+     *
+     * @return metrics in the text exposition format
+     */
+    public synchronized String render() {
+        int length = encode();
+        return new String(bytes.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int encode() {
+        for (StringBuilder family : counterFamilies) {
+            family.setLength(0);
+        }
+        for (StringBuilder family : rateFamilies) {
+            family.setLength(0);
+        }
+        store.forEachLatest(counterVisitor);
+        rates.rates().values().forEach(this::appendRates);
+
+        text.setLength(0);
+        for (int i = 0; i < COUNTERS.length; i++) {
+            header(COUNTERS[i][0], COUNTERS[i][1], "counter");
+            text.append(counterFamilies[i]);
+        }
+        for (int i = 0; i < RATES.length; i++) {
+            header(RATES[i][0], RATES[i][1], "gauge");
+            text.append(rateFamilies[i]);
+        }
+        appendSweeps(sweeps.get());
+        if (poller != null) {
+            appendPolling(poller.stats(), poller.intervals());
+        }
+
+        int capacity = (int) (text.length() * encoder.maxBytesPerChar());
+        if (bytes.capacity() < capacity) {
+            bytes = ByteBuffer.allocate(Math.max(capacity, bytes.capacity() * 2));
+        }
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text), bytes, true);
+        encoder.flush(bytes);
+        return bytes.position();
+    }
+
+    private void appendCounters(DeviceId deviceId, PortNumber port, long[] data, int offset) {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            StringBuilder family = counterFamilies[i];
+            labels(family.append(COUNTERS[i][0]), deviceId, port).append(data[offset + COUNTER_FIELDS[i]])
+                    .append('\n');
+        }
+    }
+
+    private void appendRates(PortRate rate) {
+        rateValues[0] = rate.rxBps();
+        rateValues[1] = rate.txBps();
+        rateValues[2] = rate.rxPps();
+        rateValues[3] = rate.txPps();
+        rateValues[4] = rate.dropPps();
+        rateValues[5] = rate.errorPps();
+        rateValues[6] = rate.utilization();
+        for (int i = 0; i < RATES.length; i++) {
+            StringBuilder family = rateFamilies[i];
+            labels(family.append(RATES[i][0]), rate.connectPoint().deviceId(), rate.connectPoint().port())
+                    .append(rateValues[i]).append('\n');
+        }
+    }
+
+    private void appendSweeps(SweepStats stats) {
+        metric("onos_port_statistics_sweeps_total", "Completed polling sweeps.", "counter")
+                .append(stats.sweeps()).append('\n');
+        metric("onos_port_statistics_sweeps_skipped_total", "Sweeps skipped while the previous one ran.",
+               "counter").append(stats.skipped()).append('\n');
+        metric("onos_port_statistics_failures_total", "Devices that could not be read.", "counter")
+                .append(stats.failures()).append('\n');
+        metric("onos_port_statistics_updates_total", "Devices read on reports of new statistics.", "counter")
+                .append(stats.updates()).append('\n');
+        metric("onos_port_statistics_sweep_duration_seconds", "Duration of the last polling sweep.", "gauge")
+                .append(stats.lastDurationNanos() / 1e9).append('\n');
+    }
+
+    private void appendPolling(AdaptivePollStats stats, Map<ConnectPoint, Long> intervals) {
+        metric("onos_port_statistics_poll_budget", "Maximum port reads per second of adaptive polling.", "gauge")
+                .append(stats.budget()).append('\n');
+        metric("onos_port_statistics_poll_demand", "Port reads per second wanted by the adaptive intervals.",
+               "gauge").append(stats.demand()).append('\n');
+        metric("onos_port_statistics_poll_lag_seconds", "Lateness of the most overdue port read.", "gauge")
+                .append(stats.lagMillis() / 1e3).append('\n');
+
+        String name = "onos_port_poll_interval_seconds";
+        header(name, "Effective adaptive polling interval of the port.", "gauge");
+        intervals.forEach((cp, interval) -> labels(text.append(name), cp.deviceId(), cp.port())
+                .append(interval / 1e3).append('\n'));
+    }
+
+    private StringBuilder metric(String name, String help, String type) {
+        header(name, help, type);
+        return text.append(name).append(' ');
+    }
+
+    private void header(String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static StringBuilder labels(StringBuilder out, DeviceId deviceId, PortNumber port) {
+        out.append("{device=\"");
+        String device = deviceId.toString();
+        for (int i = 0; i < device.length(); i++) {
+            char c = device.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            }
+            else if (c == '\n') {
+                out.append("\\n");
+            }
+            else {
+                out.append(c);
+            }
+        }
+        return out.append("\",port=\"").append(port.toLong()).append("\"} ");
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+
+/**
+ * Consumer of the statistics of one port, called on the polling threads.
+ */
+@FunctionalInterface
+public interface PortStatsHandler {
+
+    /**
+     * Handles the counters read from a port.
+     *
+     * @param deviceId device identifier
+     * @param port     port number
+     * @param speed    port speed in Mbps, or 0 if unknown
+     * @param time     time the counters were read in milliseconds
+     * @param stats    cumulative counters
+     * @param delta    counters since the previous device report, or null
+     */
+    void sampled(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                 PortStatistics delta);
+
+    /**
+     * Returns a handler that hands every sample to this handler and then to
+     * another one.
+     *
+     * @param next handler called second
+     * @return composed handler
+     */
+    default PortStatsHandler andThen(PortStatsHandler next) {
+        return (deviceId, port, speed, time, stats, delta) -> {
+            sampled(deviceId, port, speed, time, stats, delta);
+            next.sampled(deviceId, port, speed, time, stats, delta);
+        };
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Rollups of the traffic metrics of every port at 1-minute, 5-minute and
+ * 1-hour resolution.
+ * <p>
+ * Every sample updates the minimum, maximum, sum and last value of each
+ * metric in the current bucket of every resolution, so rollups are never
+ * recomputed from raw samples. The buckets of a resolution live in a ring
+ * of primitive arrays allocated when the port is first seen and holding a
+ * fixed number of buckets, so the memory of a port does not grow with
+ * uptime. The number of buckets follows the retention: the hourly level
+ * covers all of it, the finer levels at most their default span. A range
+ * is answered from the finest resolution that still holds its start.
+ * </p>
+ */
+public class PortStatsRollups implements PortStatsHandler {
+
+    /** Default number of hours of rollups kept per port. */
+    public static final int DEFAULT_RETENTION_HOURS = 168;
+
+    /**
+     * Bucket length and longest span of a rollup level.
+     */
+    public enum Resolution {
+        MINUTE(TimeUnit.MINUTES.toMillis(1), 360),
+        FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5), 300),
+        HOUR(TimeUnit.HOURS.toMillis(1), Integer.MAX_VALUE);
+
+        private final long millis;
+        private final int maxBuckets;
+
+        Resolution(long millis, int maxBuckets) {
+            this.millis = millis;
+            this.maxBuckets = maxBuckets;
+        }
+
+        /**
+         * Returns the length of a bucket.
+         *
+         * @return duration in milliseconds
+         */
+        public long millis() {
+            return millis;
+        }
+
+        /**
+         * Returns the number of buckets kept per port for a retention.
+         *
+         * @param retentionHours hours of rollups kept
+         * @return bucket count
+         */
+        public int buckets(int retentionHours) {
+            long buckets = TimeUnit.HOURS.toMillis(retentionHours) / millis;
+            return (int) Math.min(maxBuckets, buckets);
+        }
+    }
+
+    private static final PortAlertRule.Metric[] METRICS = PortAlertRule.Metric.values();
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    // Offsets of the aggregates of a metric in a bucket
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int SUM = 2;
+    private static final int LAST = 3;
+    private static final int AGGREGATES = 4;
+    private static final int STRIDE = METRICS.length * AGGREGATES;
+
+    private final Map<DeviceId, Map<PortNumber, Series>> devices = new ConcurrentHashMap<>();
+    private volatile int[] capacities;
+
+    /**
+     * Creates rollups keeping the default retention.
+     */
+    public PortStatsRollups() {
+        this(DEFAULT_RETENTION_HOURS);
+    }
+
+    /**
+     * Creates rollups keeping the given retention.
+     *
+     * @param retentionHours hours of rollups kept per port
+     */
+    public PortStatsRollups(int retentionHours) {
+        this.capacities = capacities(retentionHours);
+    }
+
+    /**
+     * Changes the retention. The buckets of every port are resized, keeping
+     * the most recent ones.
+     *
+     * @param retentionHours hours of rollups kept per port
+     */
+    public void setRetention(int retentionHours) {
+        int[] updated = capacities(retentionHours);
+        capacities = updated;
+        devices.values().forEach(ports -> ports.values().forEach(series -> series.resize(updated)));
+    }
+
+    @Override
+    public void sampled(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                        PortStatistics delta) {
+        if (delta == null) {
+            return;
+        }
+        double seconds = delta.durationSec() + delta.durationNano() / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+
+        Map<PortNumber, Series> ports = devices.get(deviceId);
+        if (ports == null) {
+            ports = devices.computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>());
+        }
+        Series series = ports.get(port);
+        if (series == null) {
+            series = ports.computeIfAbsent(port, k -> new Series(capacities));
+        }
+        series.add(time, delta, seconds, speed);
+    }
+
+    /**
+     * Returns the rollups of a metric of a port over a time range, at the
+     * finest resolution that still holds the start of the range.
+     *
+     * @param connectPoint port
+     * @param metric       metric
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return rollups of the buckets overlapping the range, oldest first
+     */
+    public List<PortRollup> rollups(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to) {
+        Series series = series(connectPoint);
+        return series == null ? ImmutableList.of() : series.rollups(connectPoint, metric, null, from, to);
+    }
+
+    /**
+     * Returns the rollups of a metric of a port over a time range, at the
+     * given resolution.
+     *
+     * @param connectPoint port
+     * @param metric       metric
+     * @param resolution   resolution
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return rollups of the buckets overlapping the range, oldest first
+     */
+    public List<PortRollup> rollups(ConnectPoint connectPoint, PortAlertRule.Metric metric, Resolution resolution,
+                                    long from, long to) {
+        Series series = series(connectPoint);
+        return series == null ? ImmutableList.of() : series.rollups(connectPoint, metric, resolution, from, to);
+    }
+
+    /**
+     * Returns a single rollup of a metric of a port over a time range, merged
+     * from the buckets of the finest resolution that still holds the start
+     * of the range.
+     *
+     * @param connectPoint port
+     * @param metric       metric
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return rollup, or null if no sample of the port falls in the range
+     */
+    public PortRollup summary(ConnectPoint connectPoint, PortAlertRule.Metric metric, long from, long to) {
+        Series series = series(connectPoint);
+        return series == null ? null : series.summary(connectPoint, metric, from, to);
+    }
+
+    /**
+     * Drops the rollups of a device.
+     *
+     * @param deviceId device identifier
+     */
+    public void remove(DeviceId deviceId) {
+        devices.remove(deviceId);
+    }
+
+    /**
+     * Returns the number of ports with rollups.
+     *
+     * @return port count
+     */
+    public int ports() {
+        return devices.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Returns the memory held by the rollup buffers.
+     *
+     * @return memory in bytes
+     */
+    public long memoryBytes() {
+        return (long) ports() * Series.bytes(capacities);
+    }
+
+    private static int[] capacities(int retentionHours) {
+        checkArgument(retentionHours > 0, "Invalid retention: %s", retentionHours);
+        int[] capacities = new int[RESOLUTIONS.length];
+        for (int i = 0; i < RESOLUTIONS.length; i++) {
+            capacities[i] = RESOLUTIONS[i].buckets(retentionHours);
+        }
+        return capacities;
+    }
+
+    private Series series(ConnectPoint connectPoint) {
+        Map<PortNumber, Series> ports = devices.get(connectPoint.deviceId());
+        return ports == null ? null : ports.get(connectPoint.port());
+    }
+
+    /**
+     * Rollup levels of one port.
+     */
+    private static final class Series {
+        private final Level[] levels = new Level[RESOLUTIONS.length];
+        private final float[] values = new float[METRICS.length];
+
+        private Series(int[] capacities) {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Level(RESOLUTIONS[i].millis, capacities[i]);
+            }
+        }
+
+        private static long bytes(int[] capacities) {
+            long bytes = 0;
+            for (int capacity : capacities) {
+                bytes += Level.bytes(capacity);
+            }
+            // Series object and metric scratch array included
+            return bytes + 48 + METRICS.length * Float.BYTES;
+        }
+
+        private synchronized void resize(int[] capacities) {
+            for (int i = 0; i < levels.length; i++) {
+                if (levels[i].capacity != capacities[i]) {
+                    levels[i] = new Level(levels[i], capacities[i]);
+                }
+            }
+        }
+
+        private synchronized void add(long time, PortStatistics delta, double seconds, long speed) {
+            for (int m = 0; m < METRICS.length; m++) {
+                values[m] = (float) METRICS[m].value(delta, seconds, speed);
+            }
+            for (Level level : levels) {
+                level.add(time, values);
+            }
+        }
+
+        private synchronized List<PortRollup> rollups(ConnectPoint connectPoint, PortAlertRule.Metric metric,
+                                                      Resolution resolution, long from, long to) {
+            Level level = resolution == null ? select(from) : levels[resolution.ordinal()];
+            ImmutableList.Builder<PortRollup> rollups = ImmutableList.builder();
+            long end = Math.min(Math.floorDiv(to, level.millis), level.latest);
+            for (long bucket = level.first(from); bucket <= end; bucket++) {
+                int slot = level.slot(bucket);
+                if (level.counts[slot] > 0 && level.buckets[slot] == bucket) {
+                    int base = slot * STRIDE + metric.ordinal() * AGGREGATES;
+                    int count = level.counts[slot];
+                    rollups.add(new PortRollup(connectPoint, metric, bucket * level.millis, level.millis,
+                                               level.data[base + MIN], level.data[base + MAX],
+                                               level.data[base + SUM] / count, level.data[base + LAST], count));
+                }
+            }
+            return rollups.build();
+        }
+
+        private synchronized PortRollup summary(ConnectPoint connectPoint, PortAlertRule.Metric metric,
+                                                long from, long to) {
+            Level level = select(from);
+            long end = Math.min(Math.floorDiv(to, level.millis), level.latest);
+            long start = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double last = 0;
+            int count = 0;
+            for (long bucket = level.first(from); bucket <= end; bucket++) {
+                int slot = level.slot(bucket);
+                if (level.counts[slot] == 0 || level.buckets[slot] != bucket) {
+                    continue;
+                }
+                int base = slot * STRIDE + metric.ordinal() * AGGREGATES;
+                if (count == 0) {
+                    start = bucket * level.millis;
+                }
+                min = Math.min(min, level.data[base + MIN]);
+                max = Math.max(max, level.data[base + MAX]);
+                sum += level.data[base + SUM];
+                last = level.data[base + LAST];
+                count += level.counts[slot];
+            }
+            if (count == 0) {
+                return null;
+            }
+            return new PortRollup(connectPoint, metric, start, (end + 1) * level.millis - start,
+                                  min, max, sum / count, last, count);
+        }
+
+        /**
+         * Returns the finest level still holding the bucket of a time, or
+         * the coarsest level if none does.
+         */
+        private Level select(long time) {
+            for (Level level : levels) {
+                if (level.latest != Long.MIN_VALUE && level.first(time) == Math.floorDiv(time, level.millis)) {
+                    return level;
+                }
+            }
+            return levels[levels.length - 1];
+        }
+    }
+
+    /**
+     * Ring of the buckets of one resolution, with the aggregates of every
+     * metric of a bucket stored next to each other.
+     */
+    private static final class Level {
+        private final long millis;
+        private final int capacity;
+        private final long[] buckets;
+        private final int[] counts;
+        private final float[] data;
+        private long latest = Long.MIN_VALUE;
+
+        private Level(long millis, int capacity) {
+            this.millis = millis;
+            this.capacity = capacity;
+            this.buckets = new long[capacity];
+            this.counts = new int[capacity];
+            this.data = new float[capacity * STRIDE];
+        }
+
+        /**
+         * Copies the buckets of a level that fit in a new capacity.
+         */
+        private Level(Level level, int capacity) {
+            this(level.millis, capacity);
+            latest = level.latest;
+            for (int from = 0; from < level.capacity; from++) {
+                long bucket = level.buckets[from];
+                if (level.counts[from] == 0 || bucket <= latest - capacity) {
+                    continue;
+                }
+                int to = slot(bucket);
+                buckets[to] = bucket;
+                counts[to] = level.counts[from];
+                System.arraycopy(level.data, from * STRIDE, data, to * STRIDE, STRIDE);
+            }
+        }
+
+        private static long bytes(int capacity) {
+            // Array headers and level object included
+            return (long) capacity * (Long.BYTES + Integer.BYTES + STRIDE * Float.BYTES) + 96;
+        }
+
+        private void add(long time, float[] values) {
+            long bucket = Math.floorDiv(time, millis);
+            if (latest != Long.MIN_VALUE && bucket <= latest - capacity) {
+                // Older than every bucket kept
+                return;
+            }
+            int slot = slot(bucket);
+            int base = slot * STRIDE;
+            boolean first = counts[slot] == 0 || buckets[slot] != bucket;
+            for (int m = 0; m < values.length; m++) {
+                int offset = base + m * AGGREGATES;
+                float value = values[m];
+                if (first) {
+                    data[offset + MIN] = value;
+                    data[offset + MAX] = value;
+                    data[offset + SUM] = value;
+                }
+                else {
+                    data[offset + MIN] = Math.min(data[offset + MIN], value);
+                    data[offset + MAX] = Math.max(data[offset + MAX], value);
+                    data[offset + SUM] += value;
+                }
+                data[offset + LAST] = value;
+            }
+            buckets[slot] = bucket;
+            counts[slot] = first ? 1 : counts[slot] + 1;
+            latest = Math.max(latest, bucket);
+        }
+
+        /**
+         * Returns the first bucket kept that may hold samples at or after a
+         * time.
+         */
+        private long first(long time) {
+            return Math.max(Math.floorDiv(time, millis), latest - capacity + 1);
+        }
+
+        private int slot(long bucket) {
+            return (int) Math.floorMod(bucket, (long) capacity);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable, validated view of one version of the port statistics
+ * configuration.
+ */
+public final class PortStatsSnapshot {
+
+    /**
+     * How port statistics are collected.
+     */
+    public enum Mode {
+        /** Every device is polled at a fixed interval. */
+        POLL,
+        /** A device is read when the device subsystem reports new statistics. */
+        EVENT,
+        /** Every port is polled at an interval adapted to its traffic, within a budget. */
+        ADAPTIVE
+    }
+
+    /** Default maximum number of port reads per second in adaptive mode. */
+    public static final double DEFAULT_POLL_BUDGET = 1000;
+
+    private static final PortStatsSnapshot EMPTY =
+            new PortStatsSnapshot(Mode.POLL, DEFAULT_POLL_BUDGET, InetAddress.getLoopbackAddress(), 0, 0,
+                                  PortStatsRollups.DEFAULT_RETENTION_HOURS, ImmutableList.of());
+
+    private final Mode mode;
+    private final double pollBudget;
+    private final InetAddress metricsAddress;
+    private final int metricsPort;
+    private final int archiveDays;
+    private final int rollupHours;
+    private final List<PortAlertRule> rules;
+
+    /**
+     * Builds a snapshot.
+     *
+     * @param mode           collection mode
+     * @param pollBudget     maximum number of port reads per second in
+     *                       adaptive mode
+     * @param metricsAddress local address the metrics endpoint is bound to
+     * @param metricsPort    TCP port of the metrics endpoint, or 0 to
+     *                       disable it
+     * @param archiveDays    days of history kept on disk, or 0 to disable
+     *                       the archive
+     * @param rollupHours    hours of rollups kept in memory per port
+     * @param rules          alerting rules
+     * @throws IllegalArgumentException if the budget, port, number of days
+     *                                  or hours is out of range, or rule
+     *                                  names repeat
+     */
+    public PortStatsSnapshot(Mode mode, double pollBudget, InetAddress metricsAddress, int metricsPort,
+                             int archiveDays, int rollupHours, List<PortAlertRule> rules) {
+        checkArgument(pollBudget > 0, "Invalid poll budget: %s", pollBudget);
+        checkArgument(metricsPort >= 0 && metricsPort <= 65535, "Invalid metrics port: %s", metricsPort);
+        checkArgument(archiveDays >= 0, "Invalid archive days: %s", archiveDays);
+        checkArgument(rollupHours > 0, "Invalid rollup hours: %s", rollupHours);
+        this.mode = checkNotNull(mode);
+        this.metricsAddress = checkNotNull(metricsAddress);
+        this.pollBudget = pollBudget;
+        this.metricsPort = metricsPort;
+        this.archiveDays = archiveDays;
+        this.rollupHours = rollupHours;
+        this.rules = ImmutableList.copyOf(rules);
+
+        Set<String> names = new HashSet<>();
+        this.rules.forEach(rule -> checkArgument(names.add(rule.name()), "Duplicate alert rule: %s", rule.name()));
+    }
+
+    /**
+     * Returns the snapshot applied without configuration.
+     *
+     * @return default snapshot
+     */
+    public static PortStatsSnapshot empty() {
+        return EMPTY;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the maximum number of port reads per second in adaptive mode.
+     *
+     * @return reads per second
+     */
+    public double pollBudget() {
+        return pollBudget;
+    }
+
+    /**
+     * Returns the local address the metrics endpoint is bound to.
+     *
+     * @return address, the loopback address by default
+     */
+    public InetAddress metricsAddress() {
+        return metricsAddress;
+    }
+
+    /**
+     * Returns the TCP port of the metrics endpoint.
+     *
+     * @return port, or 0 if the endpoint is disabled
+     */
+    public int metricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Returns the number of days of history kept on disk.
+     *
+     * @return days, or 0 if the archive is disabled
+     */
+    public int archiveDays() {
+        return archiveDays;
+    }
+
+    /**
+     * Returns the number of hours of rollups kept in memory per port.
+     *
+     * @return hours
+     */
+    public int rollupHours() {
+        return rollupHours;
+    }
+
+    /**
+     * Returns the alerting rules evaluated on every sample.
+     *
+     * @return rules
+     */
+    public List<PortAlertRule> rules() {
+        return rules;
+    }
+}
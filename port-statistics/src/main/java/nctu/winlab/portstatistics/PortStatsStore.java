@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * In-memory history of the counters of every port.
+ * <p>
+ * Each port keeps its last samples in a ring buffer of primitive longs,
+ * allocated when the port is first seen, so that recording a sample only
+ * writes into preallocated memory. Samples of a port are recorded in time
+ * order by one polling thread at a time and can be queried concurrently.
+ * </p>
+ */
+public class PortStatsStore implements PortStatsHandler {
+
+    // Offsets of the fields of a sample in the history buffer
+    static final int TIME = 0;
+    static final int BYTES_RECEIVED = 1;
+    static final int BYTES_SENT = 2;
+    static final int PACKETS_RECEIVED = 3;
+    static final int PACKETS_SENT = 4;
+    static final int RX_DROPPED = 5;
+    static final int TX_DROPPED = 6;
+    static final int RX_ERRORS = 7;
+    static final int TX_ERRORS = 8;
+    private static final int STRIDE = 9;
+
+    private final int capacity;
+    private final Map<DeviceId, Map<PortNumber, Series>> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity number of samples kept per port
+     */
+    public PortStatsStore(int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void sampled(DeviceId deviceId, PortNumber port, long speed, long time, PortStatistics stats,
+                        PortStatistics delta) {
+        if (stats != null) {
+            record(deviceId, port, time, stats);
+        }
+    }
+
+    /**
+     * Records the counters of a port.
+     *
+     * @param deviceId device identifier
+     * @param port     port number
+     * @param time     time the counters were read in milliseconds
+     * @param stats    cumulative counters
+     */
+    public void record(DeviceId deviceId, PortNumber port, long time, PortStatistics stats) {
+        Map<PortNumber, Series> ports = devices.get(deviceId);
+        if (ports == null) {
+            ports = devices.computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>());
+        }
+        Series series = ports.get(port);
+        if (series == null) {
+            series = ports.computeIfAbsent(port, k -> new Series(capacity));
+        }
+        series.add(time, stats);
+    }
+
+    /**
+     * Returns the most recent samples of a port.
+     *
+     * @param connectPoint port
+     * @param count        maximum number of samples
+     * @return samples, oldest first
+     */
+    public List<PortSample> last(ConnectPoint connectPoint, int count) {
+        Series series = series(connectPoint);
+        return series == null ? ImmutableList.of() : series.last(count);
+    }
+
+    /**
+     * Returns the samples of a port taken in a time range.
+     *
+     * @param connectPoint port
+     * @param from         start of the range in milliseconds, inclusive
+     * @param to           end of the range in milliseconds, inclusive
+     * @return samples, oldest first
+     */
+    public List<PortSample> range(ConnectPoint connectPoint, long from, long to) {
+        Series series = series(connectPoint);
+        return series == null ? ImmutableList.of() : series.range(from, to);
+    }
+
+    /**
+     * Hands the latest sample of every port to a visitor, straight from the
+     * history buffer of the port.
+     *
+     * @param visitor visitor of the samples
+     */
+    void forEachLatest(LatestVisitor visitor) {
+        devices.forEach((deviceId, ports) -> ports.forEach((port, series) -> series.latest(deviceId, port, visitor)));
+    }
+
+    /**
+     * Drops the history of a device.
+     *
+     * @param deviceId device identifier
+     */
+    public void remove(DeviceId deviceId) {
+        devices.remove(deviceId);
+    }
+
+    /**
+     * Returns the number of ports with a history.
+     *
+     * @return port count
+     */
+    public int ports() {
+        return devices.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Returns the memory held by the sample buffers.
+     *
+     * @return memory in bytes
+     */
+    public long memoryBytes() {
+        return (long) ports() * Series.bytes(capacity);
+    }
+
+    /**
+     * Visitor of the latest sample of a port. The fields of the sample are
+     * found at the offset plus the field constants of the store, and are
+     * only valid during the call.
+     */
+    @FunctionalInterface
+    interface LatestVisitor {
+        void visit(DeviceId deviceId, PortNumber port, long[] data, int offset);
+    }
+
+    private Series series(ConnectPoint connectPoint) {
+        Map<PortNumber, Series> ports = devices.get(connectPoint.deviceId());
+        return ports == null ? null : ports.get(connectPoint.port());
+    }
+
+    /**
+     * Ring buffer of the samples of one port, with the fields of each
+     * sample stored next to each other.
+     */
+    private static final class Series {
+        private final long[] data;
+        private final int capacity;
+        private long written;
+
+        private Series(int capacity) {
+            this.capacity = capacity;
+            this.data = new long[capacity * STRIDE];
+        }
+
+        private static long bytes(int capacity) {
+            // Array header and series object included
+            return (long) capacity * STRIDE * Long.BYTES + 48;
+        }
+
+        private synchronized void add(long time, PortStatistics stats) {
+            int base = (int) (written % capacity) * STRIDE;
+            data[base + TIME] = time;
+            data[base + BYTES_RECEIVED] = stats.bytesReceived();
+            data[base + BYTES_SENT] = stats.bytesSent();
+            data[base + PACKETS_RECEIVED] = stats.packetsReceived();
+            data[base + PACKETS_SENT] = stats.packetsSent();
+            data[base + RX_DROPPED] = stats.packetsRxDropped();
+            data[base + TX_DROPPED] = stats.packetsTxDropped();
+            data[base + RX_ERRORS] = stats.packetsRxErrors();
+            data[base + TX_ERRORS] = stats.packetsTxErrors();
+            written++;
+        }
+
+        private synchronized List<PortSample> last(int count) {
+            int size = size();
+            return samples(size - Math.min(Math.max(count, 0), size), size);
+        }
+
+        private synchronized List<PortSample> range(long from, long to) {
+            int size = size();
+            // Samples are in time order, so the range starts at the first
+            // sample not older than its start
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (data[offset(mid) + TIME] < from) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            int end = low;
+            while (end < size && data[offset(end) + TIME] <= to) {
+                end++;
+            }
+            return samples(low, end);
+        }
+
+        private List<PortSample> samples(int start, int end) {
+            ImmutableList.Builder<PortSample> samples = ImmutableList.builder();
+            for (int i = start; i < end; i++) {
+                int base = offset(i);
+                samples.add(new PortSample(data[base + TIME], data[base + BYTES_RECEIVED], data[base + BYTES_SENT],
+                                           data[base + PACKETS_RECEIVED], data[base + PACKETS_SENT],
+                                           data[base + RX_DROPPED], data[base + TX_DROPPED],
+                                           data[base + RX_ERRORS], data[base + TX_ERRORS]));
+            }
+            return samples.build();
+        }
+
+        private synchronized void latest(DeviceId deviceId, PortNumber port, LatestVisitor visitor) {
+            if (written > 0) {
+                visitor.visit(deviceId, port, data, offset(size() - 1));
+            }
+        }
+
+        private int size() {
+            return (int) Math.min(written, capacity);
+        }
+
+        /**
+         * Returns the array offset of the i-th oldest sample kept.
+         */
+        private int offset(int index) {
+            return (int) ((written - size() + index) % capacity) * STRIDE;
+        }
+    }
+}
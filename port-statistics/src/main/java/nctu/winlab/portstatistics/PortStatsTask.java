@@ -15,63 +15,97 @@
  */
 package nctu.winlab.portstatistics;
 
-import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.device.PortStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.String;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.Map;
 
 /**
- * TimerTask to retrieve port statistics
+ * Task retrieving the port statistics of one device.
+ * <p>
+ * The ports, counters and delta counters of the device are read with one
+ * call each and matched by port number, instead of two calls per port.
+ * </p>
  */
-public class PortStatsTask extends TimerTask {
+public class PortStatsTask implements Runnable {
 
-    private Logger log;
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
-    protected DeviceService deviceService;
+    private final DeviceService deviceService;
+    private final DeviceId deviceId;
+    private final PortStatsHandler handler;
 
-    public void run() {
-        Iterable<Device> devices = deviceService.getDevices();
+    public PortStatsTask(DeviceService deviceService, DeviceId deviceId, PortStatsHandler handler) {
+        this.deviceService = deviceService;
+        this.deviceId = deviceId;
+        this.handler = handler;
+    }
 
-        for(Device d : devices) {
-            log.info("========= DeviceId " + d.id().toString() + " =========");
-            log.info(String.format("%-8s%10s%10s%10s%10s", "port", "rcvBytes", "sntBytes", "deltaRcv", "deltaSnt"));
+    @Override
+    public void run() {
+        List<Port> ports = deviceService.getPorts(deviceId);
+        Map<PortNumber, PortStatistics> stats = byPort(deviceService.getPortStatistics(deviceId));
+        Map<PortNumber, PortStatistics> deltas = byPort(deviceService.getPortDeltaStatistics(deviceId));
+        long now = System.currentTimeMillis();
+        for (Port p : ports) {
+            PortStatistics portStats = stats.get(p.number());
+            PortStatistics portDeltaStats = deltas.get(p.number());
+            handler.sampled(deviceId, p.number(), p.portSpeed(), now, portStats, portDeltaStats);
+        }
 
-            List<Port> ports = deviceService.getPorts(d.id());
-            for(Port p : ports) {
-                PortStatistics portStats = deviceService.getStatisticsForPort(d.id(), p.number());
-                PortStatistics portDeltaStats = deviceService.getDeltaStatisticsForPort(d.id(), p.number());
+        if (log.isDebugEnabled()) {
+            log.debug(table(ports, stats, deltas));
+        }
+    }
 
-                String portLog = String.format("%-8s", p.number());
+    /**
+     * Formats the counters of a device. Lines of one device are logged
+     * together, as devices are read concurrently.
+     */
+    private String table(List<Port> ports, Map<PortNumber, PortStatistics> stats,
+                         Map<PortNumber, PortStatistics> deltas) {
+        StringBuilder table = new StringBuilder();
+        table.append("========= DeviceId ").append(deviceId).append(" =========\n");
+        table.append(String.format("%-8s%10s%10s%10s%10s%n", "port", "rcvBytes", "sntBytes", "deltaRcv", "deltaSnt"));
 
-                if(portStats != null)
-                    portLog += String.format("%10s%10s", portStats.bytesReceived(), portStats.bytesSent());
-                else
-                    portLog += String.format("%10s%10s", "n/a", "n/a");
+        for (Port p : ports) {
+            PortStatistics portStats = stats.get(p.number());
+            PortStatistics portDeltaStats = deltas.get(p.number());
 
-                if(portDeltaStats != null)
-                    portLog += String.format("%10s%10s", portDeltaStats.bytesReceived(), portDeltaStats.bytesSent());
-                else
-                    portLog += String.format("%10s%10s", "n/a", "n/a");
+            table.append(String.format("%-8s", p.number()));
 
-                log.info(portLog);
+            if (portStats != null) {
+                table.append(String.format("%10s%10s", portStats.bytesReceived(), portStats.bytesSent()));
+            }
+            else {
+                table.append(String.format("%10s%10s", "n/a", "n/a"));
             }
 
-            log.info("=================================================");
+            if (portDeltaStats != null) {
+                table.append(String.format("%10s%10s%n", portDeltaStats.bytesReceived(),
+                                           portDeltaStats.bytesSent()));
+            }
+            else {
+                table.append(String.format("%10s%10s%n", "n/a", "n/a"));
+            }
         }
-    }
 
-    public void setLog(Logger log) {
-        this.log = log;
+        table.append("=================================================");
+        return table.toString();
     }
 
-    public void setDeviceService(DeviceService deviceService) {
-        this.deviceService = deviceService;
+    private static Map<PortNumber, PortStatistics> byPort(List<PortStatistics> statistics) {
+        Map<PortNumber, PortStatistics> byPort = new HashMap<>();
+        if (statistics != null) {
+            statistics.forEach(portStats -> byPort.put(portStats.portNumber(), portStats));
+        }
+        return byPort;
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+/**
+ * Counters and duration of the polling sweeps over all devices, and
+ * counters of the event-driven device reads.
+ */
+public final class SweepStats {
+
+    private final long sweeps;
+    private final long skipped;
+    private final long failures;
+    private final int devices;
+    private final long lastDurationNanos;
+    private final long maxDurationNanos;
+    private final long updates;
+    private final long coalesced;
+
+    public SweepStats(long sweeps, long skipped, long failures, int devices, long lastDurationNanos,
+                      long maxDurationNanos, long updates, long coalesced) {
+        this.sweeps = sweeps;
+        this.skipped = skipped;
+        this.failures = failures;
+        this.devices = devices;
+        this.lastDurationNanos = lastDurationNanos;
+        this.maxDurationNanos = maxDurationNanos;
+        this.updates = updates;
+        this.coalesced = coalesced;
+    }
+
+    /**
+     * Returns the number of completed sweeps.
+     *
+     * @return sweep count
+     */
+    public long sweeps() {
+        return sweeps;
+    }
+
+    /**
+     * Returns the number of sweeps skipped because the previous one was
+     * still running.
+     *
+     * @return skipped sweep count
+     */
+    public long skipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the number of devices that could not be polled.
+     *
+     * @return failure count
+     */
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of devices polled by the last sweep.
+     *
+     * @return device count
+     */
+    public int devices() {
+        return devices;
+    }
+
+    public long lastDurationNanos() {
+        return lastDurationNanos;
+    }
+
+    public long maxDurationNanos() {
+        return maxDurationNanos;
+    }
+
+    /**
+     * Returns the number of devices read on reports of new statistics.
+     *
+     * @return device read count
+     */
+    public long updates() {
+        return updates;
+    }
+
+    /**
+     * Returns the number of reports folded into a read already queued.
+     *
+     * @return coalesced report count
+     */
+    public long coalesced() {
+        return coalesced;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sweeps=%d, skipped=%d, failures=%d, devices=%d, last=%.1fms, max=%.1fms, "
+                                     + "updates=%d, coalesced=%d",
+                             sweeps, skipped, failures, devices, lastDurationNanos / 1e6, maxDurationNanos / 1e6,
+                             updates, coalesced);
+    }
+}
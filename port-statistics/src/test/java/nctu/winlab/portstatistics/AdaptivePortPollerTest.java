@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+import org.onlab.packet.ChassisId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nctu.winlab.portstatistics.AdaptivePortPoller.BASE_INTERVAL_MILLIS;
+import static nctu.winlab.portstatistics.AdaptivePortPoller.MAX_INTERVAL_MILLIS;
+import static nctu.winlab.portstatistics.AdaptivePortPoller.MIN_INTERVAL_MILLIS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the adaptive port poller.
+ */
+public class AdaptivePortPollerTest {
+
+    private static final ProviderId PID = new ProviderId("of", "nctu.winlab.portstatistics");
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final long TICK_MILLIS = 100;
+
+    private final TestDeviceService deviceService = new TestDeviceService();
+    private final AtomicInteger samples = new AtomicInteger();
+    private long now = 1_000_000;
+
+    @Test
+    public void intervalsFollowTraffic() {
+        deviceService.ports = 3;
+        AdaptivePortPoller poller = poller(1000);
+
+        // Port 1 is idle, port 2 carries steady traffic and port 3 traffic
+        // that alternates between two rates
+        deviceService.rates.put(2L, t -> 1_000_000);
+        deviceService.rates.put(3L, t -> (t / 10_000) % 2 == 0 ? 100_000 : 10_000_000);
+        run(poller, 200_000);
+
+        Map<ConnectPoint, Long> intervals = poller.intervals();
+        assertEquals(MAX_INTERVAL_MILLIS, (long) intervals.get(cp(1)));
+        assertEquals(BASE_INTERVAL_MILLIS, (long) intervals.get(cp(2)));
+        assertTrue(intervals.get(cp(3)) >= MIN_INTERVAL_MILLIS);
+        assertTrue(deviceService.reads(1) < deviceService.reads(2));
+        assertTrue(deviceService.reads(2) < deviceService.reads(3));
+    }
+
+    @Test
+    public void budgetIsEnforced() {
+        deviceService.ports = 200;
+        for (long i = 1; i <= 200; i++) {
+            deviceService.rates.put(i, t -> 1_000_000);
+        }
+        AdaptivePortPoller poller = poller(10);
+        run(poller, 10_000);
+
+        // One second of budget may be spent at once
+        assertTrue(deviceService.reads.get() <= 10 * 11);
+        AdaptivePollStats stats = poller.stats();
+        assertEquals(200, stats.ports());
+        assertEquals(10, stats.budget(), 0);
+        assertTrue(stats.demand() > stats.budget());
+        assertTrue(stats.throttled() > 0);
+        assertTrue(stats.lagMillis() > 0);
+    }
+
+    @Test
+    public void staleReadsAreSkipped() {
+        deviceService.ports = 1;
+        deviceService.rates.put(1L, t -> 1_000_000);
+        deviceService.refreshMillis = 20_000;
+        AdaptivePortPoller poller = poller(1000);
+        run(poller, 60_000);
+
+        // Reads back off instead of returning the same counters every 5s
+        AdaptivePollStats stats = poller.stats();
+        assertTrue(stats.stale() > 0);
+        assertTrue(stats.polls() < 60_000 / BASE_INTERVAL_MILLIS);
+        // Only reads that found fresh counters are samples
+        assertTrue(samples.get() <= 3);
+    }
+
+    @Test
+    public void removedPortsAreNoLongerPolled() {
+        deviceService.ports = 2;
+        AdaptivePortPoller poller = poller(1000);
+        run(poller, 10_000);
+        assertEquals(2, poller.stats().ports());
+
+        poller.remove(DEVICE);
+        assertTrue(poller.intervals().isEmpty());
+        int reads = deviceService.reads.get();
+        // The device is gone from the device subsystem too
+        deviceService.ports = 0;
+        run(poller, 60_000);
+        assertEquals(reads, deviceService.reads.get());
+    }
+
+    @Test
+    public void handlerFailuresKeepPolling() {
+        deviceService.ports = 1;
+        deviceService.rates.put(1L, t -> 1_000_000);
+        AdaptivePortPoller poller = new AdaptivePortPoller(deviceService, MoreExecutors.directExecutor(),
+                                                           (deviceId, port, speed, time, stats, delta) -> {
+                                                               throw new IllegalStateException("handler");
+                                                           },
+                                                           1000, () -> now);
+        run(poller, 60_000);
+
+        // The port stays at the base interval, its first read falling
+        // anywhere within the first interval
+        assertTrue(deviceService.reads(1) >= 60_000 / BASE_INTERVAL_MILLIS - 1);
+        assertEquals(deviceService.reads(1), poller.stats().failures());
+    }
+
+    private AdaptivePortPoller poller(double budget) {
+        return new AdaptivePortPoller(deviceService, MoreExecutors.directExecutor(),
+                                      (deviceId, port, speed, time, stats, delta) -> {
+                                          if (delta != null) {
+                                              samples.incrementAndGet();
+                                          }
+                                      },
+                                      budget, () -> now);
+    }
+
+    private void run(AdaptivePortPoller poller, long millis) {
+        for (long end = now + millis; now < end; now += TICK_MILLIS) {
+            poller.tick(now);
+        }
+    }
+
+    private static ConnectPoint cp(long port) {
+        return new ConnectPoint(DEVICE, PortNumber.portNumber(port));
+    }
+
+    /**
+     * Serves one device whose ports carry traffic at a rate given per port,
+     * with counters refreshed at a fixed interval like the device
+     * subsystem does.
+     */
+    private final class TestDeviceService extends DeviceServiceAdapter {
+        private final Device device = new DefaultDevice(PID, DEVICE, Device.Type.SWITCH, "nctu", "1.0", "1.0",
+                                                        "1", new ChassisId(1));
+        private final Map<Long, Rate> rates = new ConcurrentHashMap<>();
+        private final AtomicInteger reads = new AtomicInteger();
+        private final Map<Long, AtomicInteger> portReads = new ConcurrentHashMap<>();
+        private volatile int ports;
+        private volatile long refreshMillis = 1000;
+
+        @Override
+        public Iterable<Device> getDevices() {
+            return ports == 0 ? ImmutableList.of() : ImmutableList.of(device);
+        }
+
+        @Override
+        public List<Port> getPorts(DeviceId deviceId) {
+            ImmutableList.Builder<Port> list = ImmutableList.builder();
+            for (int i = 1; i <= ports; i++) {
+                list.add(new DefaultPort(device, PortNumber.portNumber(i), true));
+            }
+            return list.build();
+        }
+
+        @Override
+        public PortStatistics getStatisticsForPort(DeviceId deviceId, PortNumber port) {
+            reads.incrementAndGet();
+            portReads.computeIfAbsent(port.toLong(), k -> new AtomicInteger()).incrementAndGet();
+            // Counters as of their last refresh, at the rate of the port
+            long refreshed = now - now % refreshMillis;
+            Rate rate = rates.getOrDefault(port.toLong(), t -> 0);
+            long bytes = 0;
+            for (long t = 0; t < refreshed; t += 1000) {
+                bytes += rate.bytesPerSecond(t);
+            }
+            return DefaultPortStatistics.builder()
+                    .setDeviceId(deviceId)
+                    .setPort(port)
+                    .setBytesReceived(bytes)
+                    .setBytesSent(bytes)
+                    .setDurationSec(refreshed / 1000)
+                    .setDurationNano(refreshed % 1000 * 1_000_000)
+                    .build();
+        }
+
+        private int reads(long port) {
+            AtomicInteger count = portReads.get(port);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Rate {
+        long bytesPerSecond(long time);
+    }
+}
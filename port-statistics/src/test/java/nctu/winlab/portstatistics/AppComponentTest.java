@@ -18,6 +18,10 @@ package nctu.winlab.portstatistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.net.config.NetworkConfigRegistryAdapter;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
 
 /**
  * Set of tests of the ONOS application component.
@@ -29,6 +33,10 @@ public class AppComponentTest {
     @Before
     public void setUp() {
         component = new AppComponent();
+        component.coreService = new CoreServiceAdapter();
+        component.configService = new NetworkConfigRegistryAdapter();
+        component.deviceService = new DeviceServiceAdapter();
+        component.flowRuleService = new FlowRuleServiceAdapter();
         component.activate();
 
     }
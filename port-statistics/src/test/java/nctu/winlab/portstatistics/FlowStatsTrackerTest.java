@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per-application flow statistics.
+ */
+public class FlowStatsTrackerTest {
+
+    private static final DeviceId DEVICE1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId DEVICE2 = DeviceId.deviceId("of:0000000000000002");
+    private static final ApplicationId MYFWD = new DefaultApplicationId(1, "nctu.winlab.myfwd");
+    private static final ApplicationId TESTPING = new DefaultApplicationId(2, "nctu.winlab.testping");
+
+    private final FlowStatsTracker tracker = new FlowStatsTracker(
+            2, id -> id == MYFWD.id() ? MYFWD : TESTPING);
+
+    @Test
+    public void countersPerApplicationAndDevice() {
+        FlowRule forward1 = forwarding(DEVICE1, 1);
+        FlowRule forward2 = forwarding(DEVICE2, 1);
+        FlowRule ping = icmp(DEVICE1);
+
+        tracker.updated(entry(forward1, 1000, 10), 0);
+        tracker.updated(entry(forward2, 0, 0), 0);
+        tracker.updated(entry(ping, 0, 0), 0);
+
+        // 1Mbps and 0.5Mbps of forwarded traffic, 800bps of pings
+        tracker.updated(entry(forward1, 626_000, 510), 5000);
+        tracker.updated(entry(forward2, 312_500, 250), 5000);
+        tracker.updated(entry(ping, 500, 5), 5000);
+
+        Map<ApplicationId, FlowAggregate> apps = tracker.apps();
+        assertEquals(2, apps.size());
+        FlowAggregate myfwd = apps.get(MYFWD);
+        assertEquals(2, myfwd.flows());
+        assertEquals(938_500, myfwd.bytes());
+        assertEquals(760, myfwd.packets());
+        assertEquals(1_500_000, myfwd.bps(), 1e-6);
+        assertEquals(150, myfwd.pps(), 1e-6);
+        assertEquals(800, apps.get(TESTPING).bps(), 1e-6);
+
+        Map<ApplicationId, FlowAggregate> device1 = tracker.apps(DEVICE1);
+        assertEquals(1_000_000, device1.get(MYFWD).bps(), 1e-6);
+        assertEquals(626_000, device1.get(MYFWD).bytes());
+        assertEquals(800, device1.get(TESTPING).bps(), 1e-6);
+
+        Map<DeviceId, FlowAggregate> devices = tracker.devices();
+        assertEquals(1_000_800, devices.get(DEVICE1).bps(), 1e-6);
+        assertEquals(2, devices.get(DEVICE1).flows());
+        assertEquals(500_000, devices.get(DEVICE2).bps(), 1e-6);
+    }
+
+    @Test
+    public void ratesAreSmoothed() {
+        FlowRule forward = forwarding(DEVICE1, 1);
+        tracker.updated(entry(forward, 0, 0), 0);
+        tracker.updated(entry(forward, 625_000, 500), 5000);
+        assertEquals(1_000_000, tracker.apps().get(MYFWD).bps(), 1e-6);
+
+        // Idle for an interval
+        tracker.updated(entry(forward, 625_000, 500), 10000);
+        double bps = tracker.apps().get(MYFWD).bps();
+        assertTrue(bps > 0 && bps < 1_000_000);
+        assertEquals(1_000_000 * Math.exp(-5.0 / 15), bps, 1e-3);
+    }
+
+    @Test
+    public void removedFlowsKeepTheirCounters() {
+        FlowRule forward = forwarding(DEVICE1, 1);
+        tracker.updated(entry(forward, 0, 0), 0);
+        tracker.updated(entry(forward, 625_000, 500), 5000);
+
+        tracker.removed(entry(forward, 700_000, 560));
+        FlowAggregate myfwd = tracker.apps().get(MYFWD);
+        assertEquals(0, myfwd.flows());
+        assertEquals(700_000, myfwd.bytes());
+        assertEquals(560, myfwd.packets());
+        assertEquals(0, myfwd.bps(), 0);
+        assertTrue(tracker.busiest(10).isEmpty());
+
+        // Reinstalled rules count from zero again
+        tracker.updated(entry(forward, 0, 0), 10000);
+        tracker.updated(entry(forward, 100, 1), 15000);
+        assertEquals(700_100, tracker.apps().get(MYFWD).bytes());
+        assertEquals(1, tracker.flows());
+    }
+
+    @Test
+    public void busiestFlows() {
+        FlowRule[] rules = {forwarding(DEVICE1, 1), forwarding(DEVICE1, 2), icmp(DEVICE1)};
+        long[] bytes = {100_000, 300_000, 200_000};
+        for (FlowRule rule : rules) {
+            tracker.updated(entry(rule, 0, 0), 0);
+        }
+        for (int i = 0; i < rules.length; i++) {
+            tracker.updated(entry(rules[i], bytes[i], 1), 1000);
+        }
+
+        // The ranking keeps two flows
+        List<FlowRate> top = tracker.busiest(10);
+        assertEquals(2, top.size());
+        assertEquals(rules[1].id(), top.get(0).rule().id());
+        assertEquals(2_400_000, top.get(0).bps(), 1e-6);
+        assertEquals(rules[2].id(), top.get(1).rule().id());
+        assertEquals(TESTPING, top.get(1).appId());
+
+        tracker.remove(DEVICE1);
+        assertTrue(tracker.busiest(10).isEmpty());
+        assertTrue(tracker.devices().isEmpty());
+        assertEquals(0, tracker.flows());
+        assertEquals(0, tracker.apps().get(MYFWD).flows());
+        assertEquals(400_000, tracker.apps().get(MYFWD).bytes());
+    }
+
+    private static FlowRule forwarding(DeviceId device, int port) {
+        return DefaultFlowRule.builder()
+                .forDevice(device)
+                .withSelector(DefaultTrafficSelector.builder().matchInPort(PortNumber.portNumber(port)).build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(port + 1)).build())
+                .withPriority(10)
+                .fromApp(MYFWD)
+                .makeTemporary(10)
+                .build();
+    }
+
+    private static FlowRule icmp(DeviceId device) {
+        return DefaultFlowRule.builder()
+                .forDevice(device)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchEthType(Ethernet.TYPE_IPV4)
+                                      .matchIPProtocol(IPv4.PROTOCOL_ICMP)
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.CONTROLLER).build())
+                .withPriority(40000)
+                .fromApp(TESTPING)
+                .makePermanent()
+                .build();
+    }
+
+    private static FlowEntry entry(FlowRule rule, long bytes, long packets) {
+        return new DefaultFlowEntry(rule, FlowEntry.FlowEntryState.ADDED, 0, packets, bytes);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the port alerting rules.
+ */
+public class PortAlertEngineTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final PortNumber PORT = PortNumber.portNumber(1);
+    private static final ConnectPoint CP = new ConnectPoint(DEVICE, PORT);
+    private static final long SPEED = 1000;
+    // 90% of a 1Gbps port over 5 seconds
+    private static final long BUSY_BYTES = 562_500_000;
+
+    private final List<PortAlertEvent> events = new ArrayList<>();
+    private final PortAlertEngine engine = new PortAlertEngine(events::add);
+
+    @Test
+    public void raisedAfterHoldTime() {
+        engine.setRules(ImmutableList.of(
+                new PortAlertRule("hot", PortAlertRule.Metric.UTILIZATION, 0.8, 0, 30000)));
+
+        for (long time = 5000; time < 30000; time += 5000) {
+            engine.sampled(DEVICE, PORT, SPEED, time, null, delta(BUSY_BYTES, 0, 0));
+        }
+        assertTrue(events.isEmpty());
+
+        // Busy since the start of the first interval
+        engine.sampled(DEVICE, PORT, SPEED, 30000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(1, events.size());
+        assertEquals(PortAlertEvent.Type.ALERT_RAISED, events.get(0).type());
+        PortAlert alert = events.get(0).subject();
+        assertEquals("hot", alert.rule());
+        assertEquals(CP, alert.connectPoint());
+        assertEquals(0.9, alert.value(), 1e-9);
+        assertEquals(0, alert.since());
+        assertEquals(ImmutableList.of(alert), engine.alerts());
+
+        // Raised once only
+        engine.sampled(DEVICE, PORT, SPEED, 40000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(1, events.size());
+
+        engine.sampled(DEVICE, PORT, SPEED, 45000, null, delta(0, 0, 0));
+        assertEquals(2, events.size());
+        assertEquals(PortAlertEvent.Type.ALERT_CLEARED, events.get(1).type());
+        assertEquals(45000, events.get(1).time());
+        assertTrue(engine.alerts().isEmpty());
+    }
+
+    @Test
+    public void interruptionRestartsHoldTime() {
+        engine.setRules(ImmutableList.of(
+                new PortAlertRule("hot", PortAlertRule.Metric.UTILIZATION, 0.8, 0, 10000)));
+
+        engine.sampled(DEVICE, PORT, SPEED, 5000, null, delta(BUSY_BYTES, 0, 0));
+        engine.sampled(DEVICE, PORT, SPEED, 10000, null, delta(0, 0, 0));
+        engine.sampled(DEVICE, PORT, SPEED, 15000, null, delta(BUSY_BYTES, 0, 0));
+        assertTrue(events.isEmpty());
+
+        // Unknown port speeds never match utilization rules
+        engine.sampled(DEVICE, PortNumber.portNumber(2), 0, 15000, null, delta(BUSY_BYTES, 0, 0));
+        engine.sampled(DEVICE, PortNumber.portNumber(2), 0, 30000, null, delta(BUSY_BYTES, 0, 0));
+
+        engine.sampled(DEVICE, PORT, SPEED, 20000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(1, events.size());
+        assertEquals(10000, events.get(0).subject().since());
+    }
+
+    @Test
+    public void dropSpike() {
+        engine.setRules(ImmutableList.of(
+                new PortAlertRule("drops", PortAlertRule.Metric.DROP_PPS, 5, 4, 0)));
+
+        // A steady 10 drops per second is above the threshold but no spike
+        for (long time = 5000; time <= 100000; time += 5000) {
+            engine.sampled(DEVICE, PORT, SPEED, time, null, delta(0, 50, 0));
+        }
+        assertTrue(events.isEmpty());
+
+        engine.sampled(DEVICE, PORT, SPEED, 105000, null, delta(0, 500, 0));
+        assertEquals(1, events.size());
+        assertEquals(100, events.get(0).subject().value(), 1e-9);
+        assertEquals(40, events.get(0).subject().threshold(), 1e-6);
+    }
+
+    @Test
+    public void errorsIncreasing() {
+        engine.setRules(ImmutableList.of(
+                new PortAlertRule("errors", PortAlertRule.Metric.ERROR_PPS, 0, 0, 0)));
+
+        engine.sampled(DEVICE, PORT, SPEED, 5000, null, delta(1000, 0, 0));
+        engine.sampled(DEVICE, PORT, SPEED, 10000, null, delta(1000, 0, 1));
+        assertEquals(1, events.size());
+        assertEquals("errors", events.get(0).subject().rule());
+    }
+
+    @Test
+    public void alertsClearedWithRulesAndDevices() {
+        PortAlertRule hot = new PortAlertRule("hot", PortAlertRule.Metric.UTILIZATION, 0.8, 0, 0);
+        engine.setRules(ImmutableList.of(hot));
+        engine.sampled(DEVICE, PORT, SPEED, 5000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(1, engine.alerts().size());
+
+        // Same rules, same state
+        engine.setRules(ImmutableList.of(hot));
+        engine.sampled(DEVICE, PORT, SPEED, 10000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(1, events.size());
+
+        engine.setRules(ImmutableList.of());
+        engine.sampled(DEVICE, PORT, SPEED, 15000, null, delta(BUSY_BYTES, 0, 0));
+        assertEquals(2, events.size());
+        assertEquals(PortAlertEvent.Type.ALERT_CLEARED, events.get(1).type());
+
+        engine.setRules(ImmutableList.of(hot));
+        engine.sampled(DEVICE, PORT, SPEED, 20000, null, delta(BUSY_BYTES, 0, 0));
+        engine.remove(DEVICE, 25000);
+        assertEquals(4, events.size());
+        assertEquals(PortAlertEvent.Type.ALERT_CLEARED, events.get(3).type());
+        assertTrue(engine.alerts().isEmpty());
+    }
+
+    @Test
+    public void evaluationDoesNotAllocate() {
+        engine.setRules(ImmutableList.of(
+                new PortAlertRule("hot", PortAlertRule.Metric.UTILIZATION, 0.8, 0, 30000),
+                new PortAlertRule("drops", PortAlertRule.Metric.DROP_PPS, 5, 4, 0),
+                new PortAlertRule("errors", PortAlertRule.Metric.ERROR_PPS, 0, 0, 0)));
+        PortStatistics quiet = delta(1000, 0, 0);
+
+        // Warms up the JIT so that the measured loop runs compiled code
+        for (int i = 0; i < 100_000; i++) {
+            engine.sampled(DEVICE, PORT, SPEED, i * 5000L, null, quiet);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            engine.sampled(DEVICE, PORT, SPEED, i * 5000L, null, quiet);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(events.isEmpty());
+        assertTrue("Allocated " + allocated + " bytes", allocated < 100_000);
+    }
+
+    private static PortStatistics delta(long bytesSent, long dropped, long errors) {
+        return DefaultPortStatistics.builder()
+                .setDeviceId(DEVICE)
+                .setPort(PORT)
+                .setBytesSent(bytesSent)
+                .setPacketsTxDropped(dropped)
+                .setPacketsRxErrors(errors)
+                .setDurationSec(5)
+                .build();
+    }
+}
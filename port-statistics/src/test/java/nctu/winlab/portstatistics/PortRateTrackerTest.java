@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the port rates and rankings.
+ */
+public class PortRateTrackerTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void firstIntervalSetsRates() {
+        PortRateTracker tracker = new PortRateTracker(4);
+        tracker.sampled(DEVICE, port(1), 1000, 5000, null, delta(1, 5, 625_000_000, 10));
+
+        PortRate rate = tracker.rate(cp(1));
+        assertEquals(1e9, rate.rxBps(), DELTA);
+        assertEquals(2e9, rate.txBps(), DELTA);
+        assertEquals(2, rate.dropPps(), DELTA);
+        assertEquals(2.0, rate.utilization(), DELTA);
+        assertNull(tracker.rate(cp(2)));
+    }
+
+    @Test
+    public void ratesAreSmoothed() {
+        PortRateTracker tracker = new PortRateTracker(4);
+        tracker.sampled(DEVICE, port(1), 0, 5000, null, delta(1, 5, 1000, 0));
+        tracker.sampled(DEVICE, port(1), 0, 10000, null, delta(1, 5, 0, 0));
+
+        double weight = 1 - Math.exp(-5 / 15.0);
+        PortRate rate = tracker.rate(cp(1));
+        assertEquals(1600 * (1 - weight), rate.rxBps(), DELTA);
+        assertEquals(0, rate.utilization(), DELTA);
+    }
+
+    @Test
+    public void busiestPorts() {
+        PortRateTracker tracker = new PortRateTracker(2);
+        tracker.sampled(DEVICE, port(1), 0, 5000, null, delta(1, 5, 1000, 0));
+        tracker.sampled(DEVICE, port(2), 0, 5000, null, delta(2, 5, 3000, 0));
+        tracker.sampled(DEVICE, port(3), 0, 5000, null, delta(3, 5, 2000, 0));
+
+        assertPorts(tracker.busiest(10), 2, 3);
+        assertPorts(tracker.busiest(1), 2);
+
+        // Port 2 goes idle and port 1 overtakes it
+        for (int i = 0; i < 20; i++) {
+            tracker.sampled(DEVICE, port(2), 0, 5000, null, delta(2, 5, 0, 0));
+        }
+        tracker.sampled(DEVICE, port(1), 0, 5000, null, delta(1, 5, 1000, 0));
+        assertPorts(tracker.busiest(10), 3, 1);
+    }
+
+    @Test
+    public void droppingPorts() {
+        PortRateTracker tracker = new PortRateTracker(2);
+        tracker.sampled(DEVICE, port(1), 0, 5000, null, delta(1, 5, 1000, 0));
+        tracker.sampled(DEVICE, port(2), 0, 5000, null, delta(2, 5, 1000, 50));
+        tracker.sampled(DEVICE, port(3), 0, 5000, null, delta(3, 5, 1000, 5));
+
+        // Ports without drops are not ranked
+        assertPorts(tracker.dropping(10), 2, 3);
+
+        tracker.remove(DEVICE);
+        assertTrue(tracker.dropping(10).isEmpty());
+        assertTrue(tracker.busiest(10).isEmpty());
+    }
+
+    @Test
+    public void portsLeaveRankingsWhenIdle() {
+        PortRateTracker tracker = new PortRateTracker(2);
+        tracker.sampled(DEVICE, port(2), 0, 5000, null, delta(2, 5, 1000, 50));
+        tracker.sampled(DEVICE, port(3), 0, 5000, null, delta(3, 5, 1000, 5));
+        assertPorts(tracker.dropping(10), 2, 3);
+
+        // Ten minutes without drops on port 2 clear its smoothed drop rate
+        tracker.sampled(DEVICE, port(2), 0, 605_000, null, delta(2, 600, 1000, 0));
+        assertEquals(0, tracker.rate(cp(2)).dropPps(), 0);
+        assertPorts(tracker.dropping(10), 3);
+        assertPorts(tracker.busiest(10), 3, 2);
+    }
+
+    private static void assertPorts(List<PortRate> rates, long... ports) {
+        assertEquals(ports.length, rates.size());
+        for (int i = 0; i < ports.length; i++) {
+            assertEquals(cp(ports[i]), rates.get(i).connectPoint());
+        }
+    }
+
+    private static PortNumber port(long port) {
+        return PortNumber.portNumber(port);
+    }
+
+    private static ConnectPoint cp(long port) {
+        return new ConnectPoint(DEVICE, port(port));
+    }
+
+    private static PortStatistics delta(long port, long seconds, long bytesReceived, long dropped) {
+        return DefaultPortStatistics.builder()
+                .setDeviceId(DEVICE)
+                .setPort(port(port))
+                .setBytesReceived(bytesReceived)
+                .setBytesSent(bytesReceived * 2)
+                .setPacketsRxDropped(dropped)
+                .setDurationSec(seconds)
+                .build();
+    }
+}
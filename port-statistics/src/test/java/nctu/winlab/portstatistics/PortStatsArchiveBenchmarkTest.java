@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Write throughput, size and query latency of the on-disk archive.
+ * <p>
+ * Appends samples of a number of ports, spread over 48-port devices, every
+ * 5 seconds for an hour. Each port carries traffic at its own rate with
+ * random jitter, with the occasional drop and error. Reports the append
+ * rate, the archive size against 72 bytes per raw sample, and the latency
+ * of a full-hour and a 5-minute query of one port. Sizes can be raised
+ * with the {@code portstats.bench.*} system properties, for example
+ * {@code -Dportstats.bench.ports=10000}.
+ * Runs only with {@code -Dbench=true}.
+ * </p>
+ */
+public class PortStatsArchiveBenchmarkTest {
+
+    private static final int PORTS = Integer.getInteger("portstats.bench.ports", 1000);
+    private static final int SAMPLES = Integer.getInteger("portstats.bench.samples", 720);
+    private static final int QUERIES = Integer.getInteger("portstats.bench.queries", 20);
+    private static final int PORTS_PER_DEVICE = 48;
+    private static final long INTERVAL_MILLIS = 5000;
+    private static final long SEGMENT_MILLIS = 3600_000;
+    private static final int SEGMENT_BYTES = 64 << 20;
+    private static final int RAW_SAMPLE_BYTES = 9 * Long.BYTES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DeviceId[] devices;
+    private PortNumber[] ports;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void archive() throws IOException {
+        devices = new DeviceId[(PORTS + PORTS_PER_DEVICE - 1) / PORTS_PER_DEVICE];
+        for (int d = 0; d < devices.length; d++) {
+            devices[d] = DeviceId.deviceId(String.format("of:%016x", d + 1));
+        }
+        ports = new PortNumber[PORTS_PER_DEVICE];
+        for (int p = 0; p < PORTS_PER_DEVICE; p++) {
+            ports[p] = PortNumber.portNumber(p + 1);
+        }
+
+        // The first run warms up the JIT and is not reported
+        run(folder.newFolder());
+        run(folder.newFolder());
+    }
+
+    private void run(File directory) throws IOException {
+        try (PortStatsArchive archive = new PortStatsArchive(directory.toPath(), SEGMENT_MILLIS, SEGMENT_BYTES)) {
+            long appendNanos = append(archive);
+
+            Random random = new Random(1);
+            long hourNanos = 0;
+            long recentNanos = 0;
+            long end = (SAMPLES - 1) * INTERVAL_MILLIS;
+            for (int q = 0; q < QUERIES; q++) {
+                int i = random.nextInt(PORTS);
+                ConnectPoint cp = new ConnectPoint(devices[i / PORTS_PER_DEVICE], ports[i % PORTS_PER_DEVICE]);
+
+                long start = System.nanoTime();
+                assertEquals(SAMPLES, archive.range(cp, 0, end).size());
+                hourNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                archive.range(cp, end - 300_000, end);
+                recentNanos += System.nanoTime() - start;
+            }
+
+            long samples = (long) PORTS * SAMPLES;
+            System.out.printf("archive %d ports x %d samples: append=%.0fns/sample (%.0f samples/s), "
+                                      + "size=%.1fMB (%.2f bytes/sample, %.1fx), query hour=%.1fms, "
+                                      + "query 5min=%.1fms%n",
+                              PORTS, SAMPLES, (double) appendNanos / samples, samples * 1e9 / appendNanos,
+                              archive.bytes() / 1e6, (double) archive.bytes() / samples,
+                              (double) samples * RAW_SAMPLE_BYTES / archive.bytes(),
+                              hourNanos / 1e6 / QUERIES, recentNanos / 1e6 / QUERIES);
+            assertEquals(samples, archive.samples());
+        }
+    }
+
+    private long append(PortStatsArchive archive) throws IOException {
+        Random random = new Random(0);
+        long[] rates = new long[PORTS];
+        long[] bytes = new long[PORTS];
+        long[] packets = new long[PORTS];
+        long[] drops = new long[PORTS];
+        for (int i = 0; i < PORTS; i++) {
+            // Bytes per second, from idle to about 1Gbps
+            rates[i] = (long) Math.pow(10, random.nextDouble() * 8);
+        }
+
+        // Counters are generated ahead so that only appends are timed
+        PortStatistics[] stats = new PortStatistics[PORTS];
+        long nanos = 0;
+        for (int s = 0; s < SAMPLES; s++) {
+            for (int i = 0; i < PORTS; i++) {
+                long sent = rates[i] * INTERVAL_MILLIS / 1000 * (90 + random.nextInt(20)) / 100;
+                bytes[i] += sent;
+                packets[i] += sent / 800;
+                if (random.nextInt(100) == 0) {
+                    drops[i] += random.nextInt(10);
+                }
+                stats[i] = DefaultPortStatistics.builder()
+                        .setDeviceId(devices[i / PORTS_PER_DEVICE])
+                        .setPort(ports[i % PORTS_PER_DEVICE])
+                        .setBytesReceived(bytes[i] / 2)
+                        .setBytesSent(bytes[i])
+                        .setPacketsReceived(packets[i] / 2)
+                        .setPacketsSent(packets[i])
+                        .setPacketsRxDropped(drops[i])
+                        .build();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < PORTS; i++) {
+                archive.append(devices[i / PORTS_PER_DEVICE], ports[i % PORTS_PER_DEVICE], s * INTERVAL_MILLIS,
+                               stats[i]);
+            }
+            nanos += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static nctu.winlab.portstatistics.PortStatsStoreTest.stats;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the on-disk port statistics archive.
+ */
+public class PortStatsArchiveTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final PortNumber PORT_1 = PortNumber.portNumber(1);
+    private static final PortNumber PORT_2 = PortNumber.portNumber(2);
+    private static final ConnectPoint CP_1 = new ConnectPoint(DEVICE, PORT_1);
+    private static final ConnectPoint CP_2 = new ConnectPoint(DEVICE, PORT_2);
+
+    private static final long HOUR = 3600_000;
+    private static final int SEGMENT_BYTES = 1 << 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        try (PortStatsArchive archive = new PortStatsArchive(folder.getRoot().toPath(), HOUR, SEGMENT_BYTES)) {
+            for (int i = 1; i <= 10; i++) {
+                archive.append(DEVICE, PORT_1, i * 1000, stats(i));
+                archive.append(DEVICE, PORT_2, i * 1000, stats(i * 3));
+            }
+            // A counter reset is a negative delta
+            archive.append(DEVICE, PORT_1, 11000, stats(0));
+
+            List<PortSample> samples = archive.range(CP_1, 3000, 11000);
+            assertEquals(9, samples.size());
+            assertEquals(3000, samples.get(0).time());
+            assertEquals(300, samples.get(0).bytesReceived());
+            assertEquals(600, samples.get(0).bytesSent());
+            assertEquals(3, samples.get(0).packetsRxErrors());
+            assertEquals(0, samples.get(8).bytesReceived());
+
+            samples = archive.range(CP_2, 0, 2000);
+            assertEquals(2, samples.size());
+            assertEquals(600, samples.get(1).bytesReceived());
+
+            assertTrue(archive.range(new ConnectPoint(DEVICE, PortNumber.portNumber(3)), 0, 20000).isEmpty());
+            assertEquals(21, archive.samples());
+            // A record of small deltas takes one byte per field
+            assertTrue(archive.bytes() < 21 * 20);
+        }
+    }
+
+    @Test
+    public void rangeAcrossSegments() throws IOException {
+        try (PortStatsArchive archive = new PortStatsArchive(folder.getRoot().toPath(), HOUR, SEGMENT_BYTES)) {
+            for (int i = 0; i < 48; i++) {
+                archive.append(DEVICE, PORT_1, i * HOUR / 4, stats(i));
+            }
+            assertEquals(12, archive.segments());
+
+            List<PortSample> samples = archive.range(CP_1, HOUR / 2, 3 * HOUR);
+            assertEquals(11, samples.size());
+            assertEquals(HOUR / 2, samples.get(0).time());
+            assertEquals(200, samples.get(0).bytesReceived());
+            assertEquals(3 * HOUR, samples.get(10).time());
+        }
+    }
+
+    @Test
+    public void fullSegmentRolls() throws IOException {
+        int segmentBytes = 1024;
+        try (PortStatsArchive archive = new PortStatsArchive(folder.getRoot().toPath(), HOUR, segmentBytes)) {
+            for (int i = 0; i < 1000; i++) {
+                archive.append(DEVICE, PORT_1, i, stats(i));
+            }
+            assertTrue(archive.segments() > 1);
+
+            List<PortSample> samples = archive.range(CP_1, 0, 1000);
+            assertEquals(1000, samples.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, samples.get(i).time());
+                assertEquals(i * 200, samples.get(i).bytesSent());
+            }
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (PortStatsArchive archive = new PortStatsArchive(directory, HOUR, SEGMENT_BYTES)) {
+            for (int i = 1; i <= 5; i++) {
+                archive.append(DEVICE, PORT_1, i * 1000, stats(i));
+            }
+        }
+
+        try (PortStatsArchive archive = new PortStatsArchive(directory, HOUR, SEGMENT_BYTES)) {
+            archive.append(DEVICE, PORT_2, 6000, stats(6));
+            archive.append(DEVICE, PORT_1, 6000, stats(6));
+
+            List<PortSample> samples = archive.range(CP_1, 0, 10000);
+            assertEquals(6, samples.size());
+            assertEquals(500, samples.get(4).bytesReceived());
+            assertEquals(600, samples.get(5).bytesReceived());
+            assertEquals(1, archive.range(CP_2, 0, 10000).size());
+            assertEquals(2, archive.segments());
+        }
+    }
+
+    @Test
+    public void unsealedSegmentIsScanned() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        // Left open, as by a crash, so that its segment has no port table
+        PortStatsArchive crashed = new PortStatsArchive(directory, HOUR, SEGMENT_BYTES);
+        for (int i = 1; i <= 5; i++) {
+            crashed.append(DEVICE, PORT_1, i * 1000, stats(i));
+            crashed.append(DEVICE, PORT_2, i * 1000, stats(i * 2));
+        }
+
+        try (PortStatsArchive archive = new PortStatsArchive(directory, HOUR, SEGMENT_BYTES)) {
+            List<PortSample> samples = archive.range(CP_2, 2000, 4000);
+            assertEquals(3, samples.size());
+            assertEquals(2000, samples.get(0).time());
+            assertEquals(400, samples.get(0).bytesReceived());
+            assertEquals(800, samples.get(2).bytesReceived());
+        }
+        crashed.close();
+    }
+
+    @Test
+    public void expire() throws IOException {
+        try (PortStatsArchive archive = new PortStatsArchive(folder.getRoot().toPath(), HOUR, SEGMENT_BYTES)) {
+            for (int i = 0; i < 5; i++) {
+                archive.append(DEVICE, PORT_1, i * HOUR, stats(i));
+            }
+
+            // Only the segments ending before the retention period go
+            assertEquals(2, archive.expire(4 * HOUR, 2 * HOUR));
+            assertEquals(3, archive.segments());
+            assertEquals(3, folder.getRoot().listFiles((File dir, String name) -> name.endsWith(".seg")).length);
+            assertEquals(2 * HOUR, archive.range(CP_1, 0, 10 * HOUR).get(0).time());
+
+            // The active segment is never deleted
+            assertEquals(2, archive.expire(100 * HOUR, HOUR));
+            assertEquals(1, archive.segments());
+        }
+    }
+
+    @Test
+    public void missingStatisticsAreSkipped() throws IOException {
+        try (PortStatsArchive archive = new PortStatsArchive(folder.getRoot().toPath(), HOUR, SEGMENT_BYTES)) {
+            archive.sampled(DEVICE, PORT_1, 0, 1000, null, null);
+            archive.sampled(DEVICE, PORT_1, 0, 2000, DefaultPortStatistics.builder()
+                    .setDeviceId(DEVICE).setPort(PORT_1).setBytesReceived(7).build(), null);
+
+            List<PortSample> samples = archive.range(CP_1, 0, 3000);
+            assertEquals(1, samples.size());
+            assertEquals(7, samples.get(0).bytesReceived());
+        }
+    }
+}
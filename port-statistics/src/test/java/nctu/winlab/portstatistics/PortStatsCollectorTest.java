@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.ChassisId;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultPort;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the parallel port statistics collector.
+ */
+public class PortStatsCollectorTest {
+
+    private static final ProviderId PID = new ProviderId("of", "nctu.winlab.portstatistics");
+    private static final int DEVICES = 3;
+    private static final int PORTS = 4;
+    private static final PortStatsHandler IGNORE = (deviceId, port, speed, time, stats, delta) -> { };
+
+    private TestDeviceService deviceService;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        deviceService = new TestDeviceService();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sweepPollsEveryPort() {
+        AtomicInteger samples = new AtomicInteger();
+        PortStatsHandler handler = (deviceId, port, speed, time, stats, delta) -> samples.incrementAndGet();
+        PortStatsCollector collector = new PortStatsCollector(deviceService, MoreExecutors.directExecutor(),
+                                                              handler);
+
+        assertTrue(collector.sweep());
+        assertEquals(DEVICES * PORTS, samples.get());
+
+        SweepStats stats = collector.stats();
+        assertEquals(1, stats.sweeps());
+        assertEquals(DEVICES, stats.devices());
+        assertEquals(0, stats.failures());
+        // One read of the counters and one of the deltas per device
+        assertEquals(DEVICES * 2, deviceService.calls.get());
+    }
+
+    @Test
+    public void sweepIsSkippedWhileRunning() throws InterruptedException {
+        PortStatsCollector collector = new PortStatsCollector(deviceService, executor, IGNORE);
+        deviceService.release = new CountDownLatch(1);
+
+        assertTrue(collector.sweep());
+        assertFalse(collector.sweep());
+        assertEquals(1, collector.stats().skipped());
+        assertEquals(0, collector.stats().sweeps());
+
+        deviceService.release.countDown();
+        awaitSweeps(collector, 1);
+        assertTrue(collector.sweep());
+        awaitSweeps(collector, 2);
+        assertEquals(1, collector.stats().skipped());
+    }
+
+    @Test
+    public void failedDeviceDoesNotStopSweep() throws InterruptedException {
+        PortStatsCollector collector = new PortStatsCollector(deviceService, executor, IGNORE);
+        deviceService.failing = deviceId(2);
+
+        assertTrue(collector.sweep());
+        awaitSweeps(collector, 1);
+
+        assertEquals(1, collector.stats().failures());
+        assertEquals(DEVICES, collector.stats().devices());
+        assertEquals((DEVICES - 1) * 2, deviceService.calls.get());
+    }
+
+    @Test
+    public void updatesAreCoalesced() throws InterruptedException {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        PortStatsCollector collector = new PortStatsCollector(deviceService, single, IGNORE);
+        deviceService.release = new CountDownLatch(1);
+
+        // The first read blocks; the second is queued and absorbs the third
+        assertTrue(collector.update(deviceId(1)));
+        assertTrue(deviceService.entered.await(5, TimeUnit.SECONDS));
+        assertTrue(collector.update(deviceId(1)));
+        assertFalse(collector.update(deviceId(1)));
+        assertTrue(collector.update(deviceId(2)));
+
+        deviceService.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (collector.stats().updates() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, collector.stats().updates());
+        assertEquals(1, collector.stats().coalesced());
+        assertEquals(0, collector.stats().sweeps());
+        single.shutdownNow();
+    }
+
+    @Test
+    public void readsOfDeviceDoNotOverlap() throws InterruptedException {
+        PortStatsCollector collector = new PortStatsCollector(deviceService, executor, IGNORE);
+        deviceService.release = new CountDownLatch(1);
+
+        // A free thread is left, yet the second read waits for the first
+        assertTrue(collector.update(deviceId(1)));
+        assertTrue(deviceService.entered.await(5, TimeUnit.SECONDS));
+        assertTrue(collector.update(deviceId(1)));
+        assertFalse(collector.update(deviceId(1)));
+        Thread.sleep(50);
+        assertEquals(1, deviceService.active.get());
+
+        deviceService.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (collector.stats().updates() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, collector.stats().updates());
+        assertEquals(1, collector.stats().coalesced());
+        assertEquals(1, deviceService.maxActive.get());
+    }
+
+    private static void awaitSweeps(PortStatsCollector collector, long sweeps) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (collector.stats().sweeps() < sweeps && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(sweeps, collector.stats().sweeps());
+    }
+
+    private static DeviceId deviceId(int index) {
+        return DeviceId.deviceId(String.format("of:%016x", index));
+    }
+
+    /**
+     * Serves a few devices with a few ports each and counts the statistics
+     * queries.
+     */
+    private static final class TestDeviceService extends DeviceServiceAdapter {
+        private final List<Device> devices = new ArrayList<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private volatile DeviceId failing;
+
+        private TestDeviceService() {
+            for (int i = 1; i <= DEVICES; i++) {
+                devices.add(new DefaultDevice(PID, deviceId(i), Device.Type.SWITCH,
+                                              "nctu", "1.0", "1.0", "1", new ChassisId(i)));
+            }
+        }
+
+        @Override
+        public Iterable<Device> getDevices() {
+            return devices;
+        }
+
+        @Override
+        public Device getDevice(DeviceId deviceId) {
+            return devices.stream().filter(d -> d.id().equals(deviceId)).findFirst().orElse(null);
+        }
+
+        @Override
+        public List<Port> getPorts(DeviceId deviceId) {
+            if (deviceId.equals(failing)) {
+                throw new IllegalStateException("Device unreachable");
+            }
+            ImmutableList.Builder<Port> ports = ImmutableList.builder();
+            for (int i = 1; i <= PORTS; i++) {
+                ports.add(new DefaultPort(getDevice(deviceId), PortNumber.portNumber(i), true));
+            }
+            return ports.build();
+        }
+
+        @Override
+        public List<PortStatistics> getPortStatistics(DeviceId deviceId) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                active.decrementAndGet();
+            }
+            return stats(deviceId);
+        }
+
+        @Override
+        public List<PortStatistics> getPortDeltaStatistics(DeviceId deviceId) {
+            return stats(deviceId);
+        }
+
+        private List<PortStatistics> stats(DeviceId deviceId) {
+            calls.incrementAndGet();
+            ImmutableList.Builder<PortStatistics> stats = ImmutableList.builder();
+            for (int i = 1; i <= PORTS; i++) {
+                stats.add(DefaultPortStatistics.builder()
+                                  .setDeviceId(deviceId)
+                                  .setPort(PortNumber.portNumber(i))
+                                  .setBytesReceived(1000)
+                                  .setBytesSent(2000)
+                                  .setDurationSec(5)
+                                  .build());
+            }
+            return stats.build();
+        }
+    }
+}
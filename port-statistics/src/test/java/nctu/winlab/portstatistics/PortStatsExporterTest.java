@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the Prometheus rendering of the port statistics.
+ */
+public class PortStatsExporterTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final String PORT_1 = "{device=\"of:0000000000000001\",port=\"1\"} ";
+    private static final String PORT_2 = "{device=\"of:0000000000000001\",port=\"2\"} ";
+
+    private PortStatsExporter exporter;
+
+    @Before
+    public void setUp() {
+        PortStatsStore store = new PortStatsStore(4);
+        PortRateTracker rates = new PortRateTracker(4);
+        PortStatsHandler handler = store.andThen(rates);
+        for (int port = 1; port <= 2; port++) {
+            handler.sampled(DEVICE, PortNumber.portNumber(port), 1000, 5000,
+                            DefaultPortStatistics.builder()
+                                    .setDeviceId(DEVICE)
+                                    .setPort(PortNumber.portNumber(port))
+                                    .setBytesReceived(port * 1000)
+                                    .setPacketsRxDropped(port)
+                                    .build(),
+                            DefaultPortStatistics.builder()
+                                    .setDeviceId(DEVICE)
+                                    .setPort(PortNumber.portNumber(port))
+                                    .setBytesReceived(port * 1000)
+                                    .setDurationSec(5)
+                                    .build());
+        }
+        SweepStats sweeps = new SweepStats(3, 1, 0, 1, 250_000_000, 300_000_000, 0, 0);
+        exporter = new PortStatsExporter(store, rates, () -> sweeps);
+    }
+
+    @Test
+    public void rendersFamilies() {
+        String text = exporter.render();
+
+        assertTrue(text.contains("# TYPE onos_port_receive_bytes_total counter\n"));
+        assertTrue(text.contains("onos_port_receive_bytes_total" + PORT_1 + "1000\n"));
+        assertTrue(text.contains("onos_port_receive_bytes_total" + PORT_2 + "2000\n"));
+        assertTrue(text.contains("onos_port_receive_dropped_total" + PORT_2 + "2\n"));
+        assertTrue(text.contains("# TYPE onos_port_receive_bits_per_second gauge\n"));
+        assertTrue(text.contains("onos_port_receive_bits_per_second" + PORT_1 + "1600.0\n"));
+        assertTrue(text.contains("onos_port_statistics_sweeps_total 3\n"));
+        assertTrue(text.contains("onos_port_statistics_sweep_duration_seconds 0.25\n"));
+
+        // Every family is announced once and its samples follow it
+        assertEquals(text.indexOf("# TYPE onos_port_receive_bytes_total"),
+                     text.lastIndexOf("# TYPE onos_port_receive_bytes_total"));
+        assertTrue(text.indexOf("# TYPE onos_port_transmit_bytes_total")
+                           > text.lastIndexOf("onos_port_receive_bytes_total{"));
+    }
+
+    @Test
+    public void renderingIsRepeatable() {
+        assertEquals(exporter.render(), exporter.render());
+    }
+
+    @Test
+    public void servesMetrics() throws IOException {
+        MetricsServer server = new MetricsServer(InetAddress.getLoopbackAddress(), 0, exporter);
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.port() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(PortStatsExporter.CONTENT_TYPE, connection.getContentType());
+            try (InputStream body = connection.getInputStream()) {
+                assertEquals(exporter.render(), new String(ByteStreams.toByteArray(body), StandardCharsets.UTF_8));
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+}
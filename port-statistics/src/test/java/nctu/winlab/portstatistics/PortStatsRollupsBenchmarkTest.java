@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Memory, update cost and query latency of the port rollups.
+ * <p>
+ * Feeds a number of ports, spread over 48-port devices, with 5-second
+ * samples for a number of hours and reports the heap retained per port, the
+ * time to fold a sample into the rollups and the time of a 24-hour
+ * utilization query. Sizes can be raised with the {@code portstats.bench.*}
+ * system properties, for example {@code -Dportstats.bench.ports=10000}.
+ * Runs only with {@code -Dbench=true}.
+ * </p>
+ */
+public class PortStatsRollupsBenchmarkTest {
+
+    private static final int PORTS = Integer.getInteger("portstats.bench.ports", 200);
+    private static final int HOURS = Integer.getInteger("portstats.bench.hours", 30);
+    private static final int QUERIES = 1000;
+    private static final int PORTS_PER_DEVICE = 48;
+    private static final long INTERVAL_MILLIS = 5000;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private long recordNanos;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void rollups() {
+        // The first run warms up the JIT and is not reported
+        run();
+
+        long heapBefore = usedHeap();
+        PortStatsRollups rollups = run();
+        long retained = usedHeap() - heapBefore;
+
+        long end = TimeUnit.HOURS.toMillis(HOURS);
+        ConnectPoint[] ports = new ConnectPoint[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            int i = q % PORTS;
+            ports[q] = new ConnectPoint(device(i / PORTS_PER_DEVICE), PortNumber.portNumber(i % PORTS_PER_DEVICE + 1));
+        }
+        long start = System.nanoTime();
+        int buckets = 0;
+        for (ConnectPoint cp : ports) {
+            buckets += rollups.rollups(cp, PortAlertRule.Metric.UTILIZATION, end - DAY_MILLIS, end).size();
+        }
+        long rangeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (ConnectPoint cp : ports) {
+            assertNotNull(rollups.summary(cp, PortAlertRule.Metric.UTILIZATION, end - DAY_MILLIS, end));
+        }
+        long summaryNanos = System.nanoTime() - start;
+
+        System.out.printf("rollups %d ports x %dh: retained=%.1fMB (%.1fKB/port), estimated=%.1fMB, "
+                                  + "record=%.0fns/sample, 24h rollups=%.1fus (%d buckets), 24h summary=%.1fus%n",
+                          PORTS, HOURS, retained / 1e6, retained / 1e3 / PORTS, rollups.memoryBytes() / 1e6,
+                          (double) recordNanos / PORTS / samples(), rangeNanos / 1e3 / QUERIES,
+                          buckets / QUERIES, summaryNanos / 1e3 / QUERIES);
+        assertEquals(PORTS, rollups.ports());
+    }
+
+    private PortStatsRollups run() {
+        PortStatsRollups rollups = new PortStatsRollups();
+        DeviceId[] devices = new DeviceId[(PORTS + PORTS_PER_DEVICE - 1) / PORTS_PER_DEVICE];
+        for (int d = 0; d < devices.length; d++) {
+            devices[d] = device(d);
+        }
+        PortNumber[] ports = new PortNumber[PORTS_PER_DEVICE];
+        for (int p = 0; p < PORTS_PER_DEVICE; p++) {
+            ports[p] = PortNumber.portNumber(p + 1);
+        }
+        PortStatistics delta = DefaultPortStatistics.builder()
+                .setDeviceId(devices[0])
+                .setPort(ports[0])
+                .setBytesReceived(123456789)
+                .setBytesSent(987654321)
+                .setPacketsReceived(123456)
+                .setPacketsSent(654321)
+                .setDurationSec(5)
+                .build();
+
+        long start = System.nanoTime();
+        for (long s = 1; s <= samples(); s++) {
+            for (int i = 0; i < PORTS; i++) {
+                rollups.sampled(devices[i / PORTS_PER_DEVICE], ports[i % PORTS_PER_DEVICE], 10000,
+                                s * INTERVAL_MILLIS, null, delta);
+            }
+        }
+        recordNanos = System.nanoTime() - start;
+        return rollups;
+    }
+
+    private static long samples() {
+        return TimeUnit.HOURS.toMillis(HOURS) / INTERVAL_MILLIS;
+    }
+
+    private static DeviceId device(int index) {
+        return DeviceId.deviceId(String.format("of:%016x", index + 1));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the multi-resolution port rollups.
+ */
+public class PortStatsRollupsTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final PortNumber PORT = PortNumber.portNumber(1);
+    private static final ConnectPoint CP = new ConnectPoint(DEVICE, PORT);
+    private static final long SPEED = 1000;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final PortStatsRollups rollups = new PortStatsRollups();
+
+    @Test
+    public void minuteBuckets() {
+        // Sample i sends i kbit/s
+        for (int i = 1; i <= 36; i++) {
+            rollups.sampled(DEVICE, PORT, SPEED, i * 5000, null, delta(5, i * 625));
+        }
+
+        List<PortRollup> minutes = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS,
+                                                   PortStatsRollups.Resolution.MINUTE, 0, 180000);
+        assertEquals(4, minutes.size());
+
+        PortRollup first = minutes.get(0);
+        assertEquals(0, first.start());
+        assertEquals(MINUTE, first.duration());
+        assertEquals(11, first.samples());
+        assertEquals(1000, first.min(), 1e-3);
+        assertEquals(11000, first.max(), 1e-3);
+        assertEquals(6000, first.avg(), 1e-3);
+        assertEquals(11000, first.last(), 1e-3);
+
+        PortRollup second = minutes.get(1);
+        assertEquals(MINUTE, second.start());
+        assertEquals(12, second.samples());
+        assertEquals(17500, second.avg(), 1e-3);
+        assertEquals(36000, minutes.get(3).last(), 1e-3);
+
+        List<PortRollup> fiveMinutes = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS,
+                                                       PortStatsRollups.Resolution.FIVE_MINUTES, 0, 180000);
+        assertEquals(1, fiveMinutes.size());
+        assertEquals(36, fiveMinutes.get(0).samples());
+        assertEquals(18500, fiveMinutes.get(0).avg(), 1e-3);
+    }
+
+    @Test
+    public void resolutionFollowsRange() {
+        long end = 8 * HOUR;
+        for (long time = 5000; time <= end; time += 5000) {
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(5, 625));
+        }
+
+        // The last 6 hours are kept at 1-minute resolution
+        List<PortRollup> recent = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, end - 2 * HOUR, end);
+        assertEquals(121, recent.size());
+        assertEquals(MINUTE, recent.get(0).duration());
+
+        List<PortRollup> older = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, end - 7 * HOUR, end);
+        assertEquals(85, older.size());
+        assertEquals(5 * MINUTE, older.get(0).duration());
+        assertEquals(end - 7 * HOUR, older.get(0).start());
+    }
+
+    @Test
+    public void summaryOverADay() {
+        // Busy for the first half of every hour, idle for the second
+        long end = 30 * HOUR;
+        for (long time = MINUTE; time <= end; time += MINUTE) {
+            long bytes = (time - MINUTE) % HOUR < HOUR / 2 ? 3_750_000_000L : 0;
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(60, bytes));
+        }
+
+        PortRollup day = rollups.summary(CP, PortAlertRule.Metric.UTILIZATION, end - 24 * HOUR, end - 1);
+        assertEquals(24 * 60, day.samples());
+        assertEquals(0, day.min(), 1e-6);
+        assertEquals(0.5, day.max(), 1e-6);
+        assertEquals(0.25, day.avg(), 1e-6);
+        assertEquals(0, day.last(), 1e-6);
+        assertEquals(end - 24 * HOUR, day.start());
+        assertEquals(24 * HOUR, day.duration());
+
+        assertNull(rollups.summary(CP, PortAlertRule.Metric.UTILIZATION, end + HOUR, end + 2 * HOUR));
+        assertNull(rollups.summary(new ConnectPoint(DEVICE, PortNumber.portNumber(2)),
+                                   PortAlertRule.Metric.UTILIZATION, 0, end));
+    }
+
+    @Test
+    public void memoryIsBounded() {
+        long end = 10 * 24 * HOUR;
+        for (long time = MINUTE; time <= end; time += MINUTE) {
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(60, 1000));
+        }
+        long bytes = rollups.memoryBytes();
+
+        // Only the last week is kept at 1-hour resolution
+        List<PortRollup> hours = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, 0, end);
+        assertEquals(PortStatsRollups.Resolution.HOUR.buckets(PortStatsRollups.DEFAULT_RETENTION_HOURS),
+                     hours.size());
+        assertEquals(HOUR, hours.get(0).duration());
+        assertTrue(hours.get(0).start() > end - 7 * 24 * HOUR);
+
+        for (long time = end + MINUTE; time <= 2 * end; time += MINUTE) {
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(60, 1000));
+        }
+        assertEquals(bytes, rollups.memoryBytes());
+
+        rollups.remove(DEVICE);
+        assertEquals(0, rollups.ports());
+        assertTrue(rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, 0, 2 * end).isEmpty());
+    }
+
+    @Test
+    public void retentionIsConfigurable() {
+        long end = 10 * 24 * HOUR;
+        for (long time = MINUTE; time <= end; time += MINUTE) {
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(60, 1000));
+        }
+        long bytes = rollups.memoryBytes();
+        List<PortRollup> recent = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, end - HOUR, end);
+
+        // The hourly level shrinks to a day and the finer levels to their
+        // part of it, keeping the latest buckets
+        rollups.setRetention(24);
+        assertTrue(rollups.memoryBytes() < bytes);
+        assertEquals(24, rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, 0, end).size());
+        assertEquals(288, rollups.rollups(CP, PortAlertRule.Metric.TX_BPS,
+                                          PortStatsRollups.Resolution.FIVE_MINUTES, 0, end).size());
+        List<PortRollup> kept = rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, end - HOUR, end);
+        assertEquals(recent.size(), kept.size());
+        assertEquals(MINUTE, kept.get(0).duration());
+        assertEquals(recent.get(0).start(), kept.get(0).start());
+        assertEquals(recent.get(0).samples(), kept.get(0).samples());
+
+        // A longer retention is filled by new samples
+        rollups.setRetention(30 * 24);
+        assertEquals(24, rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, 0, end).size());
+        for (long time = end + MINUTE; time <= end + 2 * HOUR; time += MINUTE) {
+            rollups.sampled(DEVICE, PORT, SPEED, time, null, delta(60, 1000));
+        }
+        assertEquals(26, rollups.rollups(CP, PortAlertRule.Metric.TX_BPS, 0, end + 2 * HOUR).size());
+    }
+
+    private static PortStatistics delta(long seconds, long bytesSent) {
+        return DefaultPortStatistics.builder()
+                .setDeviceId(DEVICE)
+                .setPort(PORT)
+                .setBytesSent(bytesSent)
+                .setDurationSec(seconds)
+                .build();
+    }
+}
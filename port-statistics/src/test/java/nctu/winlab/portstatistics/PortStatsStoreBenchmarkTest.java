@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Memory and recording cost of the port statistics history.
+ * <p>
+ * Fills the history of a number of ports, spread over 48-port devices, with
+ * one hour of 5-second samples and reports the heap retained per port and
+ * the time to record a sample. Sizes can be raised with the
+ * {@code portstats.bench.*} system properties, for example
+ * {@code -Dportstats.bench.ports=10000}, which needs about 520MB of heap.
+ * Runs only with {@code -Dbench=true}.
+ * </p>
+ */
+public class PortStatsStoreBenchmarkTest {
+
+    private static final int PORTS = Integer.getInteger("portstats.bench.ports", 1000);
+    private static final int SAMPLES = Integer.getInteger("portstats.bench.samples", 120);
+    private static final int PORTS_PER_DEVICE = 48;
+    private static final long INTERVAL_MILLIS = 5000;
+
+    private long recordNanos;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void history() {
+        // The first run warms up the JIT and is not reported
+        run();
+
+        long heapBefore = usedHeap();
+        PortStatsStore store = run();
+        long retained = usedHeap() - heapBefore;
+
+        System.out.printf("history %d ports x %d samples: retained=%.1fMB (%.1fKB/port), estimated=%.1fMB, "
+                                  + "record=%.0fns/sample%n",
+                          PORTS, SAMPLES, retained / 1e6, retained / 1e3 / PORTS, store.memoryBytes() / 1e6,
+                          (double) recordNanos / PORTS / SAMPLES);
+        assertEquals(PORTS, store.ports());
+    }
+
+    private PortStatsStore run() {
+        PortStatsStore store = new PortStatsStore(SAMPLES);
+        DeviceId[] devices = new DeviceId[(PORTS + PORTS_PER_DEVICE - 1) / PORTS_PER_DEVICE];
+        for (int d = 0; d < devices.length; d++) {
+            devices[d] = DeviceId.deviceId(String.format("of:%016x", d + 1));
+        }
+        PortNumber[] ports = new PortNumber[PORTS_PER_DEVICE];
+        for (int p = 0; p < PORTS_PER_DEVICE; p++) {
+            ports[p] = PortNumber.portNumber(p + 1);
+        }
+        PortStatistics stats = DefaultPortStatistics.builder()
+                .setDeviceId(devices[0])
+                .setPort(ports[0])
+                .setBytesReceived(123456789)
+                .setBytesSent(987654321)
+                .build();
+
+        long start = System.nanoTime();
+        for (int s = 0; s < SAMPLES; s++) {
+            for (int i = 0; i < PORTS; i++) {
+                store.record(devices[i / PORTS_PER_DEVICE], ports[i % PORTS_PER_DEVICE], s * INTERVAL_MILLIS, stats);
+            }
+        }
+        recordNanos = System.nanoTime() - start;
+
+        ConnectPoint last = new ConnectPoint(devices[devices.length - 1], ports[(PORTS - 1) % PORTS_PER_DEVICE]);
+        assertEquals(Math.min(SAMPLES, 10), store.last(last, 10).size());
+        return store;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
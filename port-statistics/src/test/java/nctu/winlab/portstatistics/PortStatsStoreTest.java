@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.portstatistics;
+
+import org.junit.Test;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DefaultPortStatistics;
+import org.onosproject.net.device.PortStatistics;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the in-memory port statistics history.
+ */
+public class PortStatsStoreTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final PortNumber PORT = PortNumber.portNumber(1);
+    private static final ConnectPoint CP = new ConnectPoint(DEVICE, PORT);
+
+    @Test
+    public void lastSamples() {
+        PortStatsStore store = new PortStatsStore(4);
+        for (int i = 1; i <= 3; i++) {
+            store.record(DEVICE, PORT, i * 1000, stats(i));
+        }
+
+        List<PortSample> samples = store.last(CP, 2);
+        assertEquals(2, samples.size());
+        assertEquals(2000, samples.get(0).time());
+        assertEquals(3000, samples.get(1).time());
+        assertEquals(300, samples.get(1).bytesReceived());
+        assertEquals(3, samples.get(1).packetsRxErrors());
+
+        assertEquals(3, store.last(CP, 10).size());
+    }
+
+    @Test
+    public void oldestSamplesAreOverwritten() {
+        PortStatsStore store = new PortStatsStore(4);
+        for (int i = 1; i <= 10; i++) {
+            store.record(DEVICE, PORT, i * 1000, stats(i));
+        }
+
+        List<PortSample> samples = store.last(CP, 10);
+        assertEquals(4, samples.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals((7 + i) * 1000, samples.get(i).time());
+            assertEquals((7 + i) * 100, samples.get(i).bytesReceived());
+        }
+    }
+
+    @Test
+    public void timeRange() {
+        PortStatsStore store = new PortStatsStore(8);
+        for (int i = 1; i <= 12; i++) {
+            store.record(DEVICE, PORT, i * 1000, stats(i));
+        }
+
+        // Samples 5 to 12 are kept
+        List<PortSample> samples = store.range(CP, 3500, 9000);
+        assertEquals(5, samples.size());
+        assertEquals(5000, samples.get(0).time());
+        assertEquals(9000, samples.get(4).time());
+
+        assertTrue(store.range(CP, 13000, 20000).isEmpty());
+        assertEquals(8, store.range(CP, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void unknownPort() {
+        PortStatsStore store = new PortStatsStore(4);
+        store.record(DEVICE, PORT, 1000, stats(1));
+
+        ConnectPoint other = new ConnectPoint(DEVICE, PortNumber.portNumber(2));
+        assertTrue(store.last(other, 1).isEmpty());
+        assertEquals(1, store.ports());
+
+        store.remove(DEVICE);
+        assertTrue(store.last(CP, 1).isEmpty());
+        assertEquals(0, store.ports());
+    }
+
+    static PortStatistics stats(long i) {
+        return DefaultPortStatistics.builder()
+                .setDeviceId(DEVICE)
+                .setPort(PORT)
+                .setBytesReceived(i * 100)
+                .setBytesSent(i * 200)
+                .setPacketsReceived(i)
+                .setPacketsSent(i * 2)
+                .setPacketsRxErrors(i)
+                .build();
+    }
+}
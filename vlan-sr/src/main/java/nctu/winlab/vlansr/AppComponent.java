@@ -15,6 +15,7 @@
  */
 package nctu.winlab.vlansr;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -22,48 +23,60 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
-import org.onlab.packet.Ethernet;
-import org.onlab.packet.IpPrefix;
-import org.onlab.packet.MacAddress;
-import org.onlab.packet.VlanId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.core.GroupId;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.Host;
-import org.onosproject.net.Path;
-import org.onosproject.net.PortNumber;
 import org.onosproject.net.config.ConfigFactory;
 import org.onosproject.net.config.NetworkConfigEvent;
 import org.onosproject.net.config.NetworkConfigListener;
 import org.onosproject.net.config.NetworkConfigRegistry;
 import org.onosproject.net.device.DeviceService;
-import org.onosproject.net.flow.DefaultTrafficSelector;
-import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleService;
-import org.onosproject.net.flow.TrafficSelector;
-import org.onosproject.net.flow.TrafficTreatment;
-import org.onosproject.net.flowobjective.DefaultForwardingObjective;
 import org.onosproject.net.flowobjective.FlowObjectiveService;
-import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupService;
 import org.onosproject.net.host.HostService;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.net.topology.TopologyListener;
 import org.onosproject.net.topology.TopologyService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.config.basics.SubjectFactories.APP_SUBJECT_FACTORY;
 
 /**
  * Skeletal ONOS application component.
  */
 @Component(immediate = true)
-public class AppComponent {
+@Service
+public class AppComponent implements VlanSrService {
 
     private static final int DEFAULT_TIMEOUT = 60;
     private static final int DEFAULT_PRIORITY = 10;
+    private static final int PROGRAMMING_THREADS = 8;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -79,6 +92,9 @@ public class AppComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected FlowObjectiveService flowObjectiveService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected GroupService groupService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected HostService hostService;
 
@@ -91,6 +107,11 @@ public class AppComponent {
     private final InternalNetworkConfigListener configListener
             = new InternalNetworkConfigListener();
 
+    private final InternalTopologyListener topologyListener
+            = new InternalTopologyListener();
+
+    private final AtomicBoolean reconcilePending = new AtomicBoolean();
+
     private final Set<ConfigFactory> factories = ImmutableSet.of(
             new ConfigFactory<ApplicationId, VlanSrConfig>(APP_SUBJECT_FACTORY,
                                                            VlanSrConfig.class,
@@ -107,12 +128,35 @@ public class AppComponent {
     private int flowTimeout = DEFAULT_TIMEOUT;
     private int flowPriority = DEFAULT_PRIORITY;
 
+    private VlanSrCompiler compiler;
+    private SrProgrammer programmer;
+
+    private volatile VlanSrSnapshot snapshot;
+
+    private ScheduledExecutorService reconcileExecutor;
+    private ScheduledFuture<?> reconcileTask;
+
+    private ExecutorService programmingExecutor;
+
+    private final ConcurrentMap<DeviceId, ReconcileStats> reconcileStats = new ConcurrentHashMap<>();
+    private volatile ProgrammingStats lastConfigPush;
+    private volatile Map<DeviceId, DeviceProgram> programs = ImmutableMap.of();
+
     @Activate
     protected void activate() {
         appId = coreService.registerApplication("nctu.winlab.vlan-sr");
+        compiler = new VlanSrCompiler(deviceService, hostService, topologyService);
+        reconcileExecutor = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/vlan-sr", "reconciler", log));
+        programmingExecutor = Executors.newFixedThreadPool(PROGRAMMING_THREADS,
+                groupedThreads("onos/vlan-sr", "programmer-%d", log));
+        programmer = new SrProgrammer(appId, flowObjectiveService, flowRuleService, groupService,
+                                      programmingExecutor);
+        programmer.activate();
 
         configService.addListener(configListener);
         factories.forEach(configService::registerConfigFactory);
+        topologyService.addListener(topologyListener);
 
         log.info("Started");
     }
@@ -121,7 +165,12 @@ public class AppComponent {
     protected void deactivate() {
         configService.removeListener(configListener);
         factories.forEach(configService::unregisterConfigFactory);
+        topologyService.removeListener(topologyListener);
+        reconcileExecutor.shutdownNow();
+        programmingExecutor.shutdownNow();
+        programmer.deactivate();
         flowRuleService.removeFlowRulesById(appId);
+        removeGroups();
 
         log.info("Stopped");
     }
@@ -143,130 +192,211 @@ public class AppComponent {
         });
     }
 
-    private void installForwardSidRule(DeviceId deviceId, PortNumber portNumber, VlanId sid) {
-        log.info("Install forward rule sid: {}, port: {} on device: {}", sid.toShort(), portNumber.toString(), deviceId.toString());
+    private void applyConfig(VlanSrSnapshot config) {
+        snapshot = config;
+        scheduleReconciler(config);
+
+        if (config == null) {
+            log.info("No VLAN SR config available");
+            programs = ImmutableMap.of();
+            flowRuleService.removeFlowRulesById(appId);
+            removeGroups();
+            return;
+        }
+
+        if (config.permanent()) {
+            reconcileExecutor.execute(() -> reconcile(true));
+        }
+        else {
+            installRules(config);
+        }
+    }
+
+    private void installRules(VlanSrSnapshot config) {
+        Map<DeviceId, DeviceProgram> programs = compile(config);
+        logFootprint(programs);
 
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
-        selectorBuilder.matchVlanId(sid);
+        List<DeviceBatch> batches = new ArrayList<>();
+        programs.values().forEach(program -> batches.add(diff(program, Collections.emptyList())));
 
-        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .setOutput(portNumber)
-                .build();
+        programmer.program(batches, false, flowTimeout).thenAccept(this::configPushed);
+    }
 
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build())
-                .withTreatment(treatment)
-                .withPriority(flowPriority)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
-                .fromApp(appId)
-                .makeTemporary(flowTimeout)
-                .add();
+    private Map<DeviceId, DeviceProgram> compile(VlanSrSnapshot config) {
+        Map<DeviceId, DeviceProgram> compiled = compiler.compile(config, flowPriority);
+        programs = ImmutableMap.copyOf(compiled);
+        return compiled;
+    }
 
-        flowObjectiveService.forward(deviceId, forwardingObjective);
+    private void configPushed(ProgrammingStats stats) {
+        lastConfigPush = stats;
+        log.info("Programmed VLAN SR config: {}", stats);
     }
 
-    private void installPushSidRule(DeviceId deviceId, PortNumber portNumber, VlanId sid, IpPrefix subnet) {
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
-        selectorBuilder.matchVlanId(VlanId.NONE)
-                .matchEthType(Ethernet.TYPE_IPV4)
-                .matchIPDst(subnet);
-
-        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .pushVlan()
-                .setVlanId(sid)
-                .setOutput(portNumber)
-                .build();
-
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build())
-                .withTreatment(treatment)
-                .withPriority(flowPriority)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
-                .fromApp(appId)
-                .makeTemporary(flowTimeout)
-                .add();
-
-        flowObjectiveService.forward(deviceId, forwardingObjective);
+    private void scheduleReconciler(VlanSrSnapshot config) {
+        if (reconcileTask != null) {
+            reconcileTask.cancel(false);
+            reconcileTask = null;
+        }
 
+        if (config != null && config.permanent()) {
+            int interval = config.reconcileInterval();
+            reconcileTask = reconcileExecutor.scheduleWithFixedDelay(() -> reconcile(false), interval, interval,
+                                                                     TimeUnit.SECONDS);
+        }
     }
 
-    private void installPopSidRule(DeviceId deviceId, PortNumber portNumber, VlanId sid, MacAddress dstMac) {
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
-        selectorBuilder.matchVlanId(sid)
-                .matchEthDst(dstMac);
+    /**
+     * Brings the rules installed by the application in line with the rules
+     * expected from the configuration, the topology and the connected hosts.
+     *
+     * @param configPush whether the run was triggered by a configuration change
+     */
+    private void reconcile(boolean configPush) {
+        VlanSrSnapshot config = snapshot;
+        if (config == null || !config.permanent()) {
+            return;
+        }
 
-        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .popVlan()
-                .setOutput(portNumber)
-                .build();
+        try {
+            Map<DeviceId, DeviceProgram> programs = compile(config);
+            if (configPush) {
+                logFootprint(programs);
+            }
 
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build())
-                .withTreatment(treatment)
-                .withPriority(flowPriority)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
-                .fromApp(appId)
-                .makeTemporary(flowTimeout)
-                .add();
+            Map<DeviceId, List<FlowEntry>> installed = new HashMap<>();
+            for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+                if (entry.state() == FlowEntry.FlowEntryState.PENDING_REMOVE
+                        || entry.state() == FlowEntry.FlowEntryState.REMOVED) {
+                    continue;
+                }
+                installed.computeIfAbsent(entry.deviceId(), k -> new ArrayList<>()).add(entry);
+            }
 
-        flowObjectiveService.forward(deviceId, forwardingObjective);
+            List<DeviceBatch> batches = new ArrayList<>();
+            programs.forEach((deviceId, program) ->
+                    batches.add(reconcileDevice(program, installed.getOrDefault(deviceId, Collections.emptyList()))));
+            reconcileStats.keySet().retainAll(programs.keySet());
 
+            CompletableFuture<ProgrammingStats> done = programmer.program(batches, true, flowTimeout);
+            if (configPush) {
+                done.thenAccept(this::configPushed);
+            }
+        }
+        catch (RuntimeException e) {
+            log.warn("VLAN SR reconciliation failed", e);
+        }
     }
 
-    private void installMacForwardRule(DeviceId deviceId, PortNumber portNumber, MacAddress dstMac) {
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
-        selectorBuilder.matchEthDst(dstMac);
+    private DeviceBatch reconcileDevice(DeviceProgram program, List<FlowEntry> entries) {
+        long start = System.nanoTime();
 
-        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
-                .setOutput(portNumber)
-                .build();
+        DeviceBatch batch = diff(program, entries);
 
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build())
-                .withTreatment(treatment)
-                .withPriority(flowPriority)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
-                .fromApp(appId)
-                .makeTemporary(flowTimeout)
-                .add();
+        ReconcileStats stats = new ReconcileStats(program.deviceId(), System.currentTimeMillis(),
+                                                  System.nanoTime() - start,
+                                                  batch.flowsToAdd().size(), batch.flowsToRemove().size(),
+                                                  batch.groupsToAdd().size() + batch.groupsToUpdate().size(),
+                                                  batch.groupsToRemove().size());
+        reconcileStats.put(program.deviceId(), stats);
 
-        flowObjectiveService.forward(deviceId, forwardingObjective);
+        if (stats.hasDrift()) {
+            log.info("Reconciled {}", stats);
+        }
+        else {
+            log.debug("Reconciled {}", stats);
+        }
 
+        return batch;
     }
 
+    /**
+     * Computes the changes that bring a device from the given rules and its
+     * current groups to the expected program.
+     */
+    private DeviceBatch diff(DeviceProgram program, List<FlowEntry> entries) {
+        // Rules left by a temporary configuration expire on their own, so
+        // they are replaced by permanent ones rather than kept
+        Map<SrFlow, FlowEntry> present = new HashMap<>();
+        List<FlowEntry> expiring = new ArrayList<>();
+        for (FlowEntry entry : entries) {
+            if (entry.isPermanent()) {
+                present.put(SrFlow.of(entry), entry);
+            }
+            else {
+                expiring.add(entry);
+            }
+        }
 
-    private void installRules(VlanSrConfig vlanSrConfig) {
-        vlanSrConfig.getVlanSrConfig().forEach(vlanSr -> {
-            deviceService.getAvailableDevices().forEach(device -> { 
-                if (vlanSr.deviceId().equals(device.id())) {
-                    Set<Host> hosts = hostService.getConnectedHosts(device.id());
+        List<SrFlow> missing = new ArrayList<>();
+        Set<Object> rewritten = new HashSet<>();
+        for (SrFlow flow : program.flows()) {
+            if (!present.containsKey(flow)) {
+                missing.add(flow);
+                rewritten.add(flow.matchKey());
+            }
+        }
 
-                    for (Host host : hosts) {
-                        installPopSidRule(device.id(), host.location().port(), vlanSr.sid(), host.mac());
-                        installMacForwardRule(device.id(), host.location().port(), host.mac());
-                    }
-                }
-                else {
-                    Set<Path> paths = topologyService.getPaths(topologyService.currentTopology(),
-                                                               device.id(),
-                                                               vlanSr.deviceId());
+        // A rule whose treatment changed is overwritten in place by its
+        // replacement, so it is not removed separately
+        List<FlowRule> stale = new ArrayList<>();
+        present.forEach((flow, entry) -> {
+            if (!program.flows().contains(flow) && !rewritten.contains(flow.matchKey())) {
+                stale.add(entry);
+            }
+        });
+        for (FlowEntry entry : expiring) {
+            if (!rewritten.contains(SrFlow.of(entry).matchKey())) {
+                stale.add(entry);
+            }
+        }
 
-                    if (paths.isEmpty()) {
-                        return;
-                    }
+        Map<GroupId, SrGroup> presentGroups = new HashMap<>();
+        for (Group group : groupService.getGroups(program.deviceId(), appId)) {
+            if (group.state() != Group.GroupState.PENDING_DELETE) {
+                presentGroups.put(group.id(), SrGroup.of(group, group.id()));
+            }
+        }
 
-                    for (Path path : paths) {
-                        if (vlanSr.isEdgeSwitch() == true) {
-                            installPushSidRule(device.id(), path.src().port(), vlanSr.sid(), vlanSr.subnet().get());
-                        }
+        List<SrGroup> missingGroups = new ArrayList<>();
+        List<DeviceBatch.GroupUpdate> changedGroups = new ArrayList<>();
+        for (SrGroup group : program.groups()) {
+            SrGroup installed = presentGroups.remove(group.id());
+            if (installed == null) {
+                missingGroups.add(group);
+            }
+            else if (!installed.equals(group)) {
+                changedGroups.add(new DeviceBatch.GroupUpdate(installed, group));
+            }
+        }
 
-                        installForwardSidRule(device.id(), path.src().port(), vlanSr.sid());
+        return new DeviceBatch(program.deviceId(), missing, stale,
+                               missingGroups, changedGroups, presentGroups.values());
+    }
 
-                        return;
-                    }
-                }
-            });
-        });
+    private void removeGroups() {
+        deviceService.getDevices().forEach(device ->
+                groupService.getGroups(device.id(), appId).forEach(group ->
+                        groupService.removeGroup(device.id(), group.appCookie(), appId)));
+    }
+
+    private void logFootprint(Map<DeviceId, DeviceProgram> programs) {
+        programs.values().forEach(program -> log.info("Footprint {}", program));
+    }
+
+    @Override
+    public Map<DeviceId, ReconcileStats> reconcileStats() {
+        return ImmutableMap.copyOf(reconcileStats);
+    }
+
+    @Override
+    public ProgrammingStats lastConfigPush() {
+        return lastConfigPush;
+    }
+
+    @Override
+    public Map<DeviceId, DeviceProgram> programs() {
+        return programs;
     }
 
     private class InternalNetworkConfigListener implements NetworkConfigListener {
@@ -280,7 +410,19 @@ public class AppComponent {
                         VlanSrConfig vlanSrConfig = configService.getConfig(appId, VlanSrConfig.class);
 
                         // printConfiguration(vlanSrConfig);
-                        installRules(vlanSrConfig);
+                        if (vlanSrConfig == null) {
+                            applyConfig(null);
+                            break;
+                        }
+
+                        // Parsed and validated once per config event; an
+                        // invalid version leaves the previous rules in place
+                        try {
+                            applyConfig(vlanSrConfig.snapshot());
+                        }
+                        catch (IllegalArgumentException e) {
+                            log.error("Ignoring invalid VLAN SR config: {}", e.getMessage());
+                        }
                     }
                     break;
                 default:
@@ -288,4 +430,27 @@ public class AppComponent {
             }
         }
     }
+
+    /**
+     * Recomputes primary and backup next hops after a topology change. The
+     * fast-failover groups already carry traffic over the failure; this only
+     * restores protection on the new topology.
+     */
+    private class InternalTopologyListener implements TopologyListener {
+        @Override
+        public void event(TopologyEvent event) {
+            VlanSrSnapshot config = snapshot;
+            if (config == null || !config.permanent()) {
+                return;
+            }
+
+            // Coalesce bursts of topology events into a single run
+            if (reconcilePending.compareAndSet(false, true)) {
+                reconcileExecutor.execute(() -> {
+                    reconcilePending.set(false);
+                    reconcile(false);
+                });
+            }
+        }
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rule and group changes to program on one device in a single task.
+ */
+public final class DeviceBatch {
+
+    private final DeviceId deviceId;
+    private final List<SrFlow> flowsToAdd;
+    private final List<FlowRule> flowsToRemove;
+    private final List<SrGroup> groupsToAdd;
+    private final List<GroupUpdate> groupsToUpdate;
+    private final List<SrGroup> groupsToRemove;
+
+    public DeviceBatch(DeviceId deviceId, Collection<SrFlow> flowsToAdd,
+                       Collection<? extends FlowRule> flowsToRemove) {
+        this(deviceId, flowsToAdd, flowsToRemove,
+             Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    public DeviceBatch(DeviceId deviceId, Collection<SrFlow> flowsToAdd,
+                       Collection<? extends FlowRule> flowsToRemove,
+                       Collection<SrGroup> groupsToAdd,
+                       Collection<GroupUpdate> groupsToUpdate,
+                       Collection<SrGroup> groupsToRemove) {
+        this.deviceId = checkNotNull(deviceId);
+        this.flowsToAdd = ImmutableList.copyOf(flowsToAdd);
+        this.flowsToRemove = ImmutableList.copyOf(flowsToRemove);
+        this.groupsToAdd = ImmutableList.copyOf(groupsToAdd);
+        this.groupsToUpdate = ImmutableList.copyOf(groupsToUpdate);
+        this.groupsToRemove = ImmutableList.copyOf(groupsToRemove);
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    public List<SrFlow> flowsToAdd() {
+        return flowsToAdd;
+    }
+
+    public List<FlowRule> flowsToRemove() {
+        return flowsToRemove;
+    }
+
+    public List<SrGroup> groupsToAdd() {
+        return groupsToAdd;
+    }
+
+    public List<GroupUpdate> groupsToUpdate() {
+        return groupsToUpdate;
+    }
+
+    public List<SrGroup> groupsToRemove() {
+        return groupsToRemove;
+    }
+
+    public boolean isEmpty() {
+        return flowsToAdd.isEmpty() && flowsToRemove.isEmpty()
+                && groupsToAdd.isEmpty() && groupsToUpdate.isEmpty() && groupsToRemove.isEmpty();
+    }
+
+    /**
+     * Bucket change of a group already installed on the device.
+     */
+    public static final class GroupUpdate {
+        private final SrGroup installed;
+        private final SrGroup expected;
+
+        public GroupUpdate(SrGroup installed, SrGroup expected) {
+            this.installed = checkNotNull(installed);
+            this.expected = checkNotNull(expected);
+        }
+
+        public SrGroup installed() {
+            return installed;
+        }
+
+        public SrGroup expected() {
+            return expected;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableSet;
+import org.onosproject.net.DeviceId;
+
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Segment routing state expected on one device.
+ */
+public final class DeviceProgram {
+
+    private final DeviceId deviceId;
+    private final Set<SrFlow> flows;
+    private final Set<SrGroup> groups;
+
+    private DeviceProgram(DeviceId deviceId, Set<SrFlow> flows, Set<SrGroup> groups) {
+        this.deviceId = checkNotNull(deviceId);
+        this.flows = ImmutableSet.copyOf(flows);
+        this.groups = ImmutableSet.copyOf(groups);
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    public Set<SrFlow> flows() {
+        return flows;
+    }
+
+    public Set<SrGroup> groups() {
+        return groups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("device=%s, flows=%d, groups=%d", deviceId, flows.size(), groups.size());
+    }
+
+    public static Builder builder(DeviceId deviceId) {
+        return new Builder(deviceId);
+    }
+
+    public static final class Builder {
+        private final DeviceId deviceId;
+        private final ImmutableSet.Builder<SrFlow> flows = ImmutableSet.builder();
+        private final ImmutableSet.Builder<SrGroup> groups = ImmutableSet.builder();
+
+        private Builder(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        public Builder addFlow(SrFlow flow) {
+            flows.add(flow);
+            return this;
+        }
+
+        public Builder addGroup(SrGroup group) {
+            groups.add(group);
+            return this;
+        }
+
+        public DeviceProgram build() {
+            return new DeviceProgram(deviceId, flows.build(), groups.build());
+        }
+    }
+}
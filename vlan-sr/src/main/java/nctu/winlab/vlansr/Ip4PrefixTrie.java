@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.Ip4Prefix;
+
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Binary trie of IPv4 prefixes supporting longest-prefix-match lookups.
+ *
+ * @param <V> type of the value stored with each prefix
+ */
+public class Ip4PrefixTrie<V> {
+
+    private final Node<V> root = new Node<>();
+    private int size;
+
+    /**
+     * Associates a value with a prefix.
+     *
+     * @param prefix IPv4 prefix
+     * @param value  value
+     * @return previous value of the prefix, or null
+     */
+    public V put(Ip4Prefix prefix, V value) {
+        checkNotNull(value);
+        Node<V> node = root;
+        int address = prefix.address().toInt();
+
+        for (int depth = 0; depth < prefix.prefixLength(); depth++) {
+            int bit = bit(address, depth);
+            if (node.children[bit] == null) {
+                node.children[bit] = new Node<>();
+            }
+            node = node.children[bit];
+        }
+
+        V previous = node.value;
+        node.value = value;
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the value of exactly the given prefix.
+     *
+     * @param prefix IPv4 prefix
+     * @return value, or null
+     */
+    public V get(Ip4Prefix prefix) {
+        Node<V> node = root;
+        int address = prefix.address().toInt();
+
+        for (int depth = 0; depth < prefix.prefixLength() && node != null; depth++) {
+            node = node.children[bit(address, depth)];
+        }
+
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Returns the value of the longest prefix containing the address.
+     *
+     * @param address IPv4 address
+     * @return value, or null if no prefix contains the address
+     */
+    public V longestMatch(Ip4Address address) {
+        Node<V> node = root;
+        V match = root.value;
+        int bits = address.toInt();
+
+        for (int depth = 0; depth < Ip4Address.BIT_LENGTH; depth++) {
+            node = node.children[bit(bits, depth)];
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                match = node.value;
+            }
+        }
+
+        return match;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits every prefix in address order, shorter prefixes first.
+     *
+     * @param consumer prefix and value consumer
+     */
+    public void forEach(BiConsumer<Ip4Prefix, V> consumer) {
+        visit(root, 0, 0, consumer);
+    }
+
+    /**
+     * Returns the fewest prefixes, found by merging and pruning, that give
+     * every address the same longest-prefix-match value as this trie.
+     * Sibling prefixes with equal values are merged into their parent, and
+     * prefixes whose nearest covering prefix has an equal value are dropped.
+     * No prefix is ever widened beyond the space already covered, so
+     * addresses without a match keep having none.
+     *
+     * @return aggregated trie
+     */
+    public Ip4PrefixTrie<V> aggregate() {
+        Ip4PrefixTrie<V> aggregated = new Ip4PrefixTrie<>();
+        Node<V> node = aggregate(root, null);
+        if (node != null) {
+            aggregated.root.value = node.value;
+            aggregated.root.children[0] = node.children[0];
+            aggregated.root.children[1] = node.children[1];
+        }
+        aggregated.forEach((prefix, value) -> aggregated.size++);
+        return aggregated;
+    }
+
+    /**
+     * Aggregates the subtree below a node.
+     *
+     * @param node      subtree root
+     * @param inherited value of the nearest covering prefix, or null
+     * @return aggregated copy of the subtree, or null if it holds no prefix
+     */
+    private Node<V> aggregate(Node<V> node, V inherited) {
+        V effective = node.value != null ? node.value : inherited;
+        Node<V> result = new Node<>();
+        if (node.value != null && !node.value.equals(inherited)) {
+            result.value = node.value;
+        }
+
+        for (int bit = 0; bit < 2; bit++) {
+            if (node.children[bit] != null) {
+                result.children[bit] = aggregate(node.children[bit], effective);
+            }
+        }
+
+        // Two leaves with the same value cover the whole range of this node,
+        // which shadows the value of the node itself
+        Node<V> zero = result.children[0];
+        Node<V> one = result.children[1];
+        if (zero != null && one != null && zero.isLeaf() && one.isLeaf() && zero.value.equals(one.value)) {
+            result.value = zero.value.equals(inherited) ? null : zero.value;
+            result.children[0] = null;
+            result.children[1] = null;
+        }
+
+        return result.value == null && result.isLeaf() ? null : result;
+    }
+
+    private void visit(Node<V> node, int address, int depth, BiConsumer<Ip4Prefix, V> consumer) {
+        if (node.value != null) {
+            consumer.accept(Ip4Prefix.valueOf(address, depth), node.value);
+        }
+        for (int bit = 0; bit < 2; bit++) {
+            if (node.children[bit] != null) {
+                visit(node.children[bit], address | (bit << (31 - depth)), depth + 1, consumer);
+            }
+        }
+    }
+
+    private static int bit(int address, int depth) {
+        return (address >>> (31 - depth)) & 1;
+    }
+
+    private static final class Node<V> {
+        @SuppressWarnings("unchecked")
+        private final Node<V>[] children = new Node[2];
+        private V value;
+
+        private boolean isLeaf() {
+            return children[0] == null && children[1] == null;
+        }
+    }
+}
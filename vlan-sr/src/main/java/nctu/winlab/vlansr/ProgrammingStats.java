@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+/**
+ * Outcome of programming a set of device batches.
+ */
+public final class ProgrammingStats {
+
+    private final long timestamp;
+    private final int devices;
+    private final int objectives;
+    private final int removals;
+    private final int groupOperations;
+    private final int failures;
+    private final long dispatchNanos;
+    private final long latencyNanos;
+
+    public ProgrammingStats(long timestamp, int devices, int objectives, int removals,
+                            int groupOperations, int failures, long dispatchNanos, long latencyNanos) {
+        this.timestamp = timestamp;
+        this.devices = devices;
+        this.objectives = objectives;
+        this.removals = removals;
+        this.groupOperations = groupOperations;
+        this.failures = failures;
+        this.dispatchNanos = dispatchNanos;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * Returns the wall clock time the last objective completed, in millis.
+     *
+     * @return completion time
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public int devices() {
+        return devices;
+    }
+
+    /**
+     * Returns the number of forwarding objectives issued.
+     *
+     * @return objective count
+     */
+    public int objectives() {
+        return objectives;
+    }
+
+    /**
+     * Returns the number of flow rules removed.
+     *
+     * @return removal count
+     */
+    public int removals() {
+        return removals;
+    }
+
+    /**
+     * Returns the number of groups added, updated or removed.
+     *
+     * @return group operation count
+     */
+    public int groupOperations() {
+        return groupOperations;
+    }
+
+    /**
+     * Returns the number of objectives that completed with an error.
+     *
+     * @return failure count
+     */
+    public int failures() {
+        return failures;
+    }
+
+    /**
+     * Returns the time until every device batch was handed to the flow
+     * objective service.
+     *
+     * @return dispatch time in nanos
+     */
+    public long dispatchNanos() {
+        return dispatchNanos;
+    }
+
+    /**
+     * Returns the time until every objective was reported installed or failed.
+     *
+     * @return programming latency in nanos
+     */
+    public long latencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("devices=%d, objectives=%d, removals=%d, groupOperations=%d, failures=%d, "
+                                     + "dispatch=%.3fms, latency=%.3fms",
+                             devices, objectives, removals, groupOperations, failures,
+                             dispatchNanos / 1e6, latencyNanos / 1e6);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onosproject.net.DeviceId;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Outcome of the last reconciliation of one device.
+ */
+public final class ReconcileStats {
+
+    private final DeviceId deviceId;
+    private final long timestamp;
+    private final long diffNanos;
+    private final int missingFlows;
+    private final int staleFlows;
+    private final int missingGroups;
+    private final int staleGroups;
+
+    public ReconcileStats(DeviceId deviceId, long timestamp, long diffNanos,
+                          int missingFlows, int staleFlows, int missingGroups, int staleGroups) {
+        this.deviceId = checkNotNull(deviceId);
+        this.timestamp = timestamp;
+        this.diffNanos = diffNanos;
+        this.missingFlows = missingFlows;
+        this.staleFlows = staleFlows;
+        this.missingGroups = missingGroups;
+        this.staleGroups = staleGroups;
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the wall clock time the reconciliation finished, in millis.
+     *
+     * @return finish time
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the time taken to compare the expected program with the rules
+     * and groups on the device, in nanoseconds. Programming the changes is
+     * reported by {@link ProgrammingStats} instead.
+     *
+     * @return diff time
+     */
+    public long diffNanos() {
+        return diffNanos;
+    }
+
+    /**
+     * Returns the number of expected rules that were not on the device.
+     *
+     * @return missing rule count
+     */
+    public int missingFlows() {
+        return missingFlows;
+    }
+
+    /**
+     * Returns the number of rules of the application on the device that are
+     * no longer expected.
+     *
+     * @return stale rule count
+     */
+    public int staleFlows() {
+        return staleFlows;
+    }
+
+    /**
+     * Returns the number of expected groups that were missing on the device
+     * or had different buckets.
+     *
+     * @return missing group count
+     */
+    public int missingGroups() {
+        return missingGroups;
+    }
+
+    /**
+     * Returns the number of groups of the application on the device that are
+     * no longer expected.
+     *
+     * @return stale group count
+     */
+    public int staleGroups() {
+        return staleGroups;
+    }
+
+    public boolean hasDrift() {
+        return missingFlows != 0 || staleFlows != 0 || missingGroups != 0 || staleGroups != 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("device=%s, diff=%.3fms, missingFlows=%d, staleFlows=%d, "
+                                     + "missingGroups=%d, staleGroups=%d",
+                             deviceId, diffNanos / 1e6, missingFlows, staleFlows,
+                             missingGroups, staleGroups);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single segment routing rule expected on a device.
+ */
+public final class SrFlow {
+
+    private final int priority;
+    private final TrafficSelector selector;
+    private final TrafficTreatment treatment;
+
+    public SrFlow(int priority, TrafficSelector selector, TrafficTreatment treatment) {
+        this.priority = priority;
+        this.selector = checkNotNull(selector);
+        this.treatment = checkNotNull(treatment);
+    }
+
+    /**
+     * Creates the rule view of a flow rule already installed on a device.
+     *
+     * @param rule installed flow rule
+     * @return segment routing rule
+     */
+    public static SrFlow of(FlowRule rule) {
+        return new SrFlow(rule.priority(), rule.selector(), rule.treatment());
+    }
+
+    public int priority() {
+        return priority;
+    }
+
+    public TrafficSelector selector() {
+        return selector;
+    }
+
+    public TrafficTreatment treatment() {
+        return treatment;
+    }
+
+    /**
+     * Returns the key identifying the match part of this rule.
+     * Two rules with the same match key occupy the same flow table entry,
+     * so installing one overwrites the other.
+     *
+     * @return match key
+     */
+    public Object matchKey() {
+        return new MatchKey(priority, selector);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SrFlow)) {
+            return false;
+        }
+        SrFlow that = (SrFlow) obj;
+        return priority == that.priority
+                && selector.equals(that.selector)
+                && treatment.allInstructions().equals(that.treatment.allInstructions());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(priority, selector, treatment.allInstructions());
+    }
+
+    @Override
+    public String toString() {
+        return "SrFlow{priority=" + priority + ", selector=" + selector.criteria()
+                + ", treatment=" + treatment.allInstructions() + "}";
+    }
+
+    private static final class MatchKey {
+        private final int priority;
+        private final TrafficSelector selector;
+
+        private MatchKey(int priority, TrafficSelector selector) {
+            this.priority = priority;
+            this.selector = selector;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey that = (MatchKey) obj;
+            return priority == that.priority && selector.equals(that.selector);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(priority, selector);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.group.DefaultGroupKey;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A group expected on a device, toward the next hops of one segment.
+ */
+public final class SrGroup {
+
+    private static final int ECMP_GROUP_BASE = 0x10000;
+    private static final int FAILOVER_GROUP_BASE = 0x20000;
+
+    private final GroupId id;
+    private final GroupDescription.Type type;
+    private final List<GroupBucket> buckets;
+
+    public SrGroup(GroupId id, GroupDescription.Type type, List<GroupBucket> buckets) {
+        this.id = checkNotNull(id);
+        this.type = checkNotNull(type);
+        this.buckets = ImmutableList.copyOf(buckets);
+    }
+
+    /**
+     * Creates the rule view of a group already installed on a device.
+     *
+     * @param description installed group
+     * @param id          identifier of the installed group
+     * @return segment routing group
+     */
+    public static SrGroup of(GroupDescription description, GroupId id) {
+        return new SrGroup(id, description.type(), description.buckets().buckets());
+    }
+
+    /**
+     * Returns the identifier of the select group spreading traffic of a
+     * segment over its equal-cost next hops.
+     *
+     * @param sid segment identifier
+     * @return group identifier
+     */
+    public static GroupId ecmpGroupId(VlanId sid) {
+        return GroupId.valueOf(ECMP_GROUP_BASE | sid.toShort());
+    }
+
+    /**
+     * Returns the identifier of the fast-failover group protecting the next
+     * hop of a segment with a backup next hop.
+     *
+     * @param sid segment identifier
+     * @return group identifier
+     */
+    public static GroupId failoverGroupId(VlanId sid) {
+        return GroupId.valueOf(FAILOVER_GROUP_BASE | sid.toShort());
+    }
+
+    public GroupId id() {
+        return id;
+    }
+
+    public GroupDescription.Type type() {
+        return type;
+    }
+
+    public List<GroupBucket> buckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the application cookie of the group. The cookie is derived
+     * from the group identifier, which is unique per device.
+     *
+     * @return group key
+     */
+    public GroupKey key() {
+        return new DefaultGroupKey(ByteBuffer.allocate(Integer.BYTES).putInt(id.id()).array());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SrGroup)) {
+            return false;
+        }
+        SrGroup that = (SrGroup) obj;
+        return id.equals(that.id) && type == that.type && buckets.equals(that.buckets);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, type, buckets);
+    }
+
+    @Override
+    public String toString() {
+        return "SrGroup{id=" + id + ", type=" + type + ", buckets=" + buckets.size() + "}";
+    }
+}
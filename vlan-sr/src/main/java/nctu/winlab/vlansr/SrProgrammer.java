@@ -0,0 +1,386 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flowobjective.DefaultForwardingObjective;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.flowobjective.ObjectiveContext;
+import org.onosproject.net.flowobjective.ObjectiveError;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Programs device batches in parallel, one task per device, and tracks the
+ * completion of every objective issued. Groups are installed and confirmed
+ * before the rules pointing at them, and stale groups are removed after
+ * them.
+ */
+public class SrProgrammer {
+
+    private static final long GROUP_TIMEOUT_MILLIS = 5000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ApplicationId appId;
+    private final FlowObjectiveService flowObjectiveService;
+    private final FlowRuleService flowRuleService;
+    private final GroupService groupService;
+    private final Executor executor;
+
+    private final GroupListener groupListener = new InternalGroupListener();
+
+    private final ConcurrentMap<DeviceId, ConcurrentMap<GroupKey, CompletableFuture<Boolean>>> pendingGroups =
+            new ConcurrentHashMap<>();
+
+    public SrProgrammer(ApplicationId appId,
+                        FlowObjectiveService flowObjectiveService,
+                        FlowRuleService flowRuleService,
+                        GroupService groupService,
+                        Executor executor) {
+        this.appId = checkNotNull(appId);
+        this.flowObjectiveService = checkNotNull(flowObjectiveService);
+        this.flowRuleService = checkNotNull(flowRuleService);
+        this.groupService = checkNotNull(groupService);
+        this.executor = checkNotNull(executor);
+    }
+
+    public void activate() {
+        groupService.addListener(groupListener);
+    }
+
+    public void deactivate() {
+        groupService.removeListener(groupListener);
+        pendingGroups.values().forEach(pending -> pending.values().forEach(future -> future.complete(false)));
+    }
+
+    /**
+     * Dispatches each device batch on the executor.
+     *
+     * @param batches   rule changes grouped by device
+     * @param permanent whether added rules are permanent
+     * @param timeout   idle timeout of added rules when not permanent
+     * @return future completed once every objective is installed or failed
+     */
+    public CompletableFuture<ProgrammingStats> program(Collection<DeviceBatch> batches,
+                                                       boolean permanent, int timeout) {
+        List<DeviceBatch> work = batches.stream()
+                .filter(batch -> !batch.isEmpty())
+                .collect(Collectors.toList());
+
+        Run run = new Run(work);
+
+        CompletableFuture<?>[] dispatched = work.stream()
+                .map(batch -> CompletableFuture.runAsync(() -> programDevice(batch, permanent, timeout, run),
+                                                         executor))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(dispatched).whenComplete((result, error) -> run.dispatched());
+
+        return run.future;
+    }
+
+    private void programDevice(DeviceBatch batch, boolean permanent, int timeout, Run run) {
+        try {
+            addGroups(batch);
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to program groups on device {}", batch.deviceId(), e);
+        }
+
+        DeviceRun deviceRun = new DeviceRun(batch, run);
+        for (SrFlow flow : batch.flowsToAdd()) {
+            try {
+                flowObjectiveService.forward(batch.deviceId(),
+                                             objectiveBuilder(flow, permanent, timeout).add(deviceRun));
+            }
+            catch (RuntimeException e) {
+                log.warn("Unable to program {} on device {}", flow, batch.deviceId(), e);
+                deviceRun.done(false);
+            }
+        }
+
+        try {
+            if (!batch.flowsToRemove().isEmpty()) {
+                flowRuleService.removeFlowRules(batch.flowsToRemove().toArray(new FlowRule[0]));
+            }
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to remove stale rules on device {}", batch.deviceId(), e);
+        }
+
+        deviceRun.dispatched();
+    }
+
+    /**
+     * Removes groups no longer referenced, once the rules replacing the ones
+     * pointing at them are installed.
+     */
+    private void removeGroups(DeviceBatch batch) {
+        try {
+            batch.groupsToRemove().forEach(group ->
+                    groupService.removeGroup(batch.deviceId(), group.key(), appId));
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to remove stale groups on device {}", batch.deviceId(), e);
+        }
+    }
+
+    /**
+     * Installs new groups and bucket changes, and waits until the new groups
+     * are confirmed so that rules pointing at them are not rejected.
+     */
+    private void addGroups(DeviceBatch batch) {
+        DeviceId deviceId = batch.deviceId();
+        List<CompletableFuture<Boolean>> added = new ArrayList<>();
+
+        for (SrGroup group : batch.groupsToAdd()) {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            pendingGroups.computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>()).put(group.key(), future);
+            added.add(future);
+
+            groupService.addGroup(new DefaultGroupDescription(deviceId, group.type(),
+                                                              new GroupBuckets(group.buckets()),
+                                                              group.key(), group.id().id(), appId));
+        }
+
+        for (DeviceBatch.GroupUpdate update : batch.groupsToUpdate()) {
+            GroupKey key = update.expected().key();
+            if (update.expected().type() == GroupDescription.Type.FAILOVER) {
+                // Bucket order is the failover priority and added buckets go
+                // last, so the whole list is replaced
+                groupService.setBucketsForGroup(deviceId, key, new GroupBuckets(update.expected().buckets()),
+                                                key, appId);
+                continue;
+            }
+
+            List<GroupBucket> toAdd = new ArrayList<>(update.expected().buckets());
+            toAdd.removeAll(update.installed().buckets());
+            List<GroupBucket> toRemove = new ArrayList<>(update.installed().buckets());
+            toRemove.removeAll(update.expected().buckets());
+
+            if (!toAdd.isEmpty()) {
+                groupService.addBucketsToGroup(deviceId, key, new GroupBuckets(toAdd), key, appId);
+            }
+            if (!toRemove.isEmpty()) {
+                groupService.removeBucketsFromGroup(deviceId, key, new GroupBuckets(toRemove), key, appId);
+            }
+        }
+
+        if (added.isEmpty()) {
+            return;
+        }
+
+        try {
+            CompletableFuture.allOf(added.toArray(new CompletableFuture[0]))
+                    .get(GROUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (added.stream().anyMatch(future -> !future.join())) {
+                log.warn("Some groups failed to install on device {}", deviceId);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException | TimeoutException e) {
+            log.warn("Groups on device {} not confirmed in {}ms", deviceId, GROUP_TIMEOUT_MILLIS);
+        }
+        finally {
+            ConcurrentMap<GroupKey, CompletableFuture<Boolean>> pending = pendingGroups.get(deviceId);
+            if (pending != null) {
+                batch.groupsToAdd().forEach(group -> pending.remove(group.key()));
+            }
+        }
+    }
+
+    private ForwardingObjective.Builder objectiveBuilder(SrFlow flow, boolean permanent, int timeout) {
+        ForwardingObjective.Builder builder = DefaultForwardingObjective.builder()
+                .withSelector(flow.selector())
+                .withTreatment(flow.treatment())
+                .withPriority(flow.priority())
+                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .fromApp(appId);
+
+        if (permanent) {
+            builder.makePermanent();
+        }
+        else {
+            builder.makeTemporary(timeout);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Completion tracking of one programming run. The run completes once
+     * every batch was dispatched and every objective reported back.
+     */
+    private static final class Run {
+        private final CompletableFuture<ProgrammingStats> future = new CompletableFuture<>();
+        private final long start = System.nanoTime();
+        private final int devices;
+        private final int objectives;
+        private final int removals;
+        private final int groupOperations;
+        // One extra count is held until dispatching is over
+        private final AtomicInteger pending;
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long dispatchNanos;
+
+        private Run(List<DeviceBatch> batches) {
+            devices = batches.size();
+            objectives = batches.stream().mapToInt(batch -> batch.flowsToAdd().size()).sum();
+            removals = batches.stream().mapToInt(batch -> batch.flowsToRemove().size()).sum();
+            groupOperations = batches.stream()
+                    .mapToInt(batch -> batch.groupsToAdd().size() + batch.groupsToUpdate().size()
+                            + batch.groupsToRemove().size())
+                    .sum();
+            pending = new AtomicInteger(objectives + 1);
+        }
+
+        private void dispatched() {
+            dispatchNanos = System.nanoTime() - start;
+            done(true);
+        }
+
+        private void done(boolean success) {
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            if (pending.decrementAndGet() == 0) {
+                future.complete(new ProgrammingStats(System.currentTimeMillis(), devices, objectives, removals,
+                                                     groupOperations, failures.get(), dispatchNanos,
+                                                     System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * Completion tracking of the objectives of one device batch. Stale groups
+     * are removed only once every objective of the device succeeded, as the
+     * rules they replace may still point at them until then.
+     */
+    private final class DeviceRun implements ObjectiveContext {
+        private final DeviceBatch batch;
+        private final Run run;
+        // One extra count is held until dispatching is over
+        private final AtomicInteger pending;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private DeviceRun(DeviceBatch batch, Run run) {
+            this.batch = batch;
+            this.run = run;
+            this.pending = new AtomicInteger(batch.flowsToAdd().size() + 1);
+        }
+
+        private void dispatched() {
+            settle(true);
+        }
+
+        private void done(boolean success) {
+            settle(success);
+            run.done(success);
+        }
+
+        private void settle(boolean success) {
+            if (!success) {
+                failed.set(true);
+            }
+            if (pending.decrementAndGet() != 0 || batch.groupsToRemove().isEmpty()) {
+                return;
+            }
+            if (failed.get()) {
+                log.warn("Keeping stale groups on device {} as some objectives failed", batch.deviceId());
+            }
+            else {
+                removeGroups(batch);
+            }
+        }
+
+        @Override
+        public void onSuccess(Objective objective) {
+            done(true);
+        }
+
+        @Override
+        public void onError(Objective objective, ObjectiveError error) {
+            done(false);
+        }
+    }
+
+    private class InternalGroupListener implements GroupListener {
+        @Override
+        public void event(GroupEvent event) {
+            Group group = event.subject();
+            if (group.appId() == null || !group.appId().equals(appId)) {
+                return;
+            }
+
+            ConcurrentMap<GroupKey, CompletableFuture<Boolean>> pending = pendingGroups.get(group.deviceId());
+            if (pending == null) {
+                return;
+            }
+
+            switch (event.type()) {
+                case GROUP_ADDED:
+                    complete(pending, group.appCookie(), true);
+                    break;
+                case GROUP_ADD_FAILED:
+                    complete(pending, group.appCookie(), false);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void complete(ConcurrentMap<GroupKey, CompletableFuture<Boolean>> pending,
+                              GroupKey key, boolean success) {
+            CompletableFuture<Boolean> future = pending.get(key);
+            if (future != null) {
+                future.complete(success);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.DisjointPath;
+import org.onosproject.net.Host;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes the segment routing rules and groups expected on every available
+ * device from the VLAN SR configuration and the current topology and hosts.
+ */
+public class VlanSrCompiler {
+
+    private final DeviceService deviceService;
+    private final HostService hostService;
+    private final TopologyService topologyService;
+
+    public VlanSrCompiler(DeviceService deviceService,
+                          HostService hostService,
+                          TopologyService topologyService) {
+        this.deviceService = checkNotNull(deviceService);
+        this.hostService = checkNotNull(hostService);
+        this.topologyService = checkNotNull(topologyService);
+    }
+
+    /**
+     * Computes the expected rules of each available device.
+     * <p>
+     * Push rules are installed for the aggregated edge subnets of the
+     * snapshot rather than for every configured subnet. Their priority grows
+     * with the prefix length so that the switch resolves overlapping
+     * prefixes by longest match. An edge switch with a subnet nested in the
+     * subnet of another one delivers to its hosts above every push rule, as
+     * the push rule of the covering subnet would otherwise match.
+     * </p>
+     *
+     * @param snapshot VLAN SR configuration
+     * @param priority priority of the rules
+     * @return expected program keyed by device
+     */
+    public Map<DeviceId, DeviceProgram> compile(VlanSrSnapshot snapshot, int priority) {
+        Map<DeviceId, DeviceProgram.Builder> builders = new HashMap<>();
+        Map<DeviceId, Map<VlanSrConfig.VlanSr, NextHop>> edgeNextHops = new HashMap<>();
+        Topology topology = topologyService.currentTopology();
+
+        for (Device device : deviceService.getAvailableDevices()) {
+            builders.put(device.id(), DeviceProgram.builder(device.id()));
+            edgeNextHops.put(device.id(), new IdentityHashMap<>());
+        }
+
+        snapshot.vlanSrs().forEach(vlanSr -> {
+            builders.forEach((deviceId, program) -> {
+                if (vlanSr.deviceId().equals(deviceId)) {
+                    Set<Host> hosts = hostService.getConnectedHosts(deviceId);
+
+                    for (Host host : hosts) {
+                        program.addFlow(popSidFlow(priority, host.location().port(), vlanSr.sid(), host.mac()));
+                        program.addFlow(macForwardFlow(priority, host.location().port(), host.mac()));
+
+                        if (snapshot.isNested(vlanSr)) {
+                            program.addFlow(localDeliveryFlow(priority + Ip4Prefix.MAX_MASK_LENGTH + 1,
+                                                              host.location().port(), host.mac()));
+                        }
+                    }
+                }
+                else {
+                    Set<Path> paths = topologyService.getPaths(topology, deviceId, vlanSr.deviceId());
+
+                    if (paths.isEmpty()) {
+                        return;
+                    }
+
+                    NextHop nextHop = nextHop(program, topology, deviceId, vlanSr, paths);
+
+                    if (vlanSr.isEdgeSwitch()) {
+                        edgeNextHops.get(deviceId).put(vlanSr, nextHop);
+                    }
+
+                    program.addFlow(forwardSidFlow(priority, nextHop, vlanSr.sid()));
+                }
+            });
+        });
+
+        // Push rules toward the local and unreachable edge switches are left
+        // out. A remote prefix covering a local subnet would then take local
+        // traffic, which the local delivery rules above every push rule keep
+        snapshot.aggregatedSubnets().forEach((subnet, vlanSr) -> {
+            edgeNextHops.forEach((deviceId, nextHops) -> {
+                NextHop nextHop = nextHops.get(vlanSr);
+                if (nextHop != null) {
+                    builders.get(deviceId).addFlow(pushSidFlow(priority + subnet.prefixLength(), nextHop,
+                                                               vlanSr.sid(), subnet));
+                }
+            });
+        });
+
+        Map<DeviceId, DeviceProgram> programs = new HashMap<>();
+        builders.forEach((deviceId, builder) -> programs.put(deviceId, builder.build()));
+        return programs;
+    }
+
+    /**
+     * Returns the next hop toward a segment. Traffic is spread over a select
+     * group when the shortest paths leave the device through several ports.
+     * A single next hop is protected by a fast-failover group when a loop-free
+     * link-disjoint backup exists.
+     */
+    private NextHop nextHop(DeviceProgram.Builder program, Topology topology, DeviceId deviceId,
+                            VlanSrConfig.VlanSr vlanSr, Set<Path> paths) {
+        List<PortNumber> ports = paths.stream()
+                .map(path -> path.src().port())
+                .distinct()
+                .sorted(Comparator.comparingLong(PortNumber::toLong))
+                .collect(Collectors.toList());
+
+        if (ports.size() == 1) {
+            PortNumber primary = ports.get(0);
+            int hops = paths.iterator().next().links().size();
+            PortNumber backup = backupPort(topology, deviceId, vlanSr.deviceId(), primary, hops);
+
+            if (backup == null) {
+                return NextHop.port(primary);
+            }
+
+            List<GroupBucket> buckets = new ArrayList<>();
+            buckets.add(DefaultGroupBucket.createFailoverGroupBucket(
+                    DefaultTrafficTreatment.builder().setOutput(primary).build(), primary, null));
+            buckets.add(DefaultGroupBucket.createFailoverGroupBucket(
+                    DefaultTrafficTreatment.builder().setOutput(backup).build(), backup, null));
+
+            SrGroup group = new SrGroup(SrGroup.failoverGroupId(vlanSr.sid()),
+                                        GroupDescription.Type.FAILOVER, buckets);
+            program.addGroup(group);
+
+            return NextHop.group(group.id());
+        }
+
+        List<GroupBucket> buckets = new ArrayList<>();
+        ports.forEach(port -> buckets.add(DefaultGroupBucket.createSelectGroupBucket(
+                DefaultTrafficTreatment.builder().setOutput(port).build())));
+
+        SrGroup group = new SrGroup(SrGroup.ecmpGroupId(vlanSr.sid()), GroupDescription.Type.SELECT, buckets);
+        program.addGroup(group);
+
+        return NextHop.group(group.id());
+    }
+
+    /**
+     * Returns the first hop of a path toward the destination that shares no
+     * link with the primary path. The backup neighbor must itself reach the
+     * destination without coming back through this device, otherwise traffic
+     * would bounce between the two once the primary link fails.
+     */
+    private PortNumber backupPort(Topology topology, DeviceId src, DeviceId dst, PortNumber primary, int hops) {
+        Set<DisjointPath> disjointPaths = topologyService.getDisjointPaths(topology, src, dst);
+
+        for (DisjointPath disjointPath : disjointPaths) {
+            Path backup = disjointPath.backup();
+            if (backup == null || backup.links().isEmpty() || backup.src().port().equals(primary)) {
+                continue;
+            }
+
+            DeviceId neighbor = backup.links().get(0).dst().deviceId();
+            if (distance(topology, neighbor, dst) < 1 + hops) {
+                return backup.src().port();
+            }
+        }
+
+        return null;
+    }
+
+    private int distance(Topology topology, DeviceId src, DeviceId dst) {
+        if (src.equals(dst)) {
+            return 0;
+        }
+
+        Set<Path> paths = topologyService.getPaths(topology, src, dst);
+        if (paths.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+
+        return paths.iterator().next().links().size();
+    }
+
+    private SrFlow forwardSidFlow(int priority, NextHop nextHop, VlanId sid) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchVlanId(sid)
+                .build();
+
+        TrafficTreatment treatment = nextHop.apply(DefaultTrafficTreatment.builder())
+                .build();
+
+        return new SrFlow(priority, selector, treatment);
+    }
+
+    private SrFlow pushSidFlow(int priority, NextHop nextHop, VlanId sid, IpPrefix subnet) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchVlanId(VlanId.NONE)
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .matchIPDst(subnet)
+                .build();
+
+        TrafficTreatment treatment = nextHop.apply(DefaultTrafficTreatment.builder()
+                .pushVlan()
+                .setVlanId(sid))
+                .build();
+
+        return new SrFlow(priority, selector, treatment);
+    }
+
+    private SrFlow popSidFlow(int priority, PortNumber portNumber, VlanId sid, MacAddress dstMac) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchVlanId(sid)
+                .matchEthDst(dstMac)
+                .build();
+
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .popVlan()
+                .setOutput(portNumber)
+                .build();
+
+        return new SrFlow(priority, selector, treatment);
+    }
+
+    private SrFlow macForwardFlow(int priority, PortNumber portNumber, MacAddress dstMac) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchEthDst(dstMac)
+                .build();
+
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .setOutput(portNumber)
+                .build();
+
+        return new SrFlow(priority, selector, treatment);
+    }
+
+    private SrFlow localDeliveryFlow(int priority, PortNumber portNumber, MacAddress dstMac) {
+        TrafficSelector selector = DefaultTrafficSelector.builder()
+                .matchVlanId(VlanId.NONE)
+                .matchEthDst(dstMac)
+                .build();
+
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .setOutput(portNumber)
+                .build();
+
+        return new SrFlow(priority, selector, treatment);
+    }
+
+    /**
+     * Output port or group that carries traffic toward a segment.
+     */
+    private static final class NextHop {
+        private final PortNumber port;
+        private final GroupId group;
+
+        private NextHop(PortNumber port, GroupId group) {
+            this.port = port;
+            this.group = group;
+        }
+
+        static NextHop port(PortNumber port) {
+            return new NextHop(port, null);
+        }
+
+        static NextHop group(GroupId group) {
+            return new NextHop(null, group);
+        }
+
+        TrafficTreatment.Builder apply(TrafficTreatment.Builder builder) {
+            return port != null ? builder.setOutput(port) : builder.group(group);
+        }
+    }
+}
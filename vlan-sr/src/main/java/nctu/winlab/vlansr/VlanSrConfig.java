@@ -16,17 +16,21 @@
 package nctu.winlab.vlansr;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.Sets;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import org.onlab.packet.IpPrefix;
 import org.onlab.packet.VlanId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.net.config.Config;
 import org.onosproject.net.DeviceId;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -39,9 +43,84 @@ public class VlanSrConfig extends Config<ApplicationId> {
     public static final String SID = "sid";
     public static final String ISEDGESWITCH = "isEdgeSwitch";
     public static final String SUBNET = "subnet";
+    public static final String SUBNETS = "subnets";
+    public static final String PERMANENT = "permanent";
+    public static final String RECONCILE_INTERVAL = "reconcileInterval";
+
+    private static final int DEFAULT_RECONCILE_INTERVAL = 30;
+
+    private volatile VlanSrSnapshot snapshot;
+
+    /**
+     * Returns whether segment routing rules are installed permanently and
+     * kept in sync by the reconciler instead of expiring.
+     *
+     * @return true for permanent rules
+     */
+    public boolean permanent() {
+        return get(PERMANENT, false);
+    }
+
+    /**
+     * Returns the reconciliation period in seconds.
+     *
+     * @return reconciliation period
+     */
+    public int reconcileInterval() {
+        return get(RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL);
+    }
+
+    @Override
+    public boolean isValid() {
+        if (!hasOnlyFields(DEVICES, PERMANENT, RECONCILE_INTERVAL)) {
+            return false;
+        }
+
+        JsonNode configNode = object.get(DEVICES);
+        if (configNode != null) {
+            for (JsonNode jsonNode : configNode) {
+                if (!jsonNode.isObject()
+                        || !hasOnlyFields((ObjectNode) jsonNode, DPID, SID, ISEDGESWITCH, SUBNET, SUBNETS)
+                        || !hasFields((ObjectNode) jsonNode, DPID, SID)) {
+                    return false;
+                }
+            }
+        }
+
+        try {
+            snapshot();
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the parsed and validated configuration. The snapshot is cached
+     * on this object only, and the config service builds a new object on
+     * every lookup, so the component keeps the snapshot of the last config
+     * event instead of calling this per use.
+     *
+     * @return configuration snapshot
+     * @throws IllegalArgumentException if the configuration is inconsistent
+     */
+    public VlanSrSnapshot snapshot() {
+        VlanSrSnapshot current = snapshot;
+        if (current == null) {
+            current = new VlanSrSnapshot(parseVlanSrs(), permanent(), reconcileInterval());
+            snapshot = current;
+        }
+        return current;
+    }
 
     public Set<VlanSr> getVlanSrConfig() {
-        Set<VlanSr> config = Sets.newHashSet();
+        return snapshot().vlanSrs();
+    }
+
+    private List<VlanSr> parseVlanSrs() {
+        List<VlanSr> config = Lists.newArrayList();
 
         JsonNode configNode = object.get(DEVICES);
 
@@ -53,19 +132,23 @@ public class VlanSrConfig extends Config<ApplicationId> {
             DeviceId deviceId;
             VlanId sid;
             boolean isEdgeSwitch;
-            Optional<IpPrefix> subnet;
+            List<IpPrefix> subnets = Lists.newArrayList();
+
+            checkArgument(jsonNode.path(DPID).isTextual(), "Missing %s", DPID);
+            checkArgument(jsonNode.path(SID).isInt(), "Missing %s of %s", SID, jsonNode.path(DPID).asText());
 
             deviceId = DeviceId.deviceId(jsonNode.path(DPID).asText());
             sid = VlanId.vlanId((short) jsonNode.path(SID).asInt());
             isEdgeSwitch = jsonNode.path(ISEDGESWITCH).asBoolean();
             if (isEdgeSwitch == true) {
-                subnet = Optional.of(IpPrefix.valueOf(jsonNode.get(SUBNET).asText()));
-            }
-            else {
-                subnet = Optional.empty();
+                if (jsonNode.path(SUBNET).isTextual()) {
+                    subnets.add(IpPrefix.valueOf(jsonNode.get(SUBNET).asText()));
+                }
+                jsonNode.path(SUBNETS).forEach(subnet -> subnets.add(IpPrefix.valueOf(subnet.asText())));
+                checkArgument(!subnets.isEmpty(), "Edge switch %s has no %s", deviceId, SUBNET);
             }
 
-            config.add(new VlanSr(deviceId, sid, isEdgeSwitch, subnet));
+            config.add(new VlanSr(deviceId, sid, isEdgeSwitch, subnets));
         });
 
         return config;
@@ -75,16 +158,24 @@ public class VlanSrConfig extends Config<ApplicationId> {
         private DeviceId deviceId;
         private VlanId sid;
         private boolean isEdgeSwitch;
-        private Optional<IpPrefix> subnet;
+        private List<IpPrefix> subnets;
 
         public VlanSr(DeviceId deviceId,
                             VlanId sid,
                             boolean isEdgeSwitch,
                             Optional<IpPrefix> subnet) {
+            this(deviceId, sid, isEdgeSwitch,
+                 subnet.isPresent() ? ImmutableList.of(subnet.get()) : ImmutableList.of());
+        }
+
+        public VlanSr(DeviceId deviceId,
+                            VlanId sid,
+                            boolean isEdgeSwitch,
+                            List<IpPrefix> subnets) {
             this.deviceId = checkNotNull(deviceId);
             this.sid = checkNotNull(sid);
             this.isEdgeSwitch = checkNotNull(isEdgeSwitch);
-            this.subnet = checkNotNull(subnet);
+            this.subnets = ImmutableList.copyOf(subnets);
         }
 
         public DeviceId deviceId() {
@@ -99,8 +190,17 @@ public class VlanSrConfig extends Config<ApplicationId> {
             return isEdgeSwitch;
         }
 
+        /**
+         * Returns the first subnet of the edge switch.
+         *
+         * @return first subnet, or empty for a transit switch
+         */
         public Optional<IpPrefix> subnet() {
-            return subnet;
+            return subnets.isEmpty() ? Optional.empty() : Optional.of(subnets.get(0));
+        }
+
+        public List<IpPrefix> subnets() {
+            return subnets;
         }
     }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.Map;
+
+/**
+ * Operational state of VLAN-based segment routing.
+ */
+public interface VlanSrService {
+
+    /**
+     * Returns the outcome of the last reconciliation of each device.
+     *
+     * @return reconciliation stats keyed by device
+     */
+    Map<DeviceId, ReconcileStats> reconcileStats();
+
+    /**
+     * Returns the outcome of programming the last configuration change, or
+     * null if no configuration change completed yet.
+     *
+     * @return programming stats of the last configuration push
+     */
+    ProgrammingStats lastConfigPush();
+
+    /**
+     * Returns the rules and groups last computed for each device. The size
+     * of each program is the rule and group footprint of the device.
+     *
+     * @return expected programs keyed by device
+     */
+    Map<DeviceId, DeviceProgram> programs();
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.DeviceId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Immutable, validated view of one version of the VLAN SR configuration,
+ * indexed by device, segment identifier and edge subnet.
+ */
+public final class VlanSrSnapshot {
+
+    private static final VlanSrSnapshot EMPTY =
+            new VlanSrSnapshot(ImmutableList.of(), false, 0);
+
+    private final Set<VlanSrConfig.VlanSr> vlanSrs;
+    private final List<VlanSrConfig.VlanSr> edges;
+    private final Map<DeviceId, VlanSrConfig.VlanSr> byDevice;
+    private final Map<VlanId, VlanSrConfig.VlanSr> bySid;
+    private final Ip4PrefixTrie<VlanSrConfig.VlanSr> bySubnet = new Ip4PrefixTrie<>();
+    private final Map<Ip4Prefix, VlanSrConfig.VlanSr> aggregatedSubnets;
+    private final Set<VlanSrConfig.VlanSr> nestedEdges;
+    private final boolean permanent;
+    private final int reconcileInterval;
+
+    /**
+     * Builds a snapshot, rejecting duplicate devices, duplicate segment
+     * identifiers, duplicate edge subnets and edge switches without subnet.
+     *
+     * @param vlanSrs           VLAN SR entries
+     * @param permanent         whether rules are permanent
+     * @param reconcileInterval reconciliation period in seconds
+     * @throws IllegalArgumentException if the entries are inconsistent
+     */
+    public VlanSrSnapshot(Collection<VlanSrConfig.VlanSr> vlanSrs, boolean permanent, int reconcileInterval) {
+        ImmutableMap.Builder<DeviceId, VlanSrConfig.VlanSr> devices = ImmutableMap.builder();
+        ImmutableMap.Builder<VlanId, VlanSrConfig.VlanSr> sids = ImmutableMap.builder();
+        ImmutableList.Builder<VlanSrConfig.VlanSr> edgeList = ImmutableList.builder();
+
+        for (VlanSrConfig.VlanSr vlanSr : vlanSrs) {
+            devices.put(vlanSr.deviceId(), vlanSr);
+            sids.put(vlanSr.sid(), vlanSr);
+
+            if (vlanSr.isEdgeSwitch()) {
+                checkArgument(!vlanSr.subnets().isEmpty(), "Edge switch %s has no subnet", vlanSr.deviceId());
+
+                for (IpPrefix subnet : vlanSr.subnets()) {
+                    checkArgument(subnet.isIp4(), "Subnet %s of %s is not IPv4", subnet, vlanSr.deviceId());
+
+                    VlanSrConfig.VlanSr previous = bySubnet.put(subnet.getIp4Prefix(), vlanSr);
+                    checkArgument(previous == null, "Subnet %s is configured on %s and %s",
+                                  subnet, previous == null ? null : previous.deviceId(), vlanSr.deviceId());
+                }
+                edgeList.add(vlanSr);
+            }
+        }
+
+        try {
+            this.byDevice = devices.build();
+            this.bySid = sids.build();
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Duplicate device or segment ID: " + e.getMessage(), e);
+        }
+
+        checkArgument(reconcileInterval > 0 || !permanent, "Reconcile interval must be positive");
+
+        ImmutableMap.Builder<Ip4Prefix, VlanSrConfig.VlanSr> aggregated = ImmutableMap.builder();
+        bySubnet.aggregate().forEach(aggregated::put);
+        this.aggregatedSubnets = aggregated.build();
+
+        ImmutableSet.Builder<VlanSrConfig.VlanSr> nested = ImmutableSet.builder();
+        bySubnet.forEach((subnet, vlanSr) -> {
+            for (int length = 0; length < subnet.prefixLength(); length++) {
+                VlanSrConfig.VlanSr covering = bySubnet.get(Ip4Prefix.valueOf(subnet.address(), length));
+                if (covering != null && !covering.equals(vlanSr)) {
+                    nested.add(vlanSr);
+                    break;
+                }
+            }
+        });
+        this.nestedEdges = nested.build();
+
+        this.vlanSrs = ImmutableSet.copyOf(vlanSrs);
+        this.edges = edgeList.build();
+        this.permanent = permanent;
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    public static VlanSrSnapshot empty() {
+        return EMPTY;
+    }
+
+    public Set<VlanSrConfig.VlanSr> vlanSrs() {
+        return vlanSrs;
+    }
+
+    /**
+     * Returns the edge switches, in configuration order.
+     *
+     * @return edge switch entries
+     */
+    public List<VlanSrConfig.VlanSr> edges() {
+        return edges;
+    }
+
+    public VlanSrConfig.VlanSr byDevice(DeviceId deviceId) {
+        return byDevice.get(deviceId);
+    }
+
+    public VlanSrConfig.VlanSr bySid(VlanId sid) {
+        return bySid.get(sid);
+    }
+
+    /**
+     * Returns the edge switch whose subnet is the longest match of the
+     * address.
+     *
+     * @param address destination address
+     * @return edge switch entry, or null if no subnet contains the address
+     */
+    public VlanSrConfig.VlanSr edgeFor(IpAddress address) {
+        if (!address.isIp4()) {
+            return null;
+        }
+        return bySubnet.longestMatch(address.getIp4Address());
+    }
+
+    /**
+     * Returns the number of configured edge subnets.
+     *
+     * @return subnet count
+     */
+    public int subnetCount() {
+        return bySubnet.size();
+    }
+
+    /**
+     * Returns the fewest prefixes that map every address to the same edge
+     * switch as the configured subnets under longest-prefix match. Prefixes
+     * are ordered by address, shorter prefixes first.
+     *
+     * @return aggregated prefixes and their edge switch
+     */
+    public Map<Ip4Prefix, VlanSrConfig.VlanSr> aggregatedSubnets() {
+        return aggregatedSubnets;
+    }
+
+    /**
+     * Returns whether a subnet of the edge switch lies within a subnet of
+     * another edge switch, so that push rules toward the other switch also
+     * match traffic to the local subnet.
+     *
+     * @param edge edge switch entry
+     * @return true if a subnet of the edge switch is nested
+     */
+    public boolean isNested(VlanSrConfig.VlanSr edge) {
+        return nestedEdges.contains(edge);
+    }
+
+    public boolean permanent() {
+        return permanent;
+    }
+
+    public int reconcileInterval() {
+        return reconcileInterval;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.Ip4Prefix;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the IPv4 prefix trie.
+ */
+public class Ip4PrefixTrieTest {
+
+    private static Ip4Prefix prefix(String prefix) {
+        return Ip4Prefix.valueOf(prefix);
+    }
+
+    /**
+     * Tests merging of siblings and pruning of redundant prefixes.
+     */
+    @Test
+    public void aggregate() {
+        Ip4PrefixTrie<String> trie = new Ip4PrefixTrie<>();
+        trie.put(prefix("10.0.0.0/25"), "a");
+        trie.put(prefix("10.0.0.128/25"), "a");
+        trie.put(prefix("10.0.1.0/24"), "a");
+        trie.put(prefix("10.1.0.0/16"), "b");
+        trie.put(prefix("10.1.2.0/24"), "b");
+        trie.put(prefix("10.1.3.0/24"), "c");
+
+        Ip4PrefixTrie<String> aggregated = trie.aggregate();
+
+        assertEquals(3, aggregated.size());
+        assertEquals("a", aggregated.get(prefix("10.0.0.0/23")));
+        assertEquals("b", aggregated.get(prefix("10.1.0.0/16")));
+        assertEquals("c", aggregated.get(prefix("10.1.3.0/24")));
+        assertNull(aggregated.longestMatch(Ip4Address.valueOf("10.0.2.1")));
+    }
+
+    /**
+     * Tests that the aggregated trie answers every lookup like the original
+     * one on randomly generated overlapping prefixes.
+     */
+    @Test
+    public void aggregateIsEquivalent() {
+        Random random = new Random(1);
+        Ip4PrefixTrie<Integer> trie = new Ip4PrefixTrie<>();
+        for (int i = 0; i < 5000; i++) {
+            int length = 16 + random.nextInt(9);
+            trie.put(Ip4Prefix.valueOf(0x0a000000 | (random.nextInt() & 0xffff00), length), random.nextInt(3));
+        }
+
+        Ip4PrefixTrie<Integer> aggregated = trie.aggregate();
+
+        for (int i = 0; i < 100000; i++) {
+            Ip4Address address = Ip4Address.valueOf(0x0a000000 | (random.nextInt() & 0xffffff));
+            assertEquals(trie.longestMatch(address), aggregated.longestMatch(address));
+        }
+        assertTrue(aggregated.size() < trie.size());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.ObjectiveError;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupServiceAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the device programming of rules and groups.
+ */
+public class SrProgrammerTest {
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.vlan-sr");
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final GroupId FAILOVER_ID = GroupId.valueOf(0x20065);
+
+    private final TestGroupService groups = new TestGroupService();
+    private final TestObjectiveService objectives = new TestObjectiveService();
+    private SrProgrammer programmer;
+
+    @Before
+    public void setUp() {
+        programmer = new SrProgrammer(APP_ID, objectives, new FlowRuleServiceAdapter(), groups, Runnable::run);
+        programmer.activate();
+    }
+
+    @After
+    public void tearDown() {
+        programmer.deactivate();
+    }
+
+    private static GroupBucket failover(long port) {
+        PortNumber watch = PortNumber.portNumber(port);
+        return DefaultGroupBucket.createFailoverGroupBucket(
+                DefaultTrafficTreatment.builder().setOutput(watch).build(), watch, null);
+    }
+
+    private static DeviceBatch staleGroupBatch(SrGroup stale) {
+        SrFlow flow = new SrFlow(100, DefaultTrafficSelector.builder().matchInPort(PortNumber.portNumber(1)).build(),
+                                 DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(2)).build());
+        return new DeviceBatch(DEVICE, ImmutableList.of(flow), Collections.emptyList(), Collections.emptyList(),
+                               Collections.emptyList(), ImmutableList.of(stale));
+    }
+
+    /**
+     * Tests that a new primary of a failover group goes first, instead of
+     * after the previous primary.
+     */
+    @Test
+    public void failoverPrimaryChange() throws Exception {
+        SrGroup installed = new SrGroup(FAILOVER_ID, GroupDescription.Type.FAILOVER,
+                                        ImmutableList.of(failover(1), failover(2)));
+        SrGroup expected = new SrGroup(FAILOVER_ID, GroupDescription.Type.FAILOVER,
+                                       ImmutableList.of(failover(3), failover(1)));
+        DeviceBatch batch = new DeviceBatch(DEVICE, Collections.emptyList(), Collections.emptyList(),
+                                            Collections.emptyList(),
+                                            ImmutableList.of(new DeviceBatch.GroupUpdate(installed, expected)),
+                                            Collections.emptyList());
+
+        programmer.program(ImmutableList.of(batch), true, 0).get(5, TimeUnit.SECONDS);
+
+        assertEquals(ImmutableList.of(failover(3), failover(1)), groups.setBuckets);
+        assertTrue(groups.bucketChanges.isEmpty());
+    }
+
+    /**
+     * Tests that stale groups are kept until every objective of the device
+     * succeeded.
+     */
+    @Test
+    public void staleGroupRemovedAfterObjectives() throws Exception {
+        SrGroup stale = new SrGroup(FAILOVER_ID, GroupDescription.Type.FAILOVER,
+                                    ImmutableList.of(failover(1), failover(2)));
+        DeviceBatch batch = staleGroupBatch(stale);
+
+        CompletableFuture<ProgrammingStats> future = programmer.program(ImmutableList.of(batch), true, 0);
+
+        assertFalse(future.isDone());
+        assertTrue(groups.removed.isEmpty());
+
+        objectives.succeedAll();
+
+        assertEquals(0, future.get(5, TimeUnit.SECONDS).failures());
+        assertEquals(ImmutableList.of(stale.key()), groups.removed);
+    }
+
+    /**
+     * Tests that stale groups are kept when an objective of the device failed.
+     */
+    @Test
+    public void staleGroupKeptOnFailure() throws Exception {
+        SrGroup stale = new SrGroup(FAILOVER_ID, GroupDescription.Type.FAILOVER,
+                                    ImmutableList.of(failover(1), failover(2)));
+        DeviceBatch batch = staleGroupBatch(stale);
+
+        CompletableFuture<ProgrammingStats> future = programmer.program(ImmutableList.of(batch), true, 0);
+        objectives.failAll();
+
+        assertEquals(1, future.get(5, TimeUnit.SECONDS).failures());
+        assertTrue(groups.removed.isEmpty());
+    }
+
+    /**
+     * Records the group operations issued.
+     */
+    private static final class TestGroupService extends GroupServiceAdapter {
+        private final List<String> bucketChanges = new ArrayList<>();
+        private final List<GroupKey> removed = new ArrayList<>();
+        private List<GroupBucket> setBuckets = ImmutableList.of();
+
+        @Override
+        public void addBucketsToGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                      GroupKey newCookie, ApplicationId appId) {
+            bucketChanges.add("add " + buckets.buckets());
+        }
+
+        @Override
+        public void removeBucketsFromGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                           GroupKey newCookie, ApplicationId appId) {
+            bucketChanges.add("remove " + buckets.buckets());
+        }
+
+        @Override
+        public void setBucketsForGroup(DeviceId deviceId, GroupKey oldCookie, GroupBuckets buckets,
+                                       GroupKey newCookie, ApplicationId appId) {
+            setBuckets = buckets.buckets();
+        }
+
+        @Override
+        public void removeGroup(DeviceId deviceId, GroupKey appCookie, ApplicationId appId) {
+            removed.add(appCookie);
+        }
+    }
+
+    /**
+     * Records the forwarding objectives issued, leaving them pending until
+     * the test completes them.
+     */
+    private static final class TestObjectiveService extends FlowObjectiveServiceAdapter {
+        private final List<ForwardingObjective> pending = new ArrayList<>();
+
+        @Override
+        public synchronized void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            pending.add(forwardingObjective);
+        }
+
+        private synchronized void succeedAll() {
+            pending.forEach(objective -> objective.context().ifPresent(context -> context.onSuccess(objective)));
+            pending.clear();
+        }
+
+        private synchronized void failAll() {
+            pending.forEach(objective -> objective.context().ifPresent(
+                    context -> context.onError(objective, ObjectiveError.FLOWINSTALLATIONFAILED)));
+            pending.clear();
+        }
+    }
+}
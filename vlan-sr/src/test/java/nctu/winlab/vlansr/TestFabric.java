@@ -0,0 +1,411 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.graph.ScalarWeight;
+import org.onlab.packet.ChassisId;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.DefaultDisjointPath;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.DisjointPath;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.host.HostServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * In-memory fabric backing fake device, host and topology services.
+ */
+public class TestFabric {
+
+    static final ProviderId PID = new ProviderId("of", "nctu.winlab.vlansr.test");
+
+    private final Map<DeviceId, Device> devices = new LinkedHashMap<>();
+    private final Map<DeviceId, List<Link>> egress = new HashMap<>();
+    private final Map<DeviceId, Set<Host>> hosts = new HashMap<>();
+    private final Map<DeviceId, Long> nextPort = new HashMap<>();
+    private final List<DeviceId> edges = new ArrayList<>();
+    private final Map<DeviceId, Map<DeviceId, Integer>> distances = new HashMap<>();
+    private long nextDpid = 1;
+    private long nextMac = 1;
+
+    /**
+     * Builds a two-tier leaf-spine fabric where every leaf connects to every
+     * spine and carries its own /24 subnet of hosts.
+     *
+     * @param spines       number of spine switches
+     * @param leaves       number of leaf switches
+     * @param hostsPerLeaf number of hosts under each leaf
+     * @return fabric
+     */
+    public static TestFabric leafSpine(int spines, int leaves, int hostsPerLeaf) {
+        TestFabric fabric = new TestFabric();
+        List<DeviceId> spineIds = fabric.addDevices(spines);
+        for (DeviceId leaf : fabric.addDevices(leaves)) {
+            spineIds.forEach(spine -> fabric.connect(leaf, spine));
+            fabric.addEdge(leaf, hostsPerLeaf);
+        }
+        return fabric;
+    }
+
+    /**
+     * Builds a three-tier k-ary fat tree: k pods of k/2 edge and k/2
+     * aggregation switches, and (k/2)^2 core switches. Every edge switch
+     * carries its own /24 subnet of hosts.
+     *
+     * @param k            switch radix, even
+     * @param hostsPerEdge number of hosts under each edge switch
+     * @return fabric
+     */
+    public static TestFabric fatTree(int k, int hostsPerEdge) {
+        checkArgument(k > 0 && k % 2 == 0, "Fat tree radix must be even");
+        int half = k / 2;
+
+        TestFabric fabric = new TestFabric();
+        List<DeviceId> cores = fabric.addDevices(half * half);
+        for (int pod = 0; pod < k; pod++) {
+            List<DeviceId> aggregations = fabric.addDevices(half);
+            for (int i = 0; i < half; i++) {
+                for (int j = 0; j < half; j++) {
+                    fabric.connect(aggregations.get(i), cores.get(i * half + j));
+                }
+            }
+            for (DeviceId edge : fabric.addDevices(half)) {
+                aggregations.forEach(aggregation -> fabric.connect(edge, aggregation));
+                fabric.addEdge(edge, hostsPerEdge);
+            }
+        }
+        return fabric;
+    }
+
+    public DeviceId addDevice(long dpid) {
+        DeviceId deviceId = DeviceId.deviceId(String.format("of:%016x", dpid));
+        devices.put(deviceId, new DefaultDevice(PID, deviceId, Device.Type.SWITCH,
+                                                "nctu", "1.0", "1.0", "1", new ChassisId(dpid)));
+        egress.put(deviceId, new ArrayList<>());
+        hosts.put(deviceId, new HashSet<>());
+        nextPort.put(deviceId, 1L);
+        nextDpid = Math.max(nextDpid, dpid + 1);
+        distances.clear();
+        return deviceId;
+    }
+
+    private List<DeviceId> addDevices(int count) {
+        List<DeviceId> deviceIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            deviceIds.add(addDevice(nextDpid));
+        }
+        return deviceIds;
+    }
+
+    /**
+     * Marks a device as edge switch of the next free 10.x.y.0/24 subnet and
+     * attaches hosts to it.
+     */
+    private void addEdge(DeviceId deviceId, int hostCount) {
+        checkArgument(hostCount < 254, "Too many hosts for a /24 subnet");
+        int index = edges.size();
+        edges.add(deviceId);
+        for (int i = 0; i < hostCount; i++) {
+            addHost(deviceId, MacAddress.valueOf(nextMac++),
+                    IpAddress.valueOf(String.format("10.%d.%d.%d", index / 256, index % 256, i + 1)));
+        }
+    }
+
+    /**
+     * Returns the VLAN SR configuration JSON of the fabric: every device gets
+     * a segment ID, and every edge switch announces its host subnet.
+     *
+     * @param mapper JSON object mapper
+     * @return configuration JSON
+     */
+    public ObjectNode vlanSrConfig(ObjectMapper mapper) {
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode array = root.putArray(VlanSrConfig.DEVICES);
+
+        int sid = 101;
+        for (DeviceId deviceId : devices.keySet()) {
+            ObjectNode node = array.addObject()
+                    .put(VlanSrConfig.DPID, deviceId.toString())
+                    .put(VlanSrConfig.SID, sid++);
+            int index = edges.indexOf(deviceId);
+            node.put(VlanSrConfig.ISEDGESWITCH, index >= 0);
+            if (index >= 0) {
+                node.put(VlanSrConfig.SUBNET, String.format("10.%d.%d.0/24", index / 256, index % 256));
+            }
+        }
+        checkArgument(sid <= VlanId.MAX_VLAN, "Too many devices for VLAN segment IDs");
+        return root;
+    }
+
+    /**
+     * Connects two devices with a bidirectional link on fresh ports.
+     *
+     * @param a first device
+     * @param b second device
+     */
+    public void connect(DeviceId a, DeviceId b) {
+        ConnectPoint cpA = new ConnectPoint(a, allocatePort(a));
+        ConnectPoint cpB = new ConnectPoint(b, allocatePort(b));
+        egress.get(a).add(link(cpA, cpB));
+        egress.get(b).add(link(cpB, cpA));
+        distances.clear();
+    }
+
+    /**
+     * Removes both directions of every link between two devices.
+     *
+     * @param a first device
+     * @param b second device
+     */
+    public void disconnect(DeviceId a, DeviceId b) {
+        egress.get(a).removeIf(link -> link.dst().deviceId().equals(b));
+        egress.get(b).removeIf(link -> link.dst().deviceId().equals(a));
+        distances.clear();
+    }
+
+    public Host addHost(DeviceId deviceId, MacAddress mac, IpAddress ip) {
+        HostLocation location = new HostLocation(deviceId, allocatePort(deviceId), 0);
+        Host host = new DefaultHost(PID, HostId.hostId(mac), mac, VlanId.NONE, location, ImmutableSet.of(ip));
+        hosts.get(deviceId).add(host);
+        return host;
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public int linkCount() {
+        return egress.values().stream().mapToInt(List::size).sum();
+    }
+
+    public int hostCount() {
+        return hosts.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public List<DeviceId> edges() {
+        return Collections.unmodifiableList(edges);
+    }
+
+    public DeviceService deviceService() {
+        return new DeviceServiceAdapter() {
+            @Override
+            public Iterable<Device> getDevices() {
+                return Collections.unmodifiableCollection(devices.values());
+            }
+
+            @Override
+            public Iterable<Device> getAvailableDevices() {
+                return Collections.unmodifiableCollection(devices.values());
+            }
+
+            @Override
+            public Device getDevice(DeviceId deviceId) {
+                return devices.get(deviceId);
+            }
+        };
+    }
+
+    public HostService hostService() {
+        return new HostServiceAdapter() {
+            @Override
+            public Set<Host> getConnectedHosts(DeviceId deviceId) {
+                return hosts.getOrDefault(deviceId, Collections.emptySet());
+            }
+        };
+    }
+
+    public TopologyService topologyService() {
+        return new TopologyServiceAdapter() {
+            @Override
+            public Set<Path> getPaths(Topology topology, DeviceId src, DeviceId dst) {
+                return paths(src, dst);
+            }
+
+            @Override
+            public Set<DisjointPath> getDisjointPaths(Topology topology, DeviceId src, DeviceId dst) {
+                return disjointPaths(src, dst);
+            }
+        };
+    }
+
+    /**
+     * Returns one shortest path through each neighbor lying on a shortest
+     * path. The compiler only looks at the first hop of each path, so this
+     * is equivalent to enumerating every equal-cost path.
+     */
+    private Set<Path> paths(DeviceId src, DeviceId dst) {
+        Map<DeviceId, Integer> distance = distances.computeIfAbsent(
+                dst, k -> distancesTo(dst, Collections.emptySet()));
+        Integer hops = distance.get(src);
+        if (src.equals(dst) || hops == null) {
+            return Collections.emptySet();
+        }
+
+        Set<Path> paths = new HashSet<>();
+        for (Link first : egress.get(src)) {
+            Integer next = distance.get(first.dst().deviceId());
+            if (next == null || next != hops - 1) {
+                continue;
+            }
+
+            List<Link> links = new ArrayList<>();
+            links.add(first);
+            DeviceId current = first.dst().deviceId();
+            while (!current.equals(dst)) {
+                int remaining = distance.get(current);
+                for (Link link : egress.get(current)) {
+                    Integer d = distance.get(link.dst().deviceId());
+                    if (d != null && d == remaining - 1) {
+                        links.add(link);
+                        current = link.dst().deviceId();
+                        break;
+                    }
+                }
+            }
+            paths.add(path(links));
+        }
+        return paths;
+    }
+
+    private Set<DisjointPath> disjointPaths(DeviceId src, DeviceId dst) {
+        Set<Path> paths = paths(src, dst);
+        if (paths.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        DefaultPath primary = (DefaultPath) paths.iterator().next();
+        Set<Link> excluded = new HashSet<>();
+        primary.links().forEach(link -> {
+            excluded.add(link);
+            excluded.add(reverse(link));
+        });
+
+        List<Link> backupLinks = shortestPath(src, dst, excluded);
+        if (backupLinks == null) {
+            return ImmutableSet.of(new DefaultDisjointPath(PID, primary));
+        }
+        return ImmutableSet.of(new DefaultDisjointPath(PID, primary, path(backupLinks)));
+    }
+
+    private List<Link> shortestPath(DeviceId src, DeviceId dst, Set<Link> excluded) {
+        Map<DeviceId, Link> via = new HashMap<>();
+        Queue<DeviceId> queue = new ArrayDeque<>();
+        Set<DeviceId> visited = new HashSet<>();
+        queue.add(src);
+        visited.add(src);
+
+        while (!queue.isEmpty()) {
+            DeviceId current = queue.poll();
+            if (current.equals(dst)) {
+                List<Link> links = new ArrayList<>();
+                while (!current.equals(src)) {
+                    Link link = via.get(current);
+                    links.add(0, link);
+                    current = link.src().deviceId();
+                }
+                return links;
+            }
+            for (Link link : egress.get(current)) {
+                DeviceId next = link.dst().deviceId();
+                if (!excluded.contains(link) && visited.add(next)) {
+                    via.put(next, link);
+                    queue.add(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Map<DeviceId, Integer> distancesTo(DeviceId dst, Set<Link> excluded) {
+        Map<DeviceId, Integer> distance = new HashMap<>();
+        Queue<DeviceId> queue = new ArrayDeque<>();
+        distance.put(dst, 0);
+        queue.add(dst);
+
+        while (!queue.isEmpty()) {
+            DeviceId current = queue.poll();
+            for (Link link : egress.get(current)) {
+                // Links are bidirectional, so the reverse of an egress link
+                // leads into the current device
+                DeviceId previous = link.dst().deviceId();
+                if (!excluded.contains(link) && !distance.containsKey(previous)) {
+                    distance.put(previous, distance.get(current) + 1);
+                    queue.add(previous);
+                }
+            }
+        }
+        return distance;
+    }
+
+    private PortNumber allocatePort(DeviceId deviceId) {
+        long port = nextPort.get(deviceId);
+        nextPort.put(deviceId, port + 1);
+        return PortNumber.portNumber(port);
+    }
+
+    private static Link link(ConnectPoint src, ConnectPoint dst) {
+        return DefaultLink.builder()
+                .providerId(PID)
+                .src(src)
+                .dst(dst)
+                .type(Link.Type.DIRECT)
+                .build();
+    }
+
+    private static Link reverse(Link link) {
+        return link(link.dst(), link.src());
+    }
+
+    private static DefaultPath path(List<Link> links) {
+        return new DefaultPath(PID, links, ScalarWeight.toWeight(links.size()));
+    }
+}
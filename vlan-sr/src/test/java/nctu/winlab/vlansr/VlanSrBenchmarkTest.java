@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.config.Config;
+import org.onosproject.net.config.NetworkConfigEvent;
+import org.onosproject.net.config.NetworkConfigListener;
+import org.onosproject.net.config.NetworkConfigRegistryAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.group.DefaultGroup;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupServiceAdapter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Scale benchmark of a full configuration push on generated fabrics.
+ * <p>
+ * Each run activates the application against fake services, delivers the
+ * generated configuration and waits until every objective is acknowledged.
+ * Sizes can be raised with the {@code vlansr.bench.*} system properties, for
+ * example {@code -Dvlansr.bench.leaves=64 -Dvlansr.bench.k=16}. Runs only
+ * with {@code -Dbench=true}.
+ * </p>
+ */
+public class VlanSrBenchmarkTest {
+
+    private static final int RUNS = Integer.getInteger("vlansr.bench.runs", 3);
+    private static final int SPINES = Integer.getInteger("vlansr.bench.spines", 4);
+    private static final int LEAVES = Integer.getInteger("vlansr.bench.leaves", 16);
+    private static final int FAT_TREE_K = Integer.getInteger("vlansr.bench.k", 4);
+    private static final int HOSTS = Integer.getInteger("vlansr.bench.hosts", 4);
+
+    private static final long PUSH_TIMEOUT_MILLIS = 60000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("bench"));
+    }
+
+    @Test
+    public void leafSpine() throws InterruptedException {
+        benchmark(String.format("leaf-spine %dx%d", SPINES, LEAVES),
+                  () -> TestFabric.leafSpine(SPINES, LEAVES, HOSTS));
+    }
+
+    @Test
+    public void fatTree() throws InterruptedException {
+        benchmark(String.format("fat-tree k=%d", FAT_TREE_K),
+                  () -> TestFabric.fatTree(FAT_TREE_K, HOSTS));
+    }
+
+    private void benchmark(String name, Supplier<TestFabric> factory) throws InterruptedException {
+        // The first run warms up the JIT and is not reported
+        run(factory.get());
+
+        for (int i = 0; i < RUNS; i++) {
+            TestFabric fabric = factory.get();
+            Result result = run(fabric);
+            System.out.printf("%s (%d devices, %d links, %d hosts) run %d: %s%n", name, fabric.deviceCount(),
+                              fabric.linkCount(), fabric.hostCount(), i + 1, result);
+        }
+    }
+
+    private Result run(TestFabric fabric) throws InterruptedException {
+        ApplicationId appId = new DefaultApplicationId(1, "nctu.winlab.vlan-sr");
+        TestObjectiveService objectives = new TestObjectiveService();
+        TestGroupService groups = new TestGroupService();
+        TestConfigRegistry configs = new TestConfigRegistry();
+
+        VlanSrConfig config = new VlanSrConfig();
+        config.init(appId, "vlan-sr", fabric.vlanSrConfig(mapper), mapper, applied -> { });
+        configs.config = config;
+
+        AppComponent component = new AppComponent();
+        component.coreService = new CoreServiceAdapter() {
+            @Override
+            public ApplicationId registerApplication(String name) {
+                return appId;
+            }
+        };
+        component.deviceService = fabric.deviceService();
+        component.hostService = fabric.hostService();
+        component.topologyService = fabric.topologyService();
+        component.flowRuleService = new FlowRuleServiceAdapter();
+        component.flowObjectiveService = objectives;
+        component.groupService = groups;
+        component.configService = configs;
+
+        long heapBefore = usedHeap();
+        component.activate();
+        try {
+            long start = System.nanoTime();
+            configs.post(new NetworkConfigEvent(NetworkConfigEvent.Type.CONFIG_ADDED, appId, VlanSrConfig.class));
+
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(PUSH_TIMEOUT_MILLIS);
+            while (component.lastConfigPush() == null && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            long wallNanos = System.nanoTime() - start;
+
+            assertNotNull("Configuration push did not complete", component.lastConfigPush());
+            long expected = component.programs().values().stream().mapToLong(p -> p.flows().size()).sum();
+            assertEquals(expected, objectives.count.get());
+
+            return new Result(wallNanos, objectives.count.get(), groups.count.get(),
+                              usedHeap() - heapBefore, component.lastConfigPush());
+        }
+        finally {
+            component.deactivate();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Result {
+        private final long wallNanos;
+        private final long objectives;
+        private final long groups;
+        private final long retainedBytes;
+        private final ProgrammingStats stats;
+
+        private Result(long wallNanos, long objectives, long groups, long retainedBytes, ProgrammingStats stats) {
+            this.wallNanos = wallNanos;
+            this.objectives = objectives;
+            this.groups = groups;
+            this.retainedBytes = retainedBytes;
+            this.stats = stats;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("wall=%.1fms, objectives=%d, groups=%d, retained=%.1fMB, %s",
+                                 wallNanos / 1e6, objectives, groups, retainedBytes / 1e6, stats);
+        }
+    }
+
+    /**
+     * Acknowledges every objective as soon as it is issued.
+     */
+    private static final class TestObjectiveService extends FlowObjectiveServiceAdapter {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            count.incrementAndGet();
+            forwardingObjective.context().ifPresent(context -> context.onSuccess(forwardingObjective));
+        }
+    }
+
+    /**
+     * Stores groups in memory and confirms each one as soon as it is added.
+     */
+    private static final class TestGroupService extends GroupServiceAdapter {
+        private final AtomicLong count = new AtomicLong();
+        private final Map<DeviceId, Map<GroupKey, Group>> groups = new ConcurrentHashMap<>();
+        private final List<GroupListener> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void addGroup(GroupDescription groupDesc) {
+            count.incrementAndGet();
+            DefaultGroup group = new DefaultGroup(GroupId.valueOf(groupDesc.givenGroupId()), groupDesc);
+            group.setState(Group.GroupState.ADDED);
+            groups.computeIfAbsent(groupDesc.deviceId(), k -> new ConcurrentHashMap<>())
+                    .put(groupDesc.appCookie(), group);
+            listeners.forEach(listener -> listener.event(new GroupEvent(GroupEvent.Type.GROUP_ADDED, group)));
+        }
+
+        @Override
+        public Iterable<Group> getGroups(DeviceId deviceId, ApplicationId appId) {
+            Map<GroupKey, Group> deviceGroups = groups.get(deviceId);
+            return deviceGroups == null ? ImmutableList.of() : ImmutableList.copyOf(deviceGroups.values());
+        }
+
+        @Override
+        public void removeGroup(DeviceId deviceId, GroupKey appCookie, ApplicationId appId) {
+            Map<GroupKey, Group> deviceGroups = groups.get(deviceId);
+            if (deviceGroups != null) {
+                deviceGroups.remove(appCookie);
+            }
+        }
+
+        @Override
+        public void addListener(GroupListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(GroupListener listener) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Serves a single VLAN SR configuration and lets the test post events.
+     */
+    private static final class TestConfigRegistry extends NetworkConfigRegistryAdapter {
+        private final List<NetworkConfigListener> listeners = new CopyOnWriteArrayList<>();
+        private VlanSrConfig config;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <S, C extends Config<S>> C getConfig(S subject, Class<C> configClass) {
+            return configClass == VlanSrConfig.class ? (C) config : null;
+        }
+
+        @Override
+        public void addListener(NetworkConfigListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(NetworkConfigListener listener) {
+            listeners.remove(listener);
+        }
+
+        private void post(NetworkConfigEvent event) {
+            listeners.forEach(listener -> listener.event(event));
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.criteria.VlanIdCriterion;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupServiceAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the VLAN SR rule compiler.
+ */
+public class VlanSrCompilerTest {
+
+    private static final int PRIORITY = 10;
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "nctu.winlab.vlan-sr");
+
+    private static final VlanId SID1 = VlanId.vlanId((short) 101);
+    private static final VlanId SID2 = VlanId.vlanId((short) 102);
+    private static final VlanId SID3 = VlanId.vlanId((short) 103);
+    private static final VlanId SID4 = VlanId.vlanId((short) 104);
+
+    private TestFabric fabric;
+    private DeviceId s1;
+    private DeviceId s2;
+    private DeviceId s3;
+
+    @Before
+    public void setUp() {
+        fabric = new TestFabric();
+        s1 = fabric.addDevice(1);
+        s2 = fabric.addDevice(2);
+        s3 = fabric.addDevice(3);
+    }
+
+    private VlanSrCompiler compiler() {
+        return new VlanSrCompiler(fabric.deviceService(), fabric.hostService(), fabric.topologyService());
+    }
+
+    private static VlanSrConfig.VlanSr edge(DeviceId deviceId, VlanId sid, String subnet) {
+        return new VlanSrConfig.VlanSr(deviceId, sid, true, Optional.of(IpPrefix.valueOf(subnet)));
+    }
+
+    private static VlanSrConfig.VlanSr transit(DeviceId deviceId, VlanId sid) {
+        return new VlanSrConfig.VlanSr(deviceId, sid, false, Optional.empty());
+    }
+
+    private static VlanSrSnapshot snapshot(VlanSrConfig.VlanSr... vlanSrs) {
+        return new VlanSrSnapshot(ImmutableList.copyOf(vlanSrs), false, 30);
+    }
+
+    private static SrGroup group(DeviceProgram program, GroupDescription.Type type) {
+        return program.groups().stream()
+                .filter(group -> group.type() == type)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Tests that a segment reachable over several equal-cost next hops is
+     * forwarded through a select group spanning all of them.
+     */
+    @Test
+    public void ecmpSelectGroup() {
+        DeviceId s4 = fabric.addDevice(4);
+        fabric.connect(s1, s2);
+        fabric.connect(s2, s3);
+        fabric.connect(s3, s4);
+        fabric.connect(s4, s1);
+
+        VlanSrSnapshot config = snapshot(
+                edge(s1, SID1, "10.0.1.0/24"), transit(s2, SID2),
+                edge(s3, SID3, "10.0.3.0/24"), transit(s4, SID4));
+
+        DeviceProgram program = compiler().compile(config, PRIORITY).get(s1);
+
+        SrGroup ecmp = group(program, GroupDescription.Type.SELECT);
+        assertEquals(SrGroup.ecmpGroupId(SID3), ecmp.id());
+        assertEquals(2, ecmp.buckets().size());
+    }
+
+    /**
+     * Tests that a single next hop with a loop-free link-disjoint alternative
+     * is protected by a fast-failover group.
+     */
+    @Test
+    public void failoverGroup() {
+        fabric.connect(s1, s2);
+        fabric.connect(s2, s3);
+        fabric.connect(s3, s1);
+
+        VlanSrSnapshot config = snapshot(
+                edge(s1, SID1, "10.0.1.0/24"), edge(s2, SID2, "10.0.2.0/24"), transit(s3, SID3));
+
+        DeviceProgram program = compiler().compile(config, PRIORITY).get(s1);
+
+        assertEquals(2, program.groups().size());
+        program.groups().forEach(group -> {
+            assertEquals(GroupDescription.Type.FAILOVER, group.type());
+            assertEquals(2, group.buckets().size());
+        });
+        assertTrue(program.groups().stream().anyMatch(group -> group.id().equals(SrGroup.failoverGroupId(SID2))));
+    }
+
+    /**
+     * Tests that a backup which would send traffic straight back is rejected.
+     */
+    @Test
+    public void noLoopingBackup() {
+        DeviceId s4 = fabric.addDevice(4);
+        fabric.connect(s1, s2);
+        fabric.connect(s2, s3);
+        fabric.connect(s3, s4);
+        fabric.connect(s4, s1);
+
+        VlanSrSnapshot config = snapshot(transit(s2, SID2));
+
+        DeviceProgram program = compiler().compile(config, PRIORITY).get(s1);
+
+        assertTrue(program.groups().isEmpty());
+    }
+
+    /**
+     * Simulates a link failure and programs the difference between the
+     * expected state before and after it, checking the operations issued
+     * and that programming completes without waiting on any timeout.
+     */
+    @Test
+    public void linkFailureReprogramming() throws Exception {
+        fabric.connect(s1, s2);
+        fabric.connect(s2, s3);
+        fabric.connect(s3, s1);
+        fabric.addHost(s1, MacAddress.valueOf("00:00:00:00:00:01"), IpAddress.valueOf("10.0.1.1"));
+        fabric.addHost(s2, MacAddress.valueOf("00:00:00:00:00:02"), IpAddress.valueOf("10.0.2.1"));
+
+        VlanSrSnapshot config = snapshot(
+                edge(s1, SID1, "10.0.1.0/24"), edge(s2, SID2, "10.0.2.0/24"), transit(s3, SID3));
+
+        Map<DeviceId, DeviceProgram> before = compiler().compile(config, PRIORITY);
+
+        fabric.disconnect(s1, s2);
+        Map<DeviceId, DeviceProgram> after = compiler().compile(config, PRIORITY);
+
+        // The triangle is now a line, so no device keeps a backup next hop
+        after.values().forEach(program -> assertTrue(program.groups().isEmpty()));
+
+        List<DeviceBatch> batches = new ArrayList<>();
+        int added = 0;
+        int removed = 0;
+        int staleGroups = 0;
+        for (DeviceId deviceId : before.keySet()) {
+            DeviceBatch batch = batch(before.get(deviceId), after.get(deviceId));
+            added += batch.flowsToAdd().size();
+            removed += batch.flowsToRemove().size();
+            staleGroups += batch.groupsToRemove().size();
+            batches.add(batch);
+        }
+        assertTrue(added > 0);
+        assertTrue(staleGroups > 0);
+
+        CountingObjectiveService objectives = new CountingObjectiveService();
+        CountingFlowRuleService rules = new CountingFlowRuleService();
+        CountingGroupService groups = new CountingGroupService();
+        SrProgrammer programmer = new SrProgrammer(APP_ID, objectives, rules, groups, Runnable::run);
+        programmer.activate();
+        try {
+            long start = System.nanoTime();
+            ProgrammingStats stats = programmer.program(batches, true, 0).get(5, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(added, objectives.count.get());
+            assertEquals(removed, rules.count.get());
+            assertEquals(staleGroups, groups.removed.get());
+            assertEquals(added, stats.objectives());
+            assertEquals(removed, stats.removals());
+            assertEquals(0, stats.failures());
+            assertTrue(stats.latencyNanos() <= elapsed);
+            // Nothing waits on a group confirmation
+            assertTrue(elapsed < TimeUnit.SECONDS.toNanos(1));
+        }
+        finally {
+            programmer.deactivate();
+        }
+    }
+
+    /**
+     * Returns the changes bringing a device from one expected program to
+     * another.
+     */
+    private static DeviceBatch batch(DeviceProgram installed, DeviceProgram expected) {
+        List<SrFlow> toAdd = new ArrayList<>(Sets.difference(expected.flows(), installed.flows()));
+        List<FlowRule> toRemove = Sets.difference(installed.flows(), expected.flows()).stream()
+                .map(flow -> (FlowRule) DefaultFlowRule.builder()
+                        .forDevice(installed.deviceId())
+                        .withSelector(flow.selector())
+                        .withTreatment(flow.treatment())
+                        .withPriority(flow.priority())
+                        .fromApp(APP_ID)
+                        .makePermanent()
+                        .build())
+                .collect(Collectors.toList());
+
+        Map<GroupId, SrGroup> installedGroups = new HashMap<>();
+        installed.groups().forEach(group -> installedGroups.put(group.id(), group));
+        List<SrGroup> groupsToAdd = new ArrayList<>();
+        List<DeviceBatch.GroupUpdate> groupsToUpdate = new ArrayList<>();
+        for (SrGroup group : expected.groups()) {
+            SrGroup previous = installedGroups.remove(group.id());
+            if (previous == null) {
+                groupsToAdd.add(group);
+            }
+            else if (!previous.equals(group)) {
+                groupsToUpdate.add(new DeviceBatch.GroupUpdate(previous, group));
+            }
+        }
+
+        return new DeviceBatch(installed.deviceId(), toAdd, toRemove, groupsToAdd, groupsToUpdate,
+                               installedGroups.values());
+    }
+
+    /**
+     * Tests that hosts of a subnet nested in the subnet of another edge
+     * switch are delivered above the push rule of the covering subnet.
+     */
+    @Test
+    public void nestedLocalSubnet() {
+        fabric.connect(s1, s2);
+        MacAddress local = MacAddress.valueOf("00:00:00:00:00:01");
+        fabric.addHost(s1, local, IpAddress.valueOf("10.0.1.1"));
+        fabric.addHost(s2, MacAddress.valueOf("00:00:00:00:00:02"), IpAddress.valueOf("10.0.2.1"));
+
+        VlanSrSnapshot config = snapshot(edge(s1, SID1, "10.0.1.0/24"), edge(s2, SID2, "10.0.0.0/16"));
+        Map<DeviceId, DeviceProgram> programs = compiler().compile(config, PRIORITY);
+
+        int pushPriority = programs.get(s1).flows().stream()
+                .filter(flow -> flow.selector().getCriterion(Criterion.Type.IPV4_DST) != null)
+                .mapToInt(SrFlow::priority)
+                .max()
+                .getAsInt();
+        assertEquals(PRIORITY + 16, pushPriority);
+
+        List<SrFlow> above = programs.get(s1).flows().stream()
+                .filter(flow -> flow.priority() > pushPriority)
+                .collect(Collectors.toList());
+        assertEquals(1, above.size());
+        assertEquals(local, ((EthCriterion) above.get(0).selector().getCriterion(Criterion.Type.ETH_DST)).mac());
+        assertEquals(VlanId.NONE,
+                     ((VlanIdCriterion) above.get(0).selector().getCriterion(Criterion.Type.VLAN_VID)).vlanId());
+
+        // The covering switch keeps resolving by longest match
+        assertTrue(programs.get(s2).flows().stream()
+                           .allMatch(flow -> flow.priority() <= PRIORITY + Ip4Prefix.MAX_MASK_LENGTH));
+    }
+
+    /**
+     * Tests that the push rules of an ingress device for thousands of edge
+     * subnets are aggregated into the fewest prefixes.
+     */
+    @Test
+    public void pushRuleAggregation() {
+        fabric.connect(s1, s2);
+        fabric.connect(s2, s3);
+
+        // 4096 /24 subnets in blocks of 64 alternating between s2 and s3,
+        // with a hole every 1000 subnets
+        List<IpPrefix> subnets2 = new ArrayList<>();
+        List<IpPrefix> subnets3 = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            if (i % 1000 == 999) {
+                continue;
+            }
+            IpPrefix subnet = IpPrefix.valueOf(String.format("10.%d.%d.0/24", i / 256, i % 256));
+            ((i / 64) % 2 == 0 ? subnets2 : subnets3).add(subnet);
+        }
+
+        VlanSrSnapshot config = new VlanSrSnapshot(ImmutableList.of(
+                transit(s1, SID1),
+                new VlanSrConfig.VlanSr(s2, SID2, true, subnets2),
+                new VlanSrConfig.VlanSr(s3, SID3, true, subnets3)), false, 30);
+
+        DeviceProgram program = compiler().compile(config, PRIORITY).get(s1);
+        long pushRules = program.flows().stream()
+                .filter(flow -> flow.selector().getCriterion(Criterion.Type.IPV4_DST) != null)
+                .count();
+
+        // Each full block becomes one /18, and each block with a hole the
+        // six prefixes from /19 to /24 covering its 63 subnets
+        assertEquals(4092, config.subnetCount());
+        assertEquals(60 + 4 * 6, pushRules);
+        assertEquals(config.aggregatedSubnets().size(), pushRules);
+    }
+
+    /**
+     * Counts the objectives issued and acknowledges each one at once.
+     */
+    private static final class CountingObjectiveService extends FlowObjectiveServiceAdapter {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            count.incrementAndGet();
+            forwardingObjective.context().ifPresent(context -> context.onSuccess(forwardingObjective));
+        }
+    }
+
+    /**
+     * Counts the rules removed.
+     */
+    private static final class CountingFlowRuleService extends FlowRuleServiceAdapter {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void removeFlowRules(FlowRule... flowRules) {
+            count.addAndGet(flowRules.length);
+        }
+    }
+
+    /**
+     * Counts the groups removed.
+     */
+    private static final class CountingGroupService extends GroupServiceAdapter {
+        private final AtomicInteger removed = new AtomicInteger();
+
+        @Override
+        public void removeGroup(DeviceId deviceId, GroupKey appCookie, ApplicationId appId) {
+            removed.incrementAndGet();
+        }
+    }
+}
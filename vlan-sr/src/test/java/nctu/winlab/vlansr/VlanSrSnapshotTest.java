@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nctu.winlab.vlansr;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.VlanId;
+import org.onosproject.net.DeviceId;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Set of tests of the VLAN SR configuration snapshot.
+ */
+public class VlanSrSnapshotTest {
+
+    private static final DeviceId S1 = DeviceId.deviceId("of:0000000000000001");
+    private static final DeviceId S2 = DeviceId.deviceId("of:0000000000000002");
+    private static final DeviceId S3 = DeviceId.deviceId("of:0000000000000003");
+
+    private static VlanSrConfig.VlanSr edge(DeviceId deviceId, int sid, String subnet) {
+        return new VlanSrConfig.VlanSr(deviceId, VlanId.vlanId((short) sid), true,
+                                       Optional.of(IpPrefix.valueOf(subnet)));
+    }
+
+    /**
+     * Tests lookups by device, segment ID and longest matching subnet.
+     */
+    @Test
+    public void lookups() {
+        VlanSrSnapshot snapshot = new VlanSrSnapshot(ImmutableList.of(
+                edge(S1, 101, "10.0.0.0/16"), edge(S2, 102, "10.0.2.0/24")), false, 30);
+
+        assertEquals(S2, snapshot.bySid(VlanId.vlanId((short) 102)).deviceId());
+        assertEquals(101, snapshot.byDevice(S1).sid().toShort());
+        assertEquals(S2, snapshot.edgeFor(IpAddress.valueOf("10.0.2.7")).deviceId());
+        assertEquals(S1, snapshot.edgeFor(IpAddress.valueOf("10.0.3.7")).deviceId());
+        assertNull(snapshot.edgeFor(IpAddress.valueOf("10.1.0.1")));
+        assertEquals(2, snapshot.edges().size());
+        assertTrue(snapshot.isNested(snapshot.byDevice(S2)));
+        assertFalse(snapshot.isNested(snapshot.byDevice(S1)));
+    }
+
+    /**
+     * Tests that two devices sharing a segment ID are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateSid() {
+        new VlanSrSnapshot(ImmutableList.of(
+                edge(S1, 101, "10.0.1.0/24"), edge(S2, 101, "10.0.2.0/24")), false, 30);
+    }
+
+    /**
+     * Tests that a subnet announced by two edge switches is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateSubnet() {
+        new VlanSrSnapshot(ImmutableList.of(
+                edge(S1, 101, "10.0.1.0/24"), edge(S3, 103, "10.0.1.0/24")), false, 30);
+    }
+}